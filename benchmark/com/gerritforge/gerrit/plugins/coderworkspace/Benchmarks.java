@@ -0,0 +1,46 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks and writes the results as JSON, so runs from different releases can be
+ * compared (e.g. with jmh.morethan.io or a script diffing the primary metric scores).
+ *
+ * <p>Accepts the usual JMH options; {@code -rf} and {@code -rff} override the defaults. A relative
+ * result file resolves against the directory {@code bazel run} was started from.
+ */
+public final class Benchmarks {
+  static final String DEFAULT_RESULT_FILE = "coder-workspace-benchmarks.json";
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cli = new CommandLineOptions(args);
+    if (cli.shouldHelp()) {
+      cli.showHelp();
+      return;
+    }
+    if (cli.shouldList()) {
+      new Runner(cli).list();
+      return;
+    }
+    ChainedOptionsBuilder opts = new OptionsBuilder().parent(cli);
+    if (!cli.getResultFormat().hasValue()) {
+      opts.resultFormat(ResultFormatType.JSON);
+    }
+    opts.result(resultFile(cli.getResult().orElse(DEFAULT_RESULT_FILE)).toString());
+    new Runner(opts.build()).run();
+  }
+
+  private static Path resultFile(String name) {
+    Path path = Paths.get(name);
+    String cwd = System.getenv("BUILD_WORKING_DIRECTORY");
+    return path.isAbsolute() || cwd == null ? path : Paths.get(cwd).resolve(path);
+  }
+
+  private Benchmarks() {}
+}
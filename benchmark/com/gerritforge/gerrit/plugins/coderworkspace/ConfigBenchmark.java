@@ -0,0 +1,142 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.json.OutputFormat;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gson.Gson;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serving the plugin configuration: parsing gerrit.config, the REST view, JSON serialization, and
+ * the per-change template resolution and name rendering that follow it.
+ *
+ * <p>{@code mappings} and {@code alternates} size the templateMappingsJson and
+ * alternateNameTemplates sections; the larger values match big multi-tenant servers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigBenchmark {
+  private static final String PLUGIN = "coder-workspace";
+
+  @Param({"10", "500"})
+  public int mappings;
+
+  @Param({"2", "20"})
+  public int alternates;
+
+  private PluginConfig pluginConfig;
+  private ConfigSnapshot snapshot;
+  private GetConfig getConfig;
+  private Gson gson;
+  private NameContext ctx;
+  private String repo;
+  private String branch;
+
+  @Setup
+  public void setUp() {
+    Config cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", "https://coder.example.com");
+    cfg.setString("plugin", PLUGIN, "templateId", "tpl-default");
+    cfg.setString("plugin", PLUGIN, "templateMappingsJson", mappingsJson(mappings));
+    cfg.setString("plugin", PLUGIN, "alternateNameTemplatesJson", alternatesJson(alternates));
+    pluginConfig = PluginConfig.createFromGerritConfig(PLUGIN, cfg);
+    snapshot = ConfigSnapshot.parse(pluginConfig);
+    ConfigSnapshot fixed = snapshot;
+    getConfig =
+        new GetConfig(
+            new ConfigSnapshotCache(null, PLUGIN) {
+              @Override
+              public ConfigSnapshot get() {
+                return fixed;
+              }
+            },
+            new CoderMetrics(new DisabledMetricMaker()));
+    gson = OutputFormat.JSON_COMPACT.newGson();
+    // Matches one of the last globbed mappings, the worst case for a linear scan
+    repo = "team" + (mappings - 1) + "/services/api";
+    branch = "refs/heads/release/2024.10";
+    ctx = NameContext.of(repo, branch, "123456", "7");
+  }
+
+  @Benchmark
+  public ConfigSnapshot parseSnapshot() {
+    return ConfigSnapshot.parse(pluginConfig);
+  }
+
+  @Benchmark
+  public Response<ConfigInfo> getConfig() {
+    return getConfig.apply(null);
+  }
+
+  @Benchmark
+  public String serializeConfigInfo() {
+    return gson.toJson(snapshot.info());
+  }
+
+  @Benchmark
+  public TemplateInfo resolveTemplate() {
+    return snapshot.resolveTemplate(repo, branch);
+  }
+
+  @Benchmark
+  public List<String> resolveAndRenderNames() {
+    return snapshot.candidateNames(snapshot.resolveTemplate(repo, branch), ctx);
+  }
+
+  /** Exact repos, prefix globs and infix globs in equal parts, each with a few rich params. */
+  private static String mappingsJson(int n) {
+    List<String> entries = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      String repo;
+      switch (i % 3) {
+        case 0:
+          repo = "team" + i + "/exact-repo";
+          break;
+        case 1:
+          repo = "team" + i + "/*";
+          break;
+        default:
+          repo = "team" + i + "/*/api";
+          break;
+      }
+      entries.add(
+          "{\"repo\":\""
+              + repo
+              + "\",\"branch\":\"refs/heads/release/*\",\"templateId\":\"tpl-"
+              + i
+              + "\",\"workspaceNameTemplate\":\"{repo}-{change}-{patchset}\",\"richParams\":["
+              + "{\"name\":\"REPO\",\"from\":\"repo\"},"
+              + "{\"name\":\"BRANCH\",\"from\":\"branch\"},"
+              + "{\"name\":\"CHANGE\",\"from\":\"change\"},"
+              + "{\"name\":\"PATCHSET\",\"from\":\"patchset\"}]}");
+    }
+    return "[" + String.join(",", entries) + "]";
+  }
+
+  private static String alternatesJson(int n) {
+    List<String> templates = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      templates.add("\"{repo}.{branchShort}-" + i + "\"");
+    }
+    return "[" + String.join(",", templates) + "]";
+  }
+}
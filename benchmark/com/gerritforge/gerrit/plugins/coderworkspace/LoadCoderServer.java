@@ -0,0 +1,413 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process Coder API for load tests, with configurable latency and injected failures.
+ *
+ * <p>Unlike the test fake it keeps no request log, so it can serve millions of requests. Latency,
+ * jitter and failures are drawn from a random generator seeded with the run's seed, the request
+ * and how often that request was seen before; the same workload therefore meets the same faults
+ * whatever the thread interleaving. Workspace apps report their URL {@link Settings#readyAfterMs}
+ * after the workspace was created or started.
+ */
+class LoadCoderServer implements AutoCloseable {
+  private static final Gson GSON = new Gson();
+  private static final String APP_URI = "https://coder.example.com/@me/%s/apps/code/";
+
+  /** Behavior of the fake; fields are read on every request. */
+  static class Settings {
+    long seed = 42;
+    /** Session token requests must carry; others are answered 401. */
+    String token = "load-test-token";
+    long latencyMs = 20;
+    /** Up to this much is added to {@link #latencyMs}, uniformly distributed. */
+    long jitterMs = 10;
+    long readyAfterMs = 500;
+    /** Share of requests answered 503. */
+    double errorRate;
+    /** Share of requests answered 401, as when a session token expires. */
+    double unauthorizedRate;
+    /** Share of creates answered 409, as for a name taken by a workspace the token cannot see. */
+    double conflictRate;
+  }
+
+  private static class Workspace {
+    final String id = UUID.randomUUID().toString();
+    final String owner;
+    final String templateId;
+    volatile String name;
+    volatile String transition = "start";
+    volatile long readyAt;
+    volatile boolean deleted;
+
+    Workspace(String owner, String name, String templateId, long readyAt) {
+      this.owner = owner;
+      this.name = name;
+      this.templateId = templateId;
+      this.readyAt = readyAt;
+    }
+
+    boolean isReady() {
+      return "start".equals(transition) && System.nanoTime() >= readyAt;
+    }
+
+    WorkspaceInfo info() {
+      WorkspaceInfo ws = new WorkspaceInfo();
+      ws.id = id;
+      ws.name = name;
+      ws.ownerName = owner;
+      ws.templateId = templateId;
+      ws.latestBuild = new WorkspaceInfo.Build();
+      ws.latestBuild.id = id + "-" + transition;
+      ws.latestBuild.transition = transition;
+      ws.latestBuild.status = "succeeded";
+      if (isReady()) {
+        ws.latestAppStatus = new WorkspaceInfo.AppStatus();
+        ws.latestAppStatus.state = "idle";
+        ws.latestAppStatus.uri = String.format(APP_URI, name);
+      }
+      return ws;
+    }
+  }
+
+  final Settings settings;
+
+  private final Map<String, Workspace> byName = new ConcurrentHashMap<>();
+  private final Map<String, Workspace> byId = new ConcurrentHashMap<>();
+  private final Map<String, AtomicInteger> seen = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> routes = new ConcurrentHashMap<>();
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  LoadCoderServer(Settings settings) throws IOException {
+    this.settings = settings;
+    executor = Executors.newVirtualThreadPerTaskExecutor();
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+    server.createContext("/api/v2/", this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  String url() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  /** Requests received per route, e.g. {@code GET /workspaces/{id}}. */
+  Map<String, Long> routes() {
+    Map<String, Long> counts = new TreeMap<>();
+    routes.forEach((route, n) -> counts.put(route, n.sum()));
+    return counts;
+  }
+
+  /** Workspaces that exist now. */
+  int workspaces() {
+    return byId.size();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange ex) throws IOException {
+    try {
+      String method = ex.getRequestMethod();
+      String path = ex.getRequestURI().getRawPath();
+      String[] seg = path.substring("/api/v2/".length()).split("/");
+      for (int i = 0; i < seg.length; i++) {
+        seg[i] = URLDecoder.decode(seg[i], StandardCharsets.UTF_8);
+      }
+      String route = route(method, seg);
+      routes.computeIfAbsent(route, r -> new LongAdder()).increment();
+
+      String key = method + " " + path;
+      int attempt = seen.computeIfAbsent(key, k -> new AtomicInteger()).getAndIncrement();
+      SplittableRandom random =
+          new SplittableRandom((settings.seed * 31 + key.hashCode()) * 31 + attempt);
+      long delay = settings.latencyMs;
+      if (settings.jitterMs > 0) {
+        delay += random.nextLong(settings.jitterMs + 1);
+      }
+      // Drawn up front so every request consumes the same random numbers
+      double fault = random.nextDouble();
+      double conflict = random.nextDouble();
+      if (delay > 0 && !route.endsWith("/watch")) {
+        Thread.sleep(delay);
+      }
+
+      if (!settings.token.equals(ex.getRequestHeaders().getFirst(CoderHttp.SESSION_TOKEN_HEADER))
+          || fault < settings.unauthorizedRate) {
+        send(ex, 401, error("You must be logged in to access this resource."));
+      } else if (fault < settings.unauthorizedRate + settings.errorRate) {
+        send(ex, 503, error("Injected failure"));
+      } else {
+        serve(ex, route, seg, conflict < settings.conflictRate);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      // Client went away
+    } finally {
+      ex.close();
+    }
+  }
+
+  private void serve(HttpExchange ex, String route, String[] seg, boolean conflict)
+      throws IOException, InterruptedException {
+    switch (route) {
+      case "GET /buildinfo":
+        send(ex, 200, Collections.singletonMap("version", "v2.20.0"));
+        return;
+      case "GET /templates/{id}":
+        send(ex, 200, Collections.singletonMap("active_version_id", seg[1] + "-v1"));
+        return;
+      case "GET /templateversions/{id}/rich-parameters":
+        send(ex, 200, Collections.emptyList());
+        return;
+      case "GET /users/{owner}/workspace/{name}":
+        {
+          Workspace ws = byName.get(seg[3]);
+          if (ws == null) {
+            send(ex, 404, error("Resource not found"));
+          } else {
+            send(ex, 200, ws.info());
+          }
+          return;
+        }
+      case "GET /users/{owner}/workspaces":
+      case "GET /organizations/{org}/members/{owner}/workspaces":
+        send(ex, 405, error("Method not allowed"));
+        return;
+      case "POST /users/{owner}/workspaces":
+      case "POST /organizations/{org}/members/{owner}/workspaces":
+        {
+          CreateWorkspaceRequest req = GSON.fromJson(body(ex), CreateWorkspaceRequest.class);
+          String owner = seg[0].equals("users") ? seg[1] : seg[3];
+          Workspace ws = new Workspace(owner, req.name, req.templateId, readyAt());
+          if (conflict || byName.putIfAbsent(req.name, ws) != null) {
+            send(ex, 409, error("workspace already exists"));
+            return;
+          }
+          byId.put(ws.id, ws);
+          send(ex, 201, ws.info());
+          return;
+        }
+      case "GET /workspaces":
+        send(ex, 200, list(query(ex, "q"), query(ex, "limit")));
+        return;
+      case "GET /workspaces/{id}":
+        {
+          Workspace ws = byId.get(seg[1]);
+          if (ws == null) {
+            send(ex, 404, error("Resource not found"));
+          } else {
+            send(ex, 200, ws.info());
+          }
+          return;
+        }
+      case "PATCH /workspaces/{id}":
+        {
+          Workspace ws = byId.get(seg[1]);
+          String name = GSON.fromJson(body(ex), JsonObject.class).get("name").getAsString();
+          if (ws == null) {
+            send(ex, 404, error("Resource not found"));
+          } else if (byName.putIfAbsent(name, ws) != null) {
+            send(ex, 409, error("workspace already exists"));
+          } else {
+            byName.remove(ws.name, ws);
+            ws.name = name;
+            ex.sendResponseHeaders(204, -1);
+          }
+          return;
+        }
+      case "DELETE /workspaces/{id}":
+        {
+          Workspace ws = remove(seg[1]);
+          if (ws == null) {
+            send(ex, 404, error("Resource not found"));
+          } else {
+            send(ex, 200, ws.info());
+          }
+          return;
+        }
+      case "GET /workspaces/{id}/builds":
+        if (byId.containsKey(seg[1])) {
+          send(ex, 200, new Object[0]);
+        } else {
+          send(ex, 404, error("Resource not found"));
+        }
+        return;
+      case "POST /workspaces/{id}/builds":
+        {
+          String transition =
+              GSON.fromJson(body(ex), JsonObject.class).get("transition").getAsString();
+          Workspace ws = "delete".equals(transition) ? remove(seg[1]) : byId.get(seg[1]);
+          if (ws == null) {
+            send(ex, 404, error("Resource not found"));
+            return;
+          }
+          if (!"delete".equals(transition)) {
+            ws.transition = transition;
+            ws.readyAt = readyAt();
+          }
+          JsonObject build = new JsonObject();
+          build.addProperty("transition", transition);
+          send(ex, 201, build);
+          return;
+        }
+      case "GET /workspaces/{id}/watch":
+        watch(ex, seg[1]);
+        return;
+      default:
+        send(ex, 404, error("Route not found."));
+    }
+  }
+
+  /** Server-sent events with the workspace state: now, and once its app is ready. */
+  private void watch(HttpExchange ex, String id) throws IOException, InterruptedException {
+    Workspace ws = byId.get(id);
+    if (ws == null) {
+      send(ex, 404, error("Resource not found"));
+      return;
+    }
+    ex.getResponseHeaders().set("Content-Type", "text/event-stream");
+    ex.sendResponseHeaders(200, 0);
+    try (OutputStream out = ex.getResponseBody()) {
+      for (; ; ) {
+        WorkspaceInfo info = ws.info();
+        out.write(
+            ("event: data\ndata: " + GSON.toJson(info) + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        if (info.latestAppStatus != null) {
+          return;
+        }
+        // Wake up now and then to notice deletes
+        long left = ws.readyAt - System.nanoTime();
+        do {
+          TimeUnit.NANOSECONDS.sleep(Math.min(left, TimeUnit.MILLISECONDS.toNanos(250)));
+          if (ws.deleted) {
+            return;
+          }
+          left = ws.readyAt - System.nanoTime();
+        } while (left > 0);
+      }
+    }
+  }
+
+  private Workspace remove(String id) {
+    Workspace ws = byId.remove(id);
+    if (ws != null) {
+      ws.deleted = true;
+      byName.remove(ws.name, ws);
+    }
+    return ws;
+  }
+
+  private long readyAt() {
+    return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.readyAfterMs);
+  }
+
+  /** Applies the name: (substring) filter of the Coder search syntax. */
+  private JsonObject list(String q, String limit) {
+    String name = null;
+    for (String term : (q == null ? "" : q).split(" ")) {
+      if (term.startsWith("name:")) {
+        name = term.substring("name:".length());
+      }
+    }
+    int max = limit == null ? Integer.MAX_VALUE : Integer.parseInt(limit);
+    List<WorkspaceInfo> list = new ArrayList<>();
+    for (Workspace ws : byId.values()) {
+      if (list.size() >= max) {
+        break;
+      }
+      if (name == null || ws.name.contains(name)) {
+        list.add(ws.info());
+      }
+    }
+    JsonObject res = new JsonObject();
+    res.add("workspaces", GSON.toJsonTree(list));
+    res.addProperty("count", list.size());
+    return res;
+  }
+
+  /** Path pattern of a request, used to count requests per route. */
+  private static String route(String method, String[] seg) {
+    String route;
+    if (seg.length == 4 && seg[0].equals("users") && seg[2].equals("workspace")) {
+      route = "/users/{owner}/workspace/{name}";
+    } else if (seg.length == 3 && seg[0].equals("users") && seg[2].equals("workspaces")) {
+      route = "/users/{owner}/workspaces";
+    } else if (seg.length == 5 && seg[0].equals("organizations") && seg[4].equals("workspaces")) {
+      route = "/organizations/{org}/members/{owner}/workspaces";
+    } else if (seg.length == 2 && seg[0].equals("workspaces")) {
+      route = "/workspaces/{id}";
+    } else if (seg.length == 3 && seg[0].equals("workspaces")) {
+      route = "/workspaces/{id}/" + seg[2];
+    } else if (seg.length == 2 && seg[0].equals("templates")) {
+      route = "/templates/{id}";
+    } else if (seg.length == 3 && seg[0].equals("templateversions")) {
+      route = "/templateversions/{id}/" + seg[2];
+    } else {
+      route = "/" + String.join("/", seg);
+    }
+    return method + " " + route;
+  }
+
+  private static String query(HttpExchange ex, String param) {
+    String raw = ex.getRequestURI().getRawQuery();
+    if (raw == null) {
+      return null;
+    }
+    for (String pair : raw.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq > 0 && pair.substring(0, eq).equals(param)) {
+        return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+      }
+    }
+    return null;
+  }
+
+  private static String body(HttpExchange ex) throws IOException {
+    try (InputStream in = ex.getRequestBody()) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static Map<String, String> error(String message) {
+    return Collections.singletonMap("message", message);
+  }
+
+  private static void send(HttpExchange ex, int status, Object body) throws IOException {
+    byte[] bytes = GSON.toJson(body).getBytes(StandardCharsets.UTF_8);
+    ex.getResponseHeaders().set("Content-Type", "application/json");
+    ex.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = ex.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,475 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.PatchSet;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.MethodNotAllowedException;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.UrlFormatter;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Load test of the server proxy: many reviewers opening workspaces at once, against an in-process
+ * {@link LoadCoderServer}.
+ *
+ * <p>Every reviewer runs {@code --sessions} sessions, each on a change of its own: look the
+ * workspace up (404), create it, wait for its app with {@code wait-ms}, and delete it. Each step
+ * goes through the REST view Gerrit would call ({@link GetWorkspace}, {@link CreateWorkspace},
+ * {@link DeleteWorkspace}), wired as the plugin's modules wire them; only the revision resources
+ * are mocks. Nothing leaves the JVM.
+ *
+ * <p>Reports per phase the calls, throughput, latency percentiles and response statuses, plus the
+ * Coder requests per route, on stdout and as JSON. Changes, patchsets and injected faults derive
+ * from {@code --seed}, so runs with the same options can be compared.
+ */
+public final class LoadTest implements AutoCloseable {
+  static final String PLUGIN = "coder-workspace";
+  static final String DEFAULT_RESULT_FILE = "coder-workspace-loadtest.json";
+  static final int PROJECTS = 20;
+  static final int MAX_PATCHSET = 5;
+
+  private static final String USAGE =
+      String.join(
+          "\n",
+          "Options (--name=value):",
+          "  --reviewers=500          reviewers working at the same time",
+          "  --sessions=4             create/delete sessions per reviewer",
+          "  --http-threads=0         Gerrit HTTP threads serving them; 0: one per reviewer",
+          "  --wait-ms=10000          wait-ms of the readiness call",
+          "  --latency-ms=20          Coder response time",
+          "  --jitter-ms=10           added to latency-ms, uniformly distributed",
+          "  --ready-after-ms=500     time from create until the workspace app is ready",
+          "  --error-rate=0           share of Coder requests answered 503",
+          "  --unauthorized-rate=0    share of Coder requests answered 401",
+          "  --conflict-rate=0        share of Coder creates answered 409",
+          "  --seed=42                seed for the workload and the injected faults",
+          "  --set=name=value         plugin setting, e.g. --set=maxProxyRequests=64; repeatable",
+          "  --result-file=" + DEFAULT_RESULT_FILE);
+
+  /** Command line options. */
+  static class Options {
+    int reviewers = 500;
+    int sessions = 4;
+    int httpThreads;
+    long waitMs = 10_000;
+    String resultFile = DEFAULT_RESULT_FILE;
+    final LoadCoderServer.Settings coder = new LoadCoderServer.Settings();
+    /** Plugin settings overriding the harness defaults. */
+    final Map<String, String> plugin = new LinkedHashMap<>();
+
+    static Options parse(String[] args) {
+      Options o = new Options();
+      for (String arg : args) {
+        int eq = arg.indexOf('=');
+        if (!arg.startsWith("--") || eq < 0) {
+          throw new IllegalArgumentException("Expected --name=value: " + arg);
+        }
+        String value = arg.substring(eq + 1);
+        switch (arg.substring(2, eq)) {
+          case "reviewers":
+            o.reviewers = Integer.parseInt(value);
+            break;
+          case "sessions":
+            o.sessions = Integer.parseInt(value);
+            break;
+          case "http-threads":
+            o.httpThreads = Integer.parseInt(value);
+            break;
+          case "wait-ms":
+            o.waitMs = Long.parseLong(value);
+            break;
+          case "latency-ms":
+            o.coder.latencyMs = Long.parseLong(value);
+            break;
+          case "jitter-ms":
+            o.coder.jitterMs = Long.parseLong(value);
+            break;
+          case "ready-after-ms":
+            o.coder.readyAfterMs = Long.parseLong(value);
+            break;
+          case "error-rate":
+            o.coder.errorRate = Double.parseDouble(value);
+            break;
+          case "unauthorized-rate":
+            o.coder.unauthorizedRate = Double.parseDouble(value);
+            break;
+          case "conflict-rate":
+            o.coder.conflictRate = Double.parseDouble(value);
+            break;
+          case "seed":
+            o.coder.seed = Long.parseLong(value);
+            break;
+          case "set":
+            int sep = value.indexOf('=');
+            if (sep <= 0) {
+              throw new IllegalArgumentException("Expected --set=name=value: " + arg);
+            }
+            o.plugin.put(value.substring(0, sep), value.substring(sep + 1));
+            break;
+          case "result-file":
+            o.resultFile = value;
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+      }
+      if (o.reviewers < 1 || o.sessions < 1 || o.httpThreads < 0) {
+        throw new IllegalArgumentException("reviewers and sessions must be positive");
+      }
+      return o;
+    }
+  }
+
+  /** Latencies and response statuses of one step of the session. */
+  private static class Phase {
+    final String name;
+    final ConcurrentLinkedQueue<Long> nanos = new ConcurrentLinkedQueue<>();
+    final Map<String, LongAdder> statuses = new ConcurrentHashMap<>();
+
+    Phase(String name) {
+      this.name = name;
+    }
+
+    void record(long elapsed, String status) {
+      nanos.add(elapsed);
+      statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+    }
+
+    Map<String, Object> report(long wallNanos) {
+      long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+      Map<String, Object> r = new LinkedHashMap<>();
+      r.put("calls", sorted.length);
+      r.put("throughputPerSecond", round(sorted.length / (wallNanos / 1e9)));
+      r.put("p50Ms", millis(percentile(sorted, 50)));
+      r.put("p95Ms", millis(percentile(sorted, 95)));
+      r.put("p99Ms", millis(percentile(sorted, 99)));
+      r.put("maxMs", millis(sorted.length == 0 ? 0 : sorted[sorted.length - 1]));
+      Map<String, Long> s = new TreeMap<>();
+      statuses.forEach((status, n) -> s.put(status, n.sum()));
+      r.put("statuses", s);
+      return r;
+    }
+  }
+
+  private final Options opts;
+  private final LoadCoderServer coder;
+  private final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(4);
+  private final WorkspaceService workspaces;
+  private final ReadinessWatcher readiness;
+  private final UpstreamExecutor upstream;
+  private final CoderCapabilities capabilities;
+  private final OpenTraces traces;
+  private final Phase lookup = new Phase("lookup");
+  private final Phase create = new Phase("create");
+  private final Phase ready = new Phase("readiness");
+  private final Phase delete = new Phase("delete");
+
+  public static void main(String[] args) throws Exception {
+    if (Arrays.asList(args).contains("--help")) {
+      System.out.println(USAGE);
+      return;
+    }
+    Options opts = Options.parse(args);
+    Map<String, Object> report;
+    try (LoadTest test = new LoadTest(opts)) {
+      report = test.run();
+    }
+    Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    Path out = resultFile(opts.resultFile);
+    try (Writer w = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+      gson.toJson(report, w);
+    }
+    System.out.println("Results written to " + out);
+  }
+
+  /** Wires the plugin classes by hand, as the plugin's Guice modules would. */
+  LoadTest(Options opts) throws Exception {
+    this.opts = opts;
+    coder = new LoadCoderServer(opts.coder);
+    Config cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    cfg.setString("plugin", PLUGIN, "apiKey", opts.coder.token);
+    cfg.setBoolean("plugin", PLUGIN, "useServerProxy", true);
+    cfg.setString("plugin", PLUGIN, "templateId", "tpl-load");
+    opts.plugin.forEach((name, value) -> cfg.setString("plugin", PLUGIN, name, value));
+    ConfigSnapshot snapshot =
+        ConfigSnapshot.parse(PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    ConfigSnapshotCache snapshots =
+        new ConfigSnapshotCache(null, PLUGIN) {
+          @Override
+          public ConfigSnapshot get() {
+            return snapshot;
+          }
+        };
+    WorkQueue workQueue = mock(WorkQueue.class);
+    when(workQueue.getDefaultQueue()).thenReturn(scheduler);
+
+    CoderMetrics metrics = new CoderMetrics(new DisabledMetricMaker());
+    CoderLimiter limiter = new CoderLimiter(snapshots, metrics);
+    CoderHttp http =
+        new CoderHttp(snapshots, metrics, limiter, new CircuitBreakers(snapshots, metrics));
+    capabilities = new CoderCapabilities(http, workQueue);
+    CoderClient client = new CoderClient(http, capabilities);
+    CacheInvalidation invalidation = new CacheInvalidation(snapshots, PLUGIN, workQueue, null);
+    WorkspaceLookup lookups =
+        new WorkspaceLookup(
+            CacheBuilder.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(30))
+                .build(new WorkspaceLookup.Loader(client)),
+            metrics,
+            invalidation);
+    WorkspaceIds ids = new WorkspaceIds(CacheBuilder.newBuilder().build(), invalidation);
+    upstream = new UpstreamExecutor(snapshots, limiter);
+    WorkspacePool pool = new WorkspacePool(snapshots, client, upstream, workQueue, metrics);
+    TemplateVersions templates =
+        new TemplateVersions(
+            snapshots,
+            CacheBuilder.newBuilder()
+                .refreshAfterWrite(Duration.ofMinutes(1))
+                .build(new TemplateVersions.ActiveVersionLoader(client, upstream)),
+            CacheBuilder.newBuilder().build(new TemplateVersions.SchemaLoader(client)),
+            upstream);
+    UrlFormatter urls = () -> Optional.of("https://gerrit.example.com/");
+    workspaces =
+        new WorkspaceService(
+            snapshots,
+            client,
+            lookups,
+            ids,
+            DynamicItem.itemOf(UrlFormatter.class, urls),
+            metrics,
+            limiter,
+            pool,
+            templates);
+    readiness = new ReadinessWatcher(http, workQueue, metrics);
+    traces = new OpenTraces(snapshots, metrics);
+
+    capabilities.start();
+    upstream.start();
+    templates.start();
+    readiness.start();
+  }
+
+  /** Runs all sessions and returns the report. */
+  Map<String, Object> run() throws Exception {
+    int threads = opts.httpThreads > 0 ? opts.httpThreads : opts.reviewers;
+    ExecutorService http = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> reviewers = new ArrayList<>(opts.reviewers);
+    for (int i = 0; i < opts.reviewers; i++) {
+      int reviewer = i;
+      reviewers.add(
+          http.submit(
+              () -> {
+                start.await();
+                review(reviewer);
+                return null;
+              }));
+    }
+    long begin = System.nanoTime();
+    start.countDown();
+    for (Future<?> f : reviewers) {
+      f.get();
+    }
+    long wall = System.nanoTime() - begin;
+    http.shutdown();
+
+    Map<String, Object> report = new LinkedHashMap<>();
+    Map<String, Object> options = new LinkedHashMap<>();
+    options.put("reviewers", opts.reviewers);
+    options.put("sessions", opts.sessions);
+    options.put("httpThreads", threads);
+    options.put("waitMs", opts.waitMs);
+    options.put("coder", opts.coder);
+    options.put("plugin", opts.plugin);
+    report.put("options", options);
+    report.put("wallMs", millis(wall));
+    report.put("sessionsPerSecond", round(opts.reviewers * opts.sessions / (wall / 1e9)));
+    Map<String, Map<String, Object>> phases = new LinkedHashMap<>();
+    for (Phase p : Arrays.asList(lookup, create, ready, delete)) {
+      phases.put(p.name, p.report(wall));
+    }
+    report.put("phases", phases);
+    report.put("coderRequests", coder.routes());
+    report.put("workspacesLeft", coder.workspaces());
+    print(wall, phases);
+    return report;
+  }
+
+  @Override
+  public void close() {
+    readiness.stop();
+    upstream.stop();
+    capabilities.stop();
+    scheduler.shutdownNow();
+    coder.close();
+  }
+
+  /** Sessions of one reviewer, one after the other. */
+  private void review(int reviewer) {
+    SplittableRandom random = new SplittableRandom(opts.coder.seed * 31 + reviewer);
+    IdentifiedUser user = mock(IdentifiedUser.class, withSettings().stubOnly());
+    when(user.isIdentifiedUser()).thenReturn(true);
+    when(user.getUserName()).thenReturn(Optional.of("reviewer-" + reviewer));
+    for (int s = 0; s < opts.sessions; s++) {
+      RevisionResource rsrc =
+          revision(
+              user,
+              BranchNameKey.create(
+                  Project.nameKey("project-" + random.nextInt(PROJECTS)), "refs/heads/main"),
+              Change.id(1 + reviewer * opts.sessions + s),
+              1 + random.nextInt(MAX_PATCHSET));
+
+      time(lookup, () -> get(0).apply(rsrc));
+      time(create, () -> new CreateWorkspace(workspaces, upstream, traces).apply(rsrc, null));
+      time(ready, () -> get(opts.waitMs).apply(rsrc));
+      time(delete, () -> new DeleteWorkspace(workspaces, upstream).apply(rsrc, null));
+    }
+  }
+
+  private interface View {
+    Response<?> apply() throws RestApiException;
+  }
+
+  private void time(Phase phase, View view) {
+    long start = System.nanoTime();
+    String status;
+    try {
+      Response<?> res = view.apply();
+      status = Integer.toString(res.statusCode());
+      if (phase == ready
+          && res.value() instanceof WorkspaceInfo
+          && !ReadinessWatcher.isReady((WorkspaceInfo) res.value())) {
+        status += " not ready";
+      }
+    } catch (RestApiException e) {
+      status = Integer.toString(statusCode(e));
+    } catch (RuntimeException e) {
+      status = e.getClass().getSimpleName();
+    }
+    phase.record(System.nanoTime() - start, status);
+  }
+
+  private GetWorkspace get(long waitMs) {
+    GetWorkspace view = new GetWorkspace(workspaces, readiness, upstream, traces);
+    view.setWaitMs(waitMs);
+    return view;
+  }
+
+  private static RevisionResource revision(
+      IdentifiedUser user, BranchNameKey dest, Change.Id id, int patchset) {
+    Change change = mock(Change.class, withSettings().stubOnly());
+    when(change.getDest()).thenReturn(dest);
+    when(change.getId()).thenReturn(id);
+    PatchSet ps = mock(PatchSet.class, withSettings().stubOnly());
+    when(ps.number()).thenReturn(patchset);
+    RevisionResource rsrc =
+        mock(RevisionResource.class, withSettings().stubOnly());
+    when(rsrc.getUser()).thenReturn(user);
+    when(rsrc.getChange()).thenReturn(change);
+    when(rsrc.getPatchSet()).thenReturn(ps);
+    return rsrc;
+  }
+
+  /** The status Gerrit answers an exception with. */
+  private static int statusCode(RestApiException e) {
+    if (e instanceof BadRequestException) {
+      return 400;
+    } else if (e instanceof AuthException) {
+      return 403;
+    } else if (e instanceof ResourceNotFoundException) {
+      return 404;
+    } else if (e instanceof MethodNotAllowedException) {
+      return 405;
+    } else if (e instanceof ResourceConflictException) {
+      return 409;
+    }
+    return 500;
+  }
+
+  private void print(long wall, Map<String, Map<String, Object>> phases) {
+    System.out.printf("%d sessions in %.1f s%n", opts.reviewers * opts.sessions, wall / 1e9);
+    System.out.printf(
+        "%-10s %8s %9s %9s %9s %9s %9s  %s%n",
+        "phase", "calls", "calls/s", "p50 ms", "p95 ms", "p99 ms", "max ms", "statuses");
+    phases.forEach(
+        (name, p) ->
+            System.out.printf(
+                "%-10s %8d %9.1f %9.1f %9.1f %9.1f %9.1f  %s%n",
+                name,
+                p.get("calls"),
+                p.get("throughputPerSecond"),
+                p.get("p50Ms"),
+                p.get("p95Ms"),
+                p.get("p99Ms"),
+                p.get("maxMs"),
+                p.get("statuses")));
+    System.out.println("Coder requests: " + coder.routes());
+  }
+
+  /** Nearest-rank percentile of sorted values. */
+  static long percentile(long[] sorted, double p) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(p / 100 * sorted.length);
+    return sorted[Math.max(0, rank - 1)];
+  }
+
+  private static double millis(long nanos) {
+    return round(nanos / 1e6);
+  }
+
+  private static double round(double v) {
+    return Math.round(v * 10) / 10.0;
+  }
+
+  /** As for the benchmarks, relative files resolve against where {@code bazel run} started. */
+  private static Path resultFile(String name) {
+    Path path = Paths.get(name);
+    String cwd = System.getenv("BUILD_WORKING_DIRECTORY");
+    return path.isAbsolute() || cwd == null ? path : Paths.get(cwd).resolve(path);
+  }
+}
@@ -0,0 +1,43 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Workspace name rendering: precompiled templates vs. compiling on every call. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameTemplateBenchmark {
+  private static final String TEMPLATE = "{repo}-{change}-{patchset}.{branchShort}";
+
+  private NameTemplate compiled;
+  private NameContext ctx;
+
+  @Setup
+  public void setUp() {
+    compiled = NameTemplate.compile(TEMPLATE);
+    ctx = NameContext.of("platform/Frameworks/Base", "release/2024.10", "123456", "7");
+  }
+
+  @Benchmark
+  public String renderPrecompiled() {
+    return compiled.render(ctx);
+  }
+
+  @Benchmark
+  public String compileAndRender() {
+    return NameTemplate.compile(TEMPLATE).render(ctx);
+  }
+}
@@ -0,0 +1,42 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves {@code /plugins/coder-workspace/bootstrap-<hash>.js} (see {@link ConfigBootstrap}).
+ *
+ * <p>The current hash is cached for a year; any other hash, e.g. from a page loaded before a
+ * config reload, gets the current script without caching.
+ */
+@Singleton
+public class BootstrapServlet extends HttpServlet {
+  private static final long serialVersionUID = 1L;
+
+  static final String CACHE_FOREVER = "public, max-age=31536000, immutable";
+
+  private final transient ConfigBootstrap bootstrap;
+
+  @Inject
+  BootstrapServlet(ConfigBootstrap bootstrap) {
+    this.bootstrap = bootstrap;
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    ConfigBootstrap.Script script = bootstrap.script();
+    if (req.getRequestURI().endsWith("/" + script.path())) {
+      res.setHeader("Cache-Control", CACHE_FOREVER);
+    } else {
+      res.setHeader("Cache-Control", "no-cache");
+    }
+    res.setContentType("application/javascript");
+    res.setCharacterEncoding("UTF-8");
+    res.setContentLength(script.content.length);
+    res.getOutputStream().write(script.content);
+  }
+}
@@ -0,0 +1,288 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.Multimap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.server.config.ConfigUpdatedEvent;
+import com.google.gerrit.server.config.ConfigUpdatedEvent.ConfigUpdateEntry;
+import com.google.gerrit.server.config.ConfigUpdatedEvent.UpdateResult;
+import com.google.gerrit.server.config.GerritConfigListener;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.EventDispatcher;
+import com.google.gerrit.server.events.EventListener;
+import com.google.gerrit.server.events.EventTypes;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the plugin's caches coherent across the nodes of a multi-primary Gerrit.
+ *
+ * <p>Caches report their changes through {@link #publish}; changes are collected for {@code
+ * invalidationIntervalMs} and sent to the other nodes as one {@link InvalidationBatch}, later
+ * changes of the same entry replacing earlier ones. The {@link InvalidationTransport} is chosen by
+ * {@code cacheInvalidation} (read at plugin start): {@code directory} uses files in the shared
+ * {@code invalidationDirectory}, {@code events} uses Gerrit's event stream, and {@code none} (the
+ * default) keeps every change local to the node.
+ *
+ * <p>Received entries go to the handler each cache {@link #register registered}, which applies
+ * them locally without publishing them again. Gerrit events are visible to every stream-events
+ * client, so over {@code events} keys are sent as hashes and without values: other nodes drop the
+ * matching entries but do not learn new ones.
+ */
+@Singleton
+public class CacheInvalidation implements LifecycleListener, EventListener, GerritConfigListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String CONFIG = "config";
+
+  /** Applies a change received from another node to the local cache. */
+  public interface Handler {
+    void apply(List<String> key, @Nullable String value);
+  }
+
+  private final ConfigSnapshotCache snapshots;
+  private final String pluginName;
+  private final WorkQueue workQueue;
+  private final DynamicItem<EventDispatcher> dispatcher;
+  private final String node = UUID.randomUUID().toString();
+  private final Map<String, Registration> handlers = new ConcurrentHashMap<>();
+  // Guarded by this; keyed by cache name followed by the entry key
+  private final Map<List<String>, InvalidationBatch.Entry> pending = new LinkedHashMap<>();
+  private volatile InvalidationTransport transport;
+  private ScheduledFuture<?> task;
+
+  @Inject
+  CacheInvalidation(
+      ConfigSnapshotCache snapshots,
+      @PluginName String pluginName,
+      WorkQueue workQueue,
+      DynamicItem<EventDispatcher> dispatcher) {
+    this.snapshots = snapshots;
+    this.pluginName = pluginName;
+    this.workQueue = workQueue;
+    this.dispatcher = dispatcher;
+    register(CONFIG, (key, value) -> snapshots.invalidate(), () -> List.of(List.of()));
+  }
+
+  /**
+   * Routes received changes of {@code cache} to {@code handler}.
+   *
+   * @param keys keys of the local entries, for matching the hashed keys of visible transports
+   */
+  public void register(String cache, Handler handler, Supplier<List<List<String>>> keys) {
+    handlers.put(cache, new Registration(handler, keys));
+  }
+
+  /**
+   * Queues a change of a cache entry for the other nodes.
+   *
+   * @param value the new value, or null if the entry was dropped
+   */
+  public void publish(String cache, List<String> key, @Nullable String value) {
+    if (transport == null) {
+      return;
+    }
+    List<String> id = new ArrayList<>(key.size() + 1);
+    id.add(cache);
+    id.addAll(key);
+    synchronized (this) {
+      pending.remove(id);
+      pending.put(id, new InvalidationBatch.Entry(cache, key, value));
+    }
+  }
+
+  @Override
+  public void start() {
+    EventTypes.register(InvalidationBatch.TYPE, InvalidationBatch.class);
+    ServerSettings settings = snapshots.get().server();
+    try {
+      transport = transport(settings);
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log(
+          "Cannot use %s for cache invalidation; caches stay local to this node",
+          settings.invalidationDirectory);
+    }
+    if (transport == null) {
+      logger.atWarning().log(
+          "cacheInvalidation = none: caches stay local to this node; on a multi-primary Gerrit set"
+              + " it to directory or events");
+    } else {
+      long interval = settings.invalidationIntervalMs;
+      task =
+          workQueue
+              .getDefaultQueue()
+              .scheduleWithFixedDelay(this::exchange, interval, interval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (task != null) {
+      task.cancel(false);
+      task = null;
+    }
+    InvalidationTransport t = transport;
+    if (t != null) {
+      flush(t);
+      transport = null;
+      t.close();
+    }
+  }
+
+  @Override
+  public void onEvent(Event event) {
+    if (event instanceof InvalidationBatch batch) {
+      receive(batch);
+    }
+  }
+
+  @Override
+  public Multimap<UpdateResult, ConfigUpdateEntry> configUpdated(ConfigUpdatedEvent event) {
+    // ConfigSnapshotCache accepts the update locally; the other nodes re-read their own config
+    if (!ConfigSnapshotCache.updatedKeys(event, pluginName).isEmpty()) {
+      publish(CONFIG, List.of(), null);
+    }
+    return ConfigUpdatedEvent.NO_UPDATES;
+  }
+
+  /** Sends pending changes and applies the batches received since the last exchange. */
+  void exchange() {
+    InvalidationTransport t = transport;
+    if (t == null) {
+      return;
+    }
+    flush(t);
+    try {
+      for (InvalidationBatch batch : t.poll()) {
+        receive(batch);
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("Cannot read cache invalidations");
+    }
+  }
+
+  private void flush(InvalidationTransport t) {
+    List<InvalidationBatch.Entry> entries;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        return;
+      }
+      entries = new ArrayList<>(pending.values());
+      pending.clear();
+    }
+    InvalidationBatch batch;
+    if (t.visible()) {
+      List<InvalidationBatch.Entry> hashed = new ArrayList<>(entries.size());
+      for (InvalidationBatch.Entry e : entries) {
+        hashed.add(new InvalidationBatch.Entry(e.cache, List.of(hash(e.key)), null));
+      }
+      batch = new InvalidationBatch(node, hashed);
+      batch.hashed = true;
+    } else {
+      batch = new InvalidationBatch(node, entries);
+    }
+    try {
+      t.publish(batch);
+    } catch (IOException | RuntimeException e) {
+      // Entries without a value only go stale until the cache expires them
+      logger.atWarning().withCause(e).log(
+          "Cannot send %d cache invalidations to other nodes", entries.size());
+    }
+  }
+
+  private void receive(InvalidationBatch batch) {
+    if (node.equals(batch.node) || batch.entries == null) {
+      return;
+    }
+    if (batch.hashed) {
+      receiveHashed(batch);
+      return;
+    }
+    for (InvalidationBatch.Entry e : batch.entries) {
+      Registration r = handlers.get(e.cache);
+      if (r == null) {
+        logger.atFine().log("Ignoring invalidation of unknown cache %s", e.cache);
+        continue;
+      }
+      apply(r, e.cache, e.key == null ? List.of() : e.key, e.value);
+    }
+  }
+
+  /** Drops the local entries whose keys hash to the received ones. */
+  private void receiveHashed(InvalidationBatch batch) {
+    Map<String, Set<String>> hashes = new LinkedHashMap<>();
+    for (InvalidationBatch.Entry e : batch.entries) {
+      if (e.key != null && e.key.size() == 1) {
+        hashes.computeIfAbsent(e.cache, c -> new HashSet<>()).add(e.key.get(0));
+      }
+    }
+    for (Map.Entry<String, Set<String>> e : hashes.entrySet()) {
+      Registration r = handlers.get(e.getKey());
+      if (r == null) {
+        logger.atFine().log("Ignoring invalidation of unknown cache %s", e.getKey());
+        continue;
+      }
+      for (List<String> key : r.keys.get()) {
+        if (e.getValue().contains(hash(key))) {
+          apply(r, e.getKey(), key, null);
+        }
+      }
+    }
+  }
+
+  private static void apply(
+      Registration r, String cache, List<String> key, @Nullable String value) {
+    try {
+      r.handler.apply(key, value);
+    } catch (RuntimeException ex) {
+      logger.atWarning().withCause(ex).log("Cannot apply invalidation of %s %s", cache, key);
+    }
+  }
+
+  /** Opaque form of a cache key, as sent by visible transports. */
+  static String hash(List<String> key) {
+    return Hashing.sha256().hashString(String.join("\0", key), UTF_8).toString();
+  }
+
+  private static final class Registration {
+    final Handler handler;
+    final Supplier<List<List<String>>> keys;
+
+    Registration(Handler handler, Supplier<List<List<String>>> keys) {
+      this.handler = handler;
+      this.keys = keys;
+    }
+  }
+
+  @Nullable
+  private InvalidationTransport transport(ServerSettings settings) throws IOException {
+    switch (settings.cacheInvalidation) {
+      case ServerSettings.INVALIDATION_DIRECTORY:
+        return new DirectoryTransport(Paths.get(settings.invalidationDirectory), node);
+      case ServerSettings.INVALIDATION_EVENTS:
+        return new EventTransport(dispatcher);
+      default:
+        return null;
+    }
+  }
+}
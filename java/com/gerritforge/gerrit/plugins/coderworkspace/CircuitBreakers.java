@@ -0,0 +1,238 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gson.annotations.SerializedName;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-endpoint health of the Coder upstream: circuit breakers, adaptive timeouts and hedge delays.
+ *
+ * <p>Endpoints are the route names of {@link CoderMetrics#endpoint}. After {@code
+ * breakerFailureThreshold} consecutive failures (no response, 429 or 5xx) an endpoint's breaker
+ * opens and calls fail fast for {@code breakerOpenMs}. Then a single probe call is let through
+ * (half-open): its success closes the breaker, its failure opens it again.
+ *
+ * <p>The latencies of the last {@link #WINDOW} calls per endpoint drive two things once there are
+ * {@link #MIN_SAMPLES}: with {@code adaptiveTimeouts}, the request timeout becomes {@link
+ * #TIMEOUT_P99_FACTOR} times the p99, kept between {@link #MIN_TIMEOUT_MS} and {@code
+ * requestTimeoutMs}; with {@code hedgeReads}, a GET still pending after the p95 (at least {@link
+ * #MIN_HEDGE_DELAY_MS}) is sent a second time and the first answer wins.
+ */
+@Singleton
+public class CircuitBreakers {
+  static final int WINDOW = 256;
+  static final int MIN_SAMPLES = 20;
+  static final int TIMEOUT_P99_FACTOR = 3;
+  static final long MIN_TIMEOUT_MS = 1000;
+  static final long MIN_HEDGE_DELAY_MS = 50;
+
+  /** closed: calls pass; open: calls fail fast; half_open: one probe call is in flight. */
+  public enum State {
+    @SerializedName("closed")
+    CLOSED,
+    @SerializedName("open")
+    OPEN,
+    @SerializedName("half_open")
+    HALF_OPEN
+  }
+
+  /** State of one endpoint, as listed by {@code coder-workspace.upstream}. */
+  public static class EndpointInfo {
+    @SerializedName("endpoint")
+    public String endpoint;
+    @SerializedName("state")
+    public State state;
+    @SerializedName("consecutiveFailures")
+    public int consecutiveFailures;
+    @SerializedName("calls")
+    public long calls;
+    @SerializedName("failures")
+    public long failures;
+    @SerializedName("rejected")
+    public long rejected;
+    @SerializedName("hedged")
+    public long hedged;
+    @SerializedName("p50Ms")
+    public Long p50Ms;
+    @SerializedName("p99Ms")
+    public Long p99Ms;
+    @SerializedName("timeoutMs")
+    public long timeoutMs;
+    /** Milliseconds since the epoch; set while open. */
+    @SerializedName("openUntil")
+    public Long openUntil;
+  }
+
+  private final ConfigSnapshotCache snapshots;
+  private final CoderMetrics metrics;
+  private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+  @Inject
+  CircuitBreakers(ConfigSnapshotCache snapshots, CoderMetrics metrics) {
+    this.snapshots = snapshots;
+    this.metrics = metrics;
+    metrics.breakersOpen(this::openCount);
+  }
+
+  /** Health of the endpoint the request goes to. */
+  Endpoint endpoint(String method, String path) {
+    return endpoints.computeIfAbsent(CoderMetrics.endpoint(method, path), Endpoint::new);
+  }
+
+  /** All endpoints called so far, by name. */
+  public List<EndpointInfo> status() {
+    ServerSettings s = snapshots.get().server();
+    List<EndpointInfo> list = new ArrayList<>();
+    for (Endpoint e : endpoints.values()) {
+      list.add(e.info(s));
+    }
+    list.sort((a, b) -> a.endpoint.compareTo(b.endpoint));
+    return list;
+  }
+
+  private long openCount() {
+    return endpoints.values().stream().filter(e -> e.state() != State.CLOSED).count();
+  }
+
+  final class Endpoint {
+    final String name;
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntilNanos;
+    private long probeStartedNanos;
+    private long openUntilMillis;
+    private long calls;
+    private long failures;
+    private long rejected;
+    private long hedged;
+    private final long[] latencies = new long[WINDOW];
+    private int samples;
+    private int next;
+
+    Endpoint(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Lets a call through, or fails fast while the breaker is open.
+     *
+     * @throws CoderException with status 503 if the breaker is open
+     */
+    synchronized void admit() throws CoderException {
+      ServerSettings s = snapshots.get().server();
+      if (s.breakerFailureThreshold <= 0) {
+        return;
+      }
+      long now = System.nanoTime();
+      boolean probeDue =
+          (state == State.OPEN && now - openUntilNanos >= 0)
+              // A probe that never reported back must not keep the breaker half-open forever
+              || (state == State.HALF_OPEN
+                  && now - probeStartedNanos >= TimeUnit.MILLISECONDS.toNanos(s.breakerOpenMs));
+      if (probeDue) {
+        probeStartedNanos = now;
+        if (state != State.HALF_OPEN) {
+          transition(State.HALF_OPEN);
+        }
+        return;
+      }
+      if (state != State.CLOSED) {
+        rejected++;
+        throw new CoderException(
+            503, "Coder endpoint " + name + " is failing; not calling it for a while (circuit open)");
+      }
+    }
+
+    /** Records a finished call; {@code status} 0 means no response arrived. */
+    synchronized void record(int status, long nanos) {
+      calls++;
+      latencies[next] = nanos;
+      next = (next + 1) % WINDOW;
+      samples = Math.min(samples + 1, WINDOW);
+      boolean failed = status == 0 || status == 429 || status >= 500;
+      if (!failed) {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+          transition(State.CLOSED);
+        }
+        return;
+      }
+      failures++;
+      consecutiveFailures++;
+      ServerSettings s = snapshots.get().server();
+      if (s.breakerFailureThreshold > 0
+          && (state == State.HALF_OPEN || consecutiveFailures >= s.breakerFailureThreshold)) {
+        openUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(s.breakerOpenMs);
+        openUntilMillis = System.currentTimeMillis() + s.breakerOpenMs;
+        transition(State.OPEN);
+      }
+    }
+
+    synchronized void recordHedge() {
+      hedged++;
+      metrics.hedged(name);
+    }
+
+    /** Request timeout for the next call. */
+    synchronized long timeoutMs(ServerSettings s) {
+      long p99 = percentileMs(0.99);
+      if (!s.adaptiveTimeouts || p99 < 0) {
+        return s.requestTimeoutMs;
+      }
+      return Math.max(MIN_TIMEOUT_MS, Math.min(s.requestTimeoutMs, p99 * TIMEOUT_P99_FACTOR));
+    }
+
+    /** Delay after which a GET is sent again, or -1 not to hedge. */
+    synchronized long hedgeDelayMs(ServerSettings s) {
+      long p95 = percentileMs(0.95);
+      return !s.hedgeReads || p95 < 0 ? -1 : Math.max(MIN_HEDGE_DELAY_MS, p95);
+    }
+
+    synchronized State state() {
+      return state;
+    }
+
+    synchronized EndpointInfo info(ServerSettings s) {
+      EndpointInfo info = new EndpointInfo();
+      info.endpoint = name;
+      info.state = state;
+      info.consecutiveFailures = consecutiveFailures;
+      info.calls = calls;
+      info.failures = failures;
+      info.rejected = rejected;
+      info.hedged = hedged;
+      long p50 = percentileMs(0.5);
+      long p99 = percentileMs(0.99);
+      info.p50Ms = p50 < 0 ? null : p50;
+      info.p99Ms = p99 < 0 ? null : p99;
+      info.timeoutMs = timeoutMs(s);
+      info.openUntil = state == State.OPEN ? openUntilMillis : null;
+      return info;
+    }
+
+    @VisibleForTesting
+    synchronized long percentileMs(double p) {
+      if (samples < MIN_SAMPLES) {
+        return -1;
+      }
+      long[] sorted = Arrays.copyOf(latencies, samples);
+      Arrays.sort(sorted);
+      int i = (int) Math.ceil(p * samples) - 1;
+      return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, Math.min(samples - 1, i))]);
+    }
+
+    private void transition(State to) {
+      state = to;
+      metrics.breakerTransition(name, to.name().toLowerCase(Locale.US));
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gson.JsonObject;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.net.http.HttpResponse;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Which Coder API endpoint shapes the configured server supports.
+ *
+ * <p>The web UI finds working routes by trial and error on every call. Here the server is probed
+ * once, at plugin start or on first use, and the result is reused by {@link CoderClient} until the
+ * Coder version (checked every few minutes) or {@code serverUrl} changes, or an operation hits a
+ * route Coder no longer knows.
+ *
+ * <p>Probes never modify anything: they use a method or id that makes Coder reject the request,
+ * and only look at whether the router knew the path ("Route not found" otherwise).
+ */
+@Singleton
+public class CoderCapabilities implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final long VERSION_CHECK_INTERVAL_MINUTES = 10;
+  static final String PROBE_WORKSPACE_NAME = "gerrit-coder-capability-probe";
+  static final String NIL_UUID = "00000000-0000-0000-0000-000000000000";
+
+  /** Probe result for one Coder server. */
+  public static final class Capabilities {
+    public final String serverUrl;
+    /** Coder version from /api/v2/buildinfo; null when the server could not be reached. */
+    public final String version;
+    /** GET /users/{user}/workspace/{name}; otherwise lookups use the list API. */
+    public final boolean lookupByName;
+    /** POST /users/{user}/workspaces. */
+    public final boolean userScopedCreate;
+    /** POST /organizations/{org}/members/{user}/workspaces. */
+    public final boolean orgScopedCreate;
+    /** POST /workspaces/{id}/builds with a delete transition; otherwise DELETE /workspaces/{id}. */
+    public final boolean deleteBuild;
+
+    Capabilities(
+        String serverUrl,
+        String version,
+        boolean lookupByName,
+        boolean userScopedCreate,
+        boolean orgScopedCreate,
+        boolean deleteBuild) {
+      this.serverUrl = serverUrl;
+      this.version = version;
+      this.lookupByName = lookupByName;
+      this.userScopedCreate = userScopedCreate;
+      this.orgScopedCreate = orgScopedCreate;
+      this.deleteBuild = deleteBuild;
+    }
+
+    /** Current Coder API, used until a probe succeeds. */
+    static Capabilities assumed(String serverUrl) {
+      return new Capabilities(serverUrl, null, true, true, true, true);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "version=%s lookupByName=%s userScopedCreate=%s orgScopedCreate=%s deleteBuild=%s",
+          version, lookupByName, userScopedCreate, orgScopedCreate, deleteBuild);
+    }
+  }
+
+  private final CoderHttp http;
+  private final WorkQueue workQueue;
+  private volatile Capabilities current;
+  private ScheduledFuture<?> versionCheck;
+
+  @Inject
+  CoderCapabilities(CoderHttp http, WorkQueue workQueue) {
+    this.http = http;
+    this.workQueue = workQueue;
+  }
+
+  @Override
+  public void start() {
+    versionCheck =
+        workQueue
+            .getDefaultQueue()
+            .scheduleWithFixedDelay(
+                this::checkVersion, 0, VERSION_CHECK_INTERVAL_MINUTES, TimeUnit.MINUTES);
+  }
+
+  @Override
+  public void stop() {
+    if (versionCheck != null) {
+      versionCheck.cancel(true);
+      versionCheck = null;
+    }
+  }
+
+  /** Capabilities of the configured server, probing it first if needed. */
+  public Capabilities get() {
+    Capabilities c = current;
+    String serverUrl = http.settings().serverUrl;
+    if (c == null || !Objects.equals(c.serverUrl, serverUrl)) {
+      synchronized (this) {
+        c = current;
+        if (c == null || !Objects.equals(c.serverUrl, serverUrl)) {
+          c = probe(serverUrl);
+          current = c;
+        }
+      }
+    }
+    return c;
+  }
+
+  /** Probes again, e.g. after Coder answered "Route not found" for a memoized route. */
+  public synchronized Capabilities refresh() {
+    current = probe(http.settings().serverUrl);
+    return current;
+  }
+
+  /** Re-probes when Coder reports a different version than the one probed. */
+  void checkVersion() {
+    String serverUrl = http.settings().serverUrl;
+    if (serverUrl == null || serverUrl.isEmpty()) {
+      return;
+    }
+    try {
+      String version = version();
+      Capabilities c = current;
+      if (c == null || !Objects.equals(c.serverUrl, serverUrl) || !version.equals(c.version)) {
+        logger.atInfo().log(
+            "Coder version %s at %s; probing API capabilities", version, serverUrl);
+        refresh();
+      }
+    } catch (CoderException e) {
+      logger.atFine().withCause(e).log("Coder version check failed");
+    }
+  }
+
+  private Capabilities probe(String serverUrl) {
+    if (serverUrl == null || serverUrl.isEmpty()) {
+      return Capabilities.assumed(serverUrl);
+    }
+    try {
+      String version = version();
+      String org = http.settings().organization;
+      Capabilities c =
+          new Capabilities(
+              serverUrl,
+              version,
+              routeExists(
+                  "GET", "/api/v2/users/me/workspace/" + PROBE_WORKSPACE_NAME),
+              // No GET on the create route: an existing route answers 405, not "Route not found"
+              routeExists("GET", "/api/v2/users/me/workspaces"),
+              org != null
+                  && !org.isEmpty()
+                  && routeExists(
+                      "GET",
+                      "/api/v2/organizations/" + CoderHttp.encode(org) + "/members/me/workspaces"),
+              routeExists("GET", "/api/v2/workspaces/" + NIL_UUID + "/builds"));
+      logger.atInfo().log("Coder API capabilities for %s: %s", serverUrl, c);
+      return c;
+    } catch (CoderException e) {
+      // Keep the defaults; the periodic version check probes again once Coder is reachable
+      logger.atWarning().withCause(e).log("Cannot probe Coder API at %s", serverUrl);
+      return Capabilities.assumed(serverUrl);
+    }
+  }
+
+  private String version() throws CoderException {
+    JsonObject info = http.send("GET", "/api/v2/buildinfo", null, JsonObject.class);
+    return info != null && info.has("version") ? info.get("version").getAsString() : "";
+  }
+
+  private boolean routeExists(String method, String path) throws CoderException {
+    HttpResponse<String> res = http.exchange(method, path, null);
+    return !isRouteNotFound(res.statusCode(), res.body());
+  }
+
+  static boolean isRouteNotFound(int status, String body) {
+    return status == 404 && body != null && body.contains("Route not found");
+  }
+}
@@ -0,0 +1,306 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static com.gerritforge.gerrit.plugins.coderworkspace.CoderHttp.encode;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gson.JsonObject;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Coder workspace operations used by the server-side proxy.
+ *
+ * <p>Each operation goes straight to the endpoint {@link CoderCapabilities} found to work on the
+ * configured Coder server, instead of trying route variants one after another. If Coder answers
+ * "Route not found" anyway (e.g. after an upgrade), the capabilities are probed again and the
+ * call is retried once.
+ */
+@Singleton
+public class CoderClient {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Shortest common name prefix worth a combined list query. */
+  static final int MIN_BATCH_PREFIX = 3;
+  /** Page size of the combined query; a full page means it may be incomplete. */
+  static final int BATCH_LIMIT = 50;
+  static final int MAX_PARALLEL_LOOKUPS = 4;
+
+  private final CoderHttp http;
+  private final CoderCapabilities capabilities;
+
+  @Inject
+  CoderClient(CoderHttp http, CoderCapabilities capabilities) {
+    this.http = http;
+    this.capabilities = capabilities;
+  }
+
+  /** Workspace by owner and name; empty when it does not exist. */
+  public Optional<WorkspaceInfo> workspaceByName(String owner, String name)
+      throws CoderException {
+    return call(
+        caps -> {
+          if (!caps.lookupByName) {
+            return findInList(owner, name);
+          }
+          try {
+            return Optional.of(
+                http.send(
+                    "GET",
+                    "/api/v2/users/" + encode(owner) + "/workspace/" + encode(name),
+                    null,
+                    WorkspaceInfo.class));
+          } catch (CoderException e) {
+            if (e.isNotFound() && !e.isRouteNotFound()) {
+              return Optional.empty();
+            }
+            throw e;
+          }
+        });
+  }
+
+  /**
+   * Resolves several names of one owner at once, e.g. all candidate names of a change.
+   *
+   * <p>Candidate names rendered from the name templates usually share a prefix such as the
+   * repository name. Coder's {@code name:} filter matches substrings, so a single list query for
+   * that prefix answers every candidate. When there is no useful common prefix, or the query hits
+   * the result limit, the names are looked up individually, at most {@link
+   * #MAX_PARALLEL_LOOKUPS} at a time.
+   *
+   * @return every requested name, mapped to its workspace or to empty, in the order given
+   */
+  public Map<String, Optional<WorkspaceInfo>> workspacesByName(String owner, List<String> names)
+      throws CoderException {
+    String prefix = commonPrefix(names);
+    if (names.size() > 1 && prefix.length() >= MIN_BATCH_PREFIX) {
+      List<WorkspaceInfo> list = workspaces("owner:" + owner + " name:" + prefix, BATCH_LIMIT);
+      if (list.size() < BATCH_LIMIT) {
+        Map<String, Optional<WorkspaceInfo>> found = new LinkedHashMap<>();
+        for (String name : names) {
+          found.put(name, list.stream().filter(ws -> name.equals(ws.name)).findFirst());
+        }
+        return found;
+      }
+    }
+    return call(caps -> caps.lookupByName ? fetchByName(owner, names) : listEach(owner, names));
+  }
+
+  /** GET /api/v2/workspaces/{id}. */
+  public WorkspaceInfo workspace(String id) throws CoderException {
+    return http.send("GET", "/api/v2/workspaces/" + encode(id), null, WorkspaceInfo.class);
+  }
+
+  /** GET /api/v2/workspaces?q=...; {@code query} uses the Coder search syntax. */
+  public List<WorkspaceInfo> workspaces(String query, int limit) throws CoderException {
+    return workspaces(query, 0, limit);
+  }
+
+  /** One page of {@code GET /api/v2/workspaces?q=...}, skipping the first {@code offset}. */
+  public List<WorkspaceInfo> workspaces(String query, int offset, int limit) throws CoderException {
+    String path = "/api/v2/workspaces?q=" + encode(query) + "&limit=" + limit;
+    if (offset > 0) {
+      path += "&offset=" + offset;
+    }
+    WorkspacesResponse res = http.send("GET", path, null, WorkspacesResponse.class);
+    return res == null || res.workspaces == null ? new ArrayList<>() : res.workspaces;
+  }
+
+  /** Active version of a template, from {@code GET /api/v2/templates/{id}}. */
+  public String activeVersionId(String templateId) throws CoderException {
+    JsonObject t =
+        http.send("GET", "/api/v2/templates/" + encode(templateId), null, JsonObject.class);
+    if (t == null || !t.has("active_version_id") || t.get("active_version_id").isJsonNull()) {
+      throw new CoderException(404, "Template " + templateId + " has no active version");
+    }
+    return t.get("active_version_id").getAsString();
+  }
+
+  /** Rich parameters of a template version. */
+  public TemplateSchema templateSchema(String versionId) throws CoderException {
+    TemplateSchema.Parameter[] params =
+        http.send(
+            "GET",
+            "/api/v2/templateversions/" + encode(versionId) + "/rich-parameters",
+            null,
+            TemplateSchema.Parameter[].class);
+    return new TemplateSchema(versionId, params == null ? List.of() : Arrays.asList(params));
+  }
+
+  /** Creates a workspace, under the organization route when one is configured and supported. */
+  public WorkspaceInfo createWorkspace(String owner, CreateWorkspaceRequest body)
+      throws CoderException {
+    return call(
+        caps -> {
+          String org = http.settings().organization;
+          boolean useOrg =
+              org != null && !org.isEmpty() && (caps.orgScopedCreate || !caps.userScopedCreate);
+          String path =
+              useOrg
+                  ? "/api/v2/organizations/" + encode(org) + "/members/" + encode(owner)
+                      + "/workspaces"
+                  : "/api/v2/users/" + encode(owner) + "/workspaces";
+          return http.send("POST", path, body, WorkspaceInfo.class);
+        });
+  }
+
+  /** Deletes a workspace; Coder tears it down asynchronously. */
+  public void deleteWorkspace(String id) throws CoderException {
+    call(
+        caps -> {
+          if (caps.deleteBuild) {
+            return http.send(
+                "POST",
+                "/api/v2/workspaces/" + encode(id) + "/builds",
+                Map.of("transition", "delete"),
+                Object.class);
+          }
+          return http.send("DELETE", "/api/v2/workspaces/" + encode(id), null, Object.class);
+        });
+  }
+
+  /** Starts a stopped workspace with a new start build. */
+  public void startWorkspace(String id) throws CoderException {
+    http.send(
+        "POST",
+        "/api/v2/workspaces/" + encode(id) + "/builds",
+        Map.of("transition", "start"),
+        Object.class);
+  }
+
+  /** Starts a stopped workspace with new values for (mutable) rich parameters. */
+  public void startWorkspace(
+      String id, List<CreateWorkspaceRequest.RichParameterValue> richParameterValues)
+      throws CoderException {
+    http.send(
+        "POST",
+        "/api/v2/workspaces/" + encode(id) + "/builds",
+        Map.of("transition", "start", "rich_parameter_values", richParameterValues),
+        Object.class);
+  }
+
+  /** Stops a workspace with a new stop build. */
+  public void stopWorkspace(String id) throws CoderException {
+    http.send(
+        "POST",
+        "/api/v2/workspaces/" + encode(id) + "/builds",
+        Map.of("transition", "stop"),
+        Object.class);
+  }
+
+  /** Renames a workspace; Coder answers 409 when its owner already has one by that name. */
+  public void renameWorkspace(String id, String name) throws CoderException {
+    http.send("PATCH", "/api/v2/workspaces/" + encode(id), Map.of("name", name), Object.class);
+  }
+
+  private Map<String, Optional<WorkspaceInfo>> fetchByName(String owner, List<String> names)
+      throws CoderException {
+    Map<String, Optional<WorkspaceInfo>> found = new LinkedHashMap<>();
+    for (int from = 0; from < names.size(); from += MAX_PARALLEL_LOOKUPS) {
+      List<String> chunk = names.subList(from, Math.min(names.size(), from + MAX_PARALLEL_LOOKUPS));
+      List<CompletableFuture<Optional<WorkspaceInfo>>> pending = new ArrayList<>();
+      for (String name : chunk) {
+        pending.add(
+            http.sendAsync(
+                    "GET",
+                    "/api/v2/users/" + encode(owner) + "/workspace/" + encode(name),
+                    null,
+                    WorkspaceInfo.class)
+                .thenApply(Optional::of)
+                .exceptionally(
+                    err -> {
+                      Throwable cause = err instanceof CompletionException ? err.getCause() : err;
+                      if (cause instanceof CoderException
+                          && ((CoderException) cause).isNotFound()
+                          && !((CoderException) cause).isRouteNotFound()) {
+                        return Optional.empty();
+                      }
+                      throw new CompletionException(cause);
+                    }));
+      }
+      for (int i = 0; i < chunk.size(); i++) {
+        try {
+          found.put(chunk.get(i), pending.get(i).join());
+        } catch (CompletionException e) {
+          pending.forEach(f -> f.cancel(true));
+          if (e.getCause() instanceof CoderException) {
+            throw (CoderException) e.getCause();
+          }
+          throw new CoderException("Workspace lookup failed for " + chunk.get(i), e.getCause());
+        }
+      }
+    }
+    return found;
+  }
+
+  private Map<String, Optional<WorkspaceInfo>> listEach(String owner, List<String> names)
+      throws CoderException {
+    Map<String, Optional<WorkspaceInfo>> found = new LinkedHashMap<>();
+    for (String name : names) {
+      found.put(name, findInList(owner, name));
+    }
+    return found;
+  }
+
+  static String commonPrefix(List<String> names) {
+    if (names.isEmpty()) {
+      return "";
+    }
+    String prefix = names.get(0);
+    for (String name : names) {
+      int n = 0;
+      while (n < prefix.length() && n < name.length() && prefix.charAt(n) == name.charAt(n)) {
+        n++;
+      }
+      prefix = prefix.substring(0, n);
+    }
+    return prefix;
+  }
+
+  /**
+   * Name lookup for Coder versions without the by-name route. The {@code name:} filter matches
+   * substrings, so {@code repo-1} also lists {@code repo-10} and on; pages until the list ends.
+   */
+  private Optional<WorkspaceInfo> findInList(String owner, String name) throws CoderException {
+    String query = "owner:" + owner + " name:" + name;
+    for (int offset = 0; ; offset += BATCH_LIMIT) {
+      List<WorkspaceInfo> page = workspaces(query, offset, BATCH_LIMIT);
+      for (WorkspaceInfo ws : page) {
+        if (name.equals(ws.name)) {
+          return Optional.of(ws);
+        }
+      }
+      if (page.size() < BATCH_LIMIT) {
+        return Optional.empty();
+      }
+    }
+  }
+
+  private <T> T call(Call<T> call) throws CoderException {
+    try {
+      return call.apply(capabilities.get());
+    } catch (CoderException e) {
+      if (!e.isRouteNotFound()) {
+        throw e;
+      }
+      logger.atInfo().log("Coder route no longer available (%s); probing again", e.getMessage());
+      return call.apply(capabilities.refresh());
+    }
+  }
+
+  @FunctionalInterface
+  private interface Call<T> {
+    T apply(CoderCapabilities.Capabilities caps) throws CoderException;
+  }
+
+  private static class WorkspacesResponse {
+    List<WorkspaceInfo> workspaces;
+  }
+}
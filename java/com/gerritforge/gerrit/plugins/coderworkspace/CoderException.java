@@ -0,0 +1,105 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import java.net.http.HttpTimeoutException;
+
+/** A Coder API call failed, either with an HTTP error status or before a response arrived. */
+public class CoderException extends Exception {
+  private static final long serialVersionUID = 1L;
+
+  static final int SC_TOO_MANY_REQUESTS = 429;
+  static final int SC_BAD_GATEWAY = 502;
+  static final int SC_GATEWAY_TIMEOUT = 504;
+
+  private final int statusCode;
+  private final long retryAfterSeconds;
+
+  public CoderException(int statusCode, String message) {
+    this(statusCode, message, 0);
+  }
+
+  private CoderException(int statusCode, String message, long retryAfterSeconds) {
+    super(message);
+    this.statusCode = statusCode;
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public CoderException(String message, Throwable cause) {
+    super(message, cause);
+    this.statusCode = 0;
+    this.retryAfterSeconds = 0;
+  }
+
+  /** A 429 from Coder or from {@link CoderLimiter}. */
+  static CoderException tooManyRequests(String message, long retryAfterSeconds) {
+    return new CoderException(SC_TOO_MANY_REQUESTS, message, retryAfterSeconds);
+  }
+
+  /** HTTP status returned by Coder, or 0 if no response was received. */
+  public int statusCode() {
+    return statusCode;
+  }
+
+  public boolean isNotFound() {
+    return statusCode == 404;
+  }
+
+  public boolean isConflict() {
+    return statusCode == 409;
+  }
+
+  /** Seconds to wait before retrying a 429, or 0 if unknown. */
+  public long retryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  /** Coder's router did not know the path, as opposed to a missing workspace. */
+  public boolean isRouteNotFound() {
+    return CoderCapabilities.isRouteNotFound(statusCode, getMessage());
+  }
+
+  /** A Coder request timed out, Coder answered 504, or the proxy deadline passed. */
+  public boolean isTimeout() {
+    return statusCode == SC_GATEWAY_TIMEOUT || getCause() instanceof HttpTimeoutException;
+  }
+
+  /**
+   * Maps the failure onto the REST response returned to the web UI. Client errors keep their
+   * meaning, everything else is reported as a gateway error so it is not mistaken for a Gerrit
+   * bug.
+   */
+  public Response<String> toResponse() throws RestApiException {
+    switch (statusCode) {
+      case 400:
+        throw new BadRequestException(getMessage(), this);
+      case 404:
+        throw new ResourceNotFoundException(getMessage(), this);
+      case 409:
+        throw new ResourceConflictException(getMessage(), this);
+      case SC_TOO_MANY_REQUESTS:
+        return HeaderResponse.with(
+            Response.withStatusCode(SC_TOO_MANY_REQUESTS, getMessage()),
+            ImmutableMultimap.of("Retry-After", String.valueOf(Math.max(1, retryAfterSeconds))));
+      default:
+        return Response.withStatusCode(responseStatus(), getMessage());
+    }
+  }
+
+  /** HTTP status {@link #toResponse} answers with. */
+  public int responseStatus() {
+    switch (statusCode) {
+      case 400:
+      case 404:
+      case 409:
+      case SC_TOO_MANY_REQUESTS:
+        return statusCode;
+      default:
+        return isTimeout() ? SC_GATEWAY_TIMEOUT : SC_BAD_GATEWAY;
+    }
+  }
+}
@@ -0,0 +1,334 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * HTTP transport to the Coder REST API, with the token from gerrit.config.
+ *
+ * <p>One {@link HttpClient} is shared by all requests. It negotiates HTTP/2 where Coder supports
+ * it and otherwise keeps HTTP/1.1 connections alive in its pool, so repeated calls do not pay for
+ * a new TCP/TLS handshake. The client is only rebuilt when the connect timeout is reconfigured.
+ */
+@Singleton
+public class CoderHttp {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  static final Gson GSON = new Gson();
+  static final String SESSION_TOKEN_HEADER = "Coder-Session-Token";
+  private static final int MAX_ERROR_BODY = 512;
+
+  private final ConfigSnapshotCache snapshots;
+  private final CoderMetrics metrics;
+  private final CoderLimiter limiter;
+  private final CircuitBreakers breakers;
+  private volatile Pooled pooled;
+
+  @Inject
+  CoderHttp(
+      ConfigSnapshotCache snapshots,
+      CoderMetrics metrics,
+      CoderLimiter limiter,
+      CircuitBreakers breakers) {
+    this.snapshots = snapshots;
+    this.metrics = metrics;
+    this.limiter = limiter;
+    this.breakers = breakers;
+  }
+
+  ServerSettings settings() {
+    return snapshots.get().server();
+  }
+
+  /** Sends a request and parses a 2xx JSON response; other statuses become CoderException. */
+  <T> T send(String method, String path, Object body, Class<T> type) throws CoderException {
+    return parse(method, path, exchange(method, path, body), type);
+  }
+
+  /**
+   * Asynchronous {@link #send}; runs on the HTTP client's own threads. Failures complete the
+   * future with a {@link CoderException}. Waiting for a {@link CoderLimiter} permit happens on the
+   * calling thread.
+   */
+  <T> CompletableFuture<T> sendAsync(String method, String path, Object body, Class<T> type) {
+    try {
+      ServerSettings s = settings();
+      CircuitBreakers.Endpoint endpoint = breakers.endpoint(method, path);
+      HttpRequest req = request(s, method, path, body, endpoint.timeoutMs(s));
+      CoderLimiter.Permit permit = limiter.acquire();
+      try {
+        endpoint.admit();
+      } catch (CoderException e) {
+        permit.close();
+        throw e;
+      }
+      long start = metrics.upstreamStarted();
+      return client(s)
+          .sendAsync(req, HttpResponse.BodyHandlers.ofString())
+          .handle(
+              (res, err) -> {
+                permit.close();
+                int status = res != null ? res.statusCode() : 0;
+                endpoint.record(status, System.nanoTime() - start);
+                metrics.upstreamDone(method, path, status, start);
+                try {
+                  if (err != null) {
+                    Throwable cause = err instanceof CompletionException ? err.getCause() : err;
+                    throw new CoderException(
+                        method + " " + path + ": " + cause.getMessage(), cause);
+                  }
+                  return parse(method, path, res, type);
+                } catch (CoderException e) {
+                  throw new CompletionException(e);
+                }
+              });
+    } catch (CoderException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * Opens a server-sent events stream and feeds its lines to {@code lines}. The future completes
+   * with the response status once the stream ends; a non-2xx response is not streamed.
+   *
+   * <p>Long-lived streams do not take a {@link CoderLimiter} permit; {@link ReadinessWatcher}
+   * already keeps at most one per workspace.
+   */
+  CompletableFuture<Integer> streamLines(String path, Flow.Subscriber<String> lines) {
+    try {
+      ServerSettings s = settings();
+      HttpRequest req = request(s, "GET", path, null, "text/event-stream", null);
+      return client(s)
+          .sendAsync(
+              req,
+              info ->
+                  info.statusCode() >= 200 && info.statusCode() <= 299
+                      ? HttpResponse.BodySubscribers.fromLineSubscriber(lines)
+                      : HttpResponse.BodySubscribers.replacing(null))
+          .thenApply(HttpResponse::statusCode);
+    } catch (CoderException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private static boolean isRedirect(int status) {
+    return status >= 300 && status <= 399;
+  }
+
+  /** Redirects are never followed; {@code serverUrl} has to be the address Coder answers on. */
+  private static CoderException redirected(String method, String path, HttpResponse<?> res) {
+    String location = res.headers().firstValue("Location").orElse("");
+    logger.atWarning().log("Coder %s %s redirected to %s; not following", method, path, location);
+    return new CoderException(
+        CoderException.SC_BAD_GATEWAY,
+        "Coder redirected " + method + " " + path + " to " + location + "; check serverUrl");
+  }
+
+  private <T> T parse(String method, String path, HttpResponse<String> res, Class<T> type)
+      throws CoderException {
+    int status = res.statusCode();
+    if (isRedirect(status)) {
+      throw redirected(method, path, res);
+    }
+    if (status < 200 || status > 299) {
+      String text = res.body() == null ? "" : res.body();
+      if (text.length() > MAX_ERROR_BODY) {
+        text = text.substring(0, MAX_ERROR_BODY);
+      }
+      if (status != 404 && status != 409) {
+        logger.atWarning().log("Coder %s %s returned %d: %s", method, path, status, text);
+      }
+      if (status == CoderException.SC_TOO_MANY_REQUESTS) {
+        throw CoderException.tooManyRequests(
+            "Coder API error " + status + ": " + text,
+            res.headers().firstValueAsLong("Retry-After").orElse(0));
+      }
+      throw new CoderException(status, "Coder API error " + status + ": " + text);
+    }
+    if (res.body() == null || res.body().isEmpty()) {
+      return null;
+    }
+    try {
+      return GSON.fromJson(res.body(), type);
+    } catch (JsonParseException e) {
+      throw new CoderException("Invalid JSON from Coder for " + method + " " + path, e);
+    }
+  }
+
+  /** Sends a request and returns the raw response, whatever its status other than a redirect. */
+  @SuppressWarnings("try")
+  HttpResponse<String> exchange(String method, String path, Object body) throws CoderException {
+    ServerSettings s = settings();
+    CircuitBreakers.Endpoint endpoint = breakers.endpoint(method, path);
+    HttpRequest req = request(s, method, path, body, endpoint.timeoutMs(s));
+    try (CoderLimiter.Permit permit = limiter.acquire()) {
+      endpoint.admit();
+      long start = metrics.upstreamStarted();
+      int status = 0;
+      try {
+        HttpResponse<String> res =
+            "GET".equals(method)
+                ? sendHedged(s, endpoint, req)
+                : client(s).send(req, HttpResponse.BodyHandlers.ofString());
+        status = res.statusCode();
+        if (isRedirect(status)) {
+          throw redirected(method, path, res);
+        }
+        return res;
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Coder %s %s failed", method, path);
+        throw new CoderException(method + " " + path + ": " + e.getMessage(), e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CoderException(method + " " + path + " interrupted", e);
+      } finally {
+        endpoint.record(status, System.nanoTime() - start);
+        metrics.upstreamDone(method, path, status, start);
+      }
+    }
+  }
+
+  /**
+   * Sends an idempotent GET, and sends it again if it is still pending after the endpoint's hedge
+   * delay and a limiter permit is free. The first response wins; the other request is cancelled.
+   */
+  private HttpResponse<String> sendHedged(
+      ServerSettings s, CircuitBreakers.Endpoint endpoint, HttpRequest req)
+      throws IOException, InterruptedException {
+    HttpClient client = client(s);
+    long delayMs = endpoint.hedgeDelayMs(s);
+    if (delayMs < 0) {
+      return client.send(req, HttpResponse.BodyHandlers.ofString());
+    }
+    CompletableFuture<HttpResponse<String>> first =
+        client.sendAsync(req, HttpResponse.BodyHandlers.ofString());
+    try {
+      return first.get(delayMs, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      // Slow; hedge below
+    } catch (ExecutionException e) {
+      throw ioException(e);
+    }
+    CoderLimiter.Permit extra = limiter.tryAcquire();
+    if (extra == null) {
+      return await(first);
+    }
+    endpoint.recordHedge();
+    CompletableFuture<HttpResponse<String>> second =
+        client.sendAsync(req, HttpResponse.BodyHandlers.ofString());
+    second.whenComplete((res, err) -> extra.close());
+    CompletableFuture<HttpResponse<String>> winner = new CompletableFuture<>();
+    BiConsumer<HttpResponse<String>, Throwable> race =
+        (res, err) -> {
+          if (res != null) {
+            winner.complete(res);
+          } else if (first.isCompletedExceptionally() && second.isCompletedExceptionally()) {
+            winner.completeExceptionally(err);
+          }
+        };
+    first.whenComplete(race);
+    second.whenComplete(race);
+    try {
+      return await(winner);
+    } finally {
+      first.cancel(true);
+      second.cancel(true);
+    }
+  }
+
+  private static HttpResponse<String> await(CompletableFuture<HttpResponse<String>> res)
+      throws IOException, InterruptedException {
+    try {
+      return res.get();
+    } catch (ExecutionException e) {
+      throw ioException(e);
+    }
+  }
+
+  private static IOException ioException(ExecutionException e) {
+    Throwable cause =
+        e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+    return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+  }
+
+  private static HttpRequest request(
+      ServerSettings s, String method, String path, Object body, long timeoutMs)
+      throws CoderException {
+    return request(s, method, path, body, "application/json", Duration.ofMillis(timeoutMs));
+  }
+
+  private static HttpRequest request(
+      ServerSettings s, String method, String path, Object body, String accept, Duration timeout)
+      throws CoderException {
+    if (s.serverUrl == null || s.serverUrl.isEmpty()) {
+      throw new CoderException(0, "serverUrl is not configured");
+    }
+    URI uri = URI.create(s.serverUrl.replaceAll("/+$", "") + path);
+    HttpRequest.Builder req = HttpRequest.newBuilder(uri).header("Accept", accept);
+    if (timeout != null) {
+      req.timeout(timeout);
+    }
+    if (s.apiKey != null && !s.apiKey.isEmpty()) {
+      req.header(SESSION_TOKEN_HEADER, s.apiKey);
+    }
+    if (body != null) {
+      req.header("Content-Type", "application/json")
+          .method(method, HttpRequest.BodyPublishers.ofString(GSON.toJson(body)));
+    } else {
+      req.method(method, HttpRequest.BodyPublishers.noBody());
+    }
+    return req.build();
+  }
+
+  private HttpClient client(ServerSettings s) {
+    Pooled p = pooled;
+    if (p == null || p.connectTimeoutMs != s.connectTimeoutMs) {
+      synchronized (this) {
+        p = pooled;
+        if (p == null || p.connectTimeoutMs != s.connectTimeoutMs) {
+          p = new Pooled(s.connectTimeoutMs);
+          pooled = p;
+        }
+      }
+    }
+    return p.client;
+  }
+
+  static String encode(String segment) {
+    return URLEncoder.encode(segment == null ? "" : segment, StandardCharsets.UTF_8)
+        .replace("+", "%20");
+  }
+
+  private static final class Pooled {
+    final long connectTimeoutMs;
+    final HttpClient client;
+
+    Pooled(long connectTimeoutMs) {
+      this.connectTimeoutMs = connectTimeoutMs;
+      this.client =
+          HttpClient.newBuilder()
+              .version(HttpClient.Version.HTTP_2)
+              .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+              // A redirect to another host would carry the session token along
+              .followRedirects(HttpClient.Redirect.NEVER)
+              .build();
+    }
+  }
+}
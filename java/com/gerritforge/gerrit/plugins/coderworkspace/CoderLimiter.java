@@ -0,0 +1,245 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gerrit.common.Nullable;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Admission control for calls from Gerrit to Coder.
+ *
+ * <p>Every call takes a permit from a global pool of {@code maxConcurrentCalls}; when none is
+ * free it waits up to {@code maxQueueWaitMs} and is then rejected. Calls on behalf of a user
+ * additionally take a token from that user's bucket ({@code userCallsPerMinute}, bursts of {@code
+ * userBurst}); a user who ran out waits for the next token, again at most {@code maxQueueWaitMs}.
+ * Rejections surface as 429 with a Retry-After hint.
+ *
+ * <p>Separately, proxy REST requests take one of {@code maxProxyRequests} slots for as long as they
+ * wait for Coder. There is no queue for these: a request that finds no slot is rejected at once, so
+ * a slow Coder cannot occupy more than that many of Gerrit's HTTP threads.
+ *
+ * <p>Buckets live in {@link #STRIPES} independently locked stripes, each keeping its {@link
+ * #USERS_PER_STRIPE} most recently seen users, so checks for different users rarely contend and
+ * memory stays bounded.
+ */
+@Singleton
+public class CoderLimiter {
+  static final int STRIPES = 32;
+  static final int USERS_PER_STRIPE = 256;
+
+  /** Releases a global permit; idempotent. */
+  public interface Permit extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  private static final Permit NO_PERMIT = () -> {};
+
+  private final ConfigSnapshotCache snapshots;
+  private final CoderMetrics metrics;
+  private final Stripe[] stripes = new Stripe[STRIPES];
+  private final AtomicReference<Pool> calls = new AtomicReference<>();
+  private final AtomicReference<Pool> requests = new AtomicReference<>();
+
+  @Inject
+  CoderLimiter(ConfigSnapshotCache snapshots, CoderMetrics metrics) {
+    this.snapshots = snapshots;
+    this.metrics = metrics;
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * Takes a global permit, waiting up to {@code maxQueueWaitMs}.
+   *
+   * @throws CoderException with status 429 if no permit became free in time
+   */
+  public Permit acquire() throws CoderException {
+    ServerSettings s = snapshots.get().server();
+    Pool p = pool(calls, s.maxConcurrentCalls);
+    if (p == null) {
+      return NO_PERMIT;
+    }
+    if (!p.permits.tryAcquire()) {
+      metrics.limiterQueued();
+      boolean acquired;
+      try {
+        acquired = p.permits.tryAcquire(s.maxQueueWaitMs, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CoderException("Interrupted waiting for a Coder request slot", e);
+      } finally {
+        metrics.limiterDequeued();
+      }
+      if (!acquired) {
+        metrics.limiterRejected("global");
+        throw CoderException.tooManyRequests(
+            "Too many concurrent Coder requests; try again later",
+            retryAfterSeconds(TimeUnit.MILLISECONDS.toNanos(s.maxQueueWaitMs)));
+      }
+    }
+    return permit(p);
+  }
+
+  /** Takes a global permit if one is free right now; null otherwise. */
+  @Nullable
+  public Permit tryAcquire() {
+    Pool p = pool(calls, snapshots.get().server().maxConcurrentCalls);
+    if (p == null) {
+      return NO_PERMIT;
+    }
+    return p.permits.tryAcquire() ? permit(p) : null;
+  }
+
+  /**
+   * Takes a proxy request slot without waiting.
+   *
+   * @throws CoderException with status 429 if all {@code maxProxyRequests} slots are taken
+   */
+  public Permit enterRequest() throws CoderException {
+    Pool p = pool(requests, snapshots.get().server().maxProxyRequests);
+    if (p == null) {
+      return NO_PERMIT;
+    }
+    if (!p.permits.tryAcquire()) {
+      metrics.limiterRejected("request");
+      throw CoderException.tooManyRequests(
+          "Too many requests waiting for Coder; try again later", 1);
+    }
+    return permit(p);
+  }
+
+  /**
+   * Takes a token from the user's bucket, waiting up to {@code maxQueueWaitMs} for one.
+   *
+   * @throws CoderException with status 429 if the user has to wait longer
+   */
+  public void admit(@Nullable String username) throws CoderException {
+    ServerSettings s = snapshots.get().server();
+    if (username == null || s.userCallsPerMinute <= 0) {
+      return;
+    }
+    long waitNanos =
+        stripe(username)
+            .take(
+                username,
+                s.userCallsPerMinute / 60e9,
+                s.userBurst,
+                TimeUnit.MILLISECONDS.toNanos(s.maxQueueWaitMs),
+                System.nanoTime());
+    if (waitNanos < 0) {
+      metrics.limiterRejected("user");
+      throw CoderException.tooManyRequests(
+          "Too many Coder requests for " + username + "; try again later",
+          retryAfterSeconds(-waitNanos));
+    }
+    if (waitNanos > 0) {
+      metrics.limiterQueued();
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CoderException("Interrupted waiting for a Coder request slot", e);
+      } finally {
+        metrics.limiterDequeued();
+      }
+    }
+  }
+
+  @VisibleForTesting
+  int availablePermits() {
+    Pool p = calls.get();
+    return p == null ? Integer.MAX_VALUE : p.permits.availablePermits();
+  }
+
+  @Nullable
+  private static Pool pool(AtomicReference<Pool> ref, int size) {
+    if (size <= 0) {
+      return null;
+    }
+    // Permits held from an old pool are released back into it and then forgotten
+    return ref.updateAndGet(p -> p != null && p.size == size ? p : new Pool(size));
+  }
+
+  private static Permit permit(Pool p) {
+    return new Permit() {
+      private boolean released;
+
+      @Override
+      public synchronized void close() {
+        if (!released) {
+          released = true;
+          p.permits.release();
+        }
+      }
+    };
+  }
+
+  private Stripe stripe(String username) {
+    return stripes[(username.hashCode() & Integer.MAX_VALUE) % STRIPES];
+  }
+
+  private static long retryAfterSeconds(long nanos) {
+    return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(nanos + TimeUnit.SECONDS.toNanos(1) - 1));
+  }
+
+  private static final class Pool {
+    final int size;
+    final Semaphore permits;
+
+    Pool(int size) {
+      this.size = size;
+      this.permits = new Semaphore(size, true);
+    }
+  }
+
+  private static final class Bucket {
+    double tokens;
+    long updatedNanos;
+
+    Bucket(double tokens, long updatedNanos) {
+      this.tokens = tokens;
+      this.updatedNanos = updatedNanos;
+    }
+  }
+
+  private static final class Stripe {
+    private final Map<String, Bucket> buckets =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > USERS_PER_STRIPE;
+          }
+        };
+
+    /**
+     * Reserves a token. Returns 0 if one was available, the nanoseconds until the reserved token
+     * is due if that is within {@code maxWaitNanos}, or minus the wait if it is not (nothing is
+     * reserved then).
+     */
+    synchronized long take(
+        String user, double tokensPerNano, int burst, long maxWaitNanos, long now) {
+      Bucket b = buckets.computeIfAbsent(user, k -> new Bucket(burst, now));
+      b.tokens = Math.min(burst, b.tokens + (now - b.updatedNanos) * tokensPerNano);
+      b.updatedNanos = now;
+      if (b.tokens >= 1) {
+        b.tokens -= 1;
+        return 0;
+      }
+      long wait = (long) Math.ceil((1 - b.tokens) / tokensPerNano);
+      if (wait > maxWaitNanos) {
+        return -wait;
+      }
+      b.tokens -= 1;
+      return wait;
+    }
+  }
+}
@@ -0,0 +1,352 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.base.Supplier;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Counter2;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.metrics.Timer1;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics for the plugin's hot paths, exported as {@code plugins/coder-workspace/...} wherever
+ * Gerrit exports metrics (JMX, Prometheus, ...).
+ *
+ * <p>Upstream calls are labelled with an endpoint name derived from the route, with ids and names
+ * replaced by their kind (e.g. {@code get_users_user_workspace_name}), so the number of series
+ * stays fixed.
+ */
+@Singleton
+public class CoderMetrics {
+  private final Timer0 configLatency;
+  private final Timer1<String> upstreamLatency;
+  private final Counter2<String, Integer> upstreamErrors;
+  private final Timer0 createToReady;
+  private final AtomicLong upstreamInFlight = new AtomicLong();
+  private final AtomicLong readinessWaiters = new AtomicLong();
+  private final Counter1<String> limiterRejections;
+  private final AtomicLong limiterQueue = new AtomicLong();
+  private final Counter2<String, String> breakerTransitions;
+  private final Counter1<String> hedges;
+  private final Timer1<String> openPhases;
+  private final Counter1<String> speculativeStarts;
+  private final Counter0 lookupHits;
+  private final Counter0 lookupMisses;
+  private final LongAdder lookupHitTotal = new LongAdder();
+  private final LongAdder lookupMissTotal = new LongAdder();
+  private final Counter0 poolHits;
+  private final Counter0 poolMisses;
+  private final Timer0 poolRefillLatency;
+  private final MetricMaker metricMaker;
+  private final Cache<String, Long> createdAt =
+      CacheBuilder.newBuilder().maximumSize(10_000).expireAfterWrite(Duration.ofHours(1)).build();
+
+  @Inject
+  CoderMetrics(MetricMaker metrics) {
+    metricMaker = metrics;
+    configLatency =
+        metrics.newTimer(
+            "config/latency",
+            new Description("Time to serve the plugin configuration to the web UI")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+    Field<String> endpoint =
+        Field.ofString("endpoint", Field.ignoreMetadata())
+            .description("Coder API route, e.g. get_users_user_workspace_name")
+            .build();
+    upstreamLatency =
+        metrics.newTimer(
+            "upstream/latency",
+            new Description("Latency of Coder API calls")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            endpoint);
+    upstreamErrors =
+        metrics.newCounter(
+            "upstream/error_count",
+            new Description("Coder API calls that failed or returned a non-2xx status")
+                .setRate()
+                .setUnit("errors"),
+            endpoint,
+            Field.ofInteger("status", Field.ignoreMetadata())
+                .description("HTTP status, 0 when no response was received")
+                .build());
+    createToReady =
+        metrics.newTimer(
+            "workspace/create_to_ready_latency",
+            new Description("Time from creating a workspace until its app reported a URL")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+    metrics.newCallbackMetric(
+        "upstream/in_flight",
+        Long.class,
+        new Description("Coder API calls in progress").setGauge().setUnit("requests"),
+        upstreamInFlight::get);
+    metrics.newCallbackMetric(
+        "readiness/waiting",
+        Long.class,
+        new Description("Clients waiting for a workspace app to become ready")
+            .setGauge()
+            .setUnit("clients"),
+        readinessWaiters::get);
+    limiterRejections =
+        metrics.newCounter(
+            "limiter/rejected_count",
+            new Description("Coder calls rejected with 429 by the plugin's limiter")
+                .setRate()
+                .setUnit("requests"),
+            Field.ofString("scope", Field.ignoreMetadata())
+                .description("global (permit pool) or user (per-user rate)")
+                .build());
+    metrics.newCallbackMetric(
+        "limiter/queue_depth",
+        Long.class,
+        new Description("Coder calls waiting for the limiter").setGauge().setUnit("requests"),
+        limiterQueue::get);
+    breakerTransitions =
+        metrics.newCounter(
+            "upstream/breaker_transition_count",
+            new Description("Circuit breaker state changes per Coder endpoint")
+                .setRate()
+                .setUnit("transitions"),
+            endpoint,
+            Field.ofString("state", Field.ignoreMetadata())
+                .description("New state: open, half_open or closed")
+                .build());
+    hedges =
+        metrics.newCounter(
+            "upstream/hedged_count",
+            new Description("Coder GETs sent a second time because the first was slow")
+                .setRate()
+                .setUnit("requests"),
+            endpoint);
+    openPhases =
+        metrics.newTimer(
+            "open/phase_latency",
+            new Description("Time proxy requests spent per phase of opening a workspace")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            Field.ofString("phase", Field.ignoreMetadata())
+                .description("admit, template, lookup, pool, create or readiness")
+                .build());
+    speculativeStarts =
+        metrics.newCounter(
+            "speculative/start_count",
+            new Description("Stopped workspaces started, or not, because their change was viewed")
+                .setRate()
+                .setUnit("workspaces"),
+            Field.ofString("result", Field.ignoreMetadata())
+                .description("started, or the cap that was reached: user or global")
+                .build());
+    lookupHits =
+        metrics.newCounter(
+            "workspace_lookup/hit_count",
+            new Description("Workspace lookups answered from the cache")
+                .setRate()
+                .setUnit("lookups"));
+    lookupMisses =
+        metrics.newCounter(
+            "workspace_lookup/miss_count",
+            new Description("Workspace lookups that needed a Coder request")
+                .setRate()
+                .setUnit("lookups"));
+    metrics.newCallbackMetric(
+        "workspace_lookup/hit_ratio",
+        Double.class,
+        new Description("Share of workspace lookups answered from the cache since plugin start")
+            .setGauge(),
+        this::lookupHitRatio);
+    poolHits =
+        metrics.newCounter(
+            "pool/hit_count",
+            new Description("Workspaces handed out from a warm pool").setRate().setUnit("opens"));
+    poolMisses =
+        metrics.newCounter(
+            "pool/miss_count",
+            new Description("Opens of a pooled template that found its pool empty")
+                .setRate()
+                .setUnit("opens"));
+    poolRefillLatency =
+        metrics.newTimer(
+            "pool/refill_latency",
+            new Description("Time from creating a pooled workspace until it is stopped and ready")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+  }
+
+  /** Registers the gauge of endpoints whose breaker is not closed. */
+  void breakersOpen(Supplier<Long> open) {
+    metricMaker.newCallbackMetric(
+        "upstream/breakers_open",
+        Long.class,
+        new Description("Coder endpoints whose circuit breaker is open or half-open")
+            .setGauge()
+            .setUnit("endpoints"),
+        open);
+  }
+
+  /** Registers the gauge of pooled workspaces ready to hand out. */
+  void poolsAvailable(Supplier<Long> available) {
+    metricMaker.newCallbackMetric(
+        "pool/available",
+        Long.class,
+        new Description("Stopped workspaces ready to hand out, over all pools")
+            .setGauge()
+            .setUnit("workspaces"),
+        available);
+  }
+
+  void poolHit() {
+    poolHits.increment();
+  }
+
+  void poolMiss() {
+    poolMisses.increment();
+  }
+
+  /** Records the time from creating a pooled workspace until it was first seen ready. */
+  void poolRefilled(long nanos) {
+    poolRefillLatency.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  void breakerTransition(String endpoint, String state) {
+    breakerTransitions.increment(endpoint, state);
+  }
+
+  void hedged(String endpoint) {
+    hedges.increment(endpoint);
+  }
+
+  void openPhase(String phase, double millis) {
+    openPhases.record(phase, Math.round(millis * 1000), TimeUnit.MICROSECONDS);
+  }
+
+  void speculativeStart(String result) {
+    speculativeStarts.increment(result);
+  }
+
+  /** Counts workspace lookups answered from the {@link WorkspaceLookup} cache. */
+  void lookupHits(long n) {
+    lookupHits.incrementBy(n);
+    lookupHitTotal.add(n);
+  }
+
+  /** Counts workspace lookups that needed a Coder request. */
+  void lookupMisses(long n) {
+    lookupMisses.incrementBy(n);
+    lookupMissTotal.add(n);
+  }
+
+  private double lookupHitRatio() {
+    long hit = lookupHitTotal.sum();
+    long total = hit + lookupMissTotal.sum();
+    return total == 0 ? 0 : (double) hit / total;
+  }
+
+  public Timer0.Context configServed() {
+    return configLatency.start();
+  }
+
+  /** Marks the start of a Coder call; pass the result to {@link #upstreamDone}. */
+  long upstreamStarted() {
+    upstreamInFlight.incrementAndGet();
+    return System.nanoTime();
+  }
+
+  /**
+   * Records a finished Coder call.
+   *
+   * @param status HTTP status, 0 if no response was received
+   */
+  void upstreamDone(String method, String path, int status, long startNanos) {
+    upstreamInFlight.decrementAndGet();
+    String endpoint = endpoint(method, path);
+    upstreamLatency.record(endpoint, System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    if (status < 200 || status > 299) {
+      upstreamErrors.increment(endpoint, status);
+    }
+  }
+
+  void waitStarted() {
+    readinessWaiters.incrementAndGet();
+  }
+
+  void waitDone() {
+    readinessWaiters.decrementAndGet();
+  }
+
+  void limiterQueued() {
+    limiterQueue.incrementAndGet();
+  }
+
+  void limiterDequeued() {
+    limiterQueue.decrementAndGet();
+  }
+
+  void limiterRejected(String scope) {
+    limiterRejections.increment(scope);
+  }
+
+  void workspaceCreated(String id) {
+    createdAt.put(id, System.nanoTime());
+  }
+
+  /** Records create-to-ready latency the first time a workspace created here is seen ready. */
+  void workspaceReady(String id) {
+    Long created = createdAt.getIfPresent(id);
+    if (created != null) {
+      createdAt.invalidate(id);
+      createToReady.record(System.nanoTime() - created, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /** Route name for metrics: literal path segments, with ids and names replaced by their kind. */
+  static String endpoint(String method, String path) {
+    int q = path.indexOf('?');
+    StringBuilder name = new StringBuilder(method.toLowerCase(Locale.US));
+    String previous = "";
+    for (String s : (q < 0 ? path : path.substring(0, q)).split("/")) {
+      if (s.isEmpty() || s.equals("api") || s.equals("v2")) {
+        continue;
+      }
+      String kind = parameterKind(previous);
+      name.append('_').append(kind != null ? kind : s);
+      previous = kind != null ? "" : s;
+    }
+    return name.toString();
+  }
+
+  @Nullable
+  private static String parameterKind(String previous) {
+    switch (previous) {
+      case "users":
+      case "members":
+        return "user";
+      case "organizations":
+        return "org";
+      case "workspace":
+        return "name";
+      case "workspaces":
+        return "id";
+      case "templates":
+        return "template";
+      case "templateversions":
+        return "version";
+      default:
+        return null;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.gerrit.extensions.webui.WebUiPlugin;
+import com.google.gerrit.json.OutputFormat;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The web UI script Gerrit loads for this plugin.
+ *
+ * <p>By default that is the static bundle, which then fetches {@code coder-workspace.config}
+ * before the change actions can work. With {@code inlineConfig} the script is served by {@link
+ * BootstrapServlet} as {@code bootstrap-<hash>.js}: the browser config prepended to the bundle.
+ * The hash covers both, so it only changes when gerrit.config (or the plugin) changes, and the
+ * script can be cached for good.
+ *
+ * <p>The script is public, so the API key is never inlined; when the browser needs it, the web UI
+ * still fetches the REST config.
+ */
+@Singleton
+public class ConfigBootstrap extends WebUiPlugin {
+  static final String STATIC_BUNDLE = "static/coder-workspace-static.js";
+  static final String SCRIPT_PREFIX = "bootstrap-";
+  static final String GLOBAL = "CoderWorkspaceBootstrap";
+
+  private static final Gson GSON = OutputFormat.JSON_COMPACT.newGson();
+
+  /** A rendered bootstrap script for one config snapshot. */
+  static final class Script {
+    final ConfigSnapshot snapshot;
+    final String hash;
+    final byte[] content;
+
+    Script(ConfigSnapshot snapshot, String hash, byte[] content) {
+      this.snapshot = snapshot;
+      this.hash = hash;
+      this.content = content;
+    }
+
+    String path() {
+      return SCRIPT_PREFIX + hash + ".js";
+    }
+  }
+
+  private final ConfigSnapshotCache snapshots;
+  private volatile byte[] bundle;
+  private volatile Script script;
+
+  @Inject
+  ConfigBootstrap(ConfigSnapshotCache snapshots) {
+    this.snapshots = snapshots;
+  }
+
+  @Override
+  public String getJavaScriptResourcePath() {
+    return snapshots.get().server().inlineConfig ? script().path() : STATIC_BUNDLE;
+  }
+
+  /** Bootstrap script for the current configuration. */
+  Script script() {
+    ConfigSnapshot snapshot = snapshots.get();
+    Script s = script;
+    if (s == null || s.snapshot != snapshot) {
+      s = render(snapshot, bundle());
+      script = s;
+    }
+    return s;
+  }
+
+  @VisibleForTesting
+  static Script render(ConfigSnapshot snapshot, byte[] bundle) {
+    JsonObject cfg = GSON.toJsonTree(snapshot.info()).getAsJsonObject();
+    boolean apiKeyOmitted = cfg.remove("apiKey") != null;
+    JsonObject boot = new JsonObject();
+    boot.add("config", cfg);
+    boot.addProperty("apiKeyOmitted", apiKeyOmitted);
+    byte[] head =
+        ("window." + GLOBAL + " = " + GSON.toJson(boot) + ";\n").getBytes(StandardCharsets.UTF_8);
+    byte[] content = new byte[head.length + bundle.length];
+    System.arraycopy(head, 0, content, 0, head.length);
+    System.arraycopy(bundle, 0, content, head.length, bundle.length);
+    String hash = Hashing.sha256().hashBytes(content).toString().substring(0, 16);
+    return new Script(snapshot, hash, content);
+  }
+
+  private byte[] bundle() {
+    byte[] b = bundle;
+    if (b == null) {
+      try (InputStream in = getClass().getResourceAsStream("/" + STATIC_BUNDLE)) {
+        if (in == null) {
+          throw new IllegalStateException("Missing plugin resource " + STATIC_BUNDLE);
+        }
+        b = ByteStreams.toByteArray(in);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      bundle = b;
+    }
+    return b;
+  }
+}
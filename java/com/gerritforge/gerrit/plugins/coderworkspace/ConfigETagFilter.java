@@ -0,0 +1,59 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.net.HttpHeaders;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.httpd.AllRequestFilter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Answers {@code GET /config/server/coder-workspace.config} with a 304 when the browser already
+ * has the current snapshot ({@code If-None-Match} names {@link GetConfig#etag}).
+ *
+ * <p>REST views cannot see request headers, so the revalidation is handled in front of Gerrit's
+ * REST servlet; everything else passes through.
+ */
+@Singleton
+public class ConfigETagFilter extends AllRequestFilter {
+  private final ConfigSnapshotCache snapshots;
+  private final String path;
+
+  @Inject
+  ConfigETagFilter(ConfigSnapshotCache snapshots, @PluginName String pluginName) {
+    this.snapshots = snapshots;
+    this.path = "/config/server/" + pluginName + ".config";
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    if (request instanceof HttpServletRequest req
+        && response instanceof HttpServletResponse res
+        && isConfigGet(req)) {
+      String etag = GetConfig.etag(snapshots.get());
+      if (GetConfig.matches(req.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+        res.setHeader(HttpHeaders.ETAG, etag);
+        res.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=0, must-revalidate");
+        res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+    }
+    chain.doFilter(request, response);
+  }
+
+  private boolean isConfigGet(HttpServletRequest req) {
+    if (!"GET".equals(req.getMethod())) {
+      return false;
+    }
+    String uri = req.getRequestURI().substring(req.getContextPath().length());
+    // Authenticated REST calls are prefixed with /a
+    return uri.equals(path) || uri.equals("/a" + path);
+  }
+}
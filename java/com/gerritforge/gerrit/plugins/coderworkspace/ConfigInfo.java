@@ -30,6 +30,16 @@ public class ConfigInfo {
   public boolean openAfterCreate = true;
   @SerializedName("enableDryRunPreview")
   public boolean enableDryRunPreview = false;
+
+  // When true, the UI shows how long each phase of opening a workspace took
+  @SerializedName("debugTiming")
+  public boolean debugTiming = false;
+  @SerializedName("strictName")
+  public boolean strictName = false;
+
+  // When true, viewing a change starts its stopped workspace in the background (server proxy)
+  @SerializedName("speculativeStart")
+  public boolean speculativeStart = false;
   @SerializedName("ttlMs")
   public long ttlMs = 0;
 
@@ -46,6 +56,13 @@ public class ConfigInfo {
   public List<RichParam> richParams = defaultRichParams();
   @SerializedName("templateMappings")
   public List<TemplateMapping> templateMappings = new ArrayList<>();
+  // When true, templateMappings is not sent; the UI asks the revision-level template view instead
+  @SerializedName("resolveTemplatesOnServer")
+  public boolean resolveTemplatesOnServer = false;
+
+  // When true, apiKey is not sent; the UI calls Coder through the coder-workspace~workspace view
+  @SerializedName("useServerProxy")
+  public boolean useServerProxy = false;
 
   // Auth/cross-origin helpers
   @SerializedName("retryAuthWithQueryParam")
@@ -80,6 +97,10 @@ public class ConfigInfo {
     public String templateVersionPresetId;
     public String workspaceNameTemplate;
     public List<RichParam> richParams;
+    // Create or start the workspace as soon as a patchset is uploaded
+    public boolean prewarm;
+    // Stopped workspaces of templateVersionId kept ready to hand out, see WorkspacePool
+    public int poolSize;
   }
 
   private static List<RichParam> defaultRichParams() {
@@ -0,0 +1,475 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gson.Gson;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, pre-parsed view of the plugin section in gerrit.config.
+ *
+ * <p>Built once per config (re)load by {@link ConfigSnapshotCache}, so the JSON and CSV settings
+ * are not re-parsed on every request.
+ */
+public final class ConfigSnapshot {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final Gson GSON = new Gson();
+
+  static final String DEFAULT_NAME_TEMPLATE = "{repo}-{change}-{patchset}";
+  // Same lookup defaults as the web UI when no alternates are configured
+  static final ImmutableList<String> DEFAULT_ALTERNATE_NAME_TEMPLATES =
+      ImmutableList.of("{repo}.{branchShort}", "{repo}-{change}.{branchShort}");
+  private static final String NO_BRANCH_NAME_TEMPLATE = "{repo}-{change}";
+
+  private final ConfigInfo info;
+  private final ServerSettings server;
+  private final TemplateIndex templates;
+  private final ImmutableMap<String, NameTemplate> nameTemplates;
+  private final ImmutableList<NameTemplate> alternateNameTemplates;
+  private final ImmutableList<String> errors;
+  private final String etag;
+  private final ImmutableMap<String, Integer> poolSizes;
+
+  private ConfigSnapshot(
+      ConfigInfo info,
+      ServerSettings server,
+      TemplateIndex templates,
+      ImmutableMap<String, NameTemplate> nameTemplates,
+      ImmutableList<String> errors,
+      String etag) {
+    this.info = info;
+    this.server = server;
+    this.templates = templates;
+    this.nameTemplates = nameTemplates;
+    this.alternateNameTemplates =
+        (info.alternateNameTemplates.isEmpty()
+                ? DEFAULT_ALTERNATE_NAME_TEMPLATES
+                : info.alternateNameTemplates)
+            .stream()
+            .map(this::nameTemplate)
+            .collect(ImmutableList.toImmutableList());
+    this.errors = errors;
+    this.etag = etag;
+    this.poolSizes = poolSizes(templates);
+  }
+
+  /** Configuration returned to the web UI. Must not be mutated by callers. */
+  public ConfigInfo info() {
+    return info;
+  }
+
+  /** Server-side settings, including the Coder API token. Must not be mutated by callers. */
+  public ServerSettings server() {
+    return server;
+  }
+
+  /** Compiled template mappings; always complete, even when not served to the web UI. */
+  public TemplateIndex templates() {
+    return templates;
+  }
+
+  /** Effective template for a change on the given repo and branch. */
+  public TemplateInfo resolveTemplate(String repo, String branch) {
+    return TemplateInfo.of(info, templates.resolve(repo, branch).orElse(null));
+  }
+
+  /** Compiled form of a name template; templates from the config are compiled at load time. */
+  public NameTemplate nameTemplate(String template) {
+    String tpl = template == null || template.isEmpty() ? DEFAULT_NAME_TEMPLATE : template;
+    NameTemplate compiled = nameTemplates.get(tpl);
+    return compiled != null ? compiled : NameTemplate.compile(tpl);
+  }
+
+  /**
+   * Workspace names to look up for a change, in priority order: the primary name used for
+   * creation, then the alternate templates. Mirrors computeCandidateNames in the web UI.
+   */
+  public ImmutableList<String> candidateNames(TemplateInfo template, NameContext ctx) {
+    Set<String> names = new LinkedHashSet<>();
+    names.add(nameTemplate(template.workspaceNameTemplate).render(ctx));
+    for (NameTemplate alt : alternateNameTemplates) {
+      names.add(alt.render(ctx));
+    }
+    if (ctx.branch().isEmpty()) {
+      names.add(nameTemplate(NO_BRANCH_NAME_TEMPLATE).render(ctx));
+    }
+    return ImmutableList.copyOf(names);
+  }
+
+  /** Workspace pool size by template version id; only versions with a pool are listed. */
+  public ImmutableMap<String, Integer> poolSizes() {
+    return poolSizes;
+  }
+
+  /** Problems found while parsing gerrit.config; empty when the config is well formed. */
+  public ImmutableList<String> errors() {
+    return errors;
+  }
+
+  /** Entity tag derived from the serialized {@link #info()}. */
+  public String etag() {
+    return etag;
+  }
+
+  public static ConfigSnapshot parse(PluginConfig cfg) {
+    List<String> errors = new ArrayList<>();
+    ConfigInfo info = new ConfigInfo();
+
+    info.serverUrl = cfg.getString("serverUrl");
+    info.apiKey = cfg.getString("apiKey");
+    info.organization = cfg.getString("organization");
+    info.user = cfg.getString("user", info.user);
+
+    info.templateId = cfg.getString("templateId");
+    info.templateVersionId = cfg.getString("templateVersionId");
+    info.templateVersionPresetId = cfg.getString("templateVersionPresetId");
+
+    info.workspaceNameTemplate = cfg.getString("workspaceNameTemplate", info.workspaceNameTemplate);
+    info.openAfterCreate = cfg.getBoolean("openAfterCreate", info.openAfterCreate);
+    info.enableDryRunPreview = cfg.getBoolean("enableDryRunPreview", info.enableDryRunPreview);
+    info.debugTiming = cfg.getBoolean("debugTiming", info.debugTiming);
+    info.strictName = cfg.getBoolean("strictName", info.strictName);
+    info.speculativeStart = cfg.getBoolean("speculativeStart", info.speculativeStart);
+    info.ttlMs = cfg.getLong("ttlMs", info.ttlMs);
+
+    // Optional app slug for deep linking to an app when latest_app_status.uri is not provided
+    String appSlug = cfg.getString("appSlug");
+    if (appSlug != null && !appSlug.trim().isEmpty()) {
+      info.appSlug = appSlug.trim();
+    }
+
+    alternateNameTemplates(cfg, info, errors);
+
+    // Readiness polling options
+    info.waitForAppReadyMs = cfg.getLong("waitForAppReadyMs", info.waitForAppReadyMs);
+    info.waitPollIntervalMs = cfg.getLong("waitPollIntervalMs", info.waitPollIntervalMs);
+
+    richParams(cfg, info, errors);
+    templateMappings(cfg, info, errors);
+
+    // Resolve mappings via the per-revision REST view instead of shipping them to every browser
+    info.resolveTemplatesOnServer =
+        cfg.getBoolean("resolveTemplatesOnServer", info.resolveTemplatesOnServer);
+    TemplateIndex templates = TemplateIndex.compile(info.templateMappings);
+    if (info.resolveTemplatesOnServer) {
+      info.templateMappings = new ArrayList<>();
+    }
+
+    // Auth helpers
+    info.retryAuthWithQueryParam =
+        cfg.getBoolean("retryAuthWithQueryParam", info.retryAuthWithQueryParam);
+    String qpName = cfg.getString("apiKeyQueryParamName");
+    if (qpName != null && !qpName.trim().isEmpty()) {
+      info.apiKeyQueryParamName = qpName.trim();
+    }
+    info.appendTokenToAppUrl = cfg.getBoolean("appendTokenToAppUrl", info.appendTokenToAppUrl);
+
+    // Popup-blocker mitigation: open a placeholder tab immediately and redirect later
+    info.navigateInSameTabOnBlock = cfg.getBoolean("navigateInSameTabOnBlock", info.navigateInSameTabOnBlock);
+
+    ServerSettings server = server(cfg, info, errors);
+    info.useServerProxy = server.useServerProxy;
+    if (server.useServerProxy) {
+      info.apiKey = null;
+    }
+
+    // Not in ConfigInfo, which every browser loads; administrators use GetConfigErrors
+    for (String error : errors) {
+      logger.atWarning().log("Invalid coder-workspace configuration: %s", error);
+    }
+    freeze(info);
+
+    String etag =
+        Hashing.murmur3_128()
+            .hashString(GSON.toJson(info), StandardCharsets.UTF_8)
+            .toString();
+    return new ConfigSnapshot(
+        info,
+        server,
+        templates,
+        compileNameTemplates(info, templates),
+        ImmutableList.copyOf(errors),
+        etag);
+  }
+
+  /** alternateNameTemplates: either a JSON array or a comma-separated list. */
+  private static void alternateNameTemplates(
+      PluginConfig cfg, ConfigInfo info, List<String> errors) {
+    String altsJson = cfg.getString("alternateNameTemplatesJson");
+    String altsCsv = cfg.getString("alternateNameTemplates");
+    if (altsJson != null && !altsJson.trim().isEmpty()) {
+      try {
+        String[] arr = GSON.fromJson(altsJson, String[].class);
+        if (arr != null) {
+          info.alternateNameTemplates.clear();
+          for (String s : arr) {
+            if (s != null && !s.trim().isEmpty()) info.alternateNameTemplates.add(s.trim());
+          }
+        }
+      } catch (Exception e) {
+        // fall back to CSV
+        errors.add("alternateNameTemplatesJson: " + e.getMessage());
+      }
+    }
+    if (info.alternateNameTemplates.isEmpty() && altsCsv != null && !altsCsv.trim().isEmpty()) {
+      String[] parts = altsCsv.split(",");
+      for (String p : parts) {
+        String s = p.trim();
+        if (!s.isEmpty()) info.alternateNameTemplates.add(s);
+      }
+    }
+  }
+
+  /** richParams: comma-separated NAME:from entries. */
+  private static void richParams(PluginConfig cfg, ConfigInfo info, List<String> errors) {
+    String rp = cfg.getString("richParams");
+    if (rp == null || rp.trim().isEmpty()) {
+      return;
+    }
+    List<ConfigInfo.RichParam> parsed = new ArrayList<>();
+    String[] parts = rp.split(",");
+    for (String p : parts) {
+      String s = p.trim();
+      if (s.isEmpty()) continue;
+      int idx = s.indexOf(":");
+      if (idx > 0 && idx < s.length() - 1) {
+        String name = s.substring(0, idx).trim();
+        String from = s.substring(idx + 1).trim();
+        if (!name.isEmpty() && !from.isEmpty()) {
+          parsed.add(new ConfigInfo.RichParam(name, from));
+          continue;
+        }
+      }
+      errors.add("richParams: ignoring malformed entry '" + s + "' (expected NAME:from)");
+    }
+    // keep defaults when nothing usable was configured
+    if (!parsed.isEmpty()) {
+      info.richParams = parsed;
+    }
+  }
+
+  /** templateMappingsJson: JSON array. */
+  private static void templateMappings(PluginConfig cfg, ConfigInfo info, List<String> errors) {
+    String mappingsJson = cfg.getString("templateMappingsJson");
+    if (mappingsJson == null || mappingsJson.trim().isEmpty()) {
+      return;
+    }
+    try {
+      ConfigInfo.TemplateMapping[] arr =
+          GSON.fromJson(mappingsJson, ConfigInfo.TemplateMapping[].class);
+      info.templateMappings.clear();
+      if (arr != null) {
+        for (ConfigInfo.TemplateMapping m : arr) {
+          if (m == null) continue;
+          if (m.poolSize < 0 || (m.poolSize > 0 && Strings.isNullOrEmpty(m.templateVersionId))) {
+            errors.add(
+                "templateMappingsJson: poolSize must not be negative and needs a"
+                    + " templateVersionId; no pool for " + m.repo);
+            m.poolSize = 0;
+          }
+          info.templateMappings.add(m);
+        }
+      }
+    } catch (Exception e) {
+      // keep defaults
+      errors.add("templateMappingsJson: " + e.getMessage());
+    }
+  }
+
+  /** Server-side Coder proxy: the token stays in Gerrit and is not sent to browsers. */
+  private static ServerSettings server(PluginConfig cfg, ConfigInfo info, List<String> errors) {
+    ServerSettings server = new ServerSettings();
+    server.serverUrl = info.serverUrl;
+    server.apiKey = info.apiKey;
+    server.organization = info.organization;
+    server.user = info.user;
+    server.useServerProxy = cfg.getBoolean("useServerProxy", server.useServerProxy);
+    server.ownerFromGerritUsername =
+        cfg.getBoolean("ownerFromGerritUsername", server.ownerFromGerritUsername);
+    server.inlineConfig = cfg.getBoolean("inlineConfig", server.inlineConfig);
+    server.connectTimeoutMs = positive(cfg, "connectTimeoutMs", server.connectTimeoutMs, errors);
+    server.requestTimeoutMs = positive(cfg, "requestTimeoutMs", server.requestTimeoutMs, errors);
+    limits(cfg, server, errors);
+    breakers(cfg, server, errors);
+    proxy(cfg, server, errors);
+    traces(cfg, server, errors);
+    prewarm(cfg, server, errors);
+    cleanup(cfg, server, errors);
+    invalidation(cfg, server, errors);
+    return server;
+  }
+
+  /** CoderLimiter: global permits and per-user rate. */
+  private static void limits(PluginConfig cfg, ServerSettings server, List<String> errors) {
+    server.maxConcurrentCalls =
+        nonNegative(cfg, "maxConcurrentCalls", server.maxConcurrentCalls, errors);
+    server.maxQueueWaitMs = nonNegative(cfg, "maxQueueWaitMs", server.maxQueueWaitMs, errors);
+    server.userCallsPerMinute =
+        nonNegative(cfg, "userCallsPerMinute", server.userCallsPerMinute, errors);
+    server.userBurst = positive(cfg, "userBurst", server.userBurst, errors);
+  }
+
+  /** CircuitBreakers: failure threshold, open time, adaptive timeouts and hedged reads. */
+  private static void breakers(PluginConfig cfg, ServerSettings server, List<String> errors) {
+    server.breakerFailureThreshold =
+        nonNegative(cfg, "breakerFailureThreshold", server.breakerFailureThreshold, errors);
+    server.breakerOpenMs = positive(cfg, "breakerOpenMs", server.breakerOpenMs, errors);
+    server.adaptiveTimeouts = cfg.getBoolean("adaptiveTimeouts", server.adaptiveTimeouts);
+    server.hedgeReads = cfg.getBoolean("hedgeReads", server.hedgeReads);
+  }
+
+  /** UpstreamExecutor and CreateWorkspaces: proxy request admission, deadline and fan-out. */
+  private static void proxy(PluginConfig cfg, ServerSettings server, List<String> errors) {
+    server.maxProxyRequests = nonNegative(cfg, "maxProxyRequests", server.maxProxyRequests, errors);
+    server.proxyDeadlineMs = positive(cfg, "proxyDeadlineMs", server.proxyDeadlineMs, errors);
+    server.bulkParallelism = positive(cfg, "bulkParallelism", server.bulkParallelism, errors);
+    server.bulkMaxChanges = positive(cfg, "bulkMaxChanges", server.bulkMaxChanges, errors);
+  }
+
+  /** OpenTraces: sampling and buffer size. */
+  private static void traces(PluginConfig cfg, ServerSettings server, List<String> errors) {
+    int percent = cfg.getInt("traceSamplePercent", server.traceSamplePercent);
+    if (percent < 0 || percent > 100) {
+      errors.add(
+          "traceSamplePercent must be between 0 and 100, not "
+              + percent
+              + "; using "
+              + server.traceSamplePercent);
+    } else {
+      server.traceSamplePercent = percent;
+    }
+    server.traceBufferSize = positive(cfg, "traceBufferSize", server.traceBufferSize, errors);
+  }
+
+  /** Prewarmer, SpeculativeStarter and WorkspacePool. */
+  private static void prewarm(PluginConfig cfg, ServerSettings server, List<String> errors) {
+    server.prewarmThreads = positive(cfg, "prewarmThreads", server.prewarmThreads, errors);
+    server.prewarmQueueLimit = positive(cfg, "prewarmQueueLimit", server.prewarmQueueLimit, errors);
+    server.speculativeStartDelayMs =
+        nonNegative(cfg, "speculativeStartDelayMs", server.speculativeStartDelayMs, errors);
+    server.speculativeUserStartsPerHour =
+        positive(cfg, "speculativeUserStartsPerHour", server.speculativeUserStartsPerHour, errors);
+    server.speculativeStartsPerMinute =
+        positive(cfg, "speculativeStartsPerMinute", server.speculativeStartsPerMinute, errors);
+    server.poolCheckIntervalSeconds =
+        positive(cfg, "poolCheckIntervalSeconds", server.poolCheckIntervalSeconds, errors);
+  }
+
+  /** WorkspaceCleanup. */
+  private static void cleanup(PluginConfig cfg, ServerSettings server, List<String> errors) {
+    server.cleanupClosedChanges =
+        cfg.getBoolean("cleanupClosedChanges", server.cleanupClosedChanges);
+    server.cleanupSupersededPatchsets =
+        cfg.getBoolean("cleanupSupersededPatchsets", server.cleanupSupersededPatchsets);
+    server.cleanupDryRun = cfg.getBoolean("cleanupDryRun", server.cleanupDryRun);
+    server.cleanupBatchSize = positive(cfg, "cleanupBatchSize", server.cleanupBatchSize, errors);
+    server.cleanupIntervalSeconds =
+        positive(cfg, "cleanupIntervalSeconds", server.cleanupIntervalSeconds, errors);
+    server.cleanupMaxAttempts =
+        positive(cfg, "cleanupMaxAttempts", server.cleanupMaxAttempts, errors);
+    server.cleanupQueueLimit = positive(cfg, "cleanupQueueLimit", server.cleanupQueueLimit, errors);
+  }
+
+  /** CacheInvalidation: transport and polling interval. */
+  private static void invalidation(PluginConfig cfg, ServerSettings server, List<String> errors) {
+    server.cacheInvalidation =
+        Strings.nullToEmpty(cfg.getString("cacheInvalidation", server.cacheInvalidation))
+            .trim()
+            .toLowerCase(Locale.ROOT);
+    server.invalidationDirectory = cfg.getString("invalidationDirectory");
+    server.invalidationIntervalMs =
+        positive(cfg, "invalidationIntervalMs", server.invalidationIntervalMs, errors);
+    if (server.cacheInvalidation.equals(ServerSettings.INVALIDATION_DIRECTORY)
+        && Strings.isNullOrEmpty(server.invalidationDirectory)) {
+      errors.add("cacheInvalidation = directory needs invalidationDirectory; using none");
+      server.cacheInvalidation = ServerSettings.INVALIDATION_NONE;
+    } else if (!server.cacheInvalidation.equals(ServerSettings.INVALIDATION_NONE)
+        && !server.cacheInvalidation.equals(ServerSettings.INVALIDATION_DIRECTORY)
+        && !server.cacheInvalidation.equals(ServerSettings.INVALIDATION_EVENTS)) {
+      errors.add(
+          "cacheInvalidation must be none, directory or events, not \""
+              + server.cacheInvalidation
+              + "\"; using none");
+      server.cacheInvalidation = ServerSettings.INVALIDATION_NONE;
+    }
+  }
+
+  private static int positive(PluginConfig cfg, String key, int def, List<String> errors) {
+    return (int) atLeast(key, cfg.getInt(key, def), 1, def, errors);
+  }
+
+  private static long positive(PluginConfig cfg, String key, long def, List<String> errors) {
+    return atLeast(key, cfg.getLong(key, def), 1, def, errors);
+  }
+
+  private static int nonNegative(PluginConfig cfg, String key, int def, List<String> errors) {
+    return (int) atLeast(key, cfg.getInt(key, def), 0, def, errors);
+  }
+
+  private static long nonNegative(PluginConfig cfg, String key, long def, List<String> errors) {
+    return atLeast(key, cfg.getLong(key, def), 0, def, errors);
+  }
+
+  /** {@code value} if it is at least {@code min}; otherwise records an error and returns def. */
+  private static long atLeast(String key, long value, long min, long def, List<String> errors) {
+    if (value >= min) {
+      return value;
+    }
+    errors.add(
+        key
+            + " must be "
+            + (min > 0 ? "positive" : "non-negative")
+            + ", not "
+            + value
+            + "; using "
+            + def);
+    return def;
+  }
+
+  private static ImmutableMap<String, Integer> poolSizes(TemplateIndex templates) {
+    Map<String, Integer> sizes = new LinkedHashMap<>();
+    for (ConfigInfo.TemplateMapping m : templates.mappings()) {
+      if (m.poolSize > 0) {
+        // Mappings pinning the same version share one pool, of the largest size
+        sizes.merge(m.templateVersionId, m.poolSize, Math::max);
+      }
+    }
+    return ImmutableMap.copyOf(sizes);
+  }
+
+  private static ImmutableMap<String, NameTemplate> compileNameTemplates(
+      ConfigInfo info, TemplateIndex templates) {
+    Set<String> raw = new LinkedHashSet<>();
+    raw.add(DEFAULT_NAME_TEMPLATE);
+    raw.add(NO_BRANCH_NAME_TEMPLATE);
+    raw.add(info.workspaceNameTemplate);
+    raw.addAll(info.alternateNameTemplates);
+    raw.addAll(DEFAULT_ALTERNATE_NAME_TEMPLATES);
+    for (ConfigInfo.TemplateMapping m : templates.mappings()) {
+      if (m.workspaceNameTemplate != null) raw.add(m.workspaceNameTemplate);
+    }
+    ImmutableMap.Builder<String, NameTemplate> compiled = ImmutableMap.builder();
+    for (String tpl : raw) {
+      if (tpl != null && !tpl.isEmpty()) compiled.put(tpl, NameTemplate.compile(tpl));
+    }
+    return compiled.buildKeepingLast();
+  }
+
+  private static void freeze(ConfigInfo info) {
+    info.alternateNameTemplates = Collections.unmodifiableList(info.alternateNameTemplates);
+    info.richParams = Collections.unmodifiableList(info.richParams);
+    info.templateMappings = Collections.unmodifiableList(info.templateMappings);
+  }
+}
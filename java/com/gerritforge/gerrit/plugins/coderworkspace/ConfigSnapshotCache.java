@@ -0,0 +1,74 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.collect.Multimap;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.ConfigKey;
+import com.google.gerrit.server.config.ConfigUpdatedEvent;
+import com.google.gerrit.server.config.ConfigUpdatedEvent.ConfigUpdateEntry;
+import com.google.gerrit.server.config.ConfigUpdatedEvent.UpdateResult;
+import com.google.gerrit.server.config.GerritConfigListener;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Holds the current {@link ConfigSnapshot}.
+ *
+ * <p>The snapshot is parsed lazily on first use and dropped whenever gerrit.config is reloaded
+ * with changes to the plugin section.
+ */
+@Singleton
+public class ConfigSnapshotCache implements GerritConfigListener {
+  private final PluginConfigFactory cfgFactory;
+  private final String pluginName;
+  private volatile ConfigSnapshot snapshot;
+
+  @Inject
+  public ConfigSnapshotCache(PluginConfigFactory cfgFactory, @PluginName String pluginName) {
+    this.cfgFactory = cfgFactory;
+    this.pluginName = pluginName;
+  }
+
+  public ConfigSnapshot get() {
+    ConfigSnapshot s = snapshot;
+    if (s == null) {
+      synchronized (this) {
+        s = snapshot;
+        if (s == null) {
+          s = ConfigSnapshot.parse(cfgFactory.getFromGerritConfig(pluginName));
+          snapshot = s;
+        }
+      }
+    }
+    return s;
+  }
+
+  public synchronized void invalidate() {
+    snapshot = null;
+  }
+
+  @Override
+  public Multimap<UpdateResult, ConfigUpdateEntry> configUpdated(ConfigUpdatedEvent event) {
+    Set<ConfigKey> updated = updatedKeys(event, pluginName);
+    if (updated.isEmpty()) {
+      return ConfigUpdatedEvent.NO_UPDATES;
+    }
+    invalidate();
+    return event.accept(updated);
+  }
+
+  /** Keys of the plugin section that the reload added, removed or changed. */
+  static Set<ConfigKey> updatedKeys(ConfigUpdatedEvent event, String pluginName) {
+    Set<String> names = new HashSet<>(event.getOldConfig().getNames("plugin", pluginName));
+    names.addAll(event.getNewConfig().getNames("plugin", pluginName));
+    Set<ConfigKey> updated = new HashSet<>();
+    for (String name : names) {
+      if (event.isValueUpdated("plugin", pluginName, name)) {
+        updated.add(ConfigKey.create("plugin", pluginName, name));
+      }
+    }
+    return updated;
+  }
+}
@@ -0,0 +1,54 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.inject.Inject;
+
+/**
+ * Opens the Coder workspace for a revision, creating it when it does not exist yet.
+ *
+ * <p>Exposed as {@code POST /changes/<id>/revisions/<rev>/coder-workspace~workspace}. Answers 201
+ * with the new workspace, or 200 with the existing one. The phases are reported in a {@code
+ * Server-Timing} header (see {@link OpenTrace}).
+ */
+public class CreateWorkspace implements RestModifyView<RevisionResource, CreateWorkspace.Input> {
+  public static class Input {}
+
+  private final WorkspaceService workspaces;
+  private final UpstreamExecutor upstream;
+  private final OpenTraces traces;
+
+  @Inject
+  CreateWorkspace(WorkspaceService workspaces, UpstreamExecutor upstream, OpenTraces traces) {
+    this.workspaces = workspaces;
+    this.upstream = upstream;
+    this.traces = traces;
+  }
+
+  @Override
+  @SuppressWarnings("try")
+  public Response<?> apply(RevisionResource rsrc, Input input) throws RestApiException {
+    workspaces.checkEnabled(rsrc);
+    OpenTrace trace = traces.start("create");
+    WorkspaceTarget target = null;
+    try {
+      try (OpenTrace.Span s = trace.span("admit")) {
+        workspaces.admit(rsrc.getUser());
+      }
+      try (OpenTrace.Span s = trace.span("template")) {
+        target = workspaces.target(rsrc);
+      }
+      WorkspaceTarget t = target;
+      WorkspaceService.Opened opened = upstream.call(() -> workspaces.openOrCreate(t, trace), 0);
+      Response<WorkspaceInfo> res =
+          opened.created ? Response.created(opened.workspace) : Response.ok(opened.workspace);
+      traces.finish(trace, target, res.statusCode());
+      return trace.withHeaders(res);
+    } catch (CoderException e) {
+      traces.finish(trace, target, e.responseStatus());
+      return trace.withHeaders(e.toResponse());
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gson.annotations.SerializedName;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Body of the Coder create-workspace call; same shape as buildCreateRequest in the web UI. */
+public class CreateWorkspaceRequest {
+  @SerializedName("name")
+  public String name;
+  @SerializedName("template_id")
+  public String templateId;
+  @SerializedName("template_version_id")
+  public String templateVersionId;
+  @SerializedName("template_version_preset_id")
+  public String templateVersionPresetId;
+  @SerializedName("rich_parameter_values")
+  public List<RichParameterValue> richParameterValues = new ArrayList<>();
+  @SerializedName("ttl_ms")
+  public long ttlMs;
+
+  public static class RichParameterValue {
+    @SerializedName("name")
+    public String name;
+    @SerializedName("value")
+    public String value;
+
+    public RichParameterValue() {}
+
+    public RichParameterValue(String name, String value) {
+      this.name = name;
+      this.value = value;
+    }
+  }
+
+  /** Copy of this request with another workspace name. */
+  CreateWorkspaceRequest withName(String newName) {
+    CreateWorkspaceRequest copy = new CreateWorkspaceRequest();
+    copy.name = newName;
+    copy.templateId = templateId;
+    copy.templateVersionId = templateVersionId;
+    copy.templateVersionPresetId = templateVersionPresetId;
+    copy.richParameterValues = richParameterValues;
+    copy.ttlMs = ttlMs;
+    return copy;
+  }
+}
@@ -0,0 +1,333 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.client.ListChangesOption;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.RevisionInfo;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.BinaryResult;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.json.OutputFormat;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.account.AccountResource;
+import com.google.gerrit.server.cancellation.RequestStateContext;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Opens the workspaces of several changes at once: a topic, or a list of changes such as a stacked
+ * series.
+ *
+ * <p>Exposed as {@code POST /accounts/self/coder-workspace~workspaces} with either {@code topic}
+ * (its open changes) or {@code changes} (change ids). Every change's current patchset is opened
+ * like {@link CreateWorkspace} does, and a stopped workspace is started. At most {@code
+ * bulkParallelism} changes are worked on at a time, and at most {@code bulkMaxChanges} are
+ * accepted. Each change takes its own token from the user's rate limit (see {@link
+ * CoderLimiter#admit}), so a change over the limit fails with 429 on its line.
+ *
+ * <p>The response is newline-delimited JSON, one line per change, written as soon as the change is
+ * done (so not in request order). Failures are reported on the change's line; Gerrit gives up on
+ * the rest when no change finished for {@code proxyDeadlineMs}.
+ */
+public class CreateWorkspaces implements RestModifyView<AccountResource, CreateWorkspaces.Input> {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  public static class Input {
+    public String topic;
+    public List<String> changes;
+  }
+
+  static final String CONTENT_TYPE = "application/x-ndjson";
+
+  // Change numbers, Change-Ids and project~number; nothing that would change the query
+  private static final Pattern CHANGE_ID = Pattern.compile("[\\w.~/+-]+");
+  private static final Gson GSON = OutputFormat.JSON_COMPACT.newGson();
+
+  private final ConfigSnapshotCache snapshots;
+  private final CoderClient coder;
+  private final WorkspaceService workspaces;
+  private final UpstreamExecutor upstream;
+  private final CoderLimiter limiter;
+  private final GerritApi gApi;
+  private final Provider<CurrentUser> self;
+
+  @Inject
+  CreateWorkspaces(
+      ConfigSnapshotCache snapshots,
+      CoderClient coder,
+      WorkspaceService workspaces,
+      UpstreamExecutor upstream,
+      CoderLimiter limiter,
+      GerritApi gApi,
+      Provider<CurrentUser> self) {
+    this.snapshots = snapshots;
+    this.coder = coder;
+    this.workspaces = workspaces;
+    this.upstream = upstream;
+    this.limiter = limiter;
+    this.gApi = gApi;
+    this.self = self;
+  }
+
+  /** Outcome for one change, written as one line of the response. */
+  static class Result {
+    String project;
+    String branch;
+    int change;
+    int patchset;
+    String name;
+    // created, opened, started or failed
+    String status;
+    // HTTP status the single-change view would have answered with
+    int code;
+    WorkspaceInfo workspace;
+    String error;
+
+    /** The change fields; the outcome is left empty. */
+    Result copy() {
+      Result r = new Result();
+      r.project = project;
+      r.branch = branch;
+      r.change = change;
+      r.patchset = patchset;
+      r.name = name;
+      return r;
+    }
+  }
+
+  @Override
+  public Response<?> apply(AccountResource rsrc, Input input) throws RestApiException {
+    CurrentUser user = self.get();
+    workspaces.checkEnabled(user);
+    if (!user.getAccountId().equals(rsrc.getUser().getAccountId())) {
+      throw new AuthException("Only your own workspaces can be opened");
+    }
+    ServerSettings settings = snapshots.get().server();
+    List<ChangeInfo> changes =
+        gApi.changes()
+            .query(query(input))
+            .withOption(ListChangesOption.CURRENT_REVISION)
+            .withLimit(settings.bulkMaxChanges + 1)
+            .get();
+    if (changes.size() > settings.bulkMaxChanges) {
+      throw new BadRequestException("More than " + settings.bulkMaxChanges + " changes");
+    }
+    String username = user.getUserName().orElse(null);
+    Map<Result, WorkspaceTarget> targets = new LinkedHashMap<>();
+    for (ChangeInfo c : changes) {
+      RevisionInfo rev = c.revisions != null ? c.revisions.get(c.currentRevision) : null;
+      if (rev == null) {
+        continue;
+      }
+      BranchNameKey dest = BranchNameKey.create(Project.nameKey(c.project), c.branch);
+      WorkspaceTarget target = workspaces.target(dest, Change.id(c._number), rev._number, username);
+      Result r = new Result();
+      r.project = c.project;
+      r.branch = c.branch;
+      r.change = c._number;
+      r.patchset = rev._number;
+      r.name = target.name();
+      targets.put(r, target);
+    }
+
+    CoderLimiter.Permit slot;
+    try {
+      slot = limiter.enterRequest();
+    } catch (CoderException e) {
+      return e.toResponse();
+    }
+    AtomicBoolean released = new AtomicBoolean();
+    return Response.ok(
+        new BinaryResult() {
+          @Override
+          public void writeTo(OutputStream os) throws IOException {
+            try {
+              stream(os, user, targets, settings);
+            } finally {
+              close();
+            }
+          }
+
+          @Override
+          public void close() {
+            if (released.compareAndSet(false, true)) {
+              slot.close();
+            }
+          }
+        }.setContentType(CONTENT_TYPE)
+            .setCharacterEncoding(StandardCharsets.UTF_8)
+            // Gzip would buffer the whole response
+            .disableGzip());
+  }
+
+  /** Change query for the input: the topic's open changes, or exactly the listed changes. */
+  static String query(Input input) throws BadRequestException {
+    boolean hasTopic = input != null && input.topic != null && !input.topic.isEmpty();
+    boolean hasChanges = input != null && input.changes != null && !input.changes.isEmpty();
+    if (hasTopic == hasChanges) {
+      throw new BadRequestException("Either topic or changes is required");
+    }
+    if (hasTopic) {
+      return "status:open topic:\""
+          + input.topic.replace("\\", "\\\\").replace("\"", "\\\"")
+          + "\"";
+    }
+    List<String> terms = new ArrayList<>();
+    for (String id : input.changes) {
+      if (id == null || !CHANGE_ID.matcher(id).matches()) {
+        throw new BadRequestException("Invalid change id: " + id);
+      }
+      terms.add("change:" + id);
+    }
+    return String.join(" OR ", terms);
+  }
+
+  private void stream(
+      OutputStream os, CurrentUser user, Map<Result, WorkspaceTarget> targets, ServerSettings s)
+      throws IOException {
+    Writer w = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+    CompletionService<Result> done = new ExecutorCompletionService<>(upstream::execute);
+    Iterator<Map.Entry<Result, WorkspaceTarget>> queued = targets.entrySet().iterator();
+    // At most bulkParallelism changes are submitted; the next one when one finishes
+    Map<Future<Result>, Result> running = new LinkedHashMap<>();
+    try {
+      while (running.size() < s.bulkParallelism && queued.hasNext()) {
+        submit(done, user, queued.next(), running);
+      }
+      long waitNanos = TimeUnit.MILLISECONDS.toNanos(s.proxyDeadlineMs);
+      long end = System.nanoTime() + waitNanos;
+      while (!running.isEmpty()) {
+        // Throws RequestCancelledException, which Gerrit answers itself
+        RequestStateContext.abortIfCancelled();
+        long left = end - System.nanoTime();
+        if (left <= 0) {
+          break;
+        }
+        Future<Result> f =
+            done.poll(
+                Math.min(left, TimeUnit.MILLISECONDS.toNanos(UpstreamExecutor.CANCEL_CHECK_MS)),
+                TimeUnit.NANOSECONDS);
+        if (f == null) {
+          continue;
+        }
+        Result r = running.remove(f);
+        write(w, result(f, r));
+        end = System.nanoTime() + waitNanos;
+        if (queued.hasNext()) {
+          submit(done, user, queued.next(), running);
+        }
+      }
+      List<Result> timedOut = new ArrayList<>(running.values());
+      queued.forEachRemaining(e -> timedOut.add(e.getKey()));
+      for (Result r : timedOut) {
+        failed(
+            r,
+            new CoderException(
+                CoderException.SC_GATEWAY_TIMEOUT,
+                "Coder did not answer within " + s.proxyDeadlineMs + " ms"));
+        write(w, r);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for Coder", e);
+    } finally {
+      for (Future<Result> f : running.keySet()) {
+        f.cancel(true);
+      }
+    }
+  }
+
+  private void submit(
+      CompletionService<Result> done,
+      CurrentUser user,
+      Map.Entry<Result, WorkspaceTarget> e,
+      Map<Future<Result>, Result> running) {
+    Result r = e.getKey();
+    WorkspaceTarget target = e.getValue();
+    running.put(done.submit(() -> open(r, user, target)), r);
+  }
+
+  /**
+   * Opens or creates the change's workspace, and starts it when it is stopped. Fills in a copy of
+   * {@code submitted}, which the caller may already have reported as timed out.
+   */
+  private Result open(Result submitted, CurrentUser user, WorkspaceTarget target) {
+    Result r = submitted.copy();
+    try {
+      workspaces.admit(user);
+      WorkspaceService.Opened opened = workspaces.openOrCreate(target);
+      WorkspaceInfo ws = opened.workspace;
+      r.workspace = ws;
+      r.name = ws.name;
+      if (opened.created) {
+        r.status = "created";
+        r.code = 201;
+      } else if (ws.latestBuild != null && "stop".equals(ws.latestBuild.transition)) {
+        coder.startWorkspace(ws.id);
+        r.status = "started";
+        r.code = 200;
+      } else {
+        r.status = "opened";
+        r.code = 200;
+      }
+    } catch (CoderException e) {
+      logger.atFine().withCause(e).log("Cannot open workspace %s", target.name());
+      failed(r, e);
+    }
+    return r;
+  }
+
+  private static Result result(Future<Result> f, Result r) throws InterruptedException {
+    try {
+      return f.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      failed(
+          r,
+          cause instanceof CoderException
+              ? (CoderException) cause
+              : new CoderException("Coder request failed", cause));
+      return r;
+    }
+  }
+
+  private static void failed(Result r, CoderException e) {
+    r.status = "failed";
+    r.code = e.responseStatus();
+    r.error = e.getMessage();
+  }
+
+  private static void write(Writer w, Result r) throws IOException {
+    JsonWriter json = new JsonWriter(w);
+    GSON.toJson(r, Result.class, json);
+    json.flush();
+    w.write('\n');
+    w.flush();
+  }
+}
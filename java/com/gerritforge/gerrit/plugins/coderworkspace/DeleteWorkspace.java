@@ -0,0 +1,42 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.inject.Inject;
+
+/**
+ * Deletes the Coder workspace for a revision.
+ *
+ * <p>Exposed as {@code DELETE /changes/<id>/revisions/<rev>/coder-workspace~workspace}; Coder
+ * tears the workspace down asynchronously through a delete build.
+ */
+public class DeleteWorkspace implements RestModifyView<RevisionResource, DeleteWorkspace.Input> {
+  public static class Input {}
+
+  private final WorkspaceService workspaces;
+  private final UpstreamExecutor upstream;
+
+  @Inject
+  DeleteWorkspace(WorkspaceService workspaces, UpstreamExecutor upstream) {
+    this.workspaces = workspaces;
+    this.upstream = upstream;
+  }
+
+  @Override
+  public Response<?> apply(RevisionResource rsrc, Input input) throws RestApiException {
+    workspaces.checkEnabled(rsrc);
+    try {
+      workspaces.admit(rsrc.getUser());
+      WorkspaceTarget target = workspaces.target(rsrc);
+      if (!upstream.call(() -> workspaces.delete(target), 0).isPresent()) {
+        throw new ResourceNotFoundException("No Coder workspace for this revision");
+      }
+      return Response.none();
+    } catch (CoderException e) {
+      return e.toResponse();
+    }
+  }
+}
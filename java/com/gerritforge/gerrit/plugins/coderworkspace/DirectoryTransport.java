@@ -0,0 +1,99 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Exchanges batches as JSON files in a directory all nodes share, e.g. on NFS.
+ *
+ * <p>Batches are written under a temporary name and then renamed, so readers never see half a
+ * file. Every node reads each file it has not seen before; files that already existed when the
+ * node started are skipped. Nodes delete their own files after {@link #RETENTION_MS}.
+ */
+class DirectoryTransport implements InvalidationTransport {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final Gson GSON = new Gson();
+
+  static final long RETENTION_MS = 60_000;
+
+  private final Path dir;
+  private final String node;
+  // Guarded by this; names of the batch files read so far that still exist
+  private final Set<String> seen = new HashSet<>();
+  private long sequence;
+
+  DirectoryTransport(Path dir, String node) throws IOException {
+    this.dir = Files.createDirectories(dir);
+    this.node = node;
+    seen.addAll(list());
+  }
+
+  @Override
+  public synchronized void publish(InvalidationBatch batch) throws IOException {
+    String name = System.currentTimeMillis() + "-" + node + "-" + sequence++ + ".json";
+    Path tmp = dir.resolve("." + name + ".tmp");
+    Files.write(tmp, GSON.toJson(batch).getBytes(UTF_8));
+    Files.move(tmp, dir.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override
+  public synchronized List<InvalidationBatch> poll() throws IOException {
+    List<String> names = list();
+    List<InvalidationBatch> batches = new ArrayList<>();
+    long now = System.currentTimeMillis();
+    for (String name : names) {
+      if (name.contains("-" + node + "-")) {
+        if (now - timestamp(name) > RETENTION_MS) {
+          Files.deleteIfExists(dir.resolve(name));
+        }
+        continue;
+      }
+      if (!seen.add(name)) {
+        continue;
+      }
+      try {
+        batches.add(
+            GSON.fromJson(
+                new String(Files.readAllBytes(dir.resolve(name)), UTF_8),
+                InvalidationBatch.class));
+      } catch (NoSuchFileException e) {
+        // Expired and deleted by its node in the meantime
+      } catch (JsonParseException e) {
+        logger.atWarning().withCause(e).log("Skipping malformed invalidation batch %s", name);
+      }
+    }
+    seen.retainAll(names);
+    return batches;
+  }
+
+  private List<String> list() throws IOException {
+    List<String> names = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.json")) {
+      for (Path file : files) {
+        names.add(file.getFileName().toString());
+      }
+    }
+    return names;
+  }
+
+  private static long timestamp(String name) {
+    try {
+      return Long.parseLong(name.substring(0, name.indexOf('-')));
+    } catch (RuntimeException e) {
+      return 0;
+    }
+  }
+}
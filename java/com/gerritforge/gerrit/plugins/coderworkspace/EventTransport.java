@@ -0,0 +1,35 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.server.events.EventDispatcher;
+import com.google.gerrit.server.permissions.PermissionBackendException;
+import java.io.IOException;
+
+/**
+ * Posts batches as Gerrit events. Whatever forwards events between the nodes (e.g. the multi-site
+ * plugin and its event broker) delivers them to {@link CacheInvalidation#onEvent} elsewhere.
+ *
+ * <p>The events also reach every {@code stream-events} and webhook subscriber, whatever projects
+ * they can see, so the batches are {@link #visible}.
+ */
+class EventTransport implements InvalidationTransport {
+  private final DynamicItem<EventDispatcher> dispatcher;
+
+  EventTransport(DynamicItem<EventDispatcher> dispatcher) {
+    this.dispatcher = dispatcher;
+  }
+
+  @Override
+  public boolean visible() {
+    return true;
+  }
+
+  @Override
+  public void publish(InvalidationBatch batch) throws IOException {
+    try {
+      dispatcher.get().postEvent(batch);
+    } catch (PermissionBackendException e) {
+      throw new IOException("Cannot post invalidation event", e);
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.inject.Inject;
+import java.util.List;
+
+/**
+ * Lists the workspace names to try for a revision, primary name first.
+ *
+ * <p>Exposed as {@code GET /changes/<id>/revisions/<rev>/coder-workspace~candidates}; names are
+ * rendered from the templates compiled at config load time.
+ */
+public class GetCandidateNames implements RestReadView<RevisionResource> {
+  private final ConfigSnapshotCache snapshots;
+
+  @Inject
+  GetCandidateNames(ConfigSnapshotCache snapshots) {
+    this.snapshots = snapshots;
+  }
+
+  @Override
+  public Response<List<String>> apply(RevisionResource rsrc) {
+    ConfigSnapshot snapshot = snapshots.get();
+    TemplateInfo template =
+        snapshot.resolveTemplate(rsrc.getProject().get(), rsrc.getChange().getDest().shortName());
+    return Response.ok(snapshot.candidateNames(template, NameContext.forRevision(rsrc)));
+  }
+}
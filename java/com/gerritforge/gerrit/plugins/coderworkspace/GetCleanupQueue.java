@@ -0,0 +1,43 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.extensions.annotations.CapabilityScope;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gson.annotations.SerializedName;
+import com.google.inject.Inject;
+import java.util.List;
+
+/**
+ * Lists the workspaces queued for deletion by {@link WorkspaceCleanup}.
+ *
+ * <p>Exposed to administrators as {@code GET /config/server/coder-workspace.cleanup}.
+ */
+@RequiresCapability(value = GlobalCapability.ADMINISTRATE_SERVER, scope = CapabilityScope.CORE)
+public class GetCleanupQueue implements RestReadView<ConfigResource> {
+  public static class CleanupQueueInfo {
+    @SerializedName("dryRun")
+    public boolean dryRun;
+    @SerializedName("pending")
+    public List<WorkspaceCleanup.Entry> pending;
+  }
+
+  private final ConfigSnapshotCache snapshots;
+  private final WorkspaceCleanup cleanup;
+
+  @Inject
+  GetCleanupQueue(ConfigSnapshotCache snapshots, WorkspaceCleanup cleanup) {
+    this.snapshots = snapshots;
+    this.cleanup = cleanup;
+  }
+
+  @Override
+  public Response<CleanupQueueInfo> apply(ConfigResource resource) {
+    CleanupQueueInfo info = new CleanupQueueInfo();
+    info.dryRun = snapshots.get().server().cleanupDryRun;
+    info.pending = cleanup.pending();
+    return Response.ok(info);
+  }
+}
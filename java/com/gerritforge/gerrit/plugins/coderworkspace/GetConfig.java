@@ -1,127 +1,58 @@
 package com.gerritforge.gerrit.plugins.coderworkspace;
 
-import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.net.HttpHeaders;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.server.config.ConfigResource;
-import com.google.gerrit.server.config.PluginConfig;
-import com.google.gerrit.server.config.PluginConfigFactory;
-import com.google.gson.Gson;
 import com.google.inject.Inject;
 
-/** Returns plugin configuration loaded from gerrit.config. */
+/**
+ * Returns plugin configuration loaded from gerrit.config.
+ *
+ * <p>Serves the cached {@link ConfigSnapshot} with its ETag, so browsers revalidate instead of
+ * downloading the configuration on every change page view; {@link ConfigETagFilter} answers the
+ * revalidation with a 304.
+ */
 public class GetConfig implements RestReadView<ConfigResource> {
-  private final PluginConfigFactory cfgFactory;
-  private final String pluginName;
-  private final Gson gson = new Gson();
+  private final ConfigSnapshotCache snapshots;
+  private final CoderMetrics metrics;
 
   @Inject
-  public GetConfig(PluginConfigFactory cfgFactory, @PluginName String pluginName) {
-    this.cfgFactory = cfgFactory;
-    this.pluginName = pluginName;
+  public GetConfig(ConfigSnapshotCache snapshots, CoderMetrics metrics) {
+    this.snapshots = snapshots;
+    this.metrics = metrics;
   }
 
   @Override
+  @SuppressWarnings("try")
   public Response<ConfigInfo> apply(ConfigResource resource) {
-    PluginConfig cfg = cfgFactory.getFromGerritConfig(pluginName);
-    ConfigInfo info = new ConfigInfo();
-
-    info.serverUrl = cfg.getString("serverUrl");
-    info.apiKey = cfg.getString("apiKey");
-    info.organization = cfg.getString("organization");
-    info.user = cfg.getString("user", info.user);
-
-    info.templateId = cfg.getString("templateId");
-    info.templateVersionId = cfg.getString("templateVersionId");
-    info.templateVersionPresetId = cfg.getString("templateVersionPresetId");
-
-    info.workspaceNameTemplate = cfg.getString("workspaceNameTemplate", info.workspaceNameTemplate);
-    info.openAfterCreate = cfg.getBoolean("openAfterCreate", info.openAfterCreate);
-    info.enableDryRunPreview = cfg.getBoolean("enableDryRunPreview", info.enableDryRunPreview);
-    info.ttlMs = cfg.getLong("ttlMs", info.ttlMs);
-
-    // Optional app slug for deep linking to an app when latest_app_status.uri is not provided
-    String appSlug = cfg.getString("appSlug");
-    if (appSlug != null && !appSlug.trim().isEmpty()) {
-      info.appSlug = appSlug.trim();
-    }
-
-    // alternateNameTemplates: allow either JSON array or comma-separated list
-    String altsJson = cfg.getString("alternateNameTemplatesJson");
-    String altsCsv = cfg.getString("alternateNameTemplates");
-    if (altsJson != null && !altsJson.trim().isEmpty()) {
-      try {
-        String[] arr = gson.fromJson(altsJson, String[].class);
-        if (arr != null) {
-          info.alternateNameTemplates.clear();
-          for (String s : arr) {
-            if (s != null && !s.trim().isEmpty()) info.alternateNameTemplates.add(s.trim());
-          }
-        }
-      } catch (Exception e) {
-        // ignore malformed JSON; fall back to CSV
-      }
-    }
-    if (info.alternateNameTemplates.isEmpty() && altsCsv != null && !altsCsv.trim().isEmpty()) {
-      String[] parts = altsCsv.split(",");
-      for (String p : parts) {
-        String s = p.trim();
-        if (!s.isEmpty()) info.alternateNameTemplates.add(s);
-      }
+    try (Timer0.Context ctx = metrics.configServed()) {
+      ConfigSnapshot snapshot = snapshots.get();
+      return HeaderResponse.with(
+          Response.withMustRevalidate(snapshot.info()),
+          ImmutableMultimap.of(HttpHeaders.ETAG, etag(snapshot)));
     }
+  }
 
-    // Readiness polling options
-    info.waitForAppReadyMs = cfg.getLong("waitForAppReadyMs", info.waitForAppReadyMs);
-    info.waitPollIntervalMs = cfg.getLong("waitPollIntervalMs", info.waitPollIntervalMs);
+  /** Quoted ETag header value of the snapshot. */
+  static String etag(ConfigSnapshot snapshot) {
+    return '"' + snapshot.etag() + '"';
+  }
 
-    // richParams: comma-separated NAME:from entries
-    String rp = cfg.getString("richParams");
-    if (rp != null && !rp.trim().isEmpty()) {
-      info.richParams.clear();
-      String[] parts = rp.split(",");
-      for (String p : parts) {
-        String s = p.trim();
-        if (s.isEmpty()) continue;
-        int idx = s.indexOf(":");
-        if (idx > 0 && idx < s.length() - 1) {
-          String name = s.substring(0, idx).trim();
-          String from = s.substring(idx + 1).trim();
-          if (!name.isEmpty() && !from.isEmpty()) {
-            info.richParams.add(new ConfigInfo.RichParam(name, from));
-          }
-        }
-      }
+  /** Whether an {@code If-None-Match} header names {@code etag} (weak tags match too). */
+  static boolean matches(@Nullable String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
     }
-
-    // templateMappingsJson: JSON array
-    String mappingsJson = cfg.getString("templateMappingsJson");
-    if (mappingsJson != null && !mappingsJson.trim().isEmpty()) {
-      try {
-        ConfigInfo.TemplateMapping[] arr =
-            gson.fromJson(mappingsJson, ConfigInfo.TemplateMapping[].class);
-        info.templateMappings.clear();
-        if (arr != null) {
-          for (ConfigInfo.TemplateMapping m : arr) {
-            info.templateMappings.add(m);
-          }
-        }
-      } catch (Exception e) {
-        // ignore malformed JSON; keep defaults
+    for (String tag : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+      if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+        return true;
       }
     }
-
-    // Auth helpers
-    info.retryAuthWithQueryParam =
-        cfg.getBoolean("retryAuthWithQueryParam", info.retryAuthWithQueryParam);
-    String qpName = cfg.getString("apiKeyQueryParamName");
-    if (qpName != null && !qpName.trim().isEmpty()) {
-      info.apiKeyQueryParamName = qpName.trim();
-    }
-    info.appendTokenToAppUrl = cfg.getBoolean("appendTokenToAppUrl", info.appendTokenToAppUrl);
-
-    // Popup-blocker mitigation: open a placeholder tab immediately and redirect later
-    info.navigateInSameTabOnBlock = cfg.getBoolean("navigateInSameTabOnBlock", info.navigateInSameTabOnBlock);
-
-    return Response.ok(info);
+    return false;
   }
 }
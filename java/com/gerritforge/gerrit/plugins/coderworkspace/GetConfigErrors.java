@@ -0,0 +1,31 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.extensions.annotations.CapabilityScope;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.inject.Inject;
+import java.util.List;
+
+/**
+ * Lists the problems found while parsing the plugin section of gerrit.config; empty when it is well
+ * formed. The same messages are logged as warnings.
+ *
+ * <p>Exposed to administrators as {@code GET /config/server/coder-workspace.errors}.
+ */
+@RequiresCapability(value = GlobalCapability.ADMINISTRATE_SERVER, scope = CapabilityScope.CORE)
+public class GetConfigErrors implements RestReadView<ConfigResource> {
+  private final ConfigSnapshotCache snapshots;
+
+  @Inject
+  GetConfigErrors(ConfigSnapshotCache snapshots) {
+    this.snapshots = snapshots;
+  }
+
+  @Override
+  public Response<List<String>> apply(ConfigResource resource) {
+    return Response.ok(snapshots.get().errors());
+  }
+}
@@ -0,0 +1,45 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.inject.Inject;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Shows the create request the server proxy would send for a revision, for enableDryRunPreview.
+ *
+ * <p>Exposed as {@code GET /changes/<id>/revisions/<rev>/coder-workspace~preview}. Served from the
+ * configuration and the {@link TemplateVersions} caches only, so it never waits for Coder; a
+ * template not cached yet is loaded in the background and shown without its schema.
+ */
+public class GetPreview implements RestReadView<RevisionResource> {
+  private final WorkspaceService workspaces;
+  private final TemplateVersions templates;
+
+  @Inject
+  GetPreview(WorkspaceService workspaces, TemplateVersions templates) {
+    this.workspaces = workspaces;
+    this.templates = templates;
+  }
+
+  @Override
+  public Response<PreviewInfo> apply(RevisionResource rsrc) throws RestApiException {
+    workspaces.checkEnabled(rsrc);
+    WorkspaceTarget target = workspaces.target(rsrc);
+    PreviewInfo preview = new PreviewInfo();
+    preview.owner = target.owner();
+    preview.request = target.request();
+    preview.templateVersionId = target.request().templateVersionId;
+    preview.problems = List.of();
+    Optional<TemplateSchema> schema = templates.cached(target.request());
+    if (schema.isPresent()) {
+      preview.templateVersionId = schema.get().versionId;
+      preview.parameters = schema.get().parameters;
+      preview.problems = schema.get().validate(target.request());
+    }
+    return Response.ok(preview);
+  }
+}
@@ -0,0 +1,29 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.inject.Inject;
+
+/**
+ * Resolves the Coder template for a single revision.
+ *
+ * <p>Exposed as {@code GET /changes/<id>/revisions/<rev>/coder-workspace~template} so the web UI
+ * does not need to download and match the full template mapping list.
+ */
+public class GetTemplate implements RestReadView<RevisionResource> {
+  private final ConfigSnapshotCache snapshots;
+
+  @Inject
+  GetTemplate(ConfigSnapshotCache snapshots) {
+    this.snapshots = snapshots;
+  }
+
+  @Override
+  public Response<TemplateInfo> apply(RevisionResource rsrc) {
+    Change change = rsrc.getChange();
+    return Response.ok(
+        snapshots.get().resolveTemplate(change.getProject().get(), change.getDest().shortName()));
+  }
+}
@@ -0,0 +1,38 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.extensions.annotations.CapabilityScope;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.inject.Inject;
+import java.util.List;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Lists the sampled phase timings of recent proxy requests, newest first (see {@link OpenTraces}).
+ *
+ * <p>Exposed to administrators as {@code GET /config/server/coder-workspace.traces}; {@code
+ * ?id=<trace>} picks the trace a user reported from the {@code X-Coder-Workspace-Trace} header.
+ */
+@RequiresCapability(value = GlobalCapability.ADMINISTRATE_SERVER, scope = CapabilityScope.CORE)
+public class GetTraces implements RestReadView<ConfigResource> {
+  private final OpenTraces traces;
+  private String id;
+
+  @Option(name = "--id", metaVar = "TRACE", usage = "only the trace with this id")
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  @Inject
+  GetTraces(OpenTraces traces) {
+    this.traces = traces;
+  }
+
+  @Override
+  public Response<List<OpenTraces.TraceInfo>> apply(ConfigResource resource) {
+    return Response.ok(traces.list(id));
+  }
+}
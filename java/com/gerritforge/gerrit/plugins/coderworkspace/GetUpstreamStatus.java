@@ -0,0 +1,30 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.extensions.annotations.CapabilityScope;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.inject.Inject;
+import java.util.List;
+
+/**
+ * Lists the circuit breaker state, latency and timeout of every Coder endpoint called so far.
+ *
+ * <p>Exposed to administrators as {@code GET /config/server/coder-workspace.upstream}.
+ */
+@RequiresCapability(value = GlobalCapability.ADMINISTRATE_SERVER, scope = CapabilityScope.CORE)
+public class GetUpstreamStatus implements RestReadView<ConfigResource> {
+  private final CircuitBreakers breakers;
+
+  @Inject
+  GetUpstreamStatus(CircuitBreakers breakers) {
+    this.breakers = breakers;
+  }
+
+  @Override
+  public Response<List<CircuitBreakers.EndpointInfo>> apply(ConfigResource resource) {
+    return Response.ok(breakers.status());
+  }
+}
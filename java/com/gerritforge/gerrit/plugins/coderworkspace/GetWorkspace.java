@@ -0,0 +1,92 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.inject.Inject;
+import java.util.Optional;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Looks up the existing Coder workspace for a revision through the server proxy.
+ *
+ * <p>Exposed as {@code GET /changes/<id>/revisions/<rev>/coder-workspace~workspace}; 404 when
+ * none of the candidate names exists.
+ *
+ * <p>With {@code ?wait-ms=N} the call long-polls: it returns as soon as the workspace app reports
+ * its URL, or after N milliseconds (at most {@link #MAX_WAIT_MS}) with the latest state. All
+ * callers waiting on the same workspace share one {@link ReadinessWatcher} subscription. The
+ * lookup and readiness times are reported in a {@code Server-Timing} header (see {@link
+ * OpenTrace}).
+ */
+public class GetWorkspace implements RestReadView<RevisionResource> {
+  static final long MAX_WAIT_MS = 25_000;
+
+  private final WorkspaceService workspaces;
+  private final ReadinessWatcher readiness;
+  private final UpstreamExecutor upstream;
+  private final OpenTraces traces;
+  private long waitMs;
+
+  @Option(
+      name = "--wait-ms",
+      metaVar = "MILLIS",
+      usage = "wait up to this long for the workspace app to become ready")
+  public void setWaitMs(long waitMs) {
+    this.waitMs = waitMs;
+  }
+
+  @Inject
+  GetWorkspace(
+      WorkspaceService workspaces,
+      ReadinessWatcher readiness,
+      UpstreamExecutor upstream,
+      OpenTraces traces) {
+    this.workspaces = workspaces;
+    this.readiness = readiness;
+    this.upstream = upstream;
+    this.traces = traces;
+  }
+
+  @Override
+  @SuppressWarnings("try")
+  public Response<?> apply(RevisionResource rsrc) throws RestApiException {
+    workspaces.checkEnabled(rsrc);
+    OpenTrace trace = traces.start(waitMs > 0 ? "readiness" : "lookup");
+    WorkspaceTarget target = null;
+    try {
+      try (OpenTrace.Span s = trace.span("admit")) {
+        workspaces.admit(rsrc.getUser());
+      }
+      try (OpenTrace.Span s = trace.span("template")) {
+        target = workspaces.target(rsrc);
+      }
+      WorkspaceTarget t = target;
+      long wait = Math.min(waitMs, MAX_WAIT_MS);
+      Optional<WorkspaceInfo> ws =
+          upstream.call(
+              () -> {
+                Optional<WorkspaceInfo> found = workspaces.find(t, trace);
+                if (!found.isPresent()) {
+                  return found;
+                }
+                try (OpenTrace.Span s = trace.span("readiness")) {
+                  return Optional.of(readiness.await(found.get(), wait));
+                }
+              },
+              Math.max(0, wait));
+      if (!ws.isPresent()) {
+        traces.finish(trace, target, 404);
+        throw new ResourceNotFoundException("No Coder workspace for this revision");
+      }
+      Response<WorkspaceInfo> res = Response.ok(ws.get());
+      traces.finish(trace, target, res.statusCode());
+      return trace.withHeaders(res);
+    } catch (CoderException e) {
+      traces.finish(trace, target, e.responseStatus());
+      return trace.withHeaders(e.toResponse());
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Multimap;
+import com.google.gerrit.extensions.restapi.CacheControl;
+import com.google.gerrit.extensions.restapi.Response;
+
+/** A response with extra headers; Gerrit's {@link Response} factories cannot add headers. */
+final class HeaderResponse<T> extends Response<T> {
+  private final Response<T> res;
+  private final ImmutableMultimap<String, String> headers;
+
+  /** {@code res} with {@code extra} added to its headers. */
+  static <T> Response<T> with(Response<T> res, Multimap<String, String> extra) {
+    return new HeaderResponse<>(
+        res,
+        ImmutableMultimap.<String, String>builder().putAll(res.headers()).putAll(extra).build());
+  }
+
+  private HeaderResponse(Response<T> res, ImmutableMultimap<String, String> headers) {
+    this.res = res;
+    this.headers = headers;
+  }
+
+  @Override
+  public boolean isNone() {
+    return res.isNone();
+  }
+
+  @Override
+  public int statusCode() {
+    return res.statusCode();
+  }
+
+  @Override
+  public T value() {
+    return res.value();
+  }
+
+  @Override
+  public ImmutableMultimap<String, String> headers() {
+    return headers;
+  }
+
+  @Override
+  public CacheControl caching() {
+    return res.caching();
+  }
+
+  @Override
+  public Response<T> caching(CacheControl c) {
+    return new HeaderResponse<>(res.caching(c), headers);
+  }
+
+  @Override
+  public String toString() {
+    return res.toString();
+  }
+}
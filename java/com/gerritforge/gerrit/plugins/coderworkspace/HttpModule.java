@@ -0,0 +1,17 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.httpd.AllRequestFilter;
+import com.google.gerrit.httpd.plugins.HttpPluginModule;
+
+public class HttpModule extends HttpPluginModule {
+  @Override
+  protected void configureServlets() {
+    // Web UI script with inlined config (inlineConfig), see ConfigBootstrap
+    serveRegex("^/" + ConfigBootstrap.SCRIPT_PREFIX + "[0-9a-f]+\\.js$")
+        .with(BootstrapServlet.class);
+
+    // 304 for GET /config/server/coder-workspace.config when the browser has the current ETag
+    DynamicSet.bind(binder(), AllRequestFilter.class).to(ConfigETagFilter.class);
+  }
+}
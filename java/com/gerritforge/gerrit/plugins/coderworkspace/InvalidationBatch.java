@@ -0,0 +1,41 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.events.Event;
+import java.util.List;
+
+/**
+ * Cache changes one node sends to the others in one go.
+ *
+ * <p>An {@link Event}, so that it can travel through Gerrit's event broker; the shared directory
+ * transport stores the same JSON.
+ */
+public class InvalidationBatch extends Event {
+  static final String TYPE = "coder-workspace-invalidation";
+
+  /** One changed cache entry. */
+  public static class Entry {
+    public String cache;
+    public List<String> key;
+    // New value to store; null drops the entry
+    @Nullable public String value;
+
+    Entry(String cache, List<String> key, @Nullable String value) {
+      this.cache = cache;
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  // Id of the sending plugin instance; nodes ignore their own batches
+  public String node;
+  // Keys are CacheInvalidation.hash() values and every value is null
+  public boolean hashed;
+  public List<Entry> entries;
+
+  InvalidationBatch(String node, List<Entry> entries) {
+    super(TYPE);
+    this.node = node;
+    this.entries = entries;
+  }
+}
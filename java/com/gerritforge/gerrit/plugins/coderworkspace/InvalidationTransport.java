@@ -0,0 +1,30 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Carries {@link InvalidationBatch}es between the Gerrit nodes of a cluster.
+ *
+ * <p>Implementations either deliver remote batches through {@link #poll}, or push them into {@link
+ * CacheInvalidation#onEvent} and keep the default.
+ */
+public interface InvalidationTransport {
+  /**
+   * Whether batches can be seen outside the plugin. Such batches carry hashed keys and no values,
+   * so receivers can only drop entries.
+   */
+  default boolean visible() {
+    return false;
+  }
+
+  /** Sends a batch of this node's invalidations to the other nodes. */
+  void publish(InvalidationBatch batch) throws IOException;
+
+  /** Batches from other nodes received since the last call. */
+  default List<InvalidationBatch> poll() throws IOException {
+    return List.of();
+  }
+
+  default void close() {}
+}
@@ -0,0 +1,224 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.client.ListChangesOption;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.RevisionInfo;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.BinaryResult;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.json.OutputFormat;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.account.AccountResource;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.kohsuke.args4j.Option;
+
+/**
+ * The caller's Coder workspaces, joined to their open Gerrit changes.
+ *
+ * <p>Exposed as {@code GET /accounts/self/coder-workspace~workspaces}. Results are paged with an
+ * opaque cursor ({@code --cursor}, {@code --limit}); {@code nextCursor} is omitted on the last
+ * page. Each page is one Coder list request, and the JSON is written entry by entry as it is
+ * joined instead of being built in memory first.
+ *
+ * <p>Workspaces are matched by the primary name of every patchset of the caller's open changes
+ * (owned or reviewing). With {@code ownerFromGerritUsername}, workspaces without a match are listed
+ * without change fields. Otherwise every user's workspaces belong to the token's account, so only
+ * matched workspaces are listed and a page may hold fewer than {@code --limit} entries.
+ */
+public class ListWorkspaces implements RestReadView<AccountResource> {
+  static final int DEFAULT_LIMIT = 25;
+  static final int MAX_LIMIT = 100;
+  static final int MAX_CHANGES = 500;
+  static final String CHANGES_QUERY = "is:open (owner:self OR reviewer:self)";
+
+  private static final Gson GSON = OutputFormat.JSON_COMPACT.newGson();
+
+  private final ConfigSnapshotCache snapshots;
+  private final CoderClient coder;
+  private final WorkspaceService workspaces;
+  private final UpstreamExecutor upstream;
+  private final GerritApi gApi;
+  private final Provider<CurrentUser> self;
+  private int limit = DEFAULT_LIMIT;
+  private String cursor;
+
+  @Option(name = "--limit", aliases = "-n", metaVar = "CNT", usage = "workspaces per page")
+  public void setLimit(int limit) {
+    this.limit = limit;
+  }
+
+  @Option(name = "--cursor", metaVar = "CURSOR", usage = "nextCursor of the previous page")
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
+  @Inject
+  ListWorkspaces(
+      ConfigSnapshotCache snapshots,
+      CoderClient coder,
+      WorkspaceService workspaces,
+      UpstreamExecutor upstream,
+      GerritApi gApi,
+      Provider<CurrentUser> self) {
+    this.snapshots = snapshots;
+    this.coder = coder;
+    this.workspaces = workspaces;
+    this.upstream = upstream;
+    this.gApi = gApi;
+    this.self = self;
+  }
+
+  @Override
+  public Response<?> apply(AccountResource rsrc) throws RestApiException {
+    CurrentUser user = self.get();
+    workspaces.checkEnabled(user);
+    if (!user.getAccountId().equals(rsrc.getUser().getAccountId())) {
+      throw new AuthException("Only your own workspaces can be listed");
+    }
+    if (limit <= 0 || limit > MAX_LIMIT) {
+      throw new BadRequestException("limit must be between 1 and " + MAX_LIMIT);
+    }
+    int offset = decodeCursor(cursor);
+    String username = user.getUserName().orElse(null);
+    ServerSettings s = snapshots.get().server();
+    String owner = s.owner(username);
+
+    List<WorkspaceInfo> page;
+    try {
+      workspaces.admit(user);
+      // One extra entry tells whether there is a next page
+      page = upstream.call(() -> coder.workspaces("owner:" + owner, offset, limit + 1), 0);
+    } catch (CoderException e) {
+      return e.toResponse();
+    }
+    boolean more = page.size() > limit;
+    Map<String, Patchset> byName = patchsetsByName(username);
+    boolean shared = s.sharedOwner(username);
+    List<WorkspaceInfo> shown = new ArrayList<>();
+    for (WorkspaceInfo ws : more ? page.subList(0, limit) : page) {
+      // A shared owner's other workspaces may be anyone's, for changes the caller cannot see
+      if (!shared || byName.containsKey(ws.name)) {
+        shown.add(ws);
+      }
+    }
+    String next = more ? encodeCursor(offset + limit) : null;
+    return Response.ok(
+        new BinaryResult() {
+          @Override
+          public void writeTo(OutputStream os) throws IOException {
+            write(os, shown, byName, next);
+          }
+        }.setContentType("application/json").setCharacterEncoding(StandardCharsets.UTF_8));
+  }
+
+  /** A patchset whose primary workspace name is known. */
+  private static class Patchset {
+    final ChangeInfo change;
+    final int number;
+    final boolean current;
+
+    Patchset(ChangeInfo change, int number, boolean current) {
+      this.change = change;
+      this.number = number;
+      this.current = current;
+    }
+  }
+
+  private Map<String, Patchset> patchsetsByName(String username) throws RestApiException {
+    List<ChangeInfo> changes =
+        gApi.changes()
+            .query(CHANGES_QUERY)
+            .withOption(ListChangesOption.CURRENT_REVISION)
+            .withLimit(MAX_CHANGES)
+            .get();
+    Map<String, Patchset> byName = new HashMap<>();
+    for (ChangeInfo c : changes) {
+      RevisionInfo rev = c.revisions != null ? c.revisions.get(c.currentRevision) : null;
+      if (rev == null) {
+        continue;
+      }
+      BranchNameKey dest = BranchNameKey.create(Project.nameKey(c.project), c.branch);
+      for (int ps = rev._number; ps >= 1; ps--) {
+        String name = workspaces.target(dest, Change.id(c._number), ps, username).name();
+        byName.putIfAbsent(name, new Patchset(c, ps, ps == rev._number));
+      }
+    }
+    return byName;
+  }
+
+  private static void write(
+      OutputStream os, List<WorkspaceInfo> page, Map<String, Patchset> byName, String next)
+      throws IOException {
+    Writer w = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+    // Same XSSI prefix as Gerrit's other JSON responses, so restApi().get() can parse it
+    w.write(")]}'\n");
+    JsonWriter json = new JsonWriter(w);
+    json.beginObject();
+    json.name("workspaces").beginArray();
+    for (WorkspaceInfo ws : page) {
+      json.beginObject();
+      json.name("workspace");
+      GSON.toJson(ws, WorkspaceInfo.class, json);
+      Patchset ps = byName.get(ws.name);
+      if (ps != null) {
+        json.name("project").value(ps.change.project);
+        json.name("branch").value(ps.change.branch);
+        json.name("change").value(ps.change._number);
+        json.name("subject").value(ps.change.subject);
+        json.name("patchset").value(ps.number);
+        json.name("currentPatchset").value(ps.current);
+      }
+      json.endObject();
+    }
+    json.endArray();
+    if (next != null) {
+      json.name("nextCursor").value(next);
+    }
+    json.endObject();
+    json.flush();
+  }
+
+  static String encodeCursor(int offset) {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(("o" + offset).getBytes(StandardCharsets.UTF_8));
+  }
+
+  static int decodeCursor(String cursor) throws BadRequestException {
+    if (cursor == null || cursor.isEmpty()) {
+      return 0;
+    }
+    try {
+      String s = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      if (s.startsWith("o")) {
+        int offset = Integer.parseInt(s.substring(1));
+        if (offset >= 0) {
+          return offset;
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      // Fall through to the error below; NumberFormatException is an IllegalArgumentException
+    }
+    throw new BadRequestException("invalid cursor");
+  }
+}
@@ -1,18 +1,65 @@
 package com.gerritforge.gerrit.plugins.coderworkspace;
 
+import static com.google.gerrit.server.account.AccountResource.ACCOUNT_KIND;
+import static com.google.gerrit.server.change.RevisionResource.REVISION_KIND;
 import static com.google.gerrit.server.config.ConfigResource.CONFIG_KIND;
 
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.extensions.restapi.RestApiModule;
-import com.google.gerrit.extensions.webui.JavaScriptPlugin;
 import com.google.gerrit.extensions.webui.WebUiPlugin;
+import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.server.config.GerritConfigListener;
+import com.google.gerrit.server.events.EventListener;
 import com.google.inject.AbstractModule;
 
 public class Module extends AbstractModule {
   @Override
   protected void configure() {
-    DynamicSet.bind(binder(), WebUiPlugin.class)
-        .toInstance(new JavaScriptPlugin("coder-workspace-static.js"));
+    // Static bundle, or the bundle with inlined config when inlineConfig is set
+    DynamicSet.bind(binder(), WebUiPlugin.class).to(ConfigBootstrap.class);
+
+    // Parsed config is cached and rebuilt only when gerrit.config is reloaded
+    bind(ConfigSnapshotCache.class);
+    DynamicSet.bind(binder(), GerritConfigListener.class).to(ConfigSnapshotCache.class);
+
+    // Cache changes exchanged with the other nodes of a multi-primary Gerrit (cacheInvalidation)
+    DynamicSet.bind(binder(), EventListener.class).to(CacheInvalidation.class);
+    DynamicSet.bind(binder(), GerritConfigListener.class).to(CacheInvalidation.class);
+
+    DynamicSet.bind(binder(), EventListener.class).to(Prewarmer.class);
+    DynamicSet.bind(binder(), EventListener.class).to(WorkspaceCleanup.class);
+
+    // Workspace lookups by name, shared by all users and coalesced per key
+    install(WorkspaceLookup.module());
+    // Workspace ids of the patchsets the proxy created workspaces for, kept across restarts
+    install(WorkspaceIds.module());
+    // Active version and rich-parameter schema of each template, refreshed ahead of expiry
+    install(TemplateVersions.module());
+
+    // Probe the Coder API shapes at start and again when the Coder version changes
+    install(
+        new LifecycleModule() {
+          @Override
+          protected void configure() {
+            listener().to(CoderCapabilities.class);
+            // Periodic exchange of cache invalidations with the other nodes
+            listener().to(CacheInvalidation.class);
+            // Shared upstream watchers for clients waiting on workspace readiness
+            listener().to(ReadinessWatcher.class);
+            // Virtual threads for calls to Coder
+            listener().to(UpstreamExecutor.class);
+            // Load the configured templates' versions and schemas before the first create
+            listener().to(TemplateVersions.class);
+            // Pre-warm workspaces on patchset upload (template mappings with "prewarm")
+            listener().to(Prewarmer.class);
+            // Debounced starts of stopped workspaces on change view (speculativeStart)
+            listener().to(SpeculativeStarter.class);
+            // Stopped workspaces kept ready per template version (mappings with poolSize)
+            listener().to(WorkspacePool.class);
+            // Batched deletion of workspaces for closed changes and superseded patchsets
+            listener().to(WorkspaceCleanup.class);
+          }
+        });
 
     // Expose GET /config/server/coder-workspace.config with settings from gerrit.config
     install(
@@ -20,6 +67,31 @@ public class Module extends AbstractModule {
           @Override
           protected void configure() {
             get(CONFIG_KIND, "coder-workspace.config").to(GetConfig.class);
+            // GET /config/server/coder-workspace.cleanup (administrators)
+            get(CONFIG_KIND, "coder-workspace.cleanup").to(GetCleanupQueue.class);
+            // GET /config/server/coder-workspace.errors (administrators)
+            get(CONFIG_KIND, "coder-workspace.errors").to(GetConfigErrors.class);
+            // GET /config/server/coder-workspace.upstream (administrators)
+            get(CONFIG_KIND, "coder-workspace.upstream").to(GetUpstreamStatus.class);
+            // GET /config/server/coder-workspace.traces (administrators)
+            get(CONFIG_KIND, "coder-workspace.traces").to(GetTraces.class);
+            // GET /changes/<id>/revisions/<rev>/coder-workspace~template
+            get(REVISION_KIND, "template").to(GetTemplate.class);
+            // GET /changes/<id>/revisions/<rev>/coder-workspace~candidates
+            get(REVISION_KIND, "candidates").to(GetCandidateNames.class);
+            // GET /changes/<id>/revisions/<rev>/coder-workspace~preview (dry-run preview)
+            get(REVISION_KIND, "preview").to(GetPreview.class);
+            // GET/POST/DELETE /changes/<id>/revisions/<rev>/coder-workspace~workspace
+            // (server-side Coder proxy, enabled with useServerProxy)
+            get(REVISION_KIND, "workspace").to(GetWorkspace.class);
+            post(REVISION_KIND, "workspace").to(CreateWorkspace.class);
+            delete(REVISION_KIND, "workspace").to(DeleteWorkspace.class);
+            // POST /changes/<id>/revisions/<rev>/coder-workspace~warm (change viewed)
+            post(REVISION_KIND, "warm").to(WarmWorkspace.class);
+            // GET /accounts/self/coder-workspace~workspaces (paged, joined to open changes)
+            get(ACCOUNT_KIND, "workspaces").to(ListWorkspaces.class);
+            // POST /accounts/self/coder-workspace~workspaces (a topic or change series at once)
+            post(ACCOUNT_KIND, "workspaces").to(CreateWorkspaces.class);
           }
         });
   }
@@ -0,0 +1,64 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.server.change.RevisionResource;
+
+/** Values substituted into a {@link NameTemplate}. */
+public final class NameContext {
+  final String repo;
+  final String branch;
+  final String branchShort;
+  final String change;
+  final String patchset;
+
+  private NameContext(String repo, String branch, String change, String patchset) {
+    this.repo = nullToEmpty(repo);
+    this.branch = nullToEmpty(branch);
+    int slash = this.branch.lastIndexOf('/');
+    this.branchShort = slash < 0 ? this.branch : this.branch.substring(slash + 1);
+    this.change = nullToEmpty(change);
+    this.patchset = nullToEmpty(patchset);
+  }
+
+  public static NameContext of(String repo, String branch, String change, String patchset) {
+    return new NameContext(repo, branch, change, patchset);
+  }
+
+  /**
+   * Context for a revision. {@code {branch}} is the short branch name, as shown by the web UI
+   * (ChangeInfo.branch), so server-rendered names match the ones the browser used to create.
+   */
+  public static NameContext forRevision(RevisionResource rsrc) {
+    Change change = rsrc.getChange();
+    return new NameContext(
+        change.getProject().get(),
+        change.getDest().shortName(),
+        String.valueOf(change.getChangeId()),
+        String.valueOf(rsrc.getPatchSet().number()));
+  }
+
+  public String repo() {
+    return repo;
+  }
+
+  public String branch() {
+    return branch;
+  }
+
+  public String change() {
+    return change;
+  }
+
+  public String patchset() {
+    return patchset;
+  }
+
+  int length() {
+    return repo.length() + branch.length() + branchShort.length() + change.length()
+        + patchset.length();
+  }
+
+  private static String nullToEmpty(String s) {
+    return s == null ? "" : s;
+  }
+}
@@ -0,0 +1,173 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Workspace name template such as {@code {repo}-{change}-{patchset}}, parsed once into segments.
+ *
+ * <p>Rendering appends every segment into one pre-sized {@link StringBuilder} and sanitizes while
+ * appending, producing the same names as renderNameTemplate in the web UI:
+ *
+ * <ul>
+ *   <li>lowercase, only {@code a-z 0-9 . _ -}; other runs become a single {@code -}
+ *   <li>repeated {@code -} or {@code .} are collapsed
+ *   <li>no leading/trailing {@code -} or {@code .}, must start with a letter or digit
+ *   <li>at most 63 characters
+ * </ul>
+ */
+public final class NameTemplate {
+  static final int MAX_LENGTH = 63;
+
+  /** Tokens understood in templates. */
+  enum Token {
+    REPO("repo"),
+    BRANCH("branch"),
+    BRANCH_SHORT("branchShort"),
+    CHANGE("change"),
+    PATCHSET("patchset");
+
+    final String placeholder;
+
+    Token(String name) {
+      this.placeholder = "{" + name + "}";
+    }
+
+    String value(NameContext ctx) {
+      switch (this) {
+        case REPO:
+          return ctx.repo;
+        case BRANCH:
+          return ctx.branch;
+        case BRANCH_SHORT:
+          return ctx.branchShort;
+        case CHANGE:
+          return ctx.change;
+        case PATCHSET:
+          return ctx.patchset;
+      }
+      throw new IllegalStateException(name());
+    }
+  }
+
+  private final String template;
+  // Each segment is either a String literal or a Token
+  private final Object[] segments;
+  private final int literalLength;
+
+  private NameTemplate(String template, Object[] segments, int literalLength) {
+    this.template = template;
+    this.segments = segments;
+    this.literalLength = literalLength;
+  }
+
+  public static NameTemplate compile(String template) {
+    String tpl = template == null ? "" : template;
+    List<Object> segments = new ArrayList<>();
+    int literalLength = 0;
+    StringBuilder literal = new StringBuilder();
+    int i = 0;
+    while (i < tpl.length()) {
+      Token token = tpl.charAt(i) == '{' ? tokenAt(tpl, i) : null;
+      if (token == null) {
+        literal.append(tpl.charAt(i++));
+        continue;
+      }
+      if (literal.length() > 0) {
+        segments.add(literal.toString());
+        literalLength += literal.length();
+        literal.setLength(0);
+      }
+      segments.add(token);
+      i += token.placeholder.length();
+    }
+    if (literal.length() > 0) {
+      segments.add(literal.toString());
+      literalLength += literal.length();
+    }
+    return new NameTemplate(tpl, segments.toArray(), literalLength);
+  }
+
+  private static Token tokenAt(String tpl, int i) {
+    for (Token t : Token.values()) {
+      if (tpl.startsWith(t.placeholder, i)) {
+        return t;
+      }
+    }
+    return null;
+  }
+
+  public String template() {
+    return template;
+  }
+
+  /** Renders and sanitizes the name for a change. */
+  public String render(NameContext ctx) {
+    StringBuilder out = new StringBuilder(literalLength + ctx.length() + 2);
+    for (Object segment : segments) {
+      String value = segment instanceof Token ? ((Token) segment).value(ctx) : (String) segment;
+      appendSanitized(out, value);
+    }
+    return finish(out);
+  }
+
+  /** Sanitizes an already rendered name, e.g. one with a uniqueness suffix. */
+  public static String sanitize(String raw) {
+    StringBuilder out = new StringBuilder(raw.length() + 2);
+    appendSanitized(out, raw);
+    return finish(out);
+  }
+
+  private static void appendSanitized(StringBuilder out, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = Character.toLowerCase(value.charAt(i));
+      if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' || c == '_')) {
+        c = '-';
+      }
+      int len = out.length();
+      if (c == '-' || c == '.') {
+        // no leading separators, no runs of the same separator
+        if (len == 0 || out.charAt(len - 1) == c) {
+          continue;
+        }
+      }
+      out.append(c);
+    }
+  }
+
+  private static String finish(StringBuilder out) {
+    trimTrailingSeparators(out);
+    if (out.length() == 0) {
+      return fallbackName();
+    }
+    if (!isAlphanumeric(out.charAt(0))) {
+      out.insert(0, "w-");
+    }
+    if (out.length() > MAX_LENGTH) {
+      out.setLength(MAX_LENGTH);
+      trimTrailingSeparators(out);
+    }
+    return out.length() == 0 ? fallbackName() : out.toString();
+  }
+
+  private static void trimTrailingSeparators(StringBuilder out) {
+    int len = out.length();
+    while (len > 0 && (out.charAt(len - 1) == '-' || out.charAt(len - 1) == '.')) {
+      len--;
+    }
+    out.setLength(len);
+  }
+
+  private static boolean isAlphanumeric(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+  }
+
+  private static String fallbackName() {
+    return "workspace-" + System.currentTimeMillis();
+  }
+
+  @Override
+  public String toString() {
+    return template;
+  }
+}
@@ -0,0 +1,109 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.gerrit.extensions.restapi.Response;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in each phase of one proxy request, e.g. {@code lookup}, {@code create} or {@code
+ * readiness}.
+ *
+ * <p>Phases may be timed on any thread and a phase timed twice adds up. The result goes back to the
+ * client as a {@code Server-Timing} header (see {@link #withHeaders}) and, when sampled, into
+ * {@link OpenTraces}.
+ */
+public class OpenTrace {
+  static final String SERVER_TIMING = "Server-Timing";
+  static final String TRACE_HEADER = "X-Coder-Workspace-Trace";
+
+  /** Trace that records nothing, for work no client waits on (pre-warming, pools, cleanup). */
+  static final OpenTrace NONE =
+      new OpenTrace("", "") {
+        @Override
+        public Span span(String phase) {
+          return NO_SPAN;
+        }
+      };
+
+  /** Ends a phase; see {@link #span}. */
+  public interface Span extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  private static final Span NO_SPAN = () -> {};
+
+  final String id;
+  final String view;
+  final long startMillis = System.currentTimeMillis();
+  private final long startNanos = System.nanoTime();
+  private final Map<String, Long> phases = new LinkedHashMap<>();
+  private volatile long totalNanos = -1;
+
+  OpenTrace(String id, String view) {
+    this.id = id;
+    this.view = view;
+  }
+
+  /** New trace with a random id. */
+  static OpenTrace start(String view) {
+    return new OpenTrace(
+        String.format(Locale.US, "%016x", ThreadLocalRandom.current().nextLong()), view);
+  }
+
+  /** Starts timing {@code phase}; close the span when the phase is over. */
+  public Span span(String phase) {
+    long start = System.nanoTime();
+    return () -> add(phase, System.nanoTime() - start);
+  }
+
+  private synchronized void add(String phase, long nanos) {
+    phases.merge(phase, nanos, Long::sum);
+  }
+
+  /** Phase durations in milliseconds, in the order the phases first ended. */
+  synchronized Map<String, Double> phases() {
+    Map<String, Double> ms = new LinkedHashMap<>();
+    phases.forEach((phase, nanos) -> ms.put(phase, millis(nanos)));
+    return ms;
+  }
+
+  /** Stops the clock; later calls keep the first total. */
+  void finish() {
+    if (totalNanos < 0) {
+      totalNanos = System.nanoTime() - startNanos;
+    }
+  }
+
+  double totalMillis() {
+    return millis(totalNanos < 0 ? System.nanoTime() - startNanos : totalNanos);
+  }
+
+  /** {@code lookup;dur=12.3, create;dur=801.0, total;dur=813.9, trace;desc="..."} */
+  String serverTiming() {
+    StringBuilder b = new StringBuilder();
+    phases().forEach((phase, ms) -> b.append(phase).append(";dur=").append(format(ms)).append(", "));
+    b.append("total;dur=").append(format(totalMillis()));
+    b.append(", trace;desc=\"").append(id).append('"');
+    return b.toString();
+  }
+
+  /** The response with this trace's {@code Server-Timing} and trace id headers added. */
+  <T> Response<T> withHeaders(Response<T> res) {
+    finish();
+    return HeaderResponse.with(
+        res, ImmutableMultimap.of(SERVER_TIMING, serverTiming(), TRACE_HEADER, id));
+  }
+
+  private static double millis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  private static String format(double ms) {
+    return String.format(Locale.US, "%.1f", ms);
+  }
+}
@@ -0,0 +1,101 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gson.annotations.SerializedName;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Starts the {@link OpenTrace} of each proxy request and keeps a sample of finished ones.
+ *
+ * <p>{@code traceSamplePercent} of the traces are kept, the newest {@code traceBufferSize} of them,
+ * for administrators to read at {@code GET /config/server/coder-workspace.traces}. Every phase is
+ * also recorded in the {@code open/phase_latency} metric.
+ */
+@Singleton
+public class OpenTraces {
+  /** A finished trace, as listed by {@link GetTraces}. */
+  public static class TraceInfo {
+    @SerializedName("id")
+    public String id;
+    @SerializedName("view")
+    public String view;
+    @SerializedName("target")
+    public String target;
+    @SerializedName("owner")
+    public String owner;
+    @SerializedName("started")
+    public String started;
+    @SerializedName("status")
+    public int status;
+    @SerializedName("totalMs")
+    public double totalMs;
+    @SerializedName("phases")
+    public Map<String, Double> phases;
+  }
+
+  private final ConfigSnapshotCache snapshots;
+  private final CoderMetrics metrics;
+  private final Deque<TraceInfo> buffer = new ArrayDeque<>();
+
+  @Inject
+  OpenTraces(ConfigSnapshotCache snapshots, CoderMetrics metrics) {
+    this.snapshots = snapshots;
+    this.metrics = metrics;
+  }
+
+  public OpenTrace start(String view) {
+    return OpenTrace.start(view);
+  }
+
+  /**
+   * Records a finished request.
+   *
+   * @param target the workspace the request was for, null if it failed before resolving one
+   * @param status HTTP status answered
+   */
+  public void finish(OpenTrace trace, WorkspaceTarget target, int status) {
+    trace.finish();
+    Map<String, Double> phases = trace.phases();
+    phases.forEach(metrics::openPhase);
+    ServerSettings s = snapshots.get().server();
+    if (s.traceSamplePercent <= 0
+        || ThreadLocalRandom.current().nextInt(100) >= s.traceSamplePercent) {
+      return;
+    }
+    TraceInfo info = new TraceInfo();
+    info.id = trace.id;
+    info.view = trace.view;
+    info.target = target != null ? target.name() : null;
+    info.owner = target != null ? target.owner() : null;
+    info.started = Instant.ofEpochMilli(trace.startMillis).toString();
+    info.status = status;
+    info.totalMs = trace.totalMillis();
+    info.phases = phases;
+    synchronized (buffer) {
+      buffer.addFirst(info);
+      while (buffer.size() > s.traceBufferSize) {
+        buffer.removeLast();
+      }
+    }
+  }
+
+  /** Kept traces, newest first; with a non-null {@code id} only that trace. */
+  public List<TraceInfo> list(String id) {
+    List<TraceInfo> list = new ArrayList<>();
+    synchronized (buffer) {
+      for (TraceInfo t : buffer) {
+        if (id == null || id.equals(t.id)) {
+          list.add(t);
+        }
+      }
+    }
+    return list;
+  }
+}
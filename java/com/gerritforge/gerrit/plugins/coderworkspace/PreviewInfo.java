@@ -0,0 +1,21 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gson.annotations.SerializedName;
+import java.util.List;
+
+/** What opening the workspace for a revision would create in Coder, for the dry-run preview. */
+public class PreviewInfo {
+  @SerializedName("owner")
+  public String owner;
+  @SerializedName("request")
+  public CreateWorkspaceRequest request;
+  // The pinned version, or the template's active version; null until it is cached
+  @SerializedName("templateVersionId")
+  public String templateVersionId;
+  // Rich parameters the version declares; null until its schema is cached
+  @SerializedName("parameters")
+  public List<TemplateSchema.Parameter> parameters;
+  // Why Coder would reject the request; empty when it looks valid or the schema is not cached yet
+  @SerializedName("problems")
+  public List<String> problems;
+}
@@ -0,0 +1,141 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.data.AccountAttribute;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.EventListener;
+import com.google.gerrit.server.events.PatchSetCreatedEvent;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Creates or starts the workspace for a patchset as soon as it is uploaded, so it is warm by the
+ * time a reviewer opens it.
+ *
+ * <p>Opt-in per template mapping ({@code "prewarm": true}). Work runs on a small dedicated queue;
+ * a workspace that is already queued or being warmed is not queued again, and uploads beyond
+ * {@code prewarmQueueLimit} pending workspaces are skipped rather than delaying later ones.
+ */
+@Singleton
+public class Prewarmer implements EventListener, LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final ConfigSnapshotCache snapshots;
+  private final WorkspaceService workspaces;
+  private final CoderClient coder;
+  private final WorkQueue workQueue;
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+  private volatile ScheduledExecutorService executor;
+
+  @Inject
+  Prewarmer(
+      ConfigSnapshotCache snapshots,
+      WorkspaceService workspaces,
+      CoderClient coder,
+      WorkQueue workQueue) {
+    this.snapshots = snapshots;
+    this.workspaces = workspaces;
+    this.coder = coder;
+    this.workQueue = workQueue;
+  }
+
+  @Override
+  public void start() {
+    executor =
+        workQueue.createQueue(
+            snapshots.get().server().prewarmThreads, "CoderWorkspacePrewarm");
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService e = executor;
+    executor = null;
+    if (e != null) {
+      e.shutdownNow();
+    }
+    pending.clear();
+  }
+
+  @Override
+  public void onEvent(Event event) {
+    if (!(event instanceof PatchSetCreatedEvent)) {
+      return;
+    }
+    PatchSetCreatedEvent e = (PatchSetCreatedEvent) event;
+    ConfigSnapshot snapshot = snapshots.get();
+    String serverUrl = snapshot.server().serverUrl;
+    BranchNameKey dest = BranchNameKey.create(e.getProjectNameKey(), e.getRefName());
+    if (serverUrl == null
+        || serverUrl.isEmpty()
+        || !snapshot.resolveTemplate(dest.project().get(), dest.shortName()).prewarm) {
+      return;
+    }
+    AccountAttribute uploader = e.uploader != null ? e.uploader.get() : null;
+    WorkspaceTarget target =
+        workspaces.target(
+            dest,
+            Change.id(e.change.get().number),
+            e.patchSet.get().number,
+            uploader != null ? uploader.username : null);
+    submit(target, snapshot.server().prewarmQueueLimit);
+  }
+
+  /** Number of workspaces queued or being warmed. */
+  int pending() {
+    return pending.size();
+  }
+
+  private void submit(WorkspaceTarget target, int queueLimit) {
+    ScheduledExecutorService e = executor;
+    if (e == null) {
+      return;
+    }
+    String key = target.owner() + "/" + target.name();
+    if (pending.contains(key)) {
+      return;
+    }
+    if (pending.size() >= queueLimit) {
+      logger.atWarning().log("Prewarm queue full (%d); skipping workspace %s", queueLimit, key);
+      return;
+    }
+    if (!pending.add(key)) {
+      return;
+    }
+    try {
+      e.execute(
+          () -> {
+            try {
+              warm(target);
+            } finally {
+              pending.remove(key);
+            }
+          });
+    } catch (RejectedExecutionException ex) {
+      // stopped concurrently
+      pending.remove(key);
+    }
+  }
+
+  private void warm(WorkspaceTarget target) {
+    try {
+      WorkspaceService.Opened opened = workspaces.openOrCreate(target);
+      WorkspaceInfo ws = opened.workspace;
+      if (opened.created) {
+        logger.atInfo().log("Pre-warmed workspace %s for %s", ws.name, target.owner());
+      } else if (ws.latestBuild != null && "stop".equals(ws.latestBuild.transition)) {
+        coder.startWorkspace(ws.id);
+        logger.atInfo().log("Started workspace %s for %s", ws.name, target.owner());
+      }
+    } catch (CoderException e) {
+      logger.atWarning().withCause(e).log("Cannot pre-warm workspace %s", target.name());
+    }
+  }
+}
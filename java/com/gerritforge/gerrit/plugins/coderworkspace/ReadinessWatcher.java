@@ -0,0 +1,265 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static com.gerritforge.gerrit.plugins.coderworkspace.CoderHttp.encode;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gson.JsonParseException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Waits for workspace apps to report a URL, with one upstream watcher per workspace.
+ *
+ * <p>Every open browser tab used to poll Coder on its own until the app was ready. Here the first
+ * waiter for a workspace subscribes to Coder's watch stream ({@code
+ * /api/v2/workspaces/{id}/watch}, server-sent events) and later waiters share it. If Coder does
+ * not offer the stream, or it drops, the workspace is polled instead, backing off from {@link
+ * #MIN_POLL_MS} to {@link #MAX_POLL_MS}. The watcher stops once the app is ready or the last
+ * waiter gave up.
+ */
+@Singleton
+public class ReadinessWatcher implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final long MIN_POLL_MS = 500;
+  static final long MAX_POLL_MS = 5000;
+
+  private final CoderHttp http;
+  private final WorkQueue workQueue;
+  private final CoderMetrics metrics;
+  private final ConcurrentMap<String, Watch> watches = new ConcurrentHashMap<>();
+
+  @Inject
+  ReadinessWatcher(CoderHttp http, WorkQueue workQueue, CoderMetrics metrics) {
+    this.http = http;
+    this.workQueue = workQueue;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public void stop() {
+    watches.values().forEach(Watch::stop);
+    watches.clear();
+  }
+
+  /** True once the workspace app reported the URL the web UI opens. */
+  public static boolean isReady(WorkspaceInfo ws) {
+    return ws != null
+        && ws.latestAppStatus != null
+        && ws.latestAppStatus.uri != null
+        && !ws.latestAppStatus.uri.isEmpty();
+  }
+
+  /**
+   * Waits up to {@code timeoutMs} for the workspace app to become ready.
+   *
+   * @return the ready workspace, or the latest state seen when the time ran out
+   * @throws CoderException if the workspace disappeared while waiting
+   */
+  public WorkspaceInfo await(WorkspaceInfo ws, long timeoutMs) throws CoderException {
+    if (isReady(ws)) {
+      metrics.workspaceReady(ws.id);
+      return ws;
+    }
+    if (timeoutMs <= 0) {
+      return ws;
+    }
+    Watch watch = join(ws);
+    metrics.waitStarted();
+    try {
+      WorkspaceInfo ready = watch.ready.get(timeoutMs, TimeUnit.MILLISECONDS);
+      metrics.workspaceReady(ready.id);
+      return ready;
+    } catch (TimeoutException e) {
+      return watch.latest;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return watch.latest;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof CoderException) {
+        throw (CoderException) e.getCause();
+      }
+      throw new CoderException("Watching workspace " + ws.name + " failed", e.getCause());
+    } finally {
+      metrics.waitDone();
+      leave(watch);
+    }
+  }
+
+  /** Number of workspaces currently watched upstream. */
+  int activeWatches() {
+    return watches.size();
+  }
+
+  private Watch join(WorkspaceInfo ws) {
+    return watches.compute(
+        ws.id,
+        (id, w) -> {
+          if (w == null) {
+            w = new Watch(ws);
+            w.start();
+          }
+          w.waiters++;
+          return w;
+        });
+  }
+
+  private void leave(Watch watch) {
+    watches.computeIfPresent(
+        watch.id,
+        (id, w) -> {
+          if (w != watch || --w.waiters > 0) {
+            return w;
+          }
+          w.stop();
+          return null;
+        });
+  }
+
+  private final class Watch implements Flow.Subscriber<String> {
+    final String id;
+    final CompletableFuture<WorkspaceInfo> ready = new CompletableFuture<>();
+    volatile WorkspaceInfo latest;
+    /** Guarded by the {@code watches} map entry. */
+    int waiters;
+
+    private volatile boolean stopped;
+    private volatile Flow.Subscription subscription;
+    private volatile ScheduledFuture<?> poll;
+    private long pollDelayMs = MIN_POLL_MS;
+    private String event = "";
+    private final StringBuilder data = new StringBuilder();
+
+    Watch(WorkspaceInfo ws) {
+      this.id = ws.id;
+      this.latest = ws;
+    }
+
+    void start() {
+      http.streamLines("/api/v2/workspaces/" + encode(id) + "/watch", this)
+          .whenComplete(
+              (status, err) -> {
+                if (stopped || ready.isDone()) {
+                  return;
+                }
+                if (err != null) {
+                  logger.atFine().withCause(err).log("Watch stream for %s failed; polling", id);
+                } else {
+                  logger.atFine().log("Watch stream for %s ended (%d); polling", id, status);
+                }
+                schedulePoll(0);
+              });
+    }
+
+    void stop() {
+      stopped = true;
+      Flow.Subscription s = subscription;
+      if (s != null) {
+        s.cancel();
+      }
+      ScheduledFuture<?> p = poll;
+      if (p != null) {
+        p.cancel(false);
+      }
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription s) {
+      subscription = s;
+      if (stopped) {
+        s.cancel();
+      } else {
+        s.request(Long.MAX_VALUE);
+      }
+    }
+
+    @Override
+    public void onNext(String line) {
+      if (line.isEmpty()) {
+        if ("data".equals(event) && data.length() > 0) {
+          try {
+            update(CoderHttp.GSON.fromJson(data.toString(), WorkspaceInfo.class));
+          } catch (JsonParseException e) {
+            logger.atFine().withCause(e).log("Ignoring malformed watch event for %s", id);
+          }
+        }
+        event = "";
+        data.setLength(0);
+      } else if (line.startsWith("event:")) {
+        event = line.substring("event:".length()).trim();
+      } else if (line.startsWith("data:")) {
+        data.append(line.substring("data:".length()).trim());
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {}
+
+    @Override
+    public void onComplete() {}
+
+    private void update(WorkspaceInfo ws) {
+      if (ws == null) {
+        return;
+      }
+      latest = ws;
+      if (isReady(ws)) {
+        finish();
+        ready.complete(ws);
+      }
+    }
+
+    private void schedulePoll(long delayMs) {
+      if (!stopped) {
+        poll =
+            workQueue.getDefaultQueue().schedule(this::poll, delayMs, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    /** Polls without blocking a queue thread while Coder answers. */
+    private void poll() {
+      if (stopped || ready.isDone()) {
+        return;
+      }
+      http.sendAsync("GET", "/api/v2/workspaces/" + encode(id), null, WorkspaceInfo.class)
+          .whenComplete(
+              (ws, err) -> {
+                if (err != null) {
+                  Throwable cause = err instanceof CompletionException ? err.getCause() : err;
+                  if (cause instanceof CoderException && ((CoderException) cause).isNotFound()) {
+                    finish();
+                    ready.completeExceptionally(cause);
+                    return;
+                  }
+                  logger.atFine().withCause(cause).log("Polling workspace %s failed", id);
+                } else {
+                  update(ws);
+                }
+                if (!ready.isDone()) {
+                  schedulePoll(pollDelayMs);
+                  pollDelayMs = Math.min(MAX_POLL_MS, pollDelayMs * 2);
+                }
+              });
+    }
+
+    /** Stops watching upstream; waiters that arrive later start a new watch. */
+    private void finish() {
+      stop();
+      watches.remove(id, this);
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+/**
+ * Settings only used by Gerrit itself when talking to Coder. Never serialized to the web UI, so
+ * this is where the server-held API token lives.
+ */
+public class ServerSettings {
+  static final String INVALIDATION_NONE = "none";
+  static final String INVALIDATION_DIRECTORY = "directory";
+  static final String INVALIDATION_EVENTS = "events";
+
+  public String serverUrl;
+  public String apiKey;
+  public String organization;
+  public String user = "me";
+
+  // Proxy Coder API calls through Gerrit instead of calling Coder from the browser
+  public boolean useServerProxy = false;
+  // Use the Gerrit username as Coder workspace owner instead of "user"
+  public boolean ownerFromGerritUsername = false;
+  // Serve the web UI script with the browser config inlined, saving the config request
+  public boolean inlineConfig = false;
+
+  public long connectTimeoutMs = 5000;
+  public long requestTimeoutMs = 30000;
+
+  // Admission control for calls to Coder, see CoderLimiter (0 disables a limit)
+  public int maxConcurrentCalls = 32;
+  public long maxQueueWaitMs = 2000;
+  public int userCallsPerMinute = 120;
+  public int userBurst = 20;
+
+  // Upstream resilience, see CircuitBreakers (breakerFailureThreshold 0 disables breakers)
+  public int breakerFailureThreshold = 5;
+  public long breakerOpenMs = 30000;
+  public boolean adaptiveTimeouts = true;
+  public boolean hedgeReads = true;
+
+  // Where proxy requests wait for Coder, see UpstreamExecutor (maxProxyRequests 0 disables the cap)
+  public int maxProxyRequests = 16;
+  public long proxyDeadlineMs = 60000;
+
+  // Sampled phase timings of proxy requests, see OpenTraces
+  public int traceSamplePercent = 10;
+  public int traceBufferSize = 200;
+
+  // Bulk open of a topic or change series, see CreateWorkspaces
+  public int bulkParallelism = 4;
+  public int bulkMaxChanges = 20;
+
+  // Workspace pre-warming on patchset upload, for template mappings with "prewarm": true
+  public int prewarmThreads = 2;
+  public int prewarmQueueLimit = 100;
+
+  // Starting stopped workspaces when their change is viewed (speculativeStart), see
+  // SpeculativeStarter
+  public long speculativeStartDelayMs = 2000;
+  public int speculativeUserStartsPerHour = 5;
+  public int speculativeStartsPerMinute = 20;
+
+  // Warm workspace pools, for template mappings with a poolSize
+  public long poolCheckIntervalSeconds = 60;
+
+  // Deleting workspaces of closed changes and superseded patchsets
+  public boolean cleanupClosedChanges = false;
+  public boolean cleanupSupersededPatchsets = false;
+  public boolean cleanupDryRun = false;
+  public int cleanupBatchSize = 10;
+  public long cleanupIntervalSeconds = 30;
+  public int cleanupMaxAttempts = 3;
+  public int cleanupQueueLimit = 10000;
+
+  // Cache coherence across Gerrit nodes, see CacheInvalidation
+  public String cacheInvalidation = INVALIDATION_NONE;
+  public String invalidationDirectory;
+  public long invalidationIntervalMs = 1000;
+
+  /** Owner segment for Coder user-scoped routes. */
+  public String owner(String gerritUsername) {
+    if (!sharedOwner(gerritUsername)) {
+      return gerritUsername;
+    }
+    return user == null || user.isEmpty() ? "me" : user;
+  }
+
+  /**
+   * Whether the user's workspaces are owned by the token's account, together with everyone
+   * else's, instead of by a Coder user of their own.
+   */
+  public boolean sharedOwner(String gerritUsername) {
+    return !ownerFromGerritUsername || gerritUsername == null || gerritUsername.isEmpty();
+  }
+}
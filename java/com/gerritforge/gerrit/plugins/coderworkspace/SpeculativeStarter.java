@@ -0,0 +1,184 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts a user's stopped workspace in the background while they look at its change, so it is
+ * running by the time they open it.
+ *
+ * <p>Opt-in ({@code speculativeStart}). Views are debounced per user: only the change a user is
+ * still on after {@code speculativeStartDelayMs} is considered, so clicking through a list of
+ * changes starts nothing. Only workspaces the proxy recorded for the patchset (see {@link
+ * WorkspaceIds}) are started, never created, and no name is looked up. Starts are capped at {@code
+ * speculativeUserStartsPerHour} per user and {@code speculativeStartsPerMinute} overall; views
+ * beyond the caps are dropped.
+ */
+@Singleton
+public class SpeculativeStarter implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  // Users with a view waiting for its delay; more are dropped
+  static final int MAX_PENDING = 1000;
+
+  private static final long HOUR_NANOS = TimeUnit.HOURS.toNanos(1);
+  private static final long MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final ConfigSnapshotCache snapshots;
+  private final WorkspaceService workspaces;
+  private final CoderClient coder;
+  private final CoderMetrics metrics;
+  private final WorkQueue workQueue;
+  private final Map<Account.Id, View> pending = new ConcurrentHashMap<>();
+  private final Cache<Account.Id, Deque<Long>> userStarts =
+      CacheBuilder.newBuilder().maximumSize(10_000).expireAfterAccess(Duration.ofHours(1)).build();
+  private final Deque<Long> starts = new ArrayDeque<>();
+  private volatile ScheduledExecutorService executor;
+
+  @Inject
+  SpeculativeStarter(
+      ConfigSnapshotCache snapshots,
+      WorkspaceService workspaces,
+      CoderClient coder,
+      CoderMetrics metrics,
+      WorkQueue workQueue) {
+    this.snapshots = snapshots;
+    this.workspaces = workspaces;
+    this.coder = coder;
+    this.metrics = metrics;
+    this.workQueue = workQueue;
+  }
+
+  @Override
+  public void start() {
+    executor = workQueue.createQueue(1, "CoderWorkspaceSpeculativeStart");
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService e = executor;
+    executor = null;
+    if (e != null) {
+      e.shutdownNow();
+    }
+    pending.clear();
+  }
+
+  /** Whether views are acted on; see {@link WarmWorkspace}. */
+  public boolean enabled() {
+    ConfigSnapshot snapshot = snapshots.get();
+    return snapshot.info().speculativeStart && snapshot.server().useServerProxy;
+  }
+
+  /** Records that the user is looking at the target's change; replaces their earlier view. */
+  public void viewed(Account.Id user, WorkspaceTarget target) {
+    ScheduledExecutorService e = executor;
+    if (e == null || !enabled()) {
+      return;
+    }
+    if (pending.size() >= MAX_PENDING && !pending.containsKey(user)) {
+      return;
+    }
+    View view = new View();
+    View previous = pending.put(user, view);
+    if (previous != null) {
+      previous.cancel();
+    }
+    try {
+      view.future =
+          e.schedule(
+              () -> {
+                // A later view replaced this one
+                if (pending.remove(user, view)) {
+                  start(user, target);
+                }
+              },
+              snapshots.get().server().speculativeStartDelayMs,
+              TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException ex) {
+      // stopped concurrently
+      pending.remove(user, view);
+    }
+  }
+
+  /** Number of views waiting for their delay. */
+  int pending() {
+    return pending.size();
+  }
+
+  private void start(Account.Id user, WorkspaceTarget target) {
+    try {
+      Optional<WorkspaceInfo> known = workspaces.known(target);
+      if (!known.isPresent()) {
+        return;
+      }
+      WorkspaceInfo ws = known.get();
+      if (ws.latestBuild == null || !"stop".equals(ws.latestBuild.transition)) {
+        return;
+      }
+      String limit = take(user, System.nanoTime());
+      if (limit != null) {
+        metrics.speculativeStart(limit);
+        logger.atFine().log("Not starting workspace %s: %s limit reached", ws.name, limit);
+        return;
+      }
+      coder.startWorkspace(ws.id);
+      metrics.speculativeStart("started");
+      logger.atInfo().log("Started workspace %s for %s on change view", ws.name, target.owner());
+    } catch (CoderException e) {
+      logger.atWarning().withCause(e).log("Cannot start workspace %s", target.name());
+    }
+  }
+
+  /** Counts a start against both caps; returns the cap that is reached instead, if any. */
+  @Nullable
+  private synchronized String take(Account.Id user, long now) {
+    ServerSettings s = snapshots.get().server();
+    Deque<Long> mine = userStarts.asMap().computeIfAbsent(user, k -> new ArrayDeque<>());
+    prune(mine, now - HOUR_NANOS);
+    prune(starts, now - MINUTE_NANOS);
+    if (mine.size() >= s.speculativeUserStartsPerHour) {
+      return "user";
+    }
+    if (starts.size() >= s.speculativeStartsPerMinute) {
+      return "global";
+    }
+    mine.addLast(now);
+    starts.addLast(now);
+    return null;
+  }
+
+  private static void prune(Deque<Long> times, long since) {
+    while (!times.isEmpty() && times.peekFirst() - since <= 0) {
+      times.removeFirst();
+    }
+  }
+
+  private static final class View {
+    volatile ScheduledFuture<?> future;
+
+    void cancel() {
+      ScheduledFuture<?> f = future;
+      if (f != null) {
+        f.cancel(false);
+      }
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled form of {@link ConfigInfo#templateMappings}.
+ *
+ * <p>Mappings keep their "first match wins" semantics, but instead of testing every glob per
+ * lookup the index only visits candidates: exact repo names come from a hash map, globbed repos
+ * from a trie keyed by the literal prefix before the first {@code *}, and catch-all repos from a
+ * short list. Branch patterns are compiled once.
+ */
+public final class TemplateIndex {
+  private final List<ConfigInfo.TemplateMapping> mappings;
+  private final Map<String, List<Entry>> exactRepos;
+  private final TrieNode repoPrefixes;
+  private final List<Entry> anyRepo;
+
+  private TemplateIndex(
+      List<ConfigInfo.TemplateMapping> mappings,
+      Map<String, List<Entry>> exactRepos,
+      TrieNode repoPrefixes,
+      List<Entry> anyRepo) {
+    this.mappings = mappings;
+    this.exactRepos = exactRepos;
+    this.repoPrefixes = repoPrefixes;
+    this.anyRepo = anyRepo;
+  }
+
+  public static TemplateIndex compile(List<ConfigInfo.TemplateMapping> mappings) {
+    List<ConfigInfo.TemplateMapping> copy = List.copyOf(mappings);
+    Map<String, List<Entry>> exact = new HashMap<>();
+    TrieNode root = new TrieNode();
+    List<Entry> any = new ArrayList<>();
+    for (int i = 0; i < copy.size(); i++) {
+      ConfigInfo.TemplateMapping m = copy.get(i);
+      String repo = m.repo == null || m.repo.isEmpty() ? "*" : m.repo;
+      GlobMatcher branch = GlobMatcher.compile(m.branch);
+      int star = repo.indexOf('*');
+      if (star < 0) {
+        exact.computeIfAbsent(repo, k -> new ArrayList<>()).add(new Entry(i, null, branch));
+      } else if (star == 0 && repo.equals("*")) {
+        any.add(new Entry(i, null, branch));
+      } else {
+        // Prefix-only globs ("a/b/*") are fully decided by the trie walk
+        GlobMatcher rest = star == repo.length() - 1 ? null : GlobMatcher.compile(repo);
+        root.insert(repo.substring(0, star)).add(new Entry(i, rest, branch));
+      }
+    }
+    return new TemplateIndex(copy, exact, root, any);
+  }
+
+  /** Returns the first mapping (in configuration order) matching the repo and branch. */
+  public Optional<ConfigInfo.TemplateMapping> resolve(String repo, String branch) {
+    String r = repo == null ? "" : repo;
+    String b = branch == null ? "" : branch;
+    int best = firstMatch(exactRepos.get(r), r, b, Integer.MAX_VALUE);
+    best = firstMatch(anyRepo, r, b, best);
+    TrieNode node = repoPrefixes;
+    best = firstMatch(node.entries, r, b, best);
+    for (int i = 0; i < r.length() && node != null; i++) {
+      node = node.children.get(r.charAt(i));
+      if (node != null) {
+        best = firstMatch(node.entries, r, b, best);
+      }
+    }
+    return best == Integer.MAX_VALUE ? Optional.empty() : Optional.of(mappings.get(best));
+  }
+
+  /** All mappings, in configuration order. */
+  public List<ConfigInfo.TemplateMapping> mappings() {
+    return mappings;
+  }
+
+  private static int firstMatch(List<Entry> entries, String repo, String branch, int best) {
+    if (entries == null) {
+      return best;
+    }
+    // entries are in ascending configuration order
+    for (Entry e : entries) {
+      if (e.index >= best) {
+        break;
+      }
+      if ((e.repo == null || e.repo.matches(repo)) && e.branch.matches(branch)) {
+        return e.index;
+      }
+    }
+    return best;
+  }
+
+  private static final class Entry {
+    final int index;
+    final GlobMatcher repo;
+    final GlobMatcher branch;
+
+    Entry(int index, GlobMatcher repo, GlobMatcher branch) {
+      this.index = index;
+      this.repo = repo;
+      this.branch = branch;
+    }
+  }
+
+  private static final class TrieNode {
+    final Map<Character, TrieNode> children = new HashMap<>();
+    List<Entry> entries;
+
+    List<Entry> insert(String prefix) {
+      TrieNode node = this;
+      for (int i = 0; i < prefix.length(); i++) {
+        node = node.children.computeIfAbsent(prefix.charAt(i), c -> new TrieNode());
+      }
+      if (node.entries == null) {
+        node.entries = new ArrayList<>();
+      }
+      return node.entries;
+    }
+  }
+
+  /** Glob with {@code *} wildcards only, matching the whole value like the web UI's matchGlob. */
+  static final class GlobMatcher {
+    private static final GlobMatcher ANY = new GlobMatcher(null, null, null);
+
+    private final String literal;
+    private final String prefix;
+    private final Pattern pattern;
+
+    private GlobMatcher(String literal, String prefix, Pattern pattern) {
+      this.literal = literal;
+      this.prefix = prefix;
+      this.pattern = pattern;
+    }
+
+    static GlobMatcher compile(String glob) {
+      if (glob == null || glob.isEmpty() || glob.equals("*")) {
+        return ANY;
+      }
+      int star = glob.indexOf('*');
+      if (star < 0) {
+        return new GlobMatcher(glob, null, null);
+      }
+      if (star == glob.length() - 1) {
+        return new GlobMatcher(null, glob.substring(0, star), null);
+      }
+      StringBuilder re = new StringBuilder(glob.length() + 16);
+      int from = 0;
+      for (int i = star; i >= 0; i = glob.indexOf('*', from)) {
+        if (i > from) {
+          re.append(Pattern.quote(glob.substring(from, i)));
+        }
+        re.append(".*");
+        from = i + 1;
+      }
+      if (from < glob.length()) {
+        re.append(Pattern.quote(glob.substring(from)));
+      }
+      return new GlobMatcher(null, null, Pattern.compile(re.toString(), Pattern.DOTALL));
+    }
+
+    boolean matches(String value) {
+      if (literal != null) {
+        return literal.equals(value);
+      }
+      if (prefix != null) {
+        return value.startsWith(prefix);
+      }
+      return pattern == null || pattern.matcher(value).matches();
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gson.annotations.SerializedName;
+import java.util.List;
+
+/** Template selection for one change, as resolved from the configured template mappings. */
+public class TemplateInfo {
+  @SerializedName("templateId")
+  public String templateId;
+  @SerializedName("templateVersionId")
+  public String templateVersionId;
+  @SerializedName("templateVersionPresetId")
+  public String templateVersionPresetId;
+  @SerializedName("workspaceNameTemplate")
+  public String workspaceNameTemplate;
+  @SerializedName("richParams")
+  public List<ConfigInfo.RichParam> richParams;
+  @SerializedName("prewarm")
+  public boolean prewarm;
+
+  /**
+   * Builds the effective template for a mapping, or for the server defaults when no mapping
+   * matched. Mirrors pickTemplateForContext/buildCreateRequest in the web UI: template ids come
+   * from the mapping alone, name template and rich params fall back to the defaults.
+   */
+  static TemplateInfo of(ConfigInfo cfg, ConfigInfo.TemplateMapping mapping) {
+    TemplateInfo t = new TemplateInfo();
+    if (mapping == null) {
+      t.templateId = cfg.templateId;
+      t.templateVersionId = cfg.templateVersionId;
+      t.templateVersionPresetId = cfg.templateVersionPresetId;
+      t.workspaceNameTemplate = cfg.workspaceNameTemplate;
+      t.richParams = cfg.richParams;
+      return t;
+    }
+    t.templateId = mapping.templateId;
+    t.templateVersionId = mapping.templateVersionId;
+    t.templateVersionPresetId = mapping.templateVersionPresetId;
+    t.prewarm = mapping.prewarm;
+    t.workspaceNameTemplate =
+        mapping.workspaceNameTemplate != null && !mapping.workspaceNameTemplate.isEmpty()
+            ? mapping.workspaceNameTemplate
+            : cfg.workspaceNameTemplate;
+    t.richParams =
+        mapping.richParams != null && !mapping.richParams.isEmpty()
+            ? mapping.richParams
+            : cfg.richParams;
+    return t;
+  }
+}
@@ -0,0 +1,149 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.annotations.SerializedName;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Rich parameters declared by one Coder template version, from {@code GET
+ * /api/v2/templateversions/{id}/rich-parameters}.
+ *
+ * <p>Template versions are immutable in Coder, so a schema never changes once loaded. Cached
+ * objects are shared and must not be modified.
+ */
+public class TemplateSchema {
+  /** Subset of Coder's TemplateVersionParameter. */
+  public static class Parameter {
+    @SerializedName("name")
+    public String name;
+    @SerializedName("type")
+    public String type;
+    @SerializedName("required")
+    public boolean required;
+    @SerializedName("mutable")
+    public boolean mutable;
+    @SerializedName("default_value")
+    public String defaultValue;
+    @SerializedName("options")
+    public List<Option> options;
+    @SerializedName("validation_regex")
+    public String validationRegex;
+    @SerializedName("validation_min")
+    public Long validationMin;
+    @SerializedName("validation_max")
+    public Long validationMax;
+    @SerializedName("validation_error")
+    public String validationError;
+  }
+
+  public static class Option {
+    @SerializedName("name")
+    public String name;
+    @SerializedName("value")
+    public String value;
+  }
+
+  @SerializedName("templateVersionId")
+  public final String versionId;
+  @SerializedName("parameters")
+  public final ImmutableList<Parameter> parameters;
+
+  TemplateSchema(String versionId, List<Parameter> parameters) {
+    this.versionId = versionId;
+    this.parameters = ImmutableList.copyOf(parameters);
+  }
+
+  /**
+   * Checks the rich parameter values of a create request the way Coder would: names must be
+   * declared, required parameters set (unless a preset may set them), and values match the type,
+   * options, regex and range.
+   *
+   * @return one message per problem; empty when Coder should accept the values
+   */
+  public List<String> validate(CreateWorkspaceRequest req) {
+    List<String> problems = new ArrayList<>();
+    Map<String, Parameter> byName = new HashMap<>();
+    for (Parameter p : parameters) {
+      byName.put(p.name, p);
+    }
+    Map<String, String> given = new HashMap<>();
+    for (CreateWorkspaceRequest.RichParameterValue v : req.richParameterValues) {
+      Parameter p = byName.get(v.name);
+      if (p == null) {
+        problems.add(String.format("Template version %s has no parameter %s", versionId, v.name));
+        continue;
+      }
+      given.put(v.name, v.value);
+      String problem = check(p, v.value == null ? "" : v.value);
+      if (problem != null) {
+        problems.add(String.format("Parameter %s: %s", p.name, problem));
+      }
+    }
+    boolean preset =
+        req.templateVersionPresetId != null && !req.templateVersionPresetId.isEmpty();
+    for (Parameter p : parameters) {
+      if (p.required && !preset && !given.containsKey(p.name)) {
+        problems.add(String.format("Parameter %s is required by the template", p.name));
+      }
+    }
+    return problems;
+  }
+
+  private static String check(Parameter p, String value) {
+    String type = p.type == null ? "string" : p.type;
+    if (type.startsWith("list(")) {
+      // JSON array; Coder checks the elements
+      return null;
+    }
+    if (p.options != null && !p.options.isEmpty()) {
+      for (Option o : p.options) {
+        if (value.equals(o.value)) {
+          return null;
+        }
+      }
+      return "\"" + value + "\" is not one of the template's options";
+    }
+    switch (type) {
+      case "bool":
+        return value.equals("true") || value.equals("false")
+            ? null
+            : "\"" + value + "\" is not true or false";
+      case "number":
+        long n;
+        try {
+          n = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+          return "\"" + value + "\" is not a number";
+        }
+        if ((p.validationMin != null && n < p.validationMin)
+            || (p.validationMax != null && n > p.validationMax)) {
+          return message(p, value + " is out of range");
+        }
+        return null;
+      default:
+        if (p.validationRegex == null || p.validationRegex.isEmpty()) {
+          return null;
+        }
+        try {
+          // Coder matches like Go's regexp.MatchString: anywhere in the value
+          return Pattern.compile(p.validationRegex).matcher(value).find()
+              ? null
+              : message(p, "\"" + value + "\" does not match " + p.validationRegex);
+        } catch (PatternSyntaxException e) {
+          // RE2 syntax Java does not understand; leave the check to Coder
+          return null;
+        }
+    }
+  }
+
+  private static String message(Parameter p, String fallback) {
+    return p.validationError != null && !p.validationError.isEmpty()
+        ? p.validationError
+        : fallback;
+  }
+}
@@ -0,0 +1,211 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cached resolution of Coder templates to their active version and rich-parameter schema.
+ *
+ * <p>The {@code template_active_versions} cache maps template ids to their active version. Its
+ * entries are refreshed in the background a minute after they were loaded, so a new active version
+ * is picked up without any request waiting for Coder. The {@code template_schemas} cache holds the
+ * rich parameters of each version, which never change. All templates in the configuration are
+ * loaded when the plugin starts, others on first use.
+ *
+ * <p>Neither creates (see {@link #validate}) nor the dry-run preview (see {@link GetPreview}) wait
+ * for these loads: they use what is cached, and skip the schema otherwise.
+ */
+@Singleton
+public class TemplateVersions implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String ACTIVE_VERSIONS = "template_active_versions";
+  static final String SCHEMAS = "template_schemas";
+  static final Duration RETRY_FAILED = Duration.ofMinutes(1);
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(ACTIVE_VERSIONS, String.class, String.class)
+            .maximumWeight(1_000)
+            .refreshAfterWrite(Duration.ofMinutes(1))
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .loader(ActiveVersionLoader.class);
+        cache(SCHEMAS, String.class, TemplateSchema.class)
+            .maximumWeight(1_000)
+            .expireAfterWrite(Duration.ofDays(1))
+            .loader(SchemaLoader.class);
+      }
+    };
+  }
+
+  static class ActiveVersionLoader extends CacheLoader<String, String> {
+    private final CoderClient coder;
+    private final UpstreamExecutor upstream;
+
+    @Inject
+    ActiveVersionLoader(CoderClient coder, UpstreamExecutor upstream) {
+      this.coder = coder;
+      this.upstream = upstream;
+    }
+
+    @Override
+    public String load(String templateId) throws CoderException {
+      return coder.activeVersionId(templateId);
+    }
+
+    /** Refreshes off the caller's thread; readers keep the old version until it is done. */
+    @Override
+    public ListenableFuture<String> reload(String templateId, String old) {
+      ListenableFutureTask<String> task = ListenableFutureTask.create(() -> load(templateId));
+      upstream.execute(task);
+      return task;
+    }
+  }
+
+  static class SchemaLoader extends CacheLoader<String, TemplateSchema> {
+    private final CoderClient coder;
+
+    @Inject
+    SchemaLoader(CoderClient coder) {
+      this.coder = coder;
+    }
+
+    @Override
+    public TemplateSchema load(String versionId) throws CoderException {
+      return coder.templateSchema(versionId);
+    }
+  }
+
+  private final ConfigSnapshotCache snapshots;
+  private final LoadingCache<String, String> activeVersions;
+  private final LoadingCache<String, TemplateSchema> schemas;
+  private final UpstreamExecutor upstream;
+  private final Cache<String, Boolean> failed =
+      CacheBuilder.newBuilder().expireAfterWrite(RETRY_FAILED).build();
+
+  @Inject
+  TemplateVersions(
+      ConfigSnapshotCache snapshots,
+      @Named(ACTIVE_VERSIONS) LoadingCache<String, String> activeVersions,
+      @Named(SCHEMAS) LoadingCache<String, TemplateSchema> schemas,
+      UpstreamExecutor upstream) {
+    this.snapshots = snapshots;
+    this.activeVersions = activeVersions;
+    this.schemas = schemas;
+    this.upstream = upstream;
+  }
+
+  @Override
+  public void start() {
+    ConfigSnapshot snapshot = snapshots.get();
+    Set<String> templateIds = new LinkedHashSet<>();
+    Set<String> versionIds = new LinkedHashSet<>();
+    add(templateIds, snapshot.info().templateId);
+    add(versionIds, snapshot.info().templateVersionId);
+    for (ConfigInfo.TemplateMapping m : snapshot.templates().mappings()) {
+      add(templateIds, m.templateId);
+      add(versionIds, m.templateVersionId);
+    }
+    for (String id : templateIds) {
+      prefetch(id, null);
+    }
+    for (String id : versionIds) {
+      prefetch(null, id);
+    }
+  }
+
+  @Override
+  public void stop() {}
+
+  /**
+   * Schema of the version a create request builds: its pinned version, else its template's active
+   * version. Never calls Coder; what is not cached yet is loaded in the background, and empty
+   * returned meanwhile.
+   */
+  public Optional<TemplateSchema> cached(CreateWorkspaceRequest req) {
+    String version = req.templateVersionId;
+    if (Strings.isNullOrEmpty(version) && !Strings.isNullOrEmpty(req.templateId)) {
+      version = activeVersions.getIfPresent(req.templateId);
+      if (version == null) {
+        prefetch(req.templateId, null);
+        return Optional.empty();
+      }
+    }
+    if (Strings.isNullOrEmpty(version)) {
+      return Optional.empty();
+    }
+    TemplateSchema schema = schemas.getIfPresent(version);
+    if (schema == null) {
+      prefetch(null, version);
+    }
+    return Optional.ofNullable(schema);
+  }
+
+  /**
+   * Rejects a create request whose rich parameter values Coder would reject. Requests for a
+   * template whose schema is not cached are passed on, and Coder decides.
+   *
+   * @throws CoderException 400 listing the problems
+   */
+  public void validate(CreateWorkspaceRequest req) throws CoderException {
+    Optional<TemplateSchema> schema = cached(req);
+    if (schema.isPresent()) {
+      List<String> problems = schema.get().validate(req);
+      if (!problems.isEmpty()) {
+        throw new CoderException(400, String.join("; ", problems));
+      }
+    }
+  }
+
+  /**
+   * Loads a template's active version and schema, or a version's schema, in the background. Ids
+   * that failed to load are not tried again for {@link #RETRY_FAILED}.
+   */
+  private void prefetch(@Nullable String templateId, @Nullable String versionId) {
+    String id = templateId != null ? templateId : versionId;
+    if (failed.getIfPresent(id) != null) {
+      return;
+    }
+    try {
+      upstream.execute(
+          () -> {
+            try {
+              schemas.get(templateId != null ? activeVersions.get(templateId) : versionId);
+            } catch (ExecutionException | UncheckedExecutionException e) {
+              failed.put(id, Boolean.TRUE);
+              logger.atWarning().withCause(e.getCause()).log("Cannot load Coder template %s", id);
+            }
+          });
+    } catch (RuntimeException e) {
+      // Not started, or stopping
+    }
+  }
+
+  private static void add(Set<String> ids, String id) {
+    if (!Strings.isNullOrEmpty(id)) {
+      ids.add(id);
+    }
+  }
+}
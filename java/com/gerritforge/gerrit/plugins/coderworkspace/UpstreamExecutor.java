@@ -0,0 +1,117 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.cancellation.RequestStateContext;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the plugin's upstream work off Gerrit's threads.
+ *
+ * <p>Every task gets its own virtual thread, so thousands of calls blocked on a slow Coder cost no
+ * platform threads.
+ *
+ * <p>Proxy REST views hand their Coder work to {@link #call}. The Gerrit HTTP thread still blocks
+ * until the result is in: for at most {@code proxyDeadlineMs}, and only while the request is not
+ * cancelled (client gone or a Gerrit deadline exceeded, see {@link RequestStateContext}). Either
+ * way the upstream task is interrupted. At most {@code maxProxyRequests} HTTP threads wait at a
+ * time (see {@link CoderLimiter#enterRequest}); further requests are shed with 429, leaving the
+ * rest of the HTTP threads for other REST traffic.
+ */
+@Singleton
+public class UpstreamExecutor implements LifecycleListener {
+  /** How often a waiting request checks whether it was cancelled. */
+  static final long CANCEL_CHECK_MS = 100;
+
+  private final ConfigSnapshotCache snapshots;
+  private final CoderLimiter limiter;
+  private volatile ExecutorService executor;
+
+  @Inject
+  UpstreamExecutor(ConfigSnapshotCache snapshots, CoderLimiter limiter) {
+    this.snapshots = snapshots;
+    this.limiter = limiter;
+  }
+
+  @Override
+  public void start() {
+    executor = Executors.newVirtualThreadPerTaskExecutor();
+  }
+
+  @Override
+  public void stop() {
+    ExecutorService e = executor;
+    executor = null;
+    if (e != null) {
+      e.shutdownNow();
+    }
+  }
+
+  /** Runs background work, e.g. a cleanup batch. */
+  public void execute(Runnable work) {
+    executor().execute(work);
+  }
+
+  /**
+   * Runs {@code work} for a proxy request and waits for its result.
+   *
+   * @param extraMs added to {@code proxyDeadlineMs}, e.g. for a requested readiness wait
+   * @throws CoderException 429 if too many requests are already waiting, 504 if the deadline passed
+   */
+  @SuppressWarnings("try")
+  public <T> T call(Callable<T> work, long extraMs) throws CoderException {
+    try (CoderLimiter.Permit slot = limiter.enterRequest()) {
+      long deadlineMs = snapshots.get().server().proxyDeadlineMs + extraMs;
+      long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+      Future<T> result = executor().submit(work);
+      try {
+        for (; ; ) {
+          // Throws RequestCancelledException, which Gerrit answers itself
+          RequestStateContext.abortIfCancelled();
+          long left = end - System.nanoTime();
+          if (left <= 0) {
+            throw new CoderException(
+                CoderException.SC_GATEWAY_TIMEOUT,
+                "Coder did not answer within " + deadlineMs + " ms");
+          }
+          try {
+            return result.get(
+                Math.min(left, TimeUnit.MILLISECONDS.toNanos(CANCEL_CHECK_MS)),
+                TimeUnit.NANOSECONDS);
+          } catch (TimeoutException e) {
+            // Check for cancellation and the deadline again
+          }
+        }
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof CoderException) {
+          throw (CoderException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new CoderException("Coder request failed", cause);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CoderException("Interrupted waiting for Coder", e);
+      } finally {
+        result.cancel(true);
+      }
+    }
+  }
+
+  private ExecutorService executor() {
+    ExecutorService e = executor;
+    if (e == null) {
+      throw new IllegalStateException("UpstreamExecutor is not started");
+    }
+    return e;
+  }
+}
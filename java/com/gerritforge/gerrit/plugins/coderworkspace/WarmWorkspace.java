@@ -0,0 +1,38 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gerrit.extensions.restapi.MethodNotAllowedException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.inject.Inject;
+
+/**
+ * Tells Gerrit the caller is viewing a revision, so its stopped workspace can be started ahead of
+ * the open (see {@link SpeculativeStarter}).
+ *
+ * <p>Exposed as {@code POST /changes/<id>/revisions/<rev>/coder-workspace~warm}. Answers 204 at once
+ * and never calls Coder itself.
+ */
+public class WarmWorkspace implements RestModifyView<RevisionResource, WarmWorkspace.Input> {
+  public static class Input {}
+
+  private final WorkspaceService workspaces;
+  private final SpeculativeStarter starter;
+
+  @Inject
+  WarmWorkspace(WorkspaceService workspaces, SpeculativeStarter starter) {
+    this.workspaces = workspaces;
+    this.starter = starter;
+  }
+
+  @Override
+  public Response<?> apply(RevisionResource rsrc, Input input) throws RestApiException {
+    workspaces.checkEnabled(rsrc);
+    if (!starter.enabled()) {
+      throw new MethodNotAllowedException("Speculative start is disabled (speculativeStart)");
+    }
+    starter.viewed(rsrc.getUser().getAccountId(), workspaces.target(rsrc));
+    return Response.none();
+  }
+}
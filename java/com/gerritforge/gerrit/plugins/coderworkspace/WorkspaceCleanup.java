@@ -0,0 +1,250 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.data.AccountAttribute;
+import com.google.gerrit.server.data.ChangeAttribute;
+import com.google.gerrit.server.events.ChangeAbandonedEvent;
+import com.google.gerrit.server.events.ChangeMergedEvent;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.EventListener;
+import com.google.gerrit.server.events.PatchSetCreatedEvent;
+import com.google.gerrit.server.events.PatchSetEvent;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gson.annotations.SerializedName;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Deletes the workspaces of merged and abandoned changes and of superseded patchsets.
+ *
+ * <p>Events only queue work: every {@code cleanupIntervalSeconds} at most {@code
+ * cleanupBatchSize} workspaces are deleted, so a burst of merges does not flood Coder. Failed
+ * deletions are retried with exponential backoff up to {@code cleanupMaxAttempts} times. In dry-run
+ * mode workspaces are looked up and logged but kept. Batches run on the {@link UpstreamExecutor},
+ * not on Gerrit's default queue, and never overlap.
+ *
+ * <p>Only primary workspace names are deleted; alternate names such as {@code {repo}.{branch}} may
+ * be shared with other changes. The owner is the change owner for closed changes and the uploader
+ * for superseded patchsets, mapped through {@link ServerSettings#owner}.
+ */
+@Singleton
+public class WorkspaceCleanup implements EventListener, LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** A workspace waiting to be deleted, as listed by the admin endpoint. */
+  public static class Entry {
+    @SerializedName("owner")
+    public String owner;
+    @SerializedName("name")
+    public String name;
+    @SerializedName("project")
+    public String project;
+    @SerializedName("change")
+    public int change;
+    @SerializedName("patchset")
+    public int patchset;
+    /** merged, abandoned or superseded. */
+    @SerializedName("reason")
+    public String reason;
+    @SerializedName("attempts")
+    public int attempts;
+    /** Milliseconds since the epoch. */
+    @SerializedName("enqueuedAt")
+    public long enqueuedAt;
+    /** Milliseconds since the epoch. */
+    @SerializedName("nextAttemptAt")
+    public long nextAttemptAt;
+    @SerializedName("lastError")
+    public String lastError;
+
+    String key() {
+      return owner + "/" + name;
+    }
+
+    WorkspaceIds.Key idKey() {
+      return new WorkspaceIds.Key(
+          project, String.valueOf(change), String.valueOf(patchset), owner);
+    }
+  }
+
+  private final ConfigSnapshotCache snapshots;
+  private final WorkspaceService workspaces;
+  private final WorkQueue workQueue;
+  private final UpstreamExecutor upstream;
+  private final AtomicBoolean running = new AtomicBoolean();
+  // Guarded by this; insertion order is deletion order
+  private final Map<String, Entry> queue = new LinkedHashMap<>();
+  private ScheduledFuture<?> task;
+
+  @Inject
+  WorkspaceCleanup(
+      ConfigSnapshotCache snapshots,
+      WorkspaceService workspaces,
+      WorkQueue workQueue,
+      UpstreamExecutor upstream) {
+    this.snapshots = snapshots;
+    this.workspaces = workspaces;
+    this.workQueue = workQueue;
+    this.upstream = upstream;
+  }
+
+  @Override
+  public void start() {
+    long interval = snapshots.get().server().cleanupIntervalSeconds;
+    task =
+        workQueue
+            .getDefaultQueue()
+            .scheduleWithFixedDelay(this::startBatch, interval, interval, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if (task != null) {
+      task.cancel(false);
+      task = null;
+    }
+  }
+
+  @Override
+  public void onEvent(Event event) {
+    if (!(event instanceof PatchSetEvent)) {
+      return;
+    }
+    ServerSettings settings = snapshots.get().server();
+    if (settings.serverUrl == null || settings.serverUrl.isEmpty()) {
+      return;
+    }
+    PatchSetEvent e = (PatchSetEvent) event;
+    if ((e instanceof ChangeMergedEvent || e instanceof ChangeAbandonedEvent)
+        && settings.cleanupClosedChanges) {
+      ChangeAttribute change = e.change.get();
+      String reason = e instanceof ChangeMergedEvent ? "merged" : "abandoned";
+      String owner = change.owner != null ? change.owner.username : null;
+      for (int ps = 1; ps <= e.patchSet.get().number; ps++) {
+        enqueue(e, ps, owner, reason, null);
+      }
+    } else if (e instanceof PatchSetCreatedEvent && settings.cleanupSupersededPatchsets) {
+      int ps = e.patchSet.get().number;
+      if (ps > 1) {
+        AccountAttribute uploader = ((PatchSetCreatedEvent) e).uploader.get();
+        String owner = uploader != null ? uploader.username : null;
+        // Name templates without {patchset} give every patchset the same, still current workspace
+        String current = target(e, ps, owner).name();
+        enqueue(e, ps - 1, owner, "superseded", current);
+      }
+    }
+  }
+
+  /** Workspaces waiting to be deleted, in deletion order. */
+  public synchronized List<Entry> pending() {
+    return new ArrayList<>(queue.values());
+  }
+
+  private void startBatch() {
+    if (running.compareAndSet(false, true)) {
+      upstream.execute(
+          () -> {
+            try {
+              runBatch();
+            } finally {
+              running.set(false);
+            }
+          });
+    }
+  }
+
+  /** Deletes the next batch of due workspaces. */
+  void runBatch() {
+    ServerSettings settings = snapshots.get().server();
+    List<Entry> batch = new ArrayList<>();
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      Iterator<Entry> it = queue.values().iterator();
+      while (it.hasNext() && batch.size() < settings.cleanupBatchSize) {
+        Entry entry = it.next();
+        if (entry.nextAttemptAt <= now) {
+          batch.add(entry);
+          it.remove();
+        }
+      }
+    }
+    for (Entry entry : batch) {
+      try {
+        Optional<WorkspaceInfo> ws =
+            workspaces.deleteExact(entry.idKey(), entry.name, settings.cleanupDryRun);
+        if (ws.isPresent()) {
+          logger.atInfo().log(
+              "%s workspace %s of %s change %d patchset %d",
+              settings.cleanupDryRun ? "Would delete" : "Deleted",
+              entry.key(),
+              entry.reason,
+              entry.change,
+              entry.patchset);
+        }
+      } catch (CoderException ex) {
+        entry.attempts++;
+        entry.lastError = ex.getMessage();
+        if (entry.attempts >= settings.cleanupMaxAttempts) {
+          logger.atWarning().withCause(ex).log(
+              "Giving up deleting workspace %s after %d attempts", entry.key(), entry.attempts);
+          continue;
+        }
+        entry.nextAttemptAt =
+            System.currentTimeMillis()
+                + TimeUnit.SECONDS.toMillis(settings.cleanupIntervalSeconds)
+                    * (1L << (entry.attempts - 1));
+        synchronized (this) {
+          queue.putIfAbsent(entry.key(), entry);
+        }
+      }
+    }
+  }
+
+  private void enqueue(PatchSetEvent e, int ps, String username, String reason, String keep) {
+    WorkspaceTarget target = target(e, ps, username);
+    if (target.name().equals(keep)) {
+      return;
+    }
+    Entry entry = new Entry();
+    entry.owner = target.owner();
+    entry.name = target.name();
+    entry.project = e.getProjectNameKey().get();
+    entry.change = e.change.get().number;
+    entry.patchset = ps;
+    entry.reason = reason;
+    entry.enqueuedAt = System.currentTimeMillis();
+    entry.nextAttemptAt = entry.enqueuedAt;
+    int limit = snapshots.get().server().cleanupQueueLimit;
+    synchronized (this) {
+      if (queue.containsKey(entry.key())) {
+        return;
+      }
+      if (queue.size() >= limit) {
+        logger.atWarning().log(
+            "Cleanup queue full (%d); not deleting workspace %s", limit, entry.key());
+        return;
+      }
+      queue.put(entry.key(), entry);
+    }
+  }
+
+  private WorkspaceTarget target(PatchSetEvent e, int ps, String username) {
+    return workspaces.target(
+        BranchNameKey.create(e.getProjectNameKey(), e.getRefName()),
+        Change.id(e.change.get().number),
+        ps,
+        username);
+  }
+}
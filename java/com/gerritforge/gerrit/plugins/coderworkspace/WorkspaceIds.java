@@ -0,0 +1,141 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Coder workspace ids by project, change, patchset and owner.
+ *
+ * <p>Backed by the persistent {@code workspace_ids} Gerrit cache, so the mapping survives
+ * restarts. The proxy records the id of every workspace it creates, including uniquely suffixed
+ * names that no name template would find again, and forgets it when it deletes the workspace or
+ * Coder no longer knows the id. Both are passed on to the other Gerrit nodes (see {@link
+ * CacheInvalidation}).
+ */
+@Singleton
+public class WorkspaceIds {
+  static final String CACHE = "workspace_ids";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        persist(CACHE, Key.class, String.class)
+            .version(1)
+            .maximumWeight(10_000)
+            .keySerializer(Key.Serializer.INSTANCE)
+            .valueSerializer(StringCacheSerializer.INSTANCE);
+      }
+    };
+  }
+
+  /** Cache key: the patchset a workspace was created for and its Coder owner. */
+  public static final class Key {
+    final String project;
+    final String change;
+    final String patchset;
+    final String owner;
+
+    public Key(String project, String change, String patchset, String owner) {
+      this.project = project;
+      this.change = change;
+      this.patchset = patchset;
+      this.owner = owner;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      return project.equals(k.project)
+          && change.equals(k.change)
+          && patchset.equals(k.patchset)
+          && owner.equals(k.owner);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(project, change, patchset, owner);
+    }
+
+    @Override
+    public String toString() {
+      return owner + "/" + project + "~" + change + "/" + patchset;
+    }
+
+    /** NUL-separated fields; NUL cannot occur in project names, numbers or Coder user names. */
+    enum Serializer implements CacheSerializer<Key> {
+      INSTANCE;
+
+      private static final Splitter SPLITTER = Splitter.on('\0');
+
+      @Override
+      public byte[] serialize(Key k) {
+        return StringCacheSerializer.INSTANCE.serialize(
+            String.join("\0", k.project, k.change, k.patchset, k.owner));
+      }
+
+      @Override
+      public Key deserialize(byte[] in) {
+        List<String> f = SPLITTER.splitToList(StringCacheSerializer.INSTANCE.deserialize(in));
+        if (f.size() != 4) {
+          throw new IllegalArgumentException("Malformed workspace_ids key: " + f);
+        }
+        return new Key(f.get(0), f.get(1), f.get(2), f.get(3));
+      }
+    }
+  }
+
+  private final Cache<Key, String> cache;
+  private final CacheInvalidation invalidation;
+
+  @Inject
+  WorkspaceIds(@Named(CACHE) Cache<Key, String> cache, CacheInvalidation invalidation) {
+    this.cache = cache;
+    this.invalidation = invalidation;
+    invalidation.register(
+        CACHE,
+        (key, id) -> {
+          Key k = new Key(key.get(0), key.get(1), key.get(2), key.get(3));
+          if (id != null) {
+            cache.put(k, id);
+          } else {
+            cache.invalidate(k);
+          }
+        },
+        () -> cache.asMap().keySet().stream().map(WorkspaceIds::fields).collect(toList()));
+  }
+
+  @Nullable
+  public String get(Key key) {
+    return cache.getIfPresent(key);
+  }
+
+  public void put(Key key, String id) {
+    cache.put(key, id);
+    invalidation.publish(CACHE, fields(key), id);
+  }
+
+  public void invalidate(Key key) {
+    cache.invalidate(key);
+    invalidation.publish(CACHE, fields(key), null);
+  }
+
+  private static List<String> fields(Key k) {
+    return List.of(k.project, k.change, k.patchset, k.owner);
+  }
+}
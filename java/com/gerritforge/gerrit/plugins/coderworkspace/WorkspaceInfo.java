@@ -0,0 +1,40 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Subset of the Coder workspace resource used by the plugin.
+ *
+ * <p>Field names follow the Coder API, so the same JSON shape reaches the web UI whether it
+ * talks to Coder directly or through the Gerrit proxy.
+ */
+public class WorkspaceInfo {
+  @SerializedName("id")
+  public String id;
+  @SerializedName("name")
+  public String name;
+  @SerializedName("owner_name")
+  public String ownerName;
+  @SerializedName("template_id")
+  public String templateId;
+  @SerializedName("latest_build")
+  public Build latestBuild;
+  @SerializedName("latest_app_status")
+  public AppStatus latestAppStatus;
+
+  public static class Build {
+    @SerializedName("id")
+    public String id;
+    @SerializedName("status")
+    public String status;
+    @SerializedName("transition")
+    public String transition;
+  }
+
+  public static class AppStatus {
+    @SerializedName("state")
+    public String state;
+    @SerializedName("uri")
+    public String uri;
+  }
+}
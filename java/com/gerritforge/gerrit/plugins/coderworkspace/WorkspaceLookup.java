@@ -0,0 +1,203 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cached lookup of Coder workspaces by owner and name.
+ *
+ * <p>Backed by the {@code workspace_lookup} Gerrit cache, which also remembers misses. Concurrent
+ * lookups of the same key wait for a single upstream request. The proxy keeps entries current by
+ * storing created workspaces and invalidating deleted ones; the short expiry covers changes made
+ * in Coder directly. Created and dropped entries are also dropped on the other Gerrit nodes (see
+ * {@link CacheInvalidation}). Cached objects are shared and must not be modified.
+ *
+ * <p>{@link #firstOf} resolves all candidate names of a change with one bulk load, so a miss on
+ * the primary name does not cost a round trip per alternate name.
+ */
+@Singleton
+public class WorkspaceLookup {
+  static final String CACHE = "workspace_lookup";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE, Key.class, new TypeLiteral<Optional<WorkspaceInfo>>() {})
+            .maximumWeight(10_000)
+            .expireAfterWrite(Duration.ofSeconds(30))
+            .loader(Loader.class);
+      }
+    };
+  }
+
+  /** Cache key: Coder owner (as used in the user-scoped routes) and workspace name. */
+  public static final class Key {
+    final String owner;
+    final String name;
+
+    public Key(String owner, String name) {
+      this.owner = owner;
+      this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      return owner.equals(k.owner) && name.equals(k.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(owner, name);
+    }
+
+    @Override
+    public String toString() {
+      return owner + "/" + name;
+    }
+  }
+
+  static class Loader extends CacheLoader<Key, Optional<WorkspaceInfo>> {
+    private final CoderClient coder;
+
+    @Inject
+    Loader(CoderClient coder) {
+      this.coder = coder;
+    }
+
+    @Override
+    public Optional<WorkspaceInfo> load(Key key) throws CoderException {
+      return coder.workspaceByName(key.owner, key.name);
+    }
+
+    @Override
+    public Map<Key, Optional<WorkspaceInfo>> loadAll(Iterable<? extends Key> keys)
+        throws CoderException {
+      Map<String, List<String>> namesByOwner = new LinkedHashMap<>();
+      for (Key key : keys) {
+        namesByOwner.computeIfAbsent(key.owner, o -> new ArrayList<>()).add(key.name);
+      }
+      Map<Key, Optional<WorkspaceInfo>> loaded = new HashMap<>();
+      for (Map.Entry<String, List<String>> e : namesByOwner.entrySet()) {
+        coder
+            .workspacesByName(e.getKey(), e.getValue())
+            .forEach((name, ws) -> loaded.put(new Key(e.getKey(), name), ws));
+      }
+      return loaded;
+    }
+  }
+
+  private final LoadingCache<Key, Optional<WorkspaceInfo>> cache;
+  private final CoderMetrics metrics;
+  private final CacheInvalidation invalidation;
+
+  @Inject
+  WorkspaceLookup(
+      @Named(CACHE) LoadingCache<Key, Optional<WorkspaceInfo>> cache,
+      CoderMetrics metrics,
+      CacheInvalidation invalidation) {
+    this.cache = cache;
+    this.metrics = metrics;
+    this.invalidation = invalidation;
+    invalidation.register(
+        CACHE,
+        (key, value) -> cache.invalidate(new Key(key.get(0), key.get(1))),
+        () -> cache.asMap().keySet().stream().map(k -> List.of(k.owner, k.name)).collect(toList()));
+  }
+
+  public Optional<WorkspaceInfo> byName(String owner, String name) throws CoderException {
+    Key key = new Key(owner, name);
+    Optional<WorkspaceInfo> cached = cache.getIfPresent(key);
+    if (cached != null) {
+      metrics.lookupHits(1);
+      return cached;
+    }
+    metrics.lookupMisses(1);
+    try {
+      return cache.get(key);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof CoderException) {
+        throw (CoderException) e.getCause();
+      }
+      throw new CoderException("Workspace lookup failed for " + key, e.getCause());
+    }
+  }
+
+  /**
+   * First existing workspace among {@code names}, in the order given. Names not yet cached are
+   * resolved together by {@link CoderClient#workspacesByName}, unless a cached hit earlier in the
+   * list already decides the answer.
+   */
+  public Optional<WorkspaceInfo> firstOf(String owner, List<String> names) throws CoderException {
+    List<Key> keys = new ArrayList<>(names.size());
+    for (String name : names) {
+      keys.add(new Key(owner, name));
+    }
+    Map<Key, Optional<WorkspaceInfo>> cached = cache.getAllPresent(keys);
+    metrics.lookupHits(cached.size());
+    for (Key key : keys) {
+      Optional<WorkspaceInfo> ws = cached.get(key);
+      if (ws == null) {
+        break;
+      }
+      if (ws.isPresent()) {
+        return ws;
+      }
+    }
+    metrics.lookupMisses(keys.size() - cached.size());
+    Map<Key, Optional<WorkspaceInfo>> all;
+    try {
+      all = cache.getAll(keys);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof CoderException) {
+        throw (CoderException) e.getCause();
+      }
+      throw new CoderException("Workspace lookup failed for " + keys, e.getCause());
+    }
+    for (Key key : keys) {
+      Optional<WorkspaceInfo> ws = all.get(key);
+      if (ws.isPresent()) {
+        return ws;
+      }
+    }
+    return Optional.empty();
+  }
+
+  /** Records a workspace that was just fetched. */
+  public void put(String owner, WorkspaceInfo ws) {
+    cache.put(new Key(owner, ws.name), Optional.of(ws));
+  }
+
+  /** Records a workspace that was just created; other nodes drop their cached miss. */
+  public void created(String owner, WorkspaceInfo ws) {
+    put(owner, ws);
+    invalidation.publish(CACHE, List.of(owner, ws.name), null);
+  }
+
+  public void invalidate(String owner, String name) {
+    cache.invalidate(new Key(owner, name));
+    invalidation.publish(CACHE, List.of(owner, name), null);
+  }
+}
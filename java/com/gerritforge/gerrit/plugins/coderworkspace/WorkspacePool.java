@@ -0,0 +1,322 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pools of pre-built, stopped workspaces per template version, handed out on open.
+ *
+ * <p>Template mappings with a {@code templateVersionId} and a {@code poolSize} get a pool; mappings
+ * pinning the same version share one. Pooled workspaces belong to the API token's user ({@code
+ * user}) and are named {@code pool-<version hash>-<random>}, so the pool is whatever Coder lists
+ * under that prefix and survives restarts. Every {@code poolCheckIntervalSeconds}, and after each
+ * hand-out, the pools are checked on the {@link UpstreamExecutor}: finished start builds are
+ * stopped, failed workspaces deleted, and missing ones created.
+ *
+ * <p>Handing out renames a stopped workspace to the target's name and starts it with the target's
+ * rich parameter values, so the template must declare those parameters mutable. When Coder
+ * rejects either step the caller creates a workspace as usual. Targets owned by another Coder user
+ * (see {@code ownerFromGerritUsername}) are never served from a pool.
+ */
+@Singleton
+public class WorkspacePool implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String PREFIX = "pool-";
+  /** Most pooled workspaces listed per template version. */
+  static final int LIST_LIMIT = 100;
+
+  private static class Pool {
+    // Guarded by itself; ids of stopped workspaces ready to hand out
+    final Deque<String> ready = new ArrayDeque<>();
+    // Ids created by this node, with the time they were created, until first seen ready
+    final Map<String, Long> building = new ConcurrentHashMap<>();
+    // Ids being handed out right now; a concurrent check must not make them ready again
+    final Set<String> claimed = ConcurrentHashMap.newKeySet();
+    final AtomicBoolean checking = new AtomicBoolean();
+  }
+
+  private final ConfigSnapshotCache snapshots;
+  private final CoderClient coder;
+  private final UpstreamExecutor upstream;
+  private final WorkQueue workQueue;
+  private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+  private final CoderMetrics metrics;
+  private ScheduledFuture<?> task;
+
+  @Inject
+  WorkspacePool(
+      ConfigSnapshotCache snapshots,
+      CoderClient coder,
+      UpstreamExecutor upstream,
+      WorkQueue workQueue,
+      CoderMetrics metrics) {
+    this.snapshots = snapshots;
+    this.coder = coder;
+    this.upstream = upstream;
+    this.workQueue = workQueue;
+    this.metrics = metrics;
+    metrics.poolsAvailable(this::available);
+  }
+
+  @Override
+  public void start() {
+    long interval = snapshots.get().server().poolCheckIntervalSeconds;
+    task =
+        workQueue
+            .getDefaultQueue()
+            .scheduleWithFixedDelay(this::refill, 0, interval, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if (task != null) {
+      task.cancel(false);
+      task = null;
+    }
+  }
+
+  /**
+   * Hands out a pooled workspace for the target, renamed and started with its rich parameters.
+   *
+   * @return empty when the target's template has no pool, the pool is empty, or Coder rejected
+   *     the hand-out
+   */
+  public Optional<WorkspaceInfo> take(WorkspaceTarget target) {
+    if (!serves(target)) {
+      return Optional.empty();
+    }
+    Pool pool = pool(target.request().templateVersionId);
+    try {
+      for (String id; (id = poll(pool)) != null; ) {
+        Optional<WorkspaceInfo> ws;
+        try {
+          ws = handOut(id, target);
+        } catch (CoderException e) {
+          // The name is taken; creating it would fail the same way, which the caller handles
+          synchronized (pool.ready) {
+            pool.ready.addFirst(id);
+          }
+          break;
+        } finally {
+          pool.claimed.remove(id);
+        }
+        if (ws.isPresent()) {
+          metrics.poolHit();
+          logger.atInfo().log("Handed out pooled workspace %s as %s", id, target.name());
+          return ws;
+        }
+      }
+      metrics.poolMiss();
+      return Optional.empty();
+    } finally {
+      refill();
+    }
+  }
+
+  /** Whether the target's template has a pool this target may be served from. */
+  public boolean serves(WorkspaceTarget target) {
+    ConfigSnapshot snapshot = snapshots.get();
+    String version = target.request().templateVersionId;
+    return version != null
+        && snapshot.poolSizes().containsKey(version)
+        && target.owner().equals(snapshot.server().owner(null));
+  }
+
+  /** Checks and tops up every pool in the background; pools already being checked are skipped. */
+  void refill() {
+    Map<String, Integer> sizes = snapshots.get().poolSizes();
+    Set<String> versions = new HashSet<>(sizes.keySet());
+    // Pools no longer configured are checked once more, to delete their workspaces
+    versions.addAll(pools.keySet());
+    for (String version : versions) {
+      int size = sizes.getOrDefault(version, 0);
+      Pool pool = pool(version);
+      if (!pool.checking.compareAndSet(false, true)) {
+        continue;
+      }
+      try {
+        upstream.execute(
+            () -> {
+              try {
+                check(version, size, pool);
+              } finally {
+                pool.checking.set(false);
+              }
+            });
+      } catch (RuntimeException e) {
+        // Not started, or stopping
+        pool.checking.set(false);
+      }
+    }
+  }
+
+  /** Checks and tops up every pool on the calling thread. */
+  @VisibleForTesting
+  void checkNow() {
+    Map<String, Integer> sizes = snapshots.get().poolSizes();
+    for (Map.Entry<String, Integer> e : sizes.entrySet()) {
+      check(e.getKey(), e.getValue(), pool(e.getKey()));
+    }
+  }
+
+  private void check(String version, int size, Pool pool) {
+    String owner = snapshots.get().server().owner(null);
+    String prefix = prefix(version);
+    List<String> ready = new ArrayList<>();
+    int building = 0;
+    try {
+      for (WorkspaceInfo ws : coder.workspaces("owner:" + owner + " name:" + prefix, LIST_LIMIT)) {
+        if (ws.name == null || !ws.name.startsWith(prefix)) {
+          continue;
+        }
+        WorkspaceInfo.Build b = ws.latestBuild;
+        if (b == null || !isFinal(b.status)) {
+          building++;
+        } else if (!"succeeded".equals(b.status) || ready.size() >= size) {
+          // Failed builds, and workspaces beyond the pool size
+          if (!"delete".equals(b.transition)) {
+            coder.deleteWorkspace(ws.id);
+          }
+        } else if ("start".equals(b.transition)) {
+          coder.stopWorkspace(ws.id);
+          building++;
+        } else if ("stop".equals(b.transition) && !pool.claimed.contains(ws.id)) {
+          ready.add(ws.id);
+          Long created = pool.building.remove(ws.id);
+          if (created != null) {
+            metrics.poolRefilled(System.nanoTime() - created);
+          }
+        }
+      }
+      synchronized (pool.ready) {
+        pool.ready.clear();
+        pool.ready.addAll(ready);
+      }
+      for (int i = ready.size() + building; i < size; i++) {
+        WorkspaceInfo ws = coder.createWorkspace(owner, request(version, prefix));
+        pool.building.put(ws.id, System.nanoTime());
+      }
+    } catch (CoderException e) {
+      logger.atWarning().withCause(e).log("Cannot refill workspace pool of %s", version);
+    }
+    if (size == 0 && ready.isEmpty() && building == 0) {
+      pools.remove(version);
+    }
+  }
+
+  /**
+   * Renames and starts a pooled workspace; empty if it is gone or Coder rejected a step.
+   *
+   * @throws CoderException 409 if the owner already has a workspace with the target's name
+   */
+  private Optional<WorkspaceInfo> handOut(String id, WorkspaceTarget target)
+      throws CoderException {
+    String poolName;
+    try {
+      WorkspaceInfo ws = coder.workspace(id);
+      // Listed before another hand-out (possibly on another node) renamed it
+      if (ws == null
+          || ws.name == null
+          || !ws.name.startsWith(PREFIX)
+          || ws.latestBuild == null
+          || !"stop".equals(ws.latestBuild.transition)
+          || !"succeeded".equals(ws.latestBuild.status)) {
+        return Optional.empty();
+      }
+      poolName = ws.name;
+      coder.renameWorkspace(id, target.name());
+    } catch (CoderException e) {
+      if (e.isConflict()) {
+        throw e;
+      }
+      logger.atWarning().withCause(e).log("Cannot take pooled workspace %s", id);
+      return Optional.empty();
+    }
+    try {
+      coder.startWorkspace(id, target.request().richParameterValues);
+      return Optional.ofNullable(coder.workspace(id));
+    } catch (CoderException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot start pooled workspace %s with the parameters of %s; are they mutable?",
+          id,
+          target.name());
+      try {
+        coder.renameWorkspace(id, poolName);
+      } catch (CoderException ex) {
+        logger.atWarning().withCause(ex).log("Cannot return workspace %s to its pool", id);
+      }
+      return Optional.empty();
+    }
+  }
+
+  private Pool pool(String version) {
+    return pools.computeIfAbsent(version, v -> new Pool());
+  }
+
+  /** Next ready id, claimed for a hand-out; null when the pool is empty. */
+  private static String poll(Pool pool) {
+    synchronized (pool.ready) {
+      String id = pool.ready.poll();
+      if (id != null) {
+        pool.claimed.add(id);
+      }
+      return id;
+    }
+  }
+
+  private long available() {
+    long n = 0;
+    for (Pool pool : pools.values()) {
+      synchronized (pool.ready) {
+        n += pool.ready.size();
+      }
+    }
+    return n;
+  }
+
+  /** Build without rich parameters: the template's defaults until the workspace is handed out. */
+  private CreateWorkspaceRequest request(String version, String prefix) {
+    CreateWorkspaceRequest req = new CreateWorkspaceRequest();
+    String suffix = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+    req.name = prefix + suffix.substring(0, Math.min(6, suffix.length()));
+    req.templateVersionId = version;
+    req.ttlMs = snapshots.get().info().ttlMs;
+    return req;
+  }
+
+  /**
+   * Name prefix of a version's pooled workspaces; with the random suffix, pooled names stay well
+   * within {@link NameTemplate#MAX_LENGTH}.
+   */
+  static String prefix(String version) {
+    return PREFIX + Hashing.sha256().hashString(version, UTF_8).toString().substring(0, 8) + "-";
+  }
+
+  private static boolean isFinal(String status) {
+    return "succeeded".equals(status)
+        || "failed".equals(status)
+        || "canceled".equals(status)
+        || "deleted".equals(status);
+  }
+}
@@ -0,0 +1,334 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.MethodNotAllowedException;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.gerrit.server.config.UrlFormatter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Server-side equivalent of the web UI's open/create/delete flow, built on {@link CoderClient}.
+ *
+ * <p>Follows the same rules as the browser: look up the candidate names in order, create the
+ * primary name when none exists, and on a 409 open the existing workspace (or, outside
+ * {@code strictName} mode, retry once with a unique suffix). Workspaces the proxy created are
+ * then found again by their recorded id (see {@link WorkspaceIds}) before any name is looked up.
+ * Instead of creating, a stopped workspace is taken from the template's {@link WorkspacePool} when
+ * it has one. Rich parameters are checked against the template's cached schema (see {@link
+ * TemplateVersions}) right before a workspace is created, so existing ones open regardless.
+ */
+@Singleton
+public class WorkspaceService {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final ConfigSnapshotCache snapshots;
+  private final CoderClient coder;
+  private final WorkspaceLookup lookup;
+  private final WorkspaceIds ids;
+  private final DynamicItem<UrlFormatter> urlFormatter;
+  private final CoderMetrics metrics;
+  private final CoderLimiter limiter;
+  private final WorkspacePool pool;
+  private final TemplateVersions templates;
+
+  @Inject
+  WorkspaceService(
+      ConfigSnapshotCache snapshots,
+      CoderClient coder,
+      WorkspaceLookup lookup,
+      WorkspaceIds ids,
+      DynamicItem<UrlFormatter> urlFormatter,
+      CoderMetrics metrics,
+      CoderLimiter limiter,
+      WorkspacePool pool,
+      TemplateVersions templates) {
+    this.snapshots = snapshots;
+    this.coder = coder;
+    this.lookup = lookup;
+    this.ids = ids;
+    this.urlFormatter = urlFormatter;
+    this.metrics = metrics;
+    this.limiter = limiter;
+    this.pool = pool;
+    this.templates = templates;
+  }
+
+  /** Result of {@link #openOrCreate}. */
+  public static class Opened {
+    public final WorkspaceInfo workspace;
+    public final boolean created;
+
+    Opened(WorkspaceInfo workspace, boolean created) {
+      this.workspace = workspace;
+      this.created = created;
+    }
+  }
+
+  /** Rejects proxy calls unless {@code useServerProxy} is set and the caller is signed in. */
+  public void checkEnabled(RevisionResource rsrc) throws RestApiException {
+    checkEnabled(rsrc.getUser());
+  }
+
+  public void checkEnabled(CurrentUser user) throws RestApiException {
+    if (!snapshots.get().server().useServerProxy) {
+      throw new MethodNotAllowedException("Coder server proxy is disabled (useServerProxy)");
+    }
+    if (!user.isIdentifiedUser()) {
+      throw new AuthException("Authentication required");
+    }
+  }
+
+  /** Applies the per-user rate limit to a proxy call; see {@link CoderLimiter#admit}. */
+  public void admit(CurrentUser user) throws CoderException {
+    limiter.admit(user.getUserName().orElse(null));
+  }
+
+  public WorkspaceTarget target(RevisionResource rsrc) {
+    Change change = rsrc.getChange();
+    return target(
+        change.getDest(),
+        change.getId(),
+        rsrc.getPatchSet().number(),
+        rsrc.getUser().getUserName().orElse(null));
+  }
+
+  /**
+   * Target for a patchset of a change.
+   *
+   * @param username Gerrit username of the user the workspace is for, if known
+   */
+  public WorkspaceTarget target(
+      BranchNameKey dest, Change.Id changeId, int patchset, @Nullable String username) {
+    ConfigSnapshot snapshot = snapshots.get();
+    String changeUrl =
+        urlFormatter
+            .get()
+            .getChangeViewUrl(dest.project(), changeId)
+            .map(u -> u + "/" + patchset)
+            .orElse("");
+    NameContext ctx =
+        NameContext.of(
+            dest.project().get(),
+            dest.shortName(),
+            String.valueOf(changeId.get()),
+            String.valueOf(patchset));
+    return WorkspaceTarget.create(snapshot, ctx, changeUrl, snapshot.server().owner(username));
+  }
+
+  /**
+   * Workspace recorded for the target's patchset, else the first existing workspace among its
+   * candidate names.
+   */
+  public Optional<WorkspaceInfo> find(WorkspaceTarget target) throws CoderException {
+    return find(target, OpenTrace.NONE);
+  }
+
+  /** Like {@link #find(WorkspaceTarget)}, timed as the {@code lookup} phase of the trace. */
+  @SuppressWarnings("try")
+  public Optional<WorkspaceInfo> find(WorkspaceTarget target, OpenTrace trace)
+      throws CoderException {
+    try (OpenTrace.Span s = trace.span("lookup")) {
+      Optional<WorkspaceInfo> known = byId(target.idKey());
+      if (known.isPresent()) {
+        return known;
+      }
+      return lookup.firstOf(target.owner(), lookupNames(target));
+    }
+  }
+
+  /**
+   * Workspace the proxy recorded for the target's patchset; no name is looked up, so this calls
+   * Coder only when one was recorded.
+   */
+  public Optional<WorkspaceInfo> known(WorkspaceTarget target) throws CoderException {
+    return byId(target.idKey());
+  }
+
+  public Opened openOrCreate(WorkspaceTarget target) throws CoderException {
+    return openOrCreate(target, OpenTrace.NONE);
+  }
+
+  /**
+   * Like {@link #openOrCreate(WorkspaceTarget)}, with the {@code lookup}, {@code pool} and {@code
+   * create} phases timed in the trace.
+   */
+  @SuppressWarnings("try")
+  public Opened openOrCreate(WorkspaceTarget target, OpenTrace trace) throws CoderException {
+    boolean strict = snapshots.get().info().strictName;
+    Optional<WorkspaceInfo> existing;
+    if (strict) {
+      // strictName only ever records the primary name, so the id is safe to follow in both modes
+      try (OpenTrace.Span s = trace.span("lookup")) {
+        existing = byId(target.idKey());
+        if (!existing.isPresent() && pool.serves(target)) {
+          // A pooled workspace cannot take a name that exists, so open that one instead
+          existing = lookup.byName(target.owner(), target.name());
+        }
+      }
+    } else {
+      existing = find(target, trace);
+    }
+    if (existing.isPresent()) {
+      return new Opened(existing.get(), false);
+    }
+    Optional<WorkspaceInfo> pooled;
+    try (OpenTrace.Span s = trace.span("pool")) {
+      pooled = pool.take(target);
+    }
+    if (pooled.isPresent()) {
+      created(target, pooled.get());
+      return new Opened(pooled.get(), true);
+    }
+    try (OpenTrace.Span s = trace.span("create")) {
+      return createOrAdopt(target, strict);
+    }
+  }
+
+  /**
+   * Creates the primary name; on a 409 opens it, or outside strictName creates a unique name. Rich
+   * parameters the template rejects fail with 400 only when there is nothing to open instead.
+   */
+  private Opened createOrAdopt(WorkspaceTarget target, boolean strict) throws CoderException {
+    try {
+      templates.validate(target.request());
+    } catch (CoderException e) {
+      // strictName has not looked the name up yet; an existing workspace opens as it is
+      Optional<WorkspaceInfo> existing =
+          strict ? lookup.byName(target.owner(), target.name()) : Optional.empty();
+      if (existing.isPresent()) {
+        return adopt(target, existing.get());
+      }
+      throw e;
+    }
+    try {
+      return new Opened(create(target, target.request()), true);
+    } catch (CoderException e) {
+      if (!e.isConflict()) {
+        throw e;
+      }
+      Optional<WorkspaceInfo> existing = lookup.byName(target.owner(), target.name());
+      if (existing.isPresent()) {
+        return adopt(target, existing.get());
+      }
+      if (strict) {
+        throw e;
+      }
+      String unique = uniqueName(target.name());
+      logger.atInfo().log(
+          "Workspace %s exists but is not visible; creating %s instead", target.name(), unique);
+      return new Opened(create(target, target.request().withName(unique)), true);
+    }
+  }
+
+  private Opened adopt(WorkspaceTarget target, WorkspaceInfo ws) {
+    ids.put(target.idKey(), ws.id);
+    return new Opened(ws, false);
+  }
+
+  private WorkspaceInfo create(WorkspaceTarget target, CreateWorkspaceRequest request)
+      throws CoderException {
+    String owner = target.owner();
+    try {
+      WorkspaceInfo ws = coder.createWorkspace(owner, request);
+      created(target, ws);
+      return ws;
+    } catch (CoderException e) {
+      // e.g. on 409 a cached miss for this name is stale
+      lookup.invalidate(owner, request.name);
+      throw e;
+    }
+  }
+
+  private void created(WorkspaceTarget target, WorkspaceInfo ws) {
+    metrics.workspaceCreated(ws.id);
+    lookup.created(target.owner(), ws);
+    ids.put(target.idKey(), ws.id);
+  }
+
+  /** Deletes the workspace for the target; empty when there was nothing to delete. */
+  public Optional<WorkspaceInfo> delete(WorkspaceTarget target) throws CoderException {
+    Optional<WorkspaceInfo> ws = find(target);
+    if (ws.isPresent()) {
+      delete(target.idKey(), ws.get());
+    }
+    return ws;
+  }
+
+  /**
+   * Deletes the workspace recorded for the patchset, else the one with exactly this name, ignoring
+   * alternate names (which other changes or patchsets may share). With {@code dryRun} it is only
+   * looked up.
+   */
+  public Optional<WorkspaceInfo> deleteExact(WorkspaceIds.Key key, String name, boolean dryRun)
+      throws CoderException {
+    Optional<WorkspaceInfo> ws = byId(key);
+    if (!ws.isPresent()) {
+      ws = lookup.byName(key.owner, name);
+    }
+    if (ws.isPresent() && !dryRun) {
+      delete(key, ws.get());
+    }
+    return ws;
+  }
+
+  private void delete(WorkspaceIds.Key key, WorkspaceInfo ws) throws CoderException {
+    try {
+      coder.deleteWorkspace(ws.id);
+    } finally {
+      lookup.invalidate(key.owner, ws.name);
+      ids.invalidate(key);
+    }
+  }
+
+  /** Workspace recorded for the patchset, straight from {@code /workspaces/{id}}. */
+  private Optional<WorkspaceInfo> byId(WorkspaceIds.Key key) throws CoderException {
+    String id = ids.get(key);
+    if (id == null) {
+      return Optional.empty();
+    }
+    try {
+      WorkspaceInfo ws = coder.workspace(id);
+      if (ws != null && !isDeleted(ws)) {
+        lookup.put(key.owner, ws);
+        return Optional.of(ws);
+      }
+    } catch (CoderException e) {
+      // Coder answers 410 Gone for deleted workspaces
+      if (!e.isNotFound() && e.statusCode() != 410) {
+        throw e;
+      }
+    }
+    // Deleted outside this proxy
+    ids.invalidate(key);
+    return Optional.empty();
+  }
+
+  private static boolean isDeleted(WorkspaceInfo ws) {
+    return ws.latestBuild != null
+        && "delete".equals(ws.latestBuild.transition)
+        && "deleted".equals(ws.latestBuild.status);
+  }
+
+  private List<String> lookupNames(WorkspaceTarget target) {
+    // strictName only ever creates and opens the primary name
+    return snapshots.get().info().strictName
+        ? target.candidateNames().subList(0, 1)
+        : target.candidateNames();
+  }
+
+  // Same shape as generateUniqueName in the web UI
+  static String uniqueName(String baseName) {
+    String stamp = Long.toString(System.currentTimeMillis(), 36);
+    return NameTemplate.sanitize(baseName + "-" + stamp.substring(Math.max(0, stamp.length() - 4)));
+  }
+}
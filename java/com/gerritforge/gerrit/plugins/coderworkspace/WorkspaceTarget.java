@@ -0,0 +1,101 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The workspace a Gerrit user wants for one revision: owner, names to look up and the create
+ * request to send if none of them exists.
+ */
+public final class WorkspaceTarget {
+  private final String owner;
+  private final ImmutableList<String> candidateNames;
+  private final CreateWorkspaceRequest request;
+  private final WorkspaceIds.Key idKey;
+
+  private WorkspaceTarget(
+      String owner,
+      ImmutableList<String> candidateNames,
+      CreateWorkspaceRequest request,
+      WorkspaceIds.Key idKey) {
+    this.owner = owner;
+    this.candidateNames = candidateNames;
+    this.request = request;
+    this.idKey = idKey;
+  }
+
+  /**
+   * Builds the target for a change.
+   *
+   * @param changeUrl value for rich params with {@code from: url}
+   */
+  public static WorkspaceTarget create(
+      ConfigSnapshot snapshot, NameContext ctx, String changeUrl, String owner) {
+    ConfigInfo info = snapshot.info();
+    TemplateInfo template = snapshot.resolveTemplate(ctx.repo(), ctx.branch());
+    ImmutableList<String> names = snapshot.candidateNames(template, ctx);
+
+    CreateWorkspaceRequest req = new CreateWorkspaceRequest();
+    req.name = names.get(0);
+    // Same precedence as the web UI: a pinned version wins over the template's active version
+    if (template.templateVersionId != null && !template.templateVersionId.isEmpty()) {
+      req.templateVersionId = template.templateVersionId;
+    } else if (template.templateId != null && !template.templateId.isEmpty()) {
+      req.templateId = template.templateId;
+    }
+    if (template.templateVersionPresetId != null && !template.templateVersionPresetId.isEmpty()) {
+      req.templateVersionPresetId = template.templateVersionPresetId;
+    }
+    req.ttlMs = info.ttlMs;
+    if (template.richParams != null) {
+      for (ConfigInfo.RichParam p : template.richParams) {
+        req.richParameterValues.add(
+            new CreateWorkspaceRequest.RichParameterValue(p.name, value(p.from, ctx, changeUrl)));
+      }
+    }
+    return new WorkspaceTarget(
+        owner, names, req, new WorkspaceIds.Key(ctx.repo(), ctx.change(), ctx.patchset(), owner));
+  }
+
+  private static String value(String from, NameContext ctx, String changeUrl) {
+    if (from == null) {
+      return "";
+    }
+    switch (from) {
+      case "repo":
+        return ctx.repo();
+      case "branch":
+        return ctx.branch();
+      case "change":
+        return ctx.change();
+      case "patchset":
+        return ctx.patchset();
+      case "url":
+        return changeUrl == null ? "" : changeUrl;
+      default:
+        return "";
+    }
+  }
+
+  /** Coder user the workspace belongs to; {@code me} is the owner of the API token. */
+  public String owner() {
+    return owner;
+  }
+
+  /** Names to look up, primary (creation) name first. */
+  public ImmutableList<String> candidateNames() {
+    return candidateNames;
+  }
+
+  public String name() {
+    return request.name;
+  }
+
+  public CreateWorkspaceRequest request() {
+    return request;
+  }
+
+  /** Key of the workspace id recorded for this patchset and owner. */
+  public WorkspaceIds.Key idKey() {
+    return idKey;
+  }
+}
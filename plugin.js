@@ -19,8 +19,13 @@
     templateVersionId: '',
     templateVersionPresetId: '',
     // Optional per-repo/branch mappings. First match wins.
-    // Example entry: { repo: 'my/repo', branch: 'refs/heads/main', templateVersionId: 'uuid', templateVersionPresetId: 'uuid', richParams: [{name:'KEY', from:'repo'}] }
+    // Example entry: { repo: 'my/repo', branch: 'main', templateVersionId: 'uuid', templateVersionPresetId: 'uuid', richParams: [{name:'KEY', from:'repo'}] }
     templateMappings: [],
+    // When true, templateMappings are matched by Gerrit per revision (coder-workspace~template)
+    resolveTemplatesOnServer: false,
+    // When true, Gerrit calls Coder with a server-held token (coder-workspace~workspace);
+    // apiKey is not sent to the browser then
+    useServerProxy: false,
     richParams: [
       {name: 'REPO', from: 'repo'},
       {name: 'BRANCH', from: 'branch'},
@@ -211,6 +216,17 @@
   }
 
   function pickTemplateForContext(ctx) {
+    // Resolved by Gerrit (resolveTemplatesOnServer); mappings are not shipped to the browser then
+    if (ctx && ctx._serverTemplate) {
+      const t = ctx._serverTemplate;
+      return {
+        templateId: t.templateId || '',
+        templateVersionId: t.templateVersionId || '',
+        templateVersionPresetId: t.templateVersionPresetId || '',
+        workspaceNameTemplate: t.workspaceNameTemplate || '',
+        richParams: t.richParams,
+      };
+    }
     const mappings = Array.isArray(config.templateMappings) ? config.templateMappings : [];
     for (const m of mappings) {
       const repoOk = matchGlob(m.repo || '*', ctx.repo);
@@ -232,6 +248,101 @@
     };
   }
 
+  function revisionRestPath(ctx, view) {
+    const changeId = `${encodeURIComponent(ctx.repo)}~${encodeURIComponent(ctx.change)}`;
+    const rev = ctx.patchset ? encodeURIComponent(ctx.patchset) : 'current';
+    return `/changes/${changeId}/revisions/${rev}/coder-workspace~${view}`;
+  }
+
+  // GET /changes/<id>/revisions/<rev>/coder-workspace~template
+  async function fetchServerTemplate(plugin, ctx) {
+    try {
+      const t = await plugin.restApi().get(revisionRestPath(ctx, 'template'));
+      return (t && typeof t === 'object') ? t : null;
+    } catch (e) {
+      console.warn('[coder-workspace] Failed to resolve template on server; using defaults', e);
+      return null;
+    }
+  }
+
+  // GET /changes/<id>/revisions/<rev>/coder-workspace~candidates
+  async function fetchServerCandidates(plugin, ctx) {
+    try {
+      const names = await plugin.restApi().get(revisionRestPath(ctx, 'candidates'));
+      return Array.isArray(names) ? names : null;
+    } catch (e) {
+      console.warn('[coder-workspace] Failed to fetch candidate names from server; rendering locally', e);
+      return null;
+    }
+  }
+
+  // GET /changes/<id>/revisions/<rev>/coder-workspace~workspace (server proxy); null if none
+  // With waitMs > 0 Gerrit long-polls until the app is ready; tabs waiting on the same
+  // workspace share one server-side watcher instead of each polling Coder
+  async function fetchProxiedWorkspace(plugin, ctx, waitMs) {
+    const wait = Math.floor(Number(waitMs) || 0);
+    const path = revisionRestPath(ctx, 'workspace') + (wait > 0 ? `?wait-ms=${wait}` : '');
+    try {
+      const ws = await plugin.restApi().get(path);
+      return (ws && typeof ws === 'object') ? ws : null;
+    } catch (_) {
+      return null;
+    }
+  }
+
+  // GET /changes/<id>/revisions/<rev>/coder-workspace~preview: the create request the server
+  // proxy would send, checked against the template's cached schema; null if unavailable
+  async function fetchServerPreview(plugin, ctx) {
+    try {
+      const p = await plugin.restApi().get(revisionRestPath(ctx, 'preview'));
+      return (p && typeof p === 'object' && p.request) ? p : null;
+    } catch (e) {
+      console.warn('[coder-workspace] Failed to fetch dry-run preview from server', e);
+      return null;
+    }
+  }
+
+  // POST /changes/<id>/revisions/<rev>/coder-workspace~warm when a change is shown: Gerrit starts
+  // the stopped workspace in the background (debounced and capped server-side); fire and forget
+  let lastWarmed = '';
+  function warmOnView(plugin, change, revision) {
+    if (!config.useServerProxy || !config.speculativeStart || !plugin.restApi || !change) return;
+    const patchset = (revision && revision._number) || '';
+    const ctx = {repo: change.project, change: change._number, patchset};
+    if (!ctx.repo || !ctx.change) return;
+    const path = revisionRestPath(ctx, 'warm');
+    if (path === lastWarmed) return;
+    lastWarmed = path;
+    Promise.resolve()
+      .then(() => plugin.restApi().post(path, {}))
+      .catch(() => {});
+  }
+
+  // Open-or-create through Gerrit: one POST replaces the browser's lookup/create/409 round trips
+  async function openViaServerProxy(plugin, ctx) {
+    const path = revisionRestPath(ctx, 'workspace');
+    const ws = await timed('create', () => plugin.restApi().post(path, {}));
+    if (!ws || !ws.name) throw new Error('Empty response from coder-workspace~workspace');
+    const baseMeta = {repo: ctx.repo, branch: ctx.branch, change: ctx.change, patchset: ctx.patchset, workspaceName: ws.name, workspaceOwner: ws.owner_name};
+    const initialUrl = computeWorkspaceUrl(ws);
+    saveCurrentWorkspace(initialUrl, baseMeta);
+    notify(plugin, `Opening Coder workspace: ${ws.name}`);
+    if (config.waitForAppReadyMs > 0 && !(ws.latest_app_status && ws.latest_app_status.uri)) {
+      notify(plugin, `Waiting for Coder workspace app to be ready…`);
+      try {
+        const deadline = Date.now() + config.waitForAppReadyMs;
+        const ready = await waitForWorkspaceApp(ws.name, config.waitForAppReadyMs, config.waitPollIntervalMs, ws,
+          () => fetchProxiedWorkspace(plugin, ctx, deadline - Date.now())) || ws;
+        const urlToOpen = computeWorkspaceUrl(ready);
+        saveCurrentWorkspace(urlToOpen, baseMeta);
+        openFinalUrl(urlToOpen);
+      } catch (_) { openFinalUrl(initialUrl); }
+    } else {
+      openFinalUrl(initialUrl);
+    }
+    return ws;
+  }
+
   function buildCreateRequest(context) {
     // Resolve mapping and override rich params if provided
     const picked = pickTemplateForContext(context);
@@ -299,6 +410,10 @@
   }
 
   function computeCandidateNames(ctx, cfg) {
+    // Rendered by Gerrit from precompiled templates (resolveTemplatesOnServer)
+    if (ctx && Array.isArray(ctx._serverCandidates) && ctx._serverCandidates.length) {
+      return ctx._serverCandidates.slice();
+    }
     const picked = pickTemplateForContext(ctx);
     const tpl = picked.workspaceNameTemplate || (cfg && cfg.workspaceNameTemplate) || config.workspaceNameTemplate || '{repo}-{change}-{patchset}';
     const expectedName = renderNameTemplate(tpl, ctx);
@@ -326,6 +441,10 @@
   }
 
   async function createWorkspace(requestBody) {
+    return timed('create', () => postWorkspace(requestBody));
+  }
+
+  async function postWorkspace(requestBody) {
     const headers = {'Content-Type': 'application/json', 'Accept': 'application/json'};
     if (config.apiKey) headers['Coder-Session-Token'] = config.apiKey;
 
@@ -378,6 +497,10 @@
   }
 
   async function getWorkspaceByName(workspaceName) {
+    return timed('lookup', () => lookupWorkspaceByName(workspaceName));
+  }
+
+  async function lookupWorkspaceByName(workspaceName) {
     const headers = {'Accept': 'application/json'};
     if (config.apiKey) headers['Coder-Session-Token'] = config.apiKey;
     const base = (config.serverUrl || '').replace(/\/$/, '');
@@ -522,9 +645,11 @@
   }
 
   function computeWorkspaceUrl(workspace) {
-    const appUri = workspace && workspace.latest_app_status && workspace.latest_app_status.uri;
-    const baseUrl = `/@${encodeURIComponent(workspace.owner_name || '')}/${encodeURIComponent(workspace.name)}`;
-    return appUri || resolveCoderUrl(baseUrl + (config.appSlug ? `/apps/${encodeURIComponent(config.appSlug)}/` : ''));
+    return timed('deeplink', () => {
+      const appUri = workspace && workspace.latest_app_status && workspace.latest_app_status.uri;
+      const baseUrl = `/@${encodeURIComponent(workspace.owner_name || '')}/${encodeURIComponent(workspace.name)}`;
+      return appUri || resolveCoderUrl(baseUrl + (config.appSlug ? `/apps/${encodeURIComponent(config.appSlug)}/` : ''));
+    });
   }
 
   // Navigate by opening the final URL only when ready (no placeholder tab)
@@ -554,13 +679,17 @@
     return false;
   }
 
-  async function waitForWorkspaceApp(name, timeoutMs, intervalMs, initialWs) {
+  async function waitForWorkspaceApp(name, timeoutMs, intervalMs, initialWs, fetchFn) {
+    return timed('readiness', () => pollWorkspaceApp(name, timeoutMs, intervalMs, initialWs, fetchFn));
+  }
+
+  async function pollWorkspaceApp(name, timeoutMs, intervalMs, initialWs, fetchFn) {
     const deadline = Date.now() + Math.max(0, Number(timeoutMs) || 0);
     let ws = initialWs || null;
     if (deadline <= Date.now()) return ws; // disabled or zero timeout
     for (;;) {
       try {
-        if (!ws) ws = await getWorkspaceByNameImpl(name);
+        if (!ws) ws = fetchFn ? await fetchFn() : await getWorkspaceByNameImpl(name);
         if (ws && ws.latest_app_status && ws.latest_app_status.uri) return ws;
       } catch (_) {
         // ignore during polling
@@ -709,12 +838,131 @@
     return String(s).replace(/[&<>"]/g, (c) => ({'&':'&amp;','<':'&lt;','>':'&gt;','"':'&quot;'}[c]));
   }
 
-  // Configuration is loaded from server (/config/server/coder-workspace.config)
+  // Open-flow timing: phases of the current open are summed in openTrace (config, template,
+  // lookup, create, readiness, deeplink); with the server proxy, Gerrit's own phases come back
+  // as Server-Timing headers. Phases may nest, e.g. readiness includes the lookups it polls.
+  const STORAGE_DEBUG_TIMING_KEY = 'gerrit-coder-workspace-debug-timing';
+  let configLoadMs = null;
+  let openTrace = null;
+
+  function traceNow() {
+    return (typeof performance !== 'undefined' && performance.now) ? performance.now() : Date.now();
+  }
+
+  // Runs fn (sync or async) and adds its duration to the phase of the open in progress
+  function timed(phase, fn) {
+    const trace = openTrace;
+    if (!trace) return fn();
+    const start = traceNow();
+    const end = () => { trace.phases[phase] = (trace.phases[phase] || 0) + traceNow() - start; };
+    let res;
+    try {
+      res = fn();
+    } catch (e) {
+      end();
+      throw e;
+    }
+    if (res && typeof res.then === 'function') return res.finally(end);
+    end();
+    return res;
+  }
+
+  // Server-Timing of the coder-workspace~workspace calls made since `since`, summed per phase
+  function serverTimings(since) {
+    const phases = {};
+    const traces = [];
+    try {
+      for (const e of performance.getEntriesByType('resource')) {
+        if (e.startTime < since || !/coder-workspace~workspace/.test(e.name) || !e.serverTiming) continue;
+        for (const t of e.serverTiming) {
+          if (t.name === 'trace') {
+            if (t.description) traces.push(t.description);
+          } else {
+            phases[t.name] = (phases[t.name] || 0) + t.duration;
+          }
+        }
+      }
+    } catch (_) {}
+    return {phases, traces};
+  }
+
+  function debugTimingEnabled() {
+    if (config.debugTiming) return true;
+    try { return localStorage.getItem(STORAGE_DEBUG_TIMING_KEY) === 'true'; } catch (_) { return false; }
+  }
+
+  // Times one open; with debugTiming the breakdown is logged and shown in a panel
+  async function traceOpen(plugin, fn) {
+    const trace = {start: traceNow(), phases: {}};
+    if (configLoadMs != null) trace.phases.config = configLoadMs;
+    openTrace = trace;
+    try {
+      return await fn();
+    } finally {
+      if (openTrace === trace) openTrace = null;
+      trace.total = traceNow() - trace.start;
+      trace.server = serverTimings(trace.start);
+      if (debugTimingEnabled()) {
+        const rows = {};
+        for (const [k, v] of Object.entries(trace.phases)) rows[k] = {ms: Math.round(v)};
+        for (const [k, v] of Object.entries(trace.server.phases)) rows[`server ${k}`] = {ms: Math.round(v)};
+        rows.total = {ms: Math.round(trace.total)};
+        console.log('[coder-workspace] Open timing', trace.server.traces.length ? `(trace ${trace.server.traces.join(', ')})` : '');
+        try { console.table(rows); } catch (_) {}
+        showTimingPanel(plugin, rows, trace.server.traces).catch(() => {});
+      }
+    }
+  }
+
+  async function showTimingPanel(plugin, rows, traces) {
+    const wrapper = document.createElement('div');
+    const style = document.createElement('style');
+    style.textContent = `table{border-collapse:collapse;margin-bottom:8px}td{padding:2px 8px;border-bottom:1px solid var(--border-color, #ddd)}td.ms{text-align:right}`;
+    wrapper.appendChild(style);
+    const title = document.createElement('div');
+    title.textContent = 'Coder workspace open timing';
+    title.style.marginBottom = '8px';
+    wrapper.appendChild(title);
+    const table = document.createElement('table');
+    for (const [phase, {ms}] of Object.entries(rows)) {
+      const tr = document.createElement('tr');
+      tr.innerHTML = `<td>${escapeHtml(phase)}</td><td class="ms">${ms} ms</td>`;
+      table.appendChild(tr);
+    }
+    wrapper.appendChild(table);
+    if (traces.length) {
+      const id = document.createElement('div');
+      id.textContent = `Trace: ${traces.join(', ')}`;
+      wrapper.appendChild(id);
+    }
+    const close = document.createElement('gr-button');
+    close.textContent = 'Close';
+    close.style.marginTop = '8px';
+    wrapper.appendChild(close);
+    const host = await plugin.popup('div', {});
+    host.shadowRoot ? host.shadowRoot.appendChild(wrapper) : host.appendChild(wrapper);
+    close.addEventListener('click', () => { try { host.remove(); } catch(_){} });
+  }
+
+  // Configuration is loaded from server (/config/server/coder-workspace.config), or inlined
+  // into this script by the server when inlineConfig is set (window.CoderWorkspaceBootstrap)
+
+  function applyInlinedConfig() {
+    const boot = typeof window !== 'undefined' ? window.CoderWorkspaceBootstrap : null;
+    if (!boot || !boot.config || typeof boot.config !== 'object') return false;
+    config = Object.assign({}, config, boot.config);
+    console.log('[coder-workspace] Inlined server config applied');
+    // The API key is never inlined; fetch the REST config when the browser needs it
+    return !boot.apiKeyOmitted;
+  }
 
   function installPlugin(plugin) {
     console.log('[coder-workspace] Plugin installation starting...');
+    const configStart = traceNow();
     // Fetch server-side configuration defined in gerrit.config
-    if (plugin.restApi) {
+    if (applyInlinedConfig()) {
+      configLoadMs = traceNow() - configStart;
+    } else if (plugin.restApi) {
       plugin
         .restApi()
         .get('/config/server/coder-workspace.config')
@@ -723,6 +971,7 @@
             config = Object.assign({}, config, serverCfg);
             console.log('[coder-workspace] Server config applied');
           }
+          configLoadMs = traceNow() - configStart;
         })
         .catch((err) => {
           console.warn('[coder-workspace] Failed to load server config', err);
@@ -744,7 +993,7 @@
         // Then Open (9998)
         if (changeActions.setActionPriority) changeActions.setActionPriority('revision', openLastKey, 9998);
         changeActions.setTitle(openLastKey, 'Open your Coder workspace, creating one if necessary');
-        changeActions.addTapListener(openLastKey, async () => {
+        changeActions.addTapListener(openLastKey, () => traceOpen(plugin, async () => {
           try {
             // Wait a bit longer for branch to populate to avoid creating names without branchShort
             const ctx = await getChangeContextWithRetry(3000, 100);
@@ -768,7 +1017,9 @@
               // Verify the saved workspace still exists; clear stale state if not
               try {
                 if (currentMeta.workspaceName) {
-                  const ws = await getWorkspaceByNameImpl(currentMeta.workspaceName);
+                  const ws = config.useServerProxy
+                    ? await fetchProxiedWorkspace(plugin, ctx)
+                    : await getWorkspaceByNameImpl(currentMeta.workspaceName);
                   if (ws) {
                     notify(plugin, `Opening Coder workspace for ${ctx.repo} @ ${ctx.branch}`);
                     openFinalUrl(currentUrl);
@@ -789,7 +1040,25 @@
               return;
             }
 
-            const body = buildCreateRequest(ctx);
+            if (config.useServerProxy && plugin.restApi) {
+              // Preview only what would be created; opening an existing workspace needs no confirm
+              if (config.enableDryRunPreview && !(await fetchProxiedWorkspace(plugin, ctx))) {
+                const preview = await fetchServerPreview(plugin, ctx);
+                if (preview) {
+                  const {confirmed} = await previewAndConfirm(plugin, preview.request, preview);
+                  if (!confirmed) return;
+                }
+              }
+              await openViaServerProxy(plugin, ctx);
+              return;
+            }
+
+            if (config.resolveTemplatesOnServer && plugin.restApi) {
+              const [tpl, names] = await timed('template', () => Promise.all([fetchServerTemplate(plugin, ctx), fetchServerCandidates(plugin, ctx)]));
+              ctx._serverTemplate = tpl;
+              ctx._serverCandidates = names;
+            }
+            const body = timed('template', () => buildCreateRequest(ctx));
             try {
               // If strictName is enabled, bypass reuse/prefix search and create exact name
               if (config.strictName) {
@@ -1047,7 +1316,7 @@
             notify(plugin, 'Failed to open/create Coder workspace: ' + msg);
             console.error('[coder-workspace] open/create failed', e);
           }
-        });
+        }));
 
         // Delete Coder Workspace action
         const deleteKey = changeActions.add('revision', DELETE_ACTION_LABEL);
@@ -1065,6 +1334,16 @@
             const ctx = getChangeContextFromPage();
             const currentMeta = loadCurrentMeta();
 
+            // Server proxy: Gerrit resolves the workspace for this revision itself
+            if (config.useServerProxy && plugin.restApi) {
+              const ok = window.confirm(`Delete the Coder workspace for change ${ctx.change}?`);
+              if (!ok) return;
+              await plugin.restApi().delete(revisionRestPath(ctx, 'workspace'));
+              notify(plugin, 'Coder workspace deleted');
+              clearCurrentWorkspace();
+              return;
+            }
+
             // Check if current workspace matches the current context
             if (!currentMeta ||
                 currentMeta.repo !== ctx.repo ||
@@ -1127,6 +1406,12 @@
     } catch (e) {
       // ignore
     }
+    // Start the viewed change's stopped workspace ahead of the open (speculativeStart)
+    try {
+      plugin.on('showchange', (change, revision) => warmOnView(plugin, change, revision));
+    } catch (e) {
+      // ignore
+    }
     // Fallback retry loop for robustness
     let tries = 0;
     const t = setInterval(() => {
@@ -1139,14 +1424,21 @@
     // Note: Open Last actions are configured in installActions() once.
   }
 
-  async function previewAndConfirm(plugin, requestBody) {
+  // serverPreview: response of coder-workspace~preview when the server proxy creates the workspace
+  async function previewAndConfirm(plugin, requestBody, serverPreview) {
     const base = (config.serverUrl || '').replace(/\/$/, '');
+    const owner = (serverPreview && serverPreview.owner) || config.user || 'me';
     const path = config.organization
-      ? `/api/v2/organizations/${encodeURIComponent(config.organization)}/members/${encodeURIComponent(config.user || 'me')}/workspaces`
-      : `/api/v2/users/${encodeURIComponent(config.user || 'me')}/workspaces`;
+      ? `/api/v2/organizations/${encodeURIComponent(config.organization)}/members/${encodeURIComponent(owner)}/workspaces`
+      : `/api/v2/users/${encodeURIComponent(owner)}/workspaces`;
     const url = base + path;
+    const shown = { url, body: requestBody };
+    if (serverPreview) {
+      if (serverPreview.templateVersionId) shown.templateVersionId = serverPreview.templateVersionId;
+      if (serverPreview.parameters) shown.parameters = serverPreview.parameters;
+    }
     const pre = document.createElement('pre');
-    pre.textContent = JSON.stringify({ url, body: requestBody }, null, 2);
+    pre.textContent = JSON.stringify(shown, null, 2);
     const wrapper = document.createElement('div');
     const style = document.createElement('style');
     style.textContent = `pre{white-space:pre-wrap;max-height:360px;overflow:auto;border:1px solid var(--border-color, #ddd);padding:8px}`;
@@ -1155,6 +1447,13 @@
     title.textContent = 'Preview Coder Request';
     title.style.marginBottom = '8px';
     wrapper.appendChild(title);
+    const problems = (serverPreview && serverPreview.problems) || [];
+    if (problems.length) {
+      const warn = document.createElement('div');
+      warn.style.color = 'var(--error-text-color, #c5221f)';
+      warn.textContent = `Coder will reject this request: ${problems.join('; ')}`;
+      wrapper.appendChild(warn);
+    }
     wrapper.appendChild(pre);
     const buttons = document.createElement('div');
     buttons.style.marginTop = '8px';
@@ -1232,15 +1531,24 @@
         computeWorkspaceUrl,
         withAuthUrl: (u) => withAuthUrl(u),
         openFinalUrl: (u) => openFinalUrl(u),
-        waitForWorkspaceApp: (name, timeoutMs, intervalMs, initialWs) => waitForWorkspaceApp(name, timeoutMs, intervalMs, initialWs),
+        waitForWorkspaceApp: (name, timeoutMs, intervalMs, initialWs, fetchFn) => waitForWorkspaceApp(name, timeoutMs, intervalMs, initialWs, fetchFn),
         generateUniqueName,
         buildCreateRequest: (ctx) => buildCreateRequest(ctx),
+        fetchServerTemplate: (plugin, ctx) => fetchServerTemplate(plugin, ctx),
+        fetchServerCandidates: (plugin, ctx) => fetchServerCandidates(plugin, ctx),
+        openViaServerProxy: (plugin, ctx) => openViaServerProxy(plugin, ctx),
+        fetchProxiedWorkspace: (plugin, ctx, waitMs) => fetchProxiedWorkspace(plugin, ctx, waitMs),
         createWorkspaceStrict: (body) => createWorkspaceStrict(body),
         // Expose direct lookup for unit tests
         getWorkspaceByName: (n) => getWorkspaceByName(n),
         deleteWorkspaceByName: (n) => deleteWorkspaceByName(n),
         setGetWorkspaceByName: (fn) => { getWorkspaceByNameImpl = fn || getWorkspaceByName; },
         setConfig: (patch) => { try { Object.assign(config, patch || {}); } catch(_){} },
+        getConfig: () => Object.assign({}, config),
+        applyInlinedConfig: () => applyInlinedConfig(),
+        warmOnView: (plugin, change, revision) => warmOnView(plugin, change, revision),
+        traceOpen: (plugin, fn) => traceOpen(plugin, fn),
+        serverTimings: (since) => serverTimings(since),
       };
     }
   } catch (_) {}
@@ -0,0 +1,198 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.events.EventDispatcher;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gson.Gson;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+/** Tests for keeping the caches of two plugin instances ("nodes") coherent. */
+public class CacheInvalidationTest {
+  private static final String PLUGIN = "coder-workspace";
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private FakeCoderServer coder;
+  private Config cfg;
+  private File dir;
+  private final List<Node> nodes = new ArrayList<>();
+
+  /** One plugin instance with its own caches. */
+  private class Node {
+    final ConfigSnapshotCache snapshots;
+    final CacheInvalidation invalidation;
+    final WorkspaceLookup lookup;
+    final WorkspaceIds ids;
+
+    Node() {
+      this(mock(EventDispatcher.class));
+    }
+
+    Node(EventDispatcher dispatcher) {
+      PluginConfigFactory factory = mock(PluginConfigFactory.class);
+      when(factory.getFromGerritConfig(PLUGIN))
+          .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+      snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+      WorkQueue workQueue = mock(WorkQueue.class);
+      when(workQueue.getDefaultQueue()).thenReturn(mock(ScheduledExecutorService.class));
+      invalidation =
+          new CacheInvalidation(
+              snapshots,
+              PLUGIN,
+              workQueue,
+              DynamicItem.itemOf(EventDispatcher.class, dispatcher));
+      lookup =
+          TestCoder.lookup(TestCoder.client(snapshots), TestCoder.metrics(), invalidation);
+      ids = new WorkspaceIds(CacheBuilder.newBuilder().build(), invalidation);
+      invalidation.start();
+      nodes.add(this);
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    dir = tmp.newFolder("invalidations");
+    cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    cfg.setString("plugin", PLUGIN, "cacheInvalidation", "directory");
+    cfg.setString("plugin", PLUGIN, "invalidationDirectory", dir.getPath());
+  }
+
+  @After
+  public void tearDown() {
+    for (Node node : nodes) {
+      node.invalidation.stop();
+    }
+    coder.close();
+  }
+
+  @Test
+  public void testDeletedWorkspaceIsDroppedOnOtherNode() throws Exception {
+    // Given
+    Node a = new Node();
+    Node b = new Node();
+    coder.add("me", "repo-42-3");
+    assertTrue(a.lookup.byName("me", "repo-42-3").isPresent());
+    assertTrue(b.lookup.byName("me", "repo-42-3").isPresent());
+
+    // When
+    coder.workspaces.remove("repo-42-3");
+    a.lookup.invalidate("me", "repo-42-3");
+    a.invalidation.exchange();
+    b.invalidation.exchange();
+
+    // Then
+    assertFalse(b.lookup.byName("me", "repo-42-3").isPresent());
+  }
+
+  @Test
+  public void testCreatedWorkspaceReplacesCachedMissOnOtherNode() throws Exception {
+    // Given
+    Node a = new Node();
+    Node b = new Node();
+    assertFalse(b.lookup.byName("me", "repo-42-3").isPresent());
+
+    // When
+    a.lookup.created("me", coder.add("me", "repo-42-3"));
+    a.invalidation.exchange();
+    b.invalidation.exchange();
+
+    // Then
+    assertTrue(b.lookup.byName("me", "repo-42-3").isPresent());
+  }
+
+  @Test
+  public void testChangesAreSentAsOneBatch() throws Exception {
+    // Given
+    Node a = new Node();
+    Node b = new Node();
+    WorkspaceIds.Key first = new WorkspaceIds.Key("repo", "42", "3", "me");
+    WorkspaceIds.Key second = new WorkspaceIds.Key("repo", "42", "4", "me");
+    b.ids.put(second, "id-old");
+    b.invalidation.exchange();
+
+    // When
+    a.ids.put(first, "id-1");
+    a.ids.put(second, "id-2");
+    a.ids.invalidate(second);
+    int before = dir.list().length;
+    a.invalidation.exchange();
+    int sent = dir.list().length - before;
+    b.invalidation.exchange();
+
+    // Then
+    assertEquals(1, sent);
+    assertEquals("id-1", b.ids.get(first));
+    assertNull(b.ids.get(second));
+  }
+
+  @Test
+  public void testBatchesFromBeforeStartAreSkipped() throws Exception {
+    // Given
+    Node a = new Node();
+    WorkspaceIds.Key key = new WorkspaceIds.Key("repo", "42", "3", "me");
+    a.ids.put(key, "id-1");
+    a.invalidation.exchange();
+
+    // When
+    Node b = new Node();
+    b.invalidation.exchange();
+
+    // Then
+    assertNull(b.ids.get(key));
+  }
+
+  @Test
+  public void testEventTransportDeliversToOtherNodesOnly() throws Exception {
+    // Given
+    cfg.setString("plugin", PLUGIN, "cacheInvalidation", "events");
+    EventDispatcher broker = mock(EventDispatcher.class);
+    doAnswer(
+            i -> {
+              // Like an event broker: every node, including the sender, gets the event
+              for (Node node : nodes) {
+                node.invalidation.onEvent(i.getArgument(0));
+              }
+              return null;
+            })
+        .when(broker)
+        .postEvent(any());
+    Node a = new Node(broker);
+    Node b = new Node(broker);
+    WorkspaceIds.Key key = new WorkspaceIds.Key("secret/repo", "42", "3", "me");
+    WorkspaceIds.Key other = new WorkspaceIds.Key("secret/repo", "42", "4", "me");
+
+    // When
+    a.ids.put(key, "id-1");
+    b.ids.put(key, "id-2");
+    b.ids.put(other, "id-3");
+    a.invalidation.exchange();
+
+    // Then
+    assertEquals("id-1", a.ids.get(key));
+    assertNull(b.ids.get(key));
+    assertEquals("id-3", b.ids.get(other));
+    ArgumentCaptor<InvalidationBatch> sent = ArgumentCaptor.forClass(InvalidationBatch.class);
+    verify(broker, times(1)).postEvent(sent.capture());
+    String json = new Gson().toJson(sent.getValue());
+    assertFalse(json, json.contains("secret/repo"));
+    assertFalse(json, json.contains("id-1"));
+  }
+}
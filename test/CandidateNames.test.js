@@ -31,3 +31,18 @@ describe('coder-workspace: candidate names generation', () => {
     expect(candidates).toEqual(['gerrit-coder-123-1', 'gerrit-coder.foo']);
   });
 });
+
+describe('coder-workspace: server-rendered candidate names', () => {
+  test('prefers candidates returned by the revision-level view', async () => {
+    const { computeCandidateNames, fetchServerCandidates } = window.__coderWorkspaceTest__;
+    const get = jest.fn().mockResolvedValue(['gerrit-coder-123-1', 'gerrit-coder.foo']);
+    const plugin = { restApi: () => ({ get }) };
+    const ctx = { repo: 'gerrit-coder', branch: 'refs/heads/feature/foo', change: '123', patchset: '1' };
+
+    ctx._serverCandidates = await fetchServerCandidates(plugin, ctx);
+    const candidates = computeCandidateNames(ctx, { alternateNameTemplates: ['{repo}-{branch}'] });
+
+    expect(get).toHaveBeenCalledWith('/changes/gerrit-coder~123/revisions/1/coder-workspace~candidates');
+    expect(candidates).toEqual(['gerrit-coder-123-1', 'gerrit-coder.foo']);
+  });
+});
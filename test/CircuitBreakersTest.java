@@ -0,0 +1,207 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the per-endpoint circuit breakers, adaptive timeouts and hedged reads. */
+public class CircuitBreakersTest {
+  private static final String PLUGIN = "coder-workspace";
+  private static final String PATH = "/api/v2/workspaces/ws-1";
+
+  private FakeCoderServer coder;
+  private Config cfg;
+  private ConfigSnapshotCache snapshots;
+  private CircuitBreakers breakers;
+  private CoderHttp http;
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    cfg.setInt("plugin", PLUGIN, "breakerFailureThreshold", 3);
+    cfg.setLong("plugin", PLUGIN, "breakerOpenMs", 200);
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+    CoderMetrics metrics = TestCoder.metrics();
+    breakers = new CircuitBreakers(snapshots, metrics);
+    http = new CoderHttp(snapshots, metrics, new CoderLimiter(snapshots, metrics), breakers);
+  }
+
+  @After
+  public void tearDown() {
+    coder.close();
+  }
+
+  @Test
+  public void testBreakerOpensFailsFastThenClosesAfterProbe() throws Exception {
+    // Given
+    coder.add("me", "ws").id = "ws-1";
+    coder.failStatus = 503;
+    for (int i = 0; i < 3; i++) {
+      assertEquals(503, assertThrows(CoderException.class, this::get).statusCode());
+    }
+
+    // When
+    CoderException e = assertThrows(CoderException.class, this::get);
+
+    // Then
+    assertTrue(e.getMessage().contains("circuit open"));
+    assertEquals(3, coder.requests.size());
+    assertEquals(CircuitBreakers.State.OPEN, status().state);
+    assertEquals(1, status().rejected);
+
+    // When
+    coder.failStatus = 0;
+    Thread.sleep(250);
+    get();
+
+    // Then
+    assertEquals(CircuitBreakers.State.CLOSED, status().state);
+    assertEquals(0, status().consecutiveFailures);
+    assertNull(status().openUntil);
+  }
+
+  @Test
+  public void testFailedProbeOpensBreakerAgain() throws Exception {
+    // Given
+    coder.failStatus = 500;
+    for (int i = 0; i < 3; i++) {
+      assertThrows(CoderException.class, this::get);
+    }
+    Thread.sleep(250);
+
+    // When
+    assertEquals(500, assertThrows(CoderException.class, this::get).statusCode());
+
+    // Then
+    assertEquals(4, coder.requests.size());
+    assertEquals(CircuitBreakers.State.OPEN, status().state);
+  }
+
+  @Test
+  public void testNotFoundDoesNotCountAsFailure() throws Exception {
+    // When
+    for (int i = 0; i < 5; i++) {
+      assertTrue(assertThrows(CoderException.class, this::get).isNotFound());
+    }
+
+    // Then
+    assertEquals(CircuitBreakers.State.CLOSED, status().state);
+    assertEquals(0, status().failures);
+  }
+
+  @Test
+  public void testSlowReadIsHedged() throws Exception {
+    // Given
+    coder.add("me", "ws").id = "ws-1";
+    warmUp();
+    coder.requests.clear();
+    coder.slowMs = 3000;
+    coder.slowRequests.set(1);
+
+    // When
+    long start = System.nanoTime();
+    WorkspaceInfo ws = get();
+
+    // Then
+    assertEquals("ws", ws.name);
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 900);
+    assertEquals(List.of("GET " + PATH, "GET " + PATH), coder.requests);
+    assertEquals(1, status().hedged);
+  }
+
+  @Test
+  public void testWritesAreNeverHedged() throws Exception {
+    // Given
+    coder.add("me", "ws").id = "ws-1";
+    warmUp();
+    coder.requests.clear();
+    coder.slowMs = 300;
+    coder.slowRequests.set(1);
+
+    // When
+    http.send("DELETE", PATH, null, WorkspaceInfo.class);
+
+    // Then
+    assertEquals(List.of("DELETE " + PATH), coder.requests);
+  }
+
+  @Test
+  public void testAdaptiveTimeoutIsClampedToRequestTimeout() throws Exception {
+    // Given
+    coder.add("me", "ws").id = "ws-1";
+    cfg.setLong("plugin", PLUGIN, "requestTimeoutMs", 5000);
+    snapshots.invalidate();
+
+    // Then
+    assertEquals(5000, breakers.endpoint("GET", PATH).timeoutMs(snapshots.get().server()));
+
+    // When
+    warmUp();
+
+    // Then
+    assertEquals(
+        CircuitBreakers.MIN_TIMEOUT_MS,
+        breakers.endpoint("GET", PATH).timeoutMs(snapshots.get().server()));
+
+    // When
+    cfg.setBoolean("plugin", PLUGIN, "adaptiveTimeouts", false);
+    snapshots.invalidate();
+
+    // Then
+    assertEquals(5000, status().timeoutMs);
+  }
+
+  @Test
+  public void testDisabledBreakerNeverOpens() throws Exception {
+    // Given
+    cfg.setInt("plugin", PLUGIN, "breakerFailureThreshold", 0);
+    snapshots.invalidate();
+    coder.failStatus = 503;
+
+    // When
+    for (int i = 0; i < 5; i++) {
+      assertEquals(503, assertThrows(CoderException.class, this::get).statusCode());
+    }
+
+    // Then
+    assertEquals(5, coder.requests.size());
+    assertEquals(CircuitBreakers.State.CLOSED, status().state);
+  }
+
+  private WorkspaceInfo get() throws CoderException {
+    return http.send("GET", PATH, null, WorkspaceInfo.class);
+  }
+
+  /** Collects enough fast samples for the percentiles. */
+  private void warmUp() throws CoderException {
+    for (int i = 0; i < CircuitBreakers.MIN_SAMPLES; i++) {
+      get();
+      http.send("DELETE", PATH, null, WorkspaceInfo.class);
+      coder.add("me", "ws").id = "ws-1";
+    }
+  }
+
+  private CircuitBreakers.EndpointInfo status() {
+    String endpoint = CoderMetrics.endpoint("GET", PATH);
+    return new GetUpstreamStatus(breakers)
+        .apply(null)
+        .value()
+        .stream()
+        .filter(e -> e.endpoint.equals(endpoint))
+        .findFirst()
+        .get();
+  }
+}
@@ -0,0 +1,150 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for memoized Coder API capability discovery. */
+public class CoderCapabilitiesTest {
+  private static final String PLUGIN = "coder-workspace";
+
+  private FakeCoderServer coder;
+  private CoderCapabilities capabilities;
+  private CoderClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    Config cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenReturn(PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    CoderHttp http = TestCoder.http(new ConfigSnapshotCache(factory, PLUGIN));
+    capabilities = new CoderCapabilities(http, null);
+    client = new CoderClient(http, capabilities);
+  }
+
+  @After
+  public void tearDown() {
+    coder.close();
+  }
+
+  @Test
+  public void testProbesOnceAndGoesStraightToWorkingRoutes() throws Exception {
+    // Given
+    WorkspaceInfo ws = coder.add("me", "ws");
+
+    // When
+    client.workspaceByName("me", "ws");
+    client.workspaceByName("me", "other");
+    client.deleteWorkspace(ws.id);
+
+    // Then
+    assertEquals("v2.20.0", capabilities.get().version);
+    assertEquals(1, coder.count("GET /api/v2/buildinfo"));
+    assertEquals(1, coder.count("GET /api/v2/users/me/workspace/ws"));
+    assertEquals(1, coder.count("POST /api/v2/workspaces/" + ws.id + "/builds"));
+    assertEquals(0, coder.count("DELETE"));
+  }
+
+  @Test
+  public void testFallsBackToSupportedShapes() throws Exception {
+    // Given
+    coder.missingRoutes.add("LOOKUP_BY_NAME");
+    coder.missingRoutes.add("DELETE_BUILD");
+    WorkspaceInfo ws = coder.add("me", "ws");
+
+    // When
+    assertEquals(ws.id, client.workspaceByName("me", "ws").get().id);
+    client.deleteWorkspace(ws.id);
+
+    // Then
+    CoderCapabilities.Capabilities caps = capabilities.get();
+    assertFalse(caps.lookupByName);
+    assertFalse(caps.deleteBuild);
+    assertEquals(0, coder.count("GET /api/v2/users/me/workspace/ws"));
+    assertEquals(1, coder.count("GET /api/v2/workspaces?q="));
+    assertEquals(1, coder.count("DELETE /api/v2/workspaces/" + ws.id));
+    assertTrue(coder.workspaces.isEmpty());
+  }
+
+  @Test
+  public void testListFallbackPagesPastSubstringMatches() throws Exception {
+    // Given
+    coder.missingRoutes.add("LOOKUP_BY_NAME");
+    for (int i = 10; i < 70; i++) {
+      coder.add("me", "repo-" + i);
+    }
+    WorkspaceInfo ws = coder.add("me", "repo-1");
+
+    // When
+    WorkspaceInfo found = client.workspaceByName("me", "repo-1").get();
+    coder.requests.clear();
+    boolean missing = client.workspaceByName("me", "repo").isEmpty();
+
+    // Then
+    assertEquals(ws.id, found.id);
+    assertTrue(missing);
+    assertEquals(2, coder.count("GET /api/v2/workspaces?q="));
+  }
+
+  @Test
+  public void testRedirectIsNotFollowed() throws Exception {
+    // Given
+    try (FakeCoderServer other = new FakeCoderServer()) {
+      coder.redirectTo = other.url();
+
+      // When
+      CoderException e = assertThrows(CoderException.class, () -> client.workspace("ws-1"));
+
+      // Then
+      assertEquals(CoderException.SC_BAD_GATEWAY, e.statusCode());
+      assertTrue(e.getMessage(), e.getMessage().contains(other.url() + "/api/v2/workspaces/ws-1"));
+      assertTrue(other.requests.isEmpty());
+    }
+  }
+
+  @Test
+  public void testVersionChangeTriggersNewProbe() throws Exception {
+    // Given
+    assertTrue(capabilities.get().lookupByName);
+    coder.missingRoutes.add("LOOKUP_BY_NAME");
+
+    // When
+    capabilities.checkVersion();
+
+    // Then: same version, nothing probed again
+    assertTrue(capabilities.get().lookupByName);
+
+    // When
+    coder.version = "v2.21.0";
+    capabilities.checkVersion();
+
+    // Then
+    assertFalse(capabilities.get().lookupByName);
+    assertEquals("v2.21.0", capabilities.get().version);
+  }
+
+  @Test
+  public void testRouteNotFoundReprobesAndRetriesOnce() throws Exception {
+    // Given
+    coder.add("me", "ws");
+    assertTrue(capabilities.get().lookupByName);
+    coder.missingRoutes.add("LOOKUP_BY_NAME");
+
+    // When
+    boolean found = client.workspaceByName("me", "ws").isPresent();
+
+    // Then
+    assertTrue(found);
+    assertFalse(capabilities.get().lookupByName);
+    assertEquals(2, coder.count("GET /api/v2/buildinfo"));
+  }
+}
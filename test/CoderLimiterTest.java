@@ -0,0 +1,122 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the global permit pool and per-user token buckets. */
+public class CoderLimiterTest {
+  private static final String PLUGIN = "coder-workspace";
+
+  private Config cfg;
+  private ConfigSnapshotCache snapshots;
+  private CoderLimiter limiter;
+
+  @Before
+  public void setUp() {
+    cfg = new Config();
+    cfg.setLong("plugin", PLUGIN, "maxQueueWaitMs", 0);
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+    limiter = new CoderLimiter(snapshots, TestCoder.metrics());
+  }
+
+  @Test
+  public void testGlobalPoolRejectsWhenSaturated() throws Exception {
+    // Given
+    cfg.setInt("plugin", PLUGIN, "maxConcurrentCalls", 2);
+    cfg.setLong("plugin", PLUGIN, "maxQueueWaitMs", 50);
+    snapshots.invalidate();
+    CoderLimiter.Permit first = limiter.acquire();
+    CoderLimiter.Permit second = limiter.acquire();
+
+    // When
+    long start = System.nanoTime();
+    CoderException e = assertThrows(CoderException.class, limiter::acquire);
+
+    // Then
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+    assertEquals(429, e.statusCode());
+    assertEquals(1, e.retryAfterSeconds());
+
+    // When
+    first.close();
+    first.close();
+    second.close();
+
+    // Then
+    assertEquals(2, limiter.availablePermits());
+  }
+
+  @Test
+  public void testUserBucketAllowsBurstThenRejects() throws Exception {
+    // Given
+    cfg.setInt("plugin", PLUGIN, "userCallsPerMinute", 6);
+    cfg.setInt("plugin", PLUGIN, "userBurst", 2);
+    snapshots.invalidate();
+
+    // When
+    limiter.admit("alice");
+    limiter.admit("alice");
+    CoderException e = assertThrows(CoderException.class, () -> limiter.admit("alice"));
+
+    // Then
+    assertEquals(429, e.statusCode());
+    assertTrue(e.retryAfterSeconds() > 1 && e.retryAfterSeconds() <= 10);
+    limiter.admit("bob");
+  }
+
+  @Test
+  public void testUserWaitsForNextTokenWithinQueueWait() throws Exception {
+    // Given
+    cfg.setInt("plugin", PLUGIN, "userCallsPerMinute", 600);
+    cfg.setInt("plugin", PLUGIN, "userBurst", 1);
+    cfg.setLong("plugin", PLUGIN, "maxQueueWaitMs", 1000);
+    snapshots.invalidate();
+    limiter.admit("alice");
+
+    // When
+    long start = System.nanoTime();
+    limiter.admit("alice");
+
+    // Then
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+  }
+
+  @Test
+  public void testRejectionBecomes429WithRetryAfter() throws Exception {
+    // Given
+    CoderException e = CoderException.tooManyRequests("slow down", 7);
+
+    // When
+    Response<String> res = e.toResponse();
+
+    // Then
+    assertEquals(429, res.statusCode());
+    assertEquals(List.of("7"), List.copyOf(res.headers().get("Retry-After")));
+  }
+
+  @Test
+  public void testZeroDisablesLimits() throws Exception {
+    // Given
+    cfg.setInt("plugin", PLUGIN, "maxConcurrentCalls", 0);
+    cfg.setInt("plugin", PLUGIN, "userCallsPerMinute", 0);
+    snapshots.invalidate();
+
+    // Then
+    for (int i = 0; i < 100; i++) {
+      limiter.acquire();
+      limiter.admit("alice");
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.metrics.Counter2;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the upstream call metrics. */
+public class CoderMetricsTest {
+  private static final String PLUGIN = "coder-workspace";
+
+  private FakeCoderServer coder;
+  private final List<String> timed = new ArrayList<>();
+  private Counter2<String, Integer> errors;
+  private CoderHttp http;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    Config cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenReturn(PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    Timer1<String> latency =
+        new Timer1<>("upstream/latency", Field.ofString("endpoint", Field.ignoreMetadata()).build()) {
+          @Override
+          protected void doRecord(String endpoint, long value, TimeUnit unit) {
+            timed.add(endpoint);
+          }
+
+          @Override
+          public void remove() {}
+        };
+    errors = mock(Counter2.class);
+    MetricMaker metrics = mock(MetricMaker.class);
+    doReturn(latency).when(metrics).newTimer(eq("upstream/latency"), any(), any());
+    doReturn(errors).when(metrics).newCounter(eq("upstream/error_count"), any(), any(), any());
+    ConfigSnapshotCache snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+    CoderMetrics coderMetrics = new CoderMetrics(metrics);
+    http =
+        new CoderHttp(
+            snapshots,
+            coderMetrics,
+            new CoderLimiter(snapshots, coderMetrics),
+            new CircuitBreakers(snapshots, coderMetrics));
+  }
+
+  @After
+  public void tearDown() {
+    coder.close();
+  }
+
+  @Test
+  public void testEndpointNamesHideIdsAndNames() {
+    assertEquals(
+        "get_users_user_workspace_name",
+        CoderMetrics.endpoint("GET", "/api/v2/users/alice/workspace/repo-42-3"));
+    assertEquals(
+        "post_workspaces_id_builds",
+        CoderMetrics.endpoint("POST", "/api/v2/workspaces/0a1b-2c3d/builds"));
+    assertEquals(
+        "get_workspaces", CoderMetrics.endpoint("GET", "/api/v2/workspaces?q=owner%3Ame&limit=50"));
+    assertEquals(
+        "post_organizations_org_members_user_workspaces",
+        CoderMetrics.endpoint("POST", "/api/v2/organizations/default/members/me/workspaces"));
+    assertEquals(
+        "get_templates_template", CoderMetrics.endpoint("GET", "/api/v2/templates/tpl-7f3e"));
+    assertEquals(
+        "get_templateversions_version_rich-parameters",
+        CoderMetrics.endpoint("GET", "/api/v2/templateversions/ver-91ab/rich-parameters"));
+  }
+
+  @Test
+  public void testRecordsLatencyAndErrorStatusPerEndpoint() throws Exception {
+    // Given
+    coder.add("me", "repo-42-1");
+
+    // When
+    http.send("GET", "/api/v2/users/me/workspace/repo-42-1", null, WorkspaceInfo.class);
+    assertThrows(
+        CoderException.class,
+        () -> http.send("GET", "/api/v2/users/me/workspace/repo-42-2", null, WorkspaceInfo.class));
+
+    // Then
+    assertEquals(List.of("get_users_user_workspace_name", "get_users_user_workspace_name"), timed);
+    verify(errors, times(1)).increment("get_users_user_workspace_name", 404);
+  }
+
+  @Test
+  public void testUnreachableServerCountsAsStatusZero() {
+    // Given
+    coder.close();
+
+    // When
+    assertThrows(
+        CoderException.class, () -> http.send("GET", "/api/v2/workspaces", null, Object.class));
+
+    // Then
+    verify(errors, times(1)).increment("get_workspaces", 0);
+  }
+}
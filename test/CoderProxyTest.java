@@ -0,0 +1,169 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.util.List;
+import java.util.Optional;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the server-side Coder proxy against an in-process fake Coder server. */
+public class CoderProxyTest {
+  private static final String PLUGIN = "coder-workspace";
+
+  private FakeCoderServer coder;
+  private Config cfg;
+  private ConfigSnapshotCache snapshots;
+  private CoderClient client;
+  private WorkspaceService service;
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url() + "/");
+    cfg.setString("plugin", PLUGIN, "apiKey", "server-token");
+    cfg.setBoolean("plugin", PLUGIN, "useServerProxy", true);
+    cfg.setString("plugin", PLUGIN, "templateId", "tpl-1");
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+    client = TestCoder.client(snapshots);
+    service = TestCoder.service(snapshots, client);
+  }
+
+  @After
+  public void tearDown() {
+    coder.close();
+  }
+
+  @Test
+  public void testApiKeyStaysOnServerWhenProxying() {
+    // When
+    ConfigSnapshot snapshot = snapshots.get();
+
+    // Then
+    assertNull(snapshot.info().apiKey);
+    assertTrue(snapshot.info().useServerProxy);
+    assertEquals("server-token", snapshot.server().apiKey);
+  }
+
+  @Test
+  public void testCreatesPrimaryNameWithTemplateAndRichParams() throws Exception {
+    // When
+    WorkspaceService.Opened opened = service.openOrCreate(target("my/repo", "feature/x", "42", "3"));
+
+    // Then
+    assertTrue(opened.created);
+    assertEquals("my-repo-42-3", opened.workspace.name);
+    CreateWorkspaceRequest sent = coder.created.get(0);
+    assertEquals("tpl-1", sent.templateId);
+    assertEquals("feature/x", value(sent, "BRANCH"));
+    assertEquals("https://gerrit.example.com/c/my/repo/+/42/3", value(sent, "GERRIT_CHANGE_URL"));
+    assertTrue(coder.tokens.stream().allMatch("server-token"::equals));
+    assertTrue(coder.requests.contains("POST /api/v2/users/me/workspaces"));
+  }
+
+  @Test
+  public void testReusesWorkspaceFoundUnderAlternateName() throws Exception {
+    // Given
+    coder.add("me", "my-repo.x");
+
+    // When
+    WorkspaceService.Opened opened = service.openOrCreate(target("my/repo", "feature/x", "42", "3"));
+
+    // Then
+    assertFalse(opened.created);
+    assertEquals("my-repo.x", opened.workspace.name);
+    assertTrue(coder.created.isEmpty());
+  }
+
+  @Test
+  public void testConflictOnHiddenNameRetriesWithUniqueSuffix() throws Exception {
+    // Given
+    coder.hiddenNames.add("my-repo-42-3");
+
+    // When
+    WorkspaceService.Opened opened = service.openOrCreate(target("my/repo", "main", "42", "3"));
+
+    // Then
+    assertTrue(opened.created);
+    assertTrue(opened.workspace.name.startsWith("my-repo-42-3-"));
+  }
+
+  @Test
+  public void testStrictNameSurfacesConflictOnHiddenName() throws Exception {
+    // Given
+    cfg.setBoolean("plugin", PLUGIN, "strictName", true);
+    snapshots.invalidate();
+    coder.hiddenNames.add("my-repo-42-3");
+
+    // When
+    try {
+      service.openOrCreate(target("my/repo", "main", "42", "3"));
+      fail("expected conflict");
+    } catch (CoderException e) {
+      // Then
+      assertTrue(e.isConflict());
+      assertEquals(1, coder.created.size());
+    }
+  }
+
+  @Test
+  public void testDeleteStartsDeleteBuild() throws Exception {
+    // Given
+    WorkspaceInfo ws = coder.add("me", "my-repo-42-3");
+
+    // When
+    Optional<WorkspaceInfo> deleted = service.delete(target("my/repo", "main", "42", "3"));
+
+    // Then
+    assertEquals(ws.id, deleted.get().id);
+    assertTrue(coder.requests.contains("POST /api/v2/workspaces/" + ws.id + "/builds"));
+    assertFalse(service.find(target("my/repo", "main", "42", "3")).isPresent());
+  }
+
+  @Test
+  public void testOrganizationRouteAndErrorStatus() throws Exception {
+    // Given
+    cfg.setString("plugin", PLUGIN, "organization", "org 1");
+    snapshots.invalidate();
+
+    // When
+    client.createWorkspace("alice", target("r", "main", "1", "1").request());
+    List<WorkspaceInfo> listed = client.workspaces("owner:alice", 10);
+
+    // Then
+    assertTrue(coder.requests.contains("POST /api/v2/organizations/org%201/members/alice/workspaces"));
+    assertEquals(1, listed.size());
+    try {
+      client.workspace("missing");
+      fail("expected 404");
+    } catch (CoderException e) {
+      assertTrue(e.isNotFound());
+    }
+  }
+
+  private WorkspaceTarget target(String repo, String branch, String change, String ps) {
+    String url = "https://gerrit.example.com/c/" + repo + "/+/" + change + "/" + ps;
+    return WorkspaceTarget.create(
+        snapshots.get(),
+        NameContext.of(repo, branch, change, ps),
+        url,
+        snapshots.get().server().owner(null));
+  }
+
+  private static String value(CreateWorkspaceRequest req, String name) {
+    return req.richParameterValues.stream()
+        .filter(p -> p.name.equals(name))
+        .map(p -> p.value)
+        .findFirst()
+        .orElse(null);
+  }
+}
@@ -0,0 +1,76 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.nio.charset.StandardCharsets;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the web UI script with inlined config. */
+public class ConfigBootstrapTest {
+  private static final String PLUGIN = "coder-workspace";
+  private static final byte[] BUNDLE = "/* bundle */\n".getBytes(StandardCharsets.UTF_8);
+
+  private Config cfg;
+  private ConfigSnapshotCache snapshots;
+
+  @Before
+  public void setUp() {
+    cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", "https://coder.example.com");
+    cfg.setString("plugin", PLUGIN, "apiKey", "secret-token");
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+  }
+
+  @Test
+  public void testScriptInlinesConfigWithoutApiKey() {
+    // When
+    String script = content(ConfigBootstrap.render(snapshots.get(), BUNDLE));
+
+    // Then
+    assertTrue(script.startsWith("window.CoderWorkspaceBootstrap = {\"config\":{"));
+    assertTrue(script.contains("\"serverUrl\":\"https://coder.example.com\""));
+    assertTrue(script.contains("\"apiKeyOmitted\":true"));
+    assertFalse(script.contains("secret-token"));
+    assertTrue(script.endsWith("/* bundle */\n"));
+  }
+
+  @Test
+  public void testHashChangesOnlyWithConfig() {
+    // Given
+    String before = ConfigBootstrap.render(snapshots.get(), BUNDLE).hash;
+
+    // When
+    snapshots.invalidate();
+    String unchanged = ConfigBootstrap.render(snapshots.get(), BUNDLE).hash;
+    cfg.setString("plugin", PLUGIN, "serverUrl", "https://coder2.example.com");
+    snapshots.invalidate();
+    String changed = ConfigBootstrap.render(snapshots.get(), BUNDLE).hash;
+
+    // Then
+    assertEquals(before, unchanged);
+    assertNotEquals(before, changed);
+    assertTrue(
+        ConfigBootstrap.render(snapshots.get(), BUNDLE).path().matches("bootstrap-[0-9a-f]+\\.js"));
+  }
+
+  @Test
+  public void testStaticBundleUnlessEnabled() {
+    // Given
+    ConfigBootstrap bootstrap = new ConfigBootstrap(snapshots);
+
+    // Then
+    assertEquals("static/coder-workspace-static.js", bootstrap.getJavaScriptResourcePath());
+  }
+
+  private static String content(ConfigBootstrap.Script script) {
+    return new String(script.content, StandardCharsets.UTF_8);
+  }
+}
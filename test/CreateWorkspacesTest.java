@@ -0,0 +1,244 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.api.changes.Changes;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.RevisionInfo;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.BinaryResult;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.account.AccountResource;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for opening the workspaces of a topic or change series in one request. */
+public class CreateWorkspacesTest {
+  private static final String PLUGIN = "coder-workspace";
+
+  private FakeCoderServer coder;
+  private Config cfg;
+  private ConfigSnapshotCache snapshots;
+  private CoderClient client;
+  private IdentifiedUser user;
+  private List<ChangeInfo> changes;
+  private List<String> queries;
+  private GerritApi gApi;
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    cfg.setBoolean("plugin", PLUGIN, "useServerProxy", true);
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+    client = TestCoder.client(snapshots);
+    user = mock(IdentifiedUser.class);
+    when(user.isIdentifiedUser()).thenReturn(true);
+    when(user.getAccountId()).thenReturn(Account.id(1000));
+    when(user.getUserName()).thenReturn(Optional.of("alice"));
+    changes = new ArrayList<>();
+    queries = new ArrayList<>();
+    Changes.QueryRequest query = mock(Changes.QueryRequest.class);
+    when(query.withOption(any())).thenReturn(query);
+    when(query.withLimit(anyInt())).thenReturn(query);
+    when(query.get()).thenAnswer(i -> changes);
+    Changes changesApi = mock(Changes.class);
+    when(changesApi.query(anyString()))
+        .thenAnswer(
+            i -> {
+              queries.add(i.getArgument(0));
+              return query;
+            });
+    gApi = mock(GerritApi.class);
+    when(gApi.changes()).thenReturn(changesApi);
+  }
+
+  @After
+  public void tearDown() {
+    coder.close();
+  }
+
+  @Test
+  public void testOpensEveryChangeOfTopic() throws Exception {
+    // Given
+    changes.add(change("repo", 41, 2));
+    changes.add(change("repo", 42, 1));
+    changes.add(change("repo", 43, 5));
+    WorkspaceInfo stopped = coder.add("me", "repo-42-1");
+    stopped.latestBuild = new WorkspaceInfo.Build();
+    stopped.latestBuild.transition = "stop";
+
+    // When
+    Map<Integer, JsonObject> lines = apply(topic("series"));
+
+    // Then
+    assertEquals(List.of("status:open topic:\"series\""), queries);
+    assertEquals(3, lines.size());
+    assertEquals("created", lines.get(41).get("status").getAsString());
+    assertEquals(201, lines.get(41).get("code").getAsInt());
+    assertEquals("repo-41-2", lines.get(41).getAsJsonObject("workspace").get("name").getAsString());
+    assertEquals("started", lines.get(42).get("status").getAsString());
+    assertEquals("created", lines.get(43).get("status").getAsString());
+    assertEquals(5, lines.get(43).get("patchset").getAsInt());
+    assertEquals(2, coder.created.size());
+    assertEquals("start", coder.builds.get(0).get("transition").getAsString());
+  }
+
+  @Test
+  public void testReportsFailuresOnTheirChangeOnly() throws Exception {
+    // Given
+    cfg.setBoolean("plugin", PLUGIN, "strictName", true);
+    snapshots.invalidate();
+    changes.add(change("repo", 1, 1));
+    changes.add(change("repo", 2, 1));
+    coder.hiddenNames.add("repo-2-1");
+
+    // When
+    Map<Integer, JsonObject> lines = apply(changes("1", "repo~2"));
+
+    // Then
+    assertEquals(List.of("change:1 OR change:repo~2"), queries);
+    assertEquals("created", lines.get(1).get("status").getAsString());
+    assertEquals("failed", lines.get(2).get("status").getAsString());
+    assertEquals(409, lines.get(2).get("code").getAsInt());
+    assertTrue(lines.get(2).has("error"));
+  }
+
+  @Test
+  public void testEveryChangeTakesARateLimitToken() throws Exception {
+    // Given
+    cfg.setInt("plugin", PLUGIN, "userCallsPerMinute", 1);
+    cfg.setInt("plugin", PLUGIN, "userBurst", 2);
+    snapshots.invalidate();
+    for (int i = 1; i <= 3; i++) {
+      changes.add(change("repo", i, 1));
+    }
+
+    // When
+    Map<Integer, JsonObject> lines = apply(topic("series"));
+
+    // Then
+    assertEquals(3, lines.size());
+    assertEquals(2, coder.created.size());
+    assertEquals(1, lines.values().stream().filter(l -> l.get("code").getAsInt() == 429).count());
+  }
+
+  @Test
+  public void testGivesUpWhenNoChangeFinishesInTime() throws Exception {
+    // Given
+    cfg.setLong("plugin", PLUGIN, "proxyDeadlineMs", 200);
+    snapshots.invalidate();
+    changes.add(change("repo", 1, 1));
+    coder.delayMs = 2000;
+
+    // When
+    long start = System.nanoTime();
+    Map<Integer, JsonObject> lines = apply(topic("slow"));
+
+    // Then
+    assertTrue(System.nanoTime() - start < 1_500_000_000L);
+    assertEquals("failed", lines.get(1).get("status").getAsString());
+    assertEquals(504, lines.get(1).get("code").getAsInt());
+  }
+
+  @Test
+  public void testRejectsBadInput() {
+    // Given
+    cfg.setInt("plugin", PLUGIN, "bulkMaxChanges", 2);
+    snapshots.invalidate();
+    for (int i = 1; i <= 3; i++) {
+      changes.add(change("repo", i, 1));
+    }
+    CreateWorkspaces.Input both = topic("t");
+    both.changes = List.of("1");
+    IdentifiedUser other = mock(IdentifiedUser.class);
+    when(other.getAccountId()).thenReturn(Account.id(2000));
+
+    // Then
+    assertThrows(BadRequestException.class, () -> view().apply(self(), new CreateWorkspaces.Input()));
+    assertThrows(BadRequestException.class, () -> view().apply(self(), both));
+    assertThrows(BadRequestException.class, () -> view().apply(self(), changes("1 OR owner:bob")));
+    assertThrows(BadRequestException.class, () -> view().apply(self(), topic("too-many")));
+    assertThrows(AuthException.class, () -> view().apply(new AccountResource(other), topic("t")));
+    assertTrue(coder.requests.isEmpty());
+  }
+
+  private CreateWorkspaces view() {
+    return new CreateWorkspaces(
+        snapshots,
+        client,
+        TestCoder.service(snapshots, client),
+        TestCoder.upstream(snapshots),
+        new CoderLimiter(snapshots, TestCoder.metrics()),
+        gApi,
+        () -> user);
+  }
+
+  private AccountResource self() {
+    return new AccountResource(user);
+  }
+
+  /** Response lines by change number. */
+  private Map<Integer, JsonObject> apply(CreateWorkspaces.Input input) throws Exception {
+    Response<?> res = view().apply(self(), input);
+    BinaryResult bin = (BinaryResult) res.value();
+    assertEquals(CreateWorkspaces.CONTENT_TYPE + "; charset=UTF-8", bin.getContentType());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    bin.writeTo(out);
+    Map<Integer, JsonObject> lines = new LinkedHashMap<>();
+    for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+      JsonObject o = JsonParser.parseString(line).getAsJsonObject();
+      lines.put(o.get("change").getAsInt(), o);
+    }
+    return lines;
+  }
+
+  private static CreateWorkspaces.Input topic(String topic) {
+    CreateWorkspaces.Input input = new CreateWorkspaces.Input();
+    input.topic = topic;
+    return input;
+  }
+
+  private static CreateWorkspaces.Input changes(String... ids) {
+    CreateWorkspaces.Input input = new CreateWorkspaces.Input();
+    input.changes = List.of(ids);
+    return input;
+  }
+
+  private static ChangeInfo change(String project, int number, int patchset) {
+    ChangeInfo c = new ChangeInfo();
+    c.project = project;
+    c.branch = "main";
+    c._number = number;
+    c.currentRevision = "rev" + patchset;
+    RevisionInfo rev = new RevisionInfo();
+    rev._number = patchset;
+    c.revisions = Map.of(c.currentRevision, rev);
+    return c;
+  }
+}
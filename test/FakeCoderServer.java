@@ -0,0 +1,326 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** In-memory stand-in for the parts of the Coder REST API the plugin uses. */
+class FakeCoderServer implements AutoCloseable {
+  private static final Gson GSON = new Gson();
+
+  /** Workspaces by name. */
+  final Map<String, WorkspaceInfo> workspaces = new ConcurrentHashMap<>();
+  /** Names that exist in Coder but are not visible to the token (create answers 409). */
+  final Set<String> hiddenNames = ConcurrentHashMap.newKeySet();
+  /** "METHOD path[?query]" of every request received, in order. */
+  final List<String> requests = new CopyOnWriteArrayList<>();
+  /** Session tokens sent with each request. */
+  final List<String> tokens = new CopyOnWriteArrayList<>();
+  /** Bodies of create requests. */
+  final List<CreateWorkspaceRequest> created = new CopyOnWriteArrayList<>();
+  /** Bodies of build requests (start, stop, delete). */
+  final List<JsonObject> builds = new CopyOnWriteArrayList<>();
+  /** Active version id by template id. */
+  final Map<String, String> templates = new ConcurrentHashMap<>();
+  /** Rich parameters by template version id. */
+  final Map<String, List<TemplateSchema.Parameter>> parameters = new ConcurrentHashMap<>();
+  /** Artificial latency added to every response. */
+  volatile long delayMs;
+  /** When non-zero, the status every request is answered with. */
+  volatile int failStatus;
+  /** When set, every request is answered with a 307 to this URL prefix. */
+  volatile String redirectTo;
+  /** Number of upcoming requests that are answered only after {@link #slowMs}. */
+  final AtomicInteger slowRequests = new AtomicInteger();
+  volatile long slowMs;
+  /** Reported by /api/v2/buildinfo. */
+  volatile String version = "v2.20.0";
+  /**
+   * Routes this Coder "version" does not have: LOOKUP_BY_NAME, USER_CREATE, DELETE_BUILD, WATCH.
+   */
+  final Set<String> missingRoutes = ConcurrentHashMap.newKeySet();
+
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  FakeCoderServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/api/v2/", this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  String url() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  WorkspaceInfo add(String owner, String name) {
+    WorkspaceInfo ws = new WorkspaceInfo();
+    ws.id = UUID.randomUUID().toString();
+    ws.name = name;
+    ws.ownerName = owner;
+    workspaces.put(name, ws);
+    return ws;
+  }
+
+  /** Reports the workspace app as ready, notifying open watch streams. */
+  void ready(String name, String uri) {
+    WorkspaceInfo ws = workspaces.get(name);
+    ws.latestAppStatus = new WorkspaceInfo.AppStatus();
+    ws.latestAppStatus.state = "idle";
+    ws.latestAppStatus.uri = uri;
+    synchronized (workspaces) {
+      workspaces.notifyAll();
+    }
+  }
+
+  /** Number of requests whose "METHOD path" starts with the prefix. */
+  long count(String prefix) {
+    return requests.stream().filter(r -> r.startsWith(prefix)).count();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange ex) throws IOException {
+    String method = ex.getRequestMethod();
+    String path = ex.getRequestURI().getRawPath();
+    requests.add(method + " " + ex.getRequestURI().getRawPath()
+        + (ex.getRequestURI().getRawQuery() == null ? "" : "?" + ex.getRequestURI().getRawQuery()));
+    String token = ex.getRequestHeaders().getFirst(CoderHttp.SESSION_TOKEN_HEADER);
+    tokens.add(token == null ? "" : token);
+    long delay = slowRequests.getAndUpdate(n -> Math.max(0, n - 1)) > 0 ? slowMs : delayMs;
+    if (delay > 0) {
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    String[] seg = path.substring("/api/v2/".length()).split("/");
+    for (int i = 0; i < seg.length; i++) {
+      seg[i] = URLDecoder.decode(seg[i], StandardCharsets.UTF_8);
+    }
+    try {
+      if (redirectTo != null) {
+        ex.getResponseHeaders().set("Location", redirectTo + ex.getRequestURI());
+        ex.sendResponseHeaders(307, -1);
+        ex.close();
+        return;
+      }
+      if (failStatus != 0) {
+        send(ex, failStatus, error("Injected failure"));
+      } else if (seg.length == 1 && seg[0].equals("buildinfo")) {
+        send(ex, 200, Collections.singletonMap("version", version));
+      } else if (seg.length == 4 && seg[0].equals("users") && seg[2].equals("workspace")
+          && !missingRoutes.contains("LOOKUP_BY_NAME")) {
+        WorkspaceInfo ws = workspaces.get(seg[3]);
+        send(ex, ws == null ? 404 : 200, ws == null ? error("Resource not found") : ws);
+      } else if (path.endsWith("/workspaces") && !method.equals("POST")
+          && (seg[0].equals("users") || seg[0].equals("organizations"))
+          && !(seg[0].equals("users") && missingRoutes.contains("USER_CREATE"))) {
+        send(ex, 405, error("Method not allowed"));
+      } else if (method.equals("POST") && path.endsWith("/workspaces")
+          && (seg[0].equals("organizations")
+              || (seg[0].equals("users") && !missingRoutes.contains("USER_CREATE")))) {
+        CreateWorkspaceRequest req = GSON.fromJson(body(ex), CreateWorkspaceRequest.class);
+        created.add(req);
+        if (workspaces.containsKey(req.name) || hiddenNames.contains(req.name)) {
+          send(ex, 409, error("workspace already exists"));
+          return;
+        }
+        String owner = seg[0].equals("users") ? seg[1] : seg[3];
+        WorkspaceInfo ws = add(owner, req.name);
+        ws.latestBuild = build("start");
+        send(ex, 201, ws);
+      } else if (method.equals("GET") && seg.length == 1 && seg[0].equals("workspaces")) {
+        List<WorkspaceInfo> list = list(query(ex, "q"), query(ex, "offset"), query(ex, "limit"));
+        JsonObject res = new JsonObject();
+        res.add("workspaces", GSON.toJsonTree(list));
+        res.addProperty("count", list.size());
+        send(ex, 200, res);
+      } else if (method.equals("GET") && seg.length == 2 && seg[0].equals("workspaces")) {
+        WorkspaceInfo ws = byId(seg[1]);
+        send(ex, ws == null ? 404 : 200, ws == null ? error("Resource not found") : ws);
+      } else if (method.equals("PATCH") && seg.length == 2 && seg[0].equals("workspaces")) {
+        String name = GSON.fromJson(body(ex), JsonObject.class).get("name").getAsString();
+        WorkspaceInfo ws = byId(seg[1]);
+        if (ws == null) {
+          send(ex, 404, error("Resource not found"));
+          return;
+        }
+        if (workspaces.containsKey(name) || hiddenNames.contains(name)) {
+          send(ex, 409, error("workspace already exists"));
+          return;
+        }
+        workspaces.remove(ws.name);
+        ws.name = name;
+        workspaces.put(name, ws);
+        ex.sendResponseHeaders(204, -1);
+      } else if (method.equals("DELETE") && seg.length == 2 && seg[0].equals("workspaces")) {
+        WorkspaceInfo ws = byId(seg[1]);
+        if (ws != null) {
+          workspaces.remove(ws.name);
+        }
+        send(ex, ws == null ? 404 : 200, ws == null ? error("Resource not found") : ws);
+      } else if (method.equals("GET") && seg.length == 3 && seg[0].equals("workspaces")
+          && seg[2].equals("watch") && !missingRoutes.contains("WATCH")) {
+        watch(ex, seg[1]);
+      } else if (method.equals("GET") && seg.length == 3 && seg[0].equals("workspaces")
+          && seg[2].equals("builds") && !missingRoutes.contains("DELETE_BUILD")) {
+        WorkspaceInfo ws = byId(seg[1]);
+        send(ex, ws == null ? 404 : 200, ws == null ? error("Resource not found") : new Object[0]);
+      } else if (method.equals("POST") && seg.length == 3 && seg[0].equals("workspaces")
+          && seg[2].equals("builds") && !missingRoutes.contains("DELETE_BUILD")) {
+        JsonObject req = GSON.fromJson(body(ex), JsonObject.class);
+        WorkspaceInfo ws = byId(seg[1]);
+        if (ws == null) {
+          send(ex, 404, error("not found"));
+          return;
+        }
+        builds.add(req);
+        if ("delete".equals(req.get("transition").getAsString())) {
+          workspaces.remove(ws.name);
+        } else {
+          ws.latestBuild = build(req.get("transition").getAsString());
+        }
+        JsonObject build = new JsonObject();
+        build.addProperty("transition", req.get("transition").getAsString());
+        send(ex, 201, build);
+      } else if (method.equals("GET") && seg.length == 2 && seg[0].equals("templates")) {
+        String version = templates.get(seg[1]);
+        send(ex, version == null ? 404 : 200, version == null
+            ? error("Resource not found")
+            : Collections.singletonMap("active_version_id", version));
+      } else if (method.equals("GET") && seg.length == 3 && seg[0].equals("templateversions")
+          && seg[2].equals("rich-parameters")) {
+        List<TemplateSchema.Parameter> params = parameters.get(seg[1]);
+        send(ex, params == null ? 404 : 200, params == null ? error("Resource not found") : params);
+      } else {
+        send(ex, 404, error("Route not found."));
+      }
+    } finally {
+      ex.close();
+    }
+  }
+
+  /** Applies the owner: and name: (substring) filters of the Coder search syntax, then paging. */
+  private List<WorkspaceInfo> list(String q, String offset, String limit) {
+    String owner = null;
+    String name = null;
+    for (String term : (q == null ? "" : q).split(" ")) {
+      if (term.startsWith("owner:")) {
+        owner = term.substring("owner:".length());
+      } else if (term.startsWith("name:")) {
+        name = term.substring("name:".length());
+      }
+    }
+    List<WorkspaceInfo> list = new ArrayList<>();
+    for (WorkspaceInfo ws : workspaces.values()) {
+      if ((owner == null || owner.equals("me") || owner.equals(ws.ownerName))
+          && (name == null || ws.name.contains(name))) {
+        list.add(ws);
+      }
+    }
+    int from = Math.min(offset == null ? 0 : Integer.parseInt(offset), list.size());
+    int max = limit == null ? list.size() : Integer.parseInt(limit);
+    return list.subList(from, Math.min(from + max, list.size()));
+  }
+
+  private static String query(HttpExchange ex, String param) {
+    String raw = ex.getRequestURI().getRawQuery();
+    if (raw == null) {
+      return null;
+    }
+    for (String pair : raw.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq > 0 && pair.substring(0, eq).equals(param)) {
+        return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+      }
+    }
+    return null;
+  }
+
+  /** Server-sent events with the workspace state, until its app is ready or it is deleted. */
+  private void watch(HttpExchange ex, String id) throws IOException {
+    ex.getResponseHeaders().set("Content-Type", "text/event-stream");
+    ex.sendResponseHeaders(200, 0);
+    try (OutputStream out = ex.getResponseBody()) {
+      for (;;) {
+        WorkspaceInfo ws = byId(id);
+        if (ws == null) {
+          return;
+        }
+        out.write(("event: data\ndata: " + GSON.toJson(ws) + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        if (ws.latestAppStatus != null) {
+          return;
+        }
+        synchronized (workspaces) {
+          workspaces.wait(1000);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      // client went away
+    }
+  }
+
+  private static WorkspaceInfo.Build build(String transition) {
+    WorkspaceInfo.Build b = new WorkspaceInfo.Build();
+    b.id = UUID.randomUUID().toString();
+    b.transition = transition;
+    b.status = "succeeded";
+    return b;
+  }
+
+  private WorkspaceInfo byId(String id) {
+    for (WorkspaceInfo ws : workspaces.values()) {
+      if (ws.id.equals(id)) {
+        return ws;
+      }
+    }
+    return null;
+  }
+
+  private static String body(HttpExchange ex) throws IOException {
+    try (InputStream in = ex.getRequestBody()) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static Map<String, String> error(String message) {
+    return Collections.singletonMap("message", message);
+  }
+
+  private static void send(HttpExchange ex, int status, Object body) throws IOException {
+    byte[] bytes = GSON.toJson(body).getBytes(StandardCharsets.UTF_8);
+    ex.getResponseHeaders().set("Content-Type", "application/json");
+    ex.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = ex.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
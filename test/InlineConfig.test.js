@@ -0,0 +1,48 @@
+/**
+ * Config inlined into the plugin script (inlineConfig) unit tests (Jest + jsdom)
+ */
+
+describe('coder-workspace: inlined server config', () => {
+  beforeAll(async () => {
+    // Prevent plugin install during tests
+    global.window.Gerrit = global.window.Gerrit || {};
+    await import('../plugin.js');
+    if (!window.__coderWorkspaceTest__) {
+      throw new Error('__coderWorkspaceTest__ not found on window');
+    }
+  });
+
+  afterEach(() => {
+    delete window.CoderWorkspaceBootstrap;
+    window.__coderWorkspaceTest__.setConfig({ serverUrl: '', useServerProxy: false });
+  });
+
+  test('applies the inlined config and skips the config request', () => {
+    const { applyInlinedConfig, getConfig } = window.__coderWorkspaceTest__;
+    window.CoderWorkspaceBootstrap = {
+      config: { serverUrl: 'https://coder.example.com', useServerProxy: true },
+      apiKeyOmitted: false,
+    };
+
+    expect(applyInlinedConfig()).toBe(true);
+    expect(getConfig().serverUrl).toBe('https://coder.example.com');
+    expect(getConfig().useServerProxy).toBe(true);
+  });
+
+  test('still fetches the REST config when the API key was left out', () => {
+    const { applyInlinedConfig, getConfig } = window.__coderWorkspaceTest__;
+    window.CoderWorkspaceBootstrap = {
+      config: { serverUrl: 'https://coder.example.com' },
+      apiKeyOmitted: true,
+    };
+
+    expect(applyInlinedConfig()).toBe(false);
+    expect(getConfig().serverUrl).toBe('https://coder.example.com');
+  });
+
+  test('without an inlined config nothing is applied', () => {
+    const { applyInlinedConfig } = window.__coderWorkspaceTest__;
+
+    expect(applyInlinedConfig()).toBe(false);
+  });
+});
@@ -3,11 +3,16 @@ package com.gerritforge.gerrit.plugins.coderworkspace;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import com.google.common.collect.Iterables;
+import com.google.common.net.HttpHeaders;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.server.config.ConfigUpdatedEvent;
 import com.google.gerrit.server.config.PluginConfig;
 import com.google.gerrit.server.config.PluginConfigFactory;
 import com.google.gson.Gson;
+import java.util.List;
+import org.eclipse.jgit.lib.Config;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -32,12 +37,14 @@ public class JavaTest {
   @Mock
   private ConfigResource configResource;
 
+  private ConfigSnapshotCache snapshots;
   private GetConfig getConfig;
   private Gson gson;
 
   @Before
   public void setUp() {
-    getConfig = new GetConfig(configFactory, "coder-workspace");
+    snapshots = new ConfigSnapshotCache(configFactory, "coder-workspace");
+    getConfig = new GetConfig(snapshots, TestCoder.metrics());
     gson = new Gson();
   }
 
@@ -447,4 +454,123 @@ public class JavaTest {
     assertFalse(config.enableDryRunPreview);
     assertEquals(0L, config.ttlMs);
   }
+
+  @Test
+  public void testGetConfigParsesOnceAndServesStableETag() {
+    // Given
+    when(configFactory.getFromGerritConfig("coder-workspace")).thenReturn(pluginConfig);
+    when(pluginConfig.getString("serverUrl")).thenReturn("https://coder.example.com");
+    when(pluginConfig.getString("user", "me")).thenReturn("me");
+    when(pluginConfig.getString("workspaceNameTemplate", "{repo}-{change}-{patchset}"))
+        .thenReturn("{repo}-{change}-{patchset}");
+
+    // When
+    Response<ConfigInfo> res1 = getConfig.apply(configResource);
+    Response<ConfigInfo> res2 = getConfig.apply(configResource);
+    String etag1 = etag(res1);
+    String etag2 = etag(res2);
+    ConfigInfo first = res1.value();
+    ConfigInfo second = res2.value();
+
+    // Then
+    assertNotNull(etag1);
+    assertEquals(etag1, etag2);
+    assertTrue(GetConfig.matches(etag1, etag2));
+    assertTrue(GetConfig.matches("\"other\", W/" + etag1, etag2));
+    assertFalse(GetConfig.matches("\"other\"", etag2));
+    assertFalse(GetConfig.matches(null, etag2));
+    assertSame(first, second);
+    verify(configFactory, times(1)).getFromGerritConfig("coder-workspace");
+  }
+
+  @Test
+  public void testGetConfigReparsesAfterPluginSectionReload() {
+    // Given
+    Config oldCfg = new Config();
+    oldCfg.setString("plugin", "coder-workspace", "serverUrl", "https://old.example.com");
+    Config newCfg = new Config();
+    newCfg.setString("plugin", "coder-workspace", "serverUrl", "https://new.example.com");
+    when(configFactory.getFromGerritConfig("coder-workspace"))
+        .thenReturn(PluginConfig.createFromGerritConfig("coder-workspace", oldCfg))
+        .thenReturn(PluginConfig.createFromGerritConfig("coder-workspace", newCfg));
+    String oldETag = etag(getConfig.apply(configResource));
+
+    // When
+    snapshots.configUpdated(new ConfigUpdatedEvent(oldCfg, newCfg));
+
+    // Then
+    assertEquals("https://new.example.com", getConfig.apply(configResource).value().serverUrl);
+    assertNotEquals(oldETag, etag(getConfig.apply(configResource)));
+  }
+
+  @Test
+  public void testGetConfigIgnoresReloadOfOtherSections() {
+    // Given
+    Config oldCfg = new Config();
+    oldCfg.setString("plugin", "coder-workspace", "serverUrl", "https://coder.example.com");
+    Config newCfg = new Config();
+    newCfg.setString("plugin", "coder-workspace", "serverUrl", "https://coder.example.com");
+    newCfg.setString("plugin", "other", "enabled", "true");
+    when(configFactory.getFromGerritConfig("coder-workspace"))
+        .thenReturn(PluginConfig.createFromGerritConfig("coder-workspace", oldCfg));
+    getConfig.apply(configResource);
+
+    // When
+    snapshots.configUpdated(new ConfigUpdatedEvent(oldCfg, newCfg));
+    getConfig.apply(configResource);
+
+    // Then
+    verify(configFactory, times(1)).getFromGerritConfig("coder-workspace");
+  }
+
+  @Test
+  public void testInvalidNumbersFallBackToTheirOwnDefault() {
+    // Given
+    Config cfg = new Config();
+    cfg.setInt("plugin", "coder-workspace", "bulkParallelism", 0);
+    cfg.setInt("plugin", "coder-workspace", "bulkMaxChanges", 5);
+    cfg.setInt("plugin", "coder-workspace", "traceSamplePercent", 150);
+    cfg.setLong("plugin", "coder-workspace", "maxQueueWaitMs", -1);
+
+    // When
+    ConfigSnapshot snapshot =
+        ConfigSnapshot.parse(PluginConfig.createFromGerritConfig("coder-workspace", cfg));
+
+    // Then
+    ServerSettings defaults = new ServerSettings();
+    assertEquals(defaults.bulkParallelism, snapshot.server().bulkParallelism);
+    assertEquals(5, snapshot.server().bulkMaxChanges);
+    assertEquals(defaults.traceSamplePercent, snapshot.server().traceSamplePercent);
+    assertEquals(defaults.maxQueueWaitMs, snapshot.server().maxQueueWaitMs);
+    assertEquals(3, snapshot.errors().size());
+    assertTrue(snapshot.errors().get(0).startsWith("maxQueueWaitMs must be non-negative"));
+    assertTrue(snapshot.errors().get(1).startsWith("bulkParallelism must be positive"));
+    assertTrue(snapshot.errors().get(2).startsWith("traceSamplePercent must be between"));
+  }
+
+  @Test
+  public void testGetConfigReportsParseErrors() {
+    // Given
+    Config cfg = new Config();
+    cfg.setString("plugin", "coder-workspace", "templateMappingsJson", "invalid json");
+    cfg.setString("plugin", "coder-workspace", "richParams", "REPO:repo,BROKEN");
+    when(configFactory.getFromGerritConfig("coder-workspace"))
+        .thenReturn(PluginConfig.createFromGerritConfig("coder-workspace", cfg));
+
+    // When
+    ConfigInfo config = getConfig.apply(configResource).value();
+    List<String> errors = new GetConfigErrors(snapshots).apply(configResource).value();
+
+    // Then
+    assertEquals(2, errors.size());
+    assertTrue(errors.get(0).startsWith("richParams:"));
+    assertTrue(errors.get(1).startsWith("templateMappingsJson:"));
+    assertFalse(new Gson().toJson(config).contains("richParams: ignoring"));
+    assertEquals(1, config.richParams.size());
+    assertTrue(config.templateMappings.isEmpty());
+  }
+
+  private static String etag(Response<?> res) {
+    return Iterables.getOnlyElement(res.headers().get(HttpHeaders.ETAG));
+  }
 }
@@ -0,0 +1,210 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.api.changes.Changes;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.RevisionInfo;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.BinaryResult;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.account.AccountResource;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the paged list of the caller's workspaces. */
+public class ListWorkspacesTest {
+  private static final String PLUGIN = "coder-workspace";
+
+  private FakeCoderServer coder;
+  private Config cfg;
+  private ConfigSnapshotCache snapshots;
+  private CoderClient client;
+  private IdentifiedUser user;
+  private List<ChangeInfo> changes;
+  private GerritApi gApi;
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    cfg.setBoolean("plugin", PLUGIN, "useServerProxy", true);
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+    client = TestCoder.client(snapshots);
+    user = mock(IdentifiedUser.class);
+    when(user.isIdentifiedUser()).thenReturn(true);
+    when(user.getAccountId()).thenReturn(Account.id(1000));
+    when(user.getUserName()).thenReturn(Optional.of("alice"));
+    changes = new ArrayList<>();
+    Changes.QueryRequest query = mock(Changes.QueryRequest.class);
+    when(query.withOption(any())).thenReturn(query);
+    when(query.withLimit(anyInt())).thenReturn(query);
+    when(query.get()).thenAnswer(i -> changes);
+    Changes changesApi = mock(Changes.class);
+    when(changesApi.query(ListWorkspaces.CHANGES_QUERY)).thenReturn(query);
+    gApi = mock(GerritApi.class);
+    when(gApi.changes()).thenReturn(changesApi);
+  }
+
+  @After
+  public void tearDown() {
+    coder.close();
+  }
+
+  @Test
+  public void testJoinsWorkspacesToPatchsets() throws Exception {
+    // Given
+    ownWorkspaces();
+    changes.add(change("repo", 42, 3));
+    coder.add("alice", "repo-42-3");
+    coder.add("alice", "repo-42-1");
+    coder.add("alice", "scratch");
+
+    // When
+    JsonObject page = apply(view(null, 10));
+
+    // Then
+    Map<String, JsonObject> byName = byName(page.getAsJsonArray("workspaces"));
+    assertEquals(3, byName.size());
+    assertEquals(42, byName.get("repo-42-3").get("change").getAsInt());
+    assertEquals(3, byName.get("repo-42-3").get("patchset").getAsInt());
+    assertTrue(byName.get("repo-42-3").get("currentPatchset").getAsBoolean());
+    assertEquals(1, byName.get("repo-42-1").get("patchset").getAsInt());
+    assertFalse(byName.get("repo-42-1").get("currentPatchset").getAsBoolean());
+    assertFalse(byName.get("scratch").has("change"));
+    assertFalse(page.has("nextCursor"));
+  }
+
+  @Test
+  public void testCursorWalksAllPages() throws Exception {
+    // Given
+    ownWorkspaces();
+    for (int i = 0; i < 5; i++) {
+      coder.add("alice", "ws-" + i);
+    }
+
+    // When
+    List<String> seen = new ArrayList<>();
+    String cursor = null;
+    int pages = 0;
+    do {
+      JsonObject page = apply(view(cursor, 2));
+      seen.addAll(byName(page.getAsJsonArray("workspaces")).keySet());
+      cursor = page.has("nextCursor") ? page.get("nextCursor").getAsString() : null;
+      pages++;
+    } while (cursor != null);
+
+    // Then
+    assertEquals(3, pages);
+    assertEquals(5, seen.size());
+    assertEquals(5, seen.stream().distinct().count());
+  }
+
+  @Test
+  public void testSharedOwnerListsOnlyVisibleChanges() throws Exception {
+    // Given
+    changes.add(change("repo", 42, 3));
+    coder.add("me", "repo-42-3");
+    coder.add("me", "private-7-1");
+    coder.add("me", "scratch");
+
+    // When
+    JsonObject page = apply(view(null, 10));
+
+    // Then
+    Map<String, JsonObject> byName = byName(page.getAsJsonArray("workspaces"));
+    assertEquals(List.of("repo-42-3"), List.copyOf(byName.keySet()));
+    assertEquals(42, byName.get("repo-42-3").get("change").getAsInt());
+  }
+
+  @Test
+  public void testRejectsOtherAccountsAndBadCursors() {
+    // Given
+    IdentifiedUser other = mock(IdentifiedUser.class);
+    when(other.getAccountId()).thenReturn(Account.id(2000));
+
+    // Then
+    assertThrows(AuthException.class, () -> view(null, 10).apply(new AccountResource(other)));
+    assertThrows(BadRequestException.class, () -> view("not-a-cursor", 10).apply(self()));
+    assertThrows(BadRequestException.class, () -> view(null, 1000).apply(self()));
+  }
+
+  /** Workspaces owned by the caller's own Coder user instead of the token's account. */
+  private void ownWorkspaces() {
+    cfg.setBoolean("plugin", PLUGIN, "ownerFromGerritUsername", true);
+    snapshots.invalidate();
+  }
+
+  private ListWorkspaces view(String cursor, int limit) {
+    ListWorkspaces view =
+        new ListWorkspaces(
+            snapshots,
+            client,
+            TestCoder.service(snapshots, client),
+            TestCoder.upstream(snapshots),
+            gApi,
+            () -> user);
+    view.setCursor(cursor);
+    view.setLimit(limit);
+    return view;
+  }
+
+  private AccountResource self() {
+    return new AccountResource(user);
+  }
+
+  private JsonObject apply(ListWorkspaces view) throws Exception {
+    Response<?> res = view.apply(self());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ((BinaryResult) res.value()).writeTo(out);
+    String body = out.toString(StandardCharsets.UTF_8);
+    assertTrue(body.startsWith(")]}'\n"));
+    return JsonParser.parseString(body.substring(5)).getAsJsonObject();
+  }
+
+  private static Map<String, JsonObject> byName(JsonArray entries) {
+    Map<String, JsonObject> byName = new LinkedHashMap<>();
+    for (int i = 0; i < entries.size(); i++) {
+      JsonObject e = entries.get(i).getAsJsonObject();
+      byName.put(e.getAsJsonObject("workspace").get("name").getAsString(), e);
+    }
+    return byName;
+  }
+
+  private static ChangeInfo change(String project, int number, int patchsets) {
+    ChangeInfo c = new ChangeInfo();
+    c.project = project;
+    c.branch = "main";
+    c._number = number;
+    c.currentRevision = "rev" + patchsets;
+    RevisionInfo rev = new RevisionInfo();
+    rev._number = patchsets;
+    c.revisions = Map.of(c.currentRevision, rev);
+    return c;
+  }
+}
@@ -0,0 +1,102 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+/** Unit tests for precompiled workspace name templates and candidate names. */
+public class NameTemplateTest {
+
+  @Test
+  public void testRenderSubstitutesAllTokens() {
+    // Given
+    NameContext ctx = NameContext.of("gerrit-coder", "feature/foo", "123", "4");
+
+    // Then
+    assertEquals(
+        "gerrit-coder-123-4", NameTemplate.compile("{repo}-{change}-{patchset}").render(ctx));
+    assertEquals("gerrit-coder.foo", NameTemplate.compile("{repo}.{branchShort}").render(ctx));
+    assertEquals("gerrit-coder-feature-foo", NameTemplate.compile("{repo}-{branch}").render(ctx));
+  }
+
+  @Test
+  public void testRenderSanitizesLikeTheWebUi() {
+    // Given
+    NameContext ctx = NameContext.of("My Org/Repo..Name", "main", "7", "");
+
+    // Then
+    assertEquals("my-org-repo.name-7", NameTemplate.compile("{repo}-{change}-{patchset}").render(ctx));
+    assertEquals("w-_x", NameTemplate.compile("--_x--").render(ctx));
+    assertEquals("ws-unknown-token", NameTemplate.compile("ws-{unknown}-token").render(ctx));
+  }
+
+  @Test
+  public void testRenderCapsLengthWithoutTrailingSeparator() {
+    // Given
+    String repo = "a".repeat(62) + "-bcd";
+    NameContext ctx = NameContext.of(repo, "main", "1", "1");
+
+    // When
+    String name = NameTemplate.compile("{repo}").render(ctx);
+
+    // Then
+    assertEquals("a".repeat(62), name);
+  }
+
+  @Test
+  public void testRenderFallsBackWhenNothingIsLeft() {
+    // Given
+    NameContext ctx = NameContext.of("", "", "", "");
+
+    // Then
+    assertTrue(NameTemplate.compile("{repo}-{change}").render(ctx).startsWith("workspace-"));
+  }
+
+  @Test
+  public void testCandidateNamesFollowTemplatePriorityAndDeduplicate() {
+    // Given
+    Config cfg = new Config();
+    cfg.setString("plugin", "coder-workspace", "alternateNameTemplates",
+        "{repo}.{branchShort}, {repo}.{branchShort}, {repo}-{change}");
+    cfg.setString("plugin", "coder-workspace", "templateMappingsJson",
+        "[{\"repo\":\"special/*\",\"workspaceNameTemplate\":\"{repo}-{change}\"}]");
+    ConfigSnapshot snapshot =
+        ConfigSnapshot.parse(
+            com.google.gerrit.server.config.PluginConfig.createFromGerritConfig(
+                "coder-workspace", cfg));
+
+    // When
+    List<String> plain =
+        snapshot.candidateNames(
+            snapshot.resolveTemplate("gerrit-coder", "feature/foo"),
+            NameContext.of("gerrit-coder", "feature/foo", "123", "1"));
+    List<String> mapped =
+        snapshot.candidateNames(
+            snapshot.resolveTemplate("special/repo", "main"),
+            NameContext.of("special/repo", "main", "9", "2"));
+
+    // Then
+    assertEquals(List.of("gerrit-coder-123-1", "gerrit-coder.foo", "gerrit-coder-123"), plain);
+    assertEquals(List.of("special-repo-9", "special-repo.main"), mapped);
+  }
+
+  @Test
+  public void testCandidateNamesUseDefaultAlternatesAndNoBranchHeuristic() {
+    // Given
+    ConfigSnapshot snapshot =
+        ConfigSnapshot.parse(
+            com.google.gerrit.server.config.PluginConfig.createFromGerritConfig(
+                "coder-workspace", new Config()));
+
+    // When
+    List<String> names =
+        snapshot.candidateNames(
+            snapshot.resolveTemplate("gerrit-coder", ""),
+            NameContext.of("gerrit-coder", "", "1", ""));
+
+    // Then
+    assertEquals(List.of("gerrit-coder-1", "gerrit-coder"), names);
+  }
+}
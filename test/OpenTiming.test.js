@@ -0,0 +1,87 @@
+/**
+ * Per-phase timing of the open flow (Jest + jsdom)
+ */
+
+describe('coder-workspace: open timing', () => {
+  beforeAll(async () => {
+    // Prevent plugin install during tests
+    global.window.Gerrit = global.window.Gerrit || {};
+    await import('../plugin.js');
+    if (!window.__coderWorkspaceTest__) {
+      throw new Error('__coderWorkspaceTest__ not found on window');
+    }
+  });
+
+  let openSpy;
+
+  beforeEach(() => {
+    openSpy = jest.spyOn(window, 'open').mockImplementation(() => ({ closed: false }));
+    window.__coderWorkspaceTest__.setConfig({
+      serverUrl: 'https://coder.example.com',
+      useServerProxy: true,
+      appSlug: 'code-server',
+      waitForAppReadyMs: 0,
+      debugTiming: true,
+    });
+  });
+
+  afterEach(() => {
+    openSpy.mockRestore();
+    window.__coderWorkspaceTest__.setConfig({ useServerProxy: false, waitForAppReadyMs: 0, debugTiming: false });
+    localStorage.clear();
+  });
+
+  function pluginWith(post) {
+    const host = document.createElement('div');
+    return { restApi: () => ({ post }), popup: jest.fn().mockResolvedValue(host), host };
+  }
+
+  test('shows create and deeplink phases in the debug panel', async () => {
+    const { traceOpen, openViaServerProxy } = window.__coderWorkspaceTest__;
+    const post = jest.fn().mockResolvedValue({ id: 'w1', name: 'my-repo-42-3', owner_name: 'alice' });
+    const plugin = pluginWith(post);
+    const tableSpy = jest.spyOn(console, 'table').mockImplementation(() => {});
+
+    await traceOpen(plugin, () => openViaServerProxy(plugin, { repo: 'my/repo', branch: 'main', change: '42', patchset: '3' }));
+    await new Promise(r => setTimeout(r, 0));
+
+    const rows = tableSpy.mock.calls[0][0];
+    expect(Object.keys(rows)).toEqual(expect.arrayContaining(['create', 'deeplink', 'total']));
+    expect(plugin.popup).toHaveBeenCalled();
+    expect(plugin.host.textContent).toContain('deeplink');
+    tableSpy.mockRestore();
+  });
+
+  test('reads server phases and the trace id from Server-Timing', () => {
+    const { serverTimings } = window.__coderWorkspaceTest__;
+    const entries = [
+      { name: '/changes/r~42/revisions/3/coder-workspace~workspace', startTime: 10, serverTiming: [
+        { name: 'lookup', duration: 12.5 }, { name: 'create', duration: 800 }, { name: 'trace', duration: 0, description: 'abc123' },
+      ] },
+      { name: '/changes/r~42/revisions/3/coder-workspace~workspace?wait-ms=1000', startTime: 20, serverTiming: [
+        { name: 'readiness', duration: 1000 },
+      ] },
+      { name: '/changes/r~42/detail', startTime: 30, serverTiming: [{ name: 'lookup', duration: 99 }] },
+      { name: '/changes/r~41/revisions/1/coder-workspace~workspace', startTime: 1, serverTiming: [{ name: 'create', duration: 99 }] },
+    ];
+    const orig = performance.getEntriesByType;
+    performance.getEntriesByType = () => entries;
+    try {
+      const { phases, traces } = serverTimings(5);
+      expect(phases).toEqual({ lookup: 12.5, create: 800, readiness: 1000 });
+      expect(traces).toEqual(['abc123']);
+    } finally {
+      performance.getEntriesByType = orig;
+    }
+  });
+
+  test('records nothing and shows no panel without debugTiming', async () => {
+    const { traceOpen, setConfig, computeWorkspaceUrl } = window.__coderWorkspaceTest__;
+    setConfig({ debugTiming: false });
+    const plugin = pluginWith(jest.fn());
+
+    await traceOpen(plugin, async () => computeWorkspaceUrl({ name: 'ws', owner_name: 'alice' }));
+
+    expect(plugin.popup).not.toHaveBeenCalled();
+  });
+});
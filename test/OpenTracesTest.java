@@ -0,0 +1,120 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the per-phase timing of proxy requests and the sampled trace buffer. */
+public class OpenTracesTest {
+  private static final String PLUGIN = "coder-workspace";
+
+  private Config cfg;
+  private ConfigSnapshotCache snapshots;
+  private OpenTraces traces;
+
+  @Before
+  public void setUp() {
+    cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", "https://coder.example.com");
+    cfg.setBoolean("plugin", PLUGIN, "useServerProxy", true);
+    cfg.setInt("plugin", PLUGIN, "traceSamplePercent", 100);
+    cfg.setInt("plugin", PLUGIN, "traceBufferSize", 3);
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+    traces = new OpenTraces(snapshots, TestCoder.metrics());
+  }
+
+  @Test
+  @SuppressWarnings("try")
+  public void testAddsServerTimingAndTraceHeaders() throws Exception {
+    // Given
+    OpenTrace trace = traces.start("create");
+    try (OpenTrace.Span s = trace.span("lookup")) {
+      Thread.sleep(5);
+    }
+    try (OpenTrace.Span s = trace.span("create")) {
+      // nothing
+    }
+    try (OpenTrace.Span s = trace.span("lookup")) {
+      // counted with the first lookup
+    }
+
+    // When
+    Response<String> res = trace.withHeaders(Response.created("ws"));
+
+    // Then
+    assertEquals(201, res.statusCode());
+    assertEquals("ws", res.value());
+    String timing = res.headers().get(OpenTrace.SERVER_TIMING).iterator().next();
+    assertTrue(
+        timing,
+        timing.matches(
+            "lookup;dur=\\d+\\.\\d, create;dur=\\d+\\.\\d, total;dur=\\d+\\.\\d,"
+                + " trace;desc=\"[0-9a-f]{16}\""));
+    assertEquals(List.of(trace.id), List.copyOf(res.headers().get(OpenTrace.TRACE_HEADER)));
+    assertTrue(trace.phases().get("lookup") >= 5);
+  }
+
+  @Test
+  public void testKeepsNewestTracesUpToBufferSize() {
+    // Given
+    WorkspaceTarget target = target();
+
+    // When
+    for (int i = 0; i < 5; i++) {
+      OpenTrace trace = traces.start("create");
+      trace.span("create").close();
+      traces.finish(trace, target, 200 + i);
+    }
+
+    // Then
+    List<OpenTraces.TraceInfo> kept = traces.list(null);
+    assertEquals(3, kept.size());
+    assertEquals(204, kept.get(0).status);
+    assertEquals(202, kept.get(2).status);
+    assertEquals(target.name(), kept.get(0).target);
+    assertEquals(Map.of("create", kept.get(0).phases.get("create")), kept.get(0).phases);
+    assertEquals(1, traces.list(kept.get(1).id).size());
+  }
+
+  @Test
+  public void testKeepsNothingWhenSamplingIsOff() {
+    // Given
+    cfg.setInt("plugin", PLUGIN, "traceSamplePercent", 0);
+    snapshots.invalidate();
+    OpenTrace trace = traces.start("get");
+
+    // When
+    traces.finish(trace, null, 404);
+
+    // Then
+    assertTrue(traces.list(null).isEmpty());
+  }
+
+  @Test
+  public void testNoneRecordsNoPhases() {
+    // When
+    OpenTrace.NONE.span("lookup").close();
+
+    // Then
+    assertTrue(OpenTrace.NONE.phases().isEmpty());
+  }
+
+  private WorkspaceTarget target() {
+    return WorkspaceTarget.create(
+        snapshots.get(),
+        NameContext.of("my/repo", "main", "42", "3"),
+        "https://gerrit.example.com/c/my/repo/+/42/3",
+        snapshots.get().server().owner(null));
+  }
+}
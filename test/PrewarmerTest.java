@@ -0,0 +1,148 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static com.gerritforge.gerrit.plugins.coderworkspace.TestEvents.patchSetCreated;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for pre-warming workspaces on patchset upload. */
+public class PrewarmerTest {
+  private static final String PLUGIN = "coder-workspace";
+
+  private FakeCoderServer coder;
+  private Config cfg;
+  private ConfigSnapshotCache snapshots;
+  private ScheduledExecutorService executor;
+  private Prewarmer prewarmer;
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    cfg.setString("plugin", PLUGIN, "templateId", "tpl-default");
+    cfg.setString(
+        "plugin",
+        PLUGIN,
+        "templateMappingsJson",
+        "[{\"repo\":\"short/*\",\"branch\":\"main\",\"templateId\":\"tpl-main\","
+            + "\"prewarm\":true},"
+            + "{\"repo\":\"warm/*\",\"branch\":\"*\",\"templateId\":\"tpl-warm\","
+            + "\"prewarm\":true}]");
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+    CoderClient client = TestCoder.client(snapshots);
+    WorkspaceService service = TestCoder.service(snapshots, client);
+    executor = new ScheduledThreadPoolExecutor(1);
+    WorkQueue workQueue = mock(WorkQueue.class);
+    when(workQueue.createQueue(anyInt(), anyString())).thenReturn(executor);
+    prewarmer = new Prewarmer(snapshots, service, client, workQueue);
+    prewarmer.start();
+  }
+
+  @After
+  public void tearDown() {
+    prewarmer.stop();
+    coder.close();
+  }
+
+  @Test
+  public void testCreatesWorkspaceForMappingWithPrewarm() throws Exception {
+    // When
+    prewarmer.onEvent(patchSetCreated("warm/repo", 42, 3));
+    drain();
+
+    // Then
+    assertEquals(1, coder.created.size());
+    assertEquals("warm-repo-42-3", coder.created.get(0).name);
+    assertEquals("tpl-warm", coder.created.get(0).templateId);
+  }
+
+  @Test
+  public void testMatchesMappingsOnShortBranchName() throws Exception {
+    // When
+    prewarmer.onEvent(patchSetCreated("short/repo", 42, 3));
+    drain();
+
+    // Then
+    assertEquals(1, coder.created.size());
+    assertEquals("tpl-main", coder.created.get(0).templateId);
+  }
+
+  @Test
+  public void testIgnoresProjectsWithoutPrewarm() throws Exception {
+    // When
+    prewarmer.onEvent(patchSetCreated("cold/repo", 42, 3));
+    drain();
+
+    // Then
+    assertTrue(coder.requests.isEmpty());
+  }
+
+  @Test
+  public void testDuplicateEventsAreQueuedOnce() throws Exception {
+    // Given
+    coder.delayMs = 200;
+
+    // When
+    prewarmer.onEvent(patchSetCreated("warm/repo", 42, 3));
+    prewarmer.onEvent(patchSetCreated("warm/repo", 42, 3));
+    drain();
+
+    // Then
+    assertEquals(1, coder.created.size());
+  }
+
+  @Test
+  public void testSkipsUploadsBeyondQueueLimit() throws Exception {
+    // Given
+    cfg.setInt("plugin", PLUGIN, "prewarmQueueLimit", 1);
+    snapshots.invalidate();
+    coder.delayMs = 200;
+
+    // When
+    prewarmer.onEvent(patchSetCreated("warm/repo", 42, 1));
+    prewarmer.onEvent(patchSetCreated("warm/repo", 42, 2));
+    drain();
+
+    // Then
+    assertEquals(1, coder.created.size());
+    assertEquals("warm-repo-42-1", coder.created.get(0).name);
+    assertEquals(0, prewarmer.pending());
+  }
+
+  @Test
+  public void testStartsStoppedWorkspace() throws Exception {
+    // Given
+    WorkspaceInfo ws = coder.add("me", "warm-repo-42-3");
+    ws.latestBuild = new WorkspaceInfo.Build();
+    ws.latestBuild.transition = "stop";
+
+    // When
+    prewarmer.onEvent(patchSetCreated("warm/repo", 42, 3));
+    drain();
+
+    // Then
+    assertTrue(coder.created.isEmpty());
+    assertEquals(1, coder.count("POST /api/v2/workspaces/" + ws.id + "/builds"));
+  }
+
+  private void drain() throws InterruptedException {
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+  }
+}
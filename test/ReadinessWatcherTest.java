@@ -0,0 +1,146 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the shared readiness watcher against an in-process fake Coder server. */
+public class ReadinessWatcherTest {
+  private static final String PLUGIN = "coder-workspace";
+  private static final String APP_URI = "https://coder.example.com/@me/ws/apps/code/";
+
+  private FakeCoderServer coder;
+  private ScheduledExecutorService scheduler;
+  private ReadinessWatcher watcher;
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    Config cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenReturn(PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    scheduler = Executors.newScheduledThreadPool(2);
+    WorkQueue workQueue = mock(WorkQueue.class);
+    when(workQueue.getDefaultQueue()).thenReturn(scheduler);
+    watcher =
+        new ReadinessWatcher(
+            TestCoder.http(new ConfigSnapshotCache(factory, PLUGIN)),
+            workQueue,
+            TestCoder.metrics());
+  }
+
+  @After
+  public void tearDown() {
+    watcher.stop();
+    scheduler.shutdownNow();
+    coder.close();
+  }
+
+  @Test
+  public void testWaitersShareOneWatchStream() throws Exception {
+    // Given
+    WorkspaceInfo ws = coder.add("me", "ws");
+    ExecutorService tabs = Executors.newFixedThreadPool(5);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<WorkspaceInfo>> results = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      results.add(
+          tabs.submit(
+              () -> {
+                start.await();
+                return watcher.await(ws, 5000);
+              }));
+    }
+
+    // When
+    start.countDown();
+    Thread.sleep(300);
+    coder.ready("ws", APP_URI);
+
+    // Then
+    for (Future<WorkspaceInfo> r : results) {
+      assertEquals(APP_URI, r.get().latestAppStatus.uri);
+    }
+    tabs.shutdown();
+    assertEquals(1, coder.count("GET /api/v2/workspaces/" + ws.id + "/watch"));
+    assertEquals(0, watcher.activeWatches());
+  }
+
+  @Test
+  public void testPollsWhenWatchStreamIsUnavailable() throws Exception {
+    // Given
+    coder.missingRoutes.add("WATCH");
+    WorkspaceInfo ws = coder.add("me", "ws");
+    scheduler.schedule(() -> coder.ready("ws", APP_URI), 300, TimeUnit.MILLISECONDS);
+
+    // When
+    WorkspaceInfo ready = watcher.await(ws, 5000);
+
+    // Then
+    assertTrue(ReadinessWatcher.isReady(ready));
+    assertTrue(coder.requests.contains("GET /api/v2/workspaces/" + ws.id));
+  }
+
+  @Test
+  public void testTimeoutReturnsLatestStateAndStopsWatching() throws Exception {
+    // Given
+    WorkspaceInfo ws = coder.add("me", "ws");
+
+    // When
+    WorkspaceInfo latest = watcher.await(ws, 200);
+
+    // Then
+    assertEquals("ws", latest.name);
+    assertFalse(ReadinessWatcher.isReady(latest));
+    assertEquals(0, watcher.activeWatches());
+  }
+
+  @Test
+  public void testReadyWorkspaceNeedsNoUpstreamRequest() throws Exception {
+    // Given
+    WorkspaceInfo ws = coder.add("me", "ws");
+    coder.ready("ws", APP_URI);
+
+    // When
+    WorkspaceInfo ready = watcher.await(ws, 5000);
+
+    // Then
+    assertSame(ws, ready);
+    assertTrue(coder.requests.isEmpty());
+  }
+
+  @Test
+  public void testDeletedWorkspaceEndsTheWait() throws Exception {
+    // Given
+    WorkspaceInfo gone = new WorkspaceInfo();
+    gone.id = UUID.randomUUID().toString();
+    gone.name = "gone";
+
+    // When
+    try {
+      watcher.await(gone, 5000);
+      fail("expected failure");
+    } catch (CoderException e) {
+      // Then
+      assertTrue(e.isNotFound());
+    }
+  }
+}
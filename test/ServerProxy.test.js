@@ -0,0 +1,104 @@
+/**
+ * Server-side Coder proxy (useServerProxy) unit tests (Jest + jsdom)
+ */
+
+describe('coder-workspace: server proxy', () => {
+  beforeAll(async () => {
+    // Prevent plugin install during tests
+    global.window.Gerrit = global.window.Gerrit || {};
+    await import('../plugin.js');
+    if (!window.__coderWorkspaceTest__) {
+      throw new Error('__coderWorkspaceTest__ not found on window');
+    }
+  });
+
+  let openSpy;
+
+  beforeEach(() => {
+    openSpy = jest.spyOn(window, 'open').mockImplementation(() => ({ closed: false }));
+    window.__coderWorkspaceTest__.setConfig({
+      serverUrl: 'https://coder.example.com',
+      useServerProxy: true,
+      appSlug: 'code-server',
+      waitForAppReadyMs: 0,
+    });
+  });
+
+  afterEach(() => {
+    openSpy.mockRestore();
+    window.__coderWorkspaceTest__.setConfig({ useServerProxy: false, waitForAppReadyMs: 0 });
+    localStorage.clear();
+  });
+
+  test('opens the workspace returned by one POST to Gerrit', async () => {
+    const { openViaServerProxy } = window.__coderWorkspaceTest__;
+    const post = jest.fn().mockResolvedValue({ id: 'w1', name: 'my-repo-42-3', owner_name: 'alice' });
+    const plugin = { restApi: () => ({ post }) };
+
+    const ws = await openViaServerProxy(plugin, { repo: 'my/repo', branch: 'main', change: '42', patchset: '3' });
+
+    expect(ws.name).toBe('my-repo-42-3');
+    expect(post).toHaveBeenCalledTimes(1);
+    expect(post).toHaveBeenCalledWith('/changes/my%2Frepo~42/revisions/3/coder-workspace~workspace', {});
+    expect(openSpy).toHaveBeenCalledWith(
+      'https://coder.example.com/@alice/my-repo-42-3/apps/code-server/', '_blank', 'noopener');
+  });
+
+  test('long-polls readiness through the proxy instead of Coder', async () => {
+    const { openViaServerProxy, setConfig } = window.__coderWorkspaceTest__;
+    setConfig({ waitForAppReadyMs: 2000, waitPollIntervalMs: 100 });
+    const post = jest.fn().mockResolvedValue({ id: 'w1', name: 'ws', owner_name: 'alice' });
+    const get = jest.fn().mockResolvedValue({
+      id: 'w1', name: 'ws', owner_name: 'alice', latest_app_status: { uri: 'https://app.example.com/' },
+    });
+    const plugin = { restApi: () => ({ post, get }) };
+
+    await openViaServerProxy(plugin, { repo: 'r', branch: 'main', change: '1', patchset: '1' });
+
+    expect(get).toHaveBeenCalledWith(expect.stringMatching(/^\/changes\/r~1\/revisions\/1\/coder-workspace~workspace\?wait-ms=\d+$/));
+    expect(openSpy).toHaveBeenCalledWith('https://app.example.com/', '_blank', 'noopener');
+  });
+
+  test('fetches without waiting when no wait is requested', async () => {
+    const { fetchProxiedWorkspace } = window.__coderWorkspaceTest__;
+    const get = jest.fn().mockResolvedValue({ id: 'w1', name: 'ws' });
+    const plugin = { restApi: () => ({ get }) };
+
+    await fetchProxiedWorkspace(plugin, { repo: 'r', change: '1', patchset: '1' }, 0);
+
+    expect(get).toHaveBeenCalledWith('/changes/r~1/revisions/1/coder-workspace~workspace');
+  });
+
+  test('a missing proxied workspace resolves to null', async () => {
+    const { fetchProxiedWorkspace } = window.__coderWorkspaceTest__;
+    const plugin = { restApi: () => ({ get: jest.fn().mockRejectedValue(new Error('Not found')) }) };
+
+    await expect(fetchProxiedWorkspace(plugin, { repo: 'r', change: '1', patchset: '' })).resolves.toBeNull();
+  });
+
+  test('tells Gerrit once per viewed revision with speculativeStart', async () => {
+    const { warmOnView, setConfig } = window.__coderWorkspaceTest__;
+    const post = jest.fn().mockResolvedValue(undefined);
+    const plugin = { restApi: () => ({ post }) };
+    setConfig({ speculativeStart: true });
+
+    warmOnView(plugin, { project: 'r', _number: 7 }, { _number: 2 });
+    warmOnView(plugin, { project: 'r', _number: 7 }, { _number: 2 });
+    await Promise.resolve();
+
+    expect(post).toHaveBeenCalledTimes(1);
+    expect(post).toHaveBeenCalledWith('/changes/r~7/revisions/2/coder-workspace~warm', {});
+    setConfig({ speculativeStart: false });
+  });
+
+  test('does not tell Gerrit about views without speculativeStart', async () => {
+    const { warmOnView } = window.__coderWorkspaceTest__;
+    const post = jest.fn();
+    const plugin = { restApi: () => ({ post }) };
+
+    warmOnView(plugin, { project: 'r', _number: 8 }, { _number: 1 });
+    await Promise.resolve();
+
+    expect(post).not.toHaveBeenCalled();
+  });
+});
@@ -0,0 +1,63 @@
+/**
+ * Server-side template resolution (resolveTemplatesOnServer) unit tests (Jest + jsdom)
+ */
+
+describe('coder-workspace: server-resolved templates', () => {
+  beforeAll(async () => {
+    // Prevent plugin install during tests
+    global.window.Gerrit = global.window.Gerrit || {};
+    await import('../plugin.js');
+    if (!window.__coderWorkspaceTest__) {
+      throw new Error('__coderWorkspaceTest__ not found on window');
+    }
+  });
+
+  afterEach(() => {
+    window.__coderWorkspaceTest__.setConfig({ templateMappings: [], templateId: '' });
+  });
+
+  test('fetches the revision-level template view', async () => {
+    const { fetchServerTemplate } = window.__coderWorkspaceTest__;
+    const get = jest.fn().mockResolvedValue({ templateVersionId: 'v-1' });
+    const plugin = { restApi: () => ({ get }) };
+
+    const t = await fetchServerTemplate(plugin, { repo: 'my/org/repo', change: '42', patchset: '3' });
+
+    expect(t).toEqual({ templateVersionId: 'v-1' });
+    expect(get).toHaveBeenCalledWith('/changes/my%2Forg%2Frepo~42/revisions/3/coder-workspace~template');
+  });
+
+  test('falls back to null when the view fails', async () => {
+    const { fetchServerTemplate } = window.__coderWorkspaceTest__;
+    const warnSpy = jest.spyOn(console, 'warn').mockImplementation(() => {});
+    const plugin = { restApi: () => ({ get: jest.fn().mockRejectedValue(new Error('404')) }) };
+
+    const t = await fetchServerTemplate(plugin, { repo: 'r', change: '1', patchset: '' });
+
+    expect(t).toBeNull();
+    warnSpy.mockRestore();
+  });
+
+  test('buildCreateRequest prefers the server-resolved template over local mappings', () => {
+    const { buildCreateRequest, setConfig } = window.__coderWorkspaceTest__;
+    setConfig({
+      templateId: 'default-template',
+      templateMappings: [{ repo: '*', branch: '*', templateId: 'local-mapping' }],
+    });
+    const ctx = {
+      repo: 'gerrit-coder', branch: 'refs/heads/main', branchShort: 'main', change: '7', patchset: '2', url: 'u',
+      _serverTemplate: {
+        templateVersionId: 'server-version',
+        workspaceNameTemplate: '{repo}-{change}',
+        richParams: [{ name: 'REPO', from: 'repo' }],
+      },
+    };
+
+    const body = buildCreateRequest(ctx);
+
+    expect(body.name).toBe('gerrit-coder-7');
+    expect(body.template_version_id).toBe('server-version');
+    expect(body.template_id).toBeUndefined();
+    expect(body.rich_parameter_values).toEqual([{ name: 'REPO', value: 'gerrit-coder' }]);
+  });
+});
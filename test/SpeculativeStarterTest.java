@@ -0,0 +1,206 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for starting stopped workspaces when their change is viewed. */
+public class SpeculativeStarterTest {
+  private static final String PLUGIN = "coder-workspace";
+  private static final Account.Id ALICE = Account.id(1000);
+  private static final Account.Id BOB = Account.id(2000);
+
+  private FakeCoderServer coder;
+  private Config cfg;
+  private ConfigSnapshotCache snapshots;
+  private WorkspaceIds ids;
+  private WorkspaceService service;
+  private ScheduledThreadPoolExecutor executor;
+  private SpeculativeStarter starter;
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    cfg.setBoolean("plugin", PLUGIN, "useServerProxy", true);
+    cfg.setBoolean("plugin", PLUGIN, "speculativeStart", true);
+    cfg.setLong("plugin", PLUGIN, "speculativeStartDelayMs", 50);
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+    CoderClient client = TestCoder.client(snapshots);
+    ids = TestCoder.ids();
+    service = TestCoder.service(snapshots, client, ids);
+    executor = new ScheduledThreadPoolExecutor(1);
+    WorkQueue workQueue = mock(WorkQueue.class);
+    when(workQueue.createQueue(anyInt(), anyString())).thenReturn(executor);
+    starter = new SpeculativeStarter(snapshots, service, client, TestCoder.metrics(), workQueue);
+    starter.start();
+  }
+
+  @After
+  public void tearDown() {
+    starter.stop();
+    coder.close();
+  }
+
+  @Test
+  public void testStartsKnownStoppedWorkspace() throws Exception {
+    // Given
+    WorkspaceInfo ws = stopped(42);
+
+    // When
+    starter.viewed(ALICE, target(42));
+    drain();
+
+    // Then
+    assertEquals(1, coder.count("POST /api/v2/workspaces/" + ws.id + "/builds"));
+    assertEquals("start", coder.builds.get(0).get("transition").getAsString());
+    assertEquals(0, starter.pending());
+  }
+
+  @Test
+  public void testOnlyTheChangeTheUserStaysOnIsStarted() throws Exception {
+    // Given
+    WorkspaceInfo first = stopped(41);
+    WorkspaceInfo second = stopped(42);
+
+    // When
+    starter.viewed(ALICE, target(41));
+    starter.viewed(ALICE, target(42));
+    drain();
+
+    // Then
+    assertEquals(0, coder.count("GET /api/v2/workspaces/" + first.id));
+    assertEquals(1, coder.count("POST /api/v2/workspaces/" + second.id + "/builds"));
+  }
+
+  @Test
+  public void testIgnoresWorkspacesNotRecordedForThePatchset() throws Exception {
+    // Given
+    WorkspaceInfo ws = coder.add("me", "repo-42-3");
+    ws.latestBuild = new WorkspaceInfo.Build();
+    ws.latestBuild.transition = "stop";
+
+    // When
+    starter.viewed(ALICE, target(42));
+    drain();
+
+    // Then
+    assertTrue(coder.requests.isEmpty());
+  }
+
+  @Test
+  public void testLeavesRunningWorkspaceAlone() throws Exception {
+    // Given
+    WorkspaceInfo ws = stopped(42);
+    ws.latestBuild.transition = "start";
+
+    // When
+    starter.viewed(ALICE, target(42));
+    drain();
+
+    // Then
+    assertTrue(coder.builds.isEmpty());
+  }
+
+  @Test
+  public void testCapsStartsPerUser() throws Exception {
+    // Given
+    cfg.setLong("plugin", PLUGIN, "speculativeStartDelayMs", 0);
+    cfg.setInt("plugin", PLUGIN, "speculativeUserStartsPerHour", 1);
+    snapshots.invalidate();
+    stopped(41);
+    stopped(42);
+
+    // When
+    starter.viewed(ALICE, target(41));
+    awaitBuilds(1);
+    starter.viewed(ALICE, target(42));
+    drain();
+
+    // Then
+    assertEquals(1, coder.builds.size());
+  }
+
+  @Test
+  public void testCapsStartsOverall() throws Exception {
+    // Given
+    cfg.setLong("plugin", PLUGIN, "speculativeStartDelayMs", 0);
+    cfg.setInt("plugin", PLUGIN, "speculativeStartsPerMinute", 1);
+    snapshots.invalidate();
+    stopped(41);
+    stopped(42);
+
+    // When
+    starter.viewed(ALICE, target(41));
+    starter.viewed(BOB, target(42));
+    drain();
+
+    // Then
+    assertEquals(1, coder.builds.size());
+  }
+
+  @Test
+  public void testDoesNothingUnlessEnabled() throws Exception {
+    // Given
+    cfg.setBoolean("plugin", PLUGIN, "speculativeStart", false);
+    snapshots.invalidate();
+    stopped(42);
+
+    // When
+    starter.viewed(ALICE, target(42));
+    drain();
+
+    // Then
+    assertFalse(starter.enabled());
+    assertTrue(coder.requests.isEmpty());
+  }
+
+  /** Stopped workspace recorded for patchset 3 of the change. */
+  private WorkspaceInfo stopped(int change) {
+    WorkspaceInfo ws = coder.add("me", "repo-" + change + "-3");
+    ws.latestBuild = new WorkspaceInfo.Build();
+    ws.latestBuild.transition = "stop";
+    ids.put(target(change).idKey(), ws.id);
+    return ws;
+  }
+
+  private WorkspaceTarget target(int change) {
+    return service.target(
+        BranchNameKey.create(Project.nameKey("repo"), "refs/heads/main"),
+        Change.id(change),
+        3,
+        "alice");
+  }
+
+  private void awaitBuilds(int n) throws InterruptedException {
+    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (coder.builds.size() < n && System.nanoTime() < end) {
+      Thread.sleep(10);
+    }
+    assertEquals(n, coder.builds.size());
+  }
+
+  private void drain() throws InterruptedException {
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+  }
+}
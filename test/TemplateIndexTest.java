@@ -0,0 +1,90 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Test;
+
+/** Unit tests for the compiled template mapping index. */
+public class TemplateIndexTest {
+
+  @Test
+  public void testFirstMatchWinsAcrossExactPrefixAndCatchAll() {
+    // Given
+    List<ConfigInfo.TemplateMapping> mappings = new ArrayList<>();
+    mappings.add(mapping("my/org/*", "refs/heads/main", "prefix-main"));
+    mappings.add(mapping("my/org/repo", "refs/heads/*", "exact-any"));
+    mappings.add(mapping("*", "refs/heads/stable-*", "any-stable"));
+    mappings.add(mapping("my/*/repo", null, "infix"));
+    TemplateIndex index = TemplateIndex.compile(mappings);
+
+    // Then
+    assertEquals("prefix-main", templateId(index.resolve("my/org/repo", "refs/heads/main")));
+    assertEquals("exact-any", templateId(index.resolve("my/org/repo", "refs/heads/dev")));
+    assertEquals("exact-any", templateId(index.resolve("my/org/repo", "refs/heads/stable-1")));
+    assertEquals("infix", templateId(index.resolve("my/team/repo", "refs/meta/config")));
+    assertEquals("any-stable", templateId(index.resolve("other", "refs/heads/stable-2")));
+    assertFalse(index.resolve("other", "refs/heads/main").isPresent());
+  }
+
+  @Test
+  public void testGlobsMatchWholeValueAndTreatRegexCharsLiterally() {
+    // Given
+    List<ConfigInfo.TemplateMapping> mappings = new ArrayList<>();
+    mappings.add(mapping("a.b/*-x", "refs/heads/(release)", "literal"));
+    TemplateIndex index = TemplateIndex.compile(mappings);
+
+    // Then
+    assertTrue(index.resolve("a.b/foo-x", "refs/heads/(release)").isPresent());
+    assertFalse(index.resolve("aXb/foo-x", "refs/heads/(release)").isPresent());
+    assertFalse(index.resolve("a.b/foo-xy", "refs/heads/(release)").isPresent());
+    assertFalse(index.resolve("a.b/foo-x", "refs/heads/release").isPresent());
+  }
+
+  @Test
+  public void testMissingRepoAndBranchMatchEverything() {
+    // Given
+    List<ConfigInfo.TemplateMapping> mappings = new ArrayList<>();
+    mappings.add(mapping(null, null, "fallback"));
+    TemplateIndex index = TemplateIndex.compile(mappings);
+
+    // Then
+    assertEquals("fallback", templateId(index.resolve("any/repo", "refs/heads/any")));
+    assertEquals("fallback", templateId(index.resolve(null, null)));
+  }
+
+  @Test
+  public void testResolveTemplateFallsBackToServerDefaults() {
+    // Given
+    ConfigInfo cfg = new ConfigInfo();
+    cfg.templateId = "default-template";
+    ConfigInfo.TemplateMapping m = mapping("repo", "refs/heads/main", "mapped");
+    m.templateId = null;
+    m.templateVersionId = "mapped-version";
+
+    // When
+    TemplateInfo mapped = TemplateInfo.of(cfg, m);
+    TemplateInfo defaults = TemplateInfo.of(cfg, null);
+
+    // Then
+    assertNull(mapped.templateId);
+    assertEquals("mapped-version", mapped.templateVersionId);
+    assertEquals(cfg.workspaceNameTemplate, mapped.workspaceNameTemplate);
+    assertSame(cfg.richParams, mapped.richParams);
+    assertEquals("default-template", defaults.templateId);
+  }
+
+  private static ConfigInfo.TemplateMapping mapping(String repo, String branch, String templateId) {
+    ConfigInfo.TemplateMapping m = new ConfigInfo.TemplateMapping();
+    m.repo = repo;
+    m.branch = branch;
+    m.templateId = templateId;
+    return m;
+  }
+
+  private static String templateId(Optional<ConfigInfo.TemplateMapping> m) {
+    return m.map(x -> x.templateId).orElse(null);
+  }
+}
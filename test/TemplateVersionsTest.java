@@ -0,0 +1,242 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the cached template versions and schemas used by create and the dry-run preview. */
+public class TemplateVersionsTest {
+  private static final String PLUGIN = "coder-workspace";
+
+  private FakeCoderServer coder;
+  private Config cfg;
+  private ConfigSnapshotCache snapshots;
+  private CoderClient client;
+  private UpstreamExecutor upstream;
+  private AtomicLong nanos;
+  private TemplateVersions templates;
+  private WorkspaceService service;
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    coder.templates.put("tpl-1", "ver-1");
+    coder.parameters.put("ver-1", defaults());
+    cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    cfg.setBoolean("plugin", PLUGIN, "useServerProxy", true);
+    cfg.setString("plugin", PLUGIN, "templateId", "tpl-1");
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+    client = TestCoder.client(snapshots);
+    // Background loads run inline, so each test sees them finished
+    upstream = mock(UpstreamExecutor.class);
+    doAnswer(
+            i -> {
+              ((Runnable) i.getArgument(0)).run();
+              return null;
+            })
+        .when(upstream)
+        .execute(any());
+    nanos = new AtomicLong();
+    Ticker ticker =
+        new Ticker() {
+          @Override
+          public long read() {
+            return nanos.get();
+          }
+        };
+    templates =
+        new TemplateVersions(
+            snapshots,
+            CacheBuilder.newBuilder()
+                .ticker(ticker)
+                .refreshAfterWrite(Duration.ofMinutes(1))
+                .build(new TemplateVersions.ActiveVersionLoader(client, upstream)),
+            CacheBuilder.newBuilder().build(new TemplateVersions.SchemaLoader(client)),
+            upstream);
+    service =
+        TestCoder.service(
+            snapshots,
+            client,
+            TestCoder.ids(),
+            TestCoder.pool(snapshots, client, null),
+            templates);
+  }
+
+  @After
+  public void tearDown() {
+    coder.close();
+  }
+
+  @Test
+  public void testStartLoadsConfiguredTemplate() {
+    // When
+    templates.start();
+
+    // Then
+    assertTrue(coder.requests.contains("GET /api/v2/templates/tpl-1"));
+    assertTrue(coder.requests.contains("GET /api/v2/templateversions/ver-1/rich-parameters"));
+  }
+
+  @Test
+  public void testPreviewIsServedFromCacheWithoutCallingCoder() {
+    // Given
+    templates.start();
+    coder.requests.clear();
+
+    // When
+    TemplateSchema schema = templates.cached(target().request()).get();
+
+    // Then
+    assertEquals("ver-1", schema.versionId);
+    assertEquals(5, schema.parameters.size());
+    assertTrue(schema.validate(target().request()).isEmpty());
+    assertTrue(coder.requests.isEmpty());
+  }
+
+  @Test
+  public void testRejectsMissingRequiredParameterBeforeCreate() {
+    // Given
+    TemplateSchema.Parameter size = param("SIZE", "string");
+    size.required = true;
+    coder.parameters.get("ver-1").add(size);
+    templates.start();
+
+    // When
+    try {
+      service.openOrCreate(target());
+      fail("expected 400");
+    } catch (CoderException e) {
+      // Then
+      assertEquals(400, e.statusCode());
+      assertTrue(e.getMessage(), e.getMessage().contains("SIZE is required"));
+    }
+    assertTrue(coder.created.isEmpty());
+  }
+
+  @Test
+  public void testStrictNameOpensExistingWorkspaceWithoutValidating() throws Exception {
+    // Given
+    cfg.setBoolean("plugin", PLUGIN, "strictName", true);
+    snapshots.invalidate();
+    TemplateSchema.Parameter size = param("SIZE", "string");
+    size.required = true;
+    coder.parameters.get("ver-1").add(size);
+    templates.start();
+    WorkspaceInfo ws = coder.add("me", "my-repo-42-3");
+
+    // When
+    WorkspaceService.Opened opened = service.openOrCreate(target());
+
+    // Then
+    assertFalse(opened.created);
+    assertEquals(ws.id, opened.workspace.id);
+  }
+
+  @Test
+  public void testRejectsUnknownAndInvalidParameters() {
+    // Given
+    List<TemplateSchema.Parameter> params = defaults();
+    params.removeIf(p -> p.name.equals("GERRIT_CHANGE_URL"));
+    params.stream()
+        .filter(p -> p.name.equals("BRANCH"))
+        .forEach(p -> p.validationRegex = "^release/");
+    coder.parameters.put("ver-1", params);
+    templates.start();
+
+    // When
+    TemplateSchema schema = templates.cached(target().request()).get();
+    List<String> problems = schema.validate(target().request());
+
+    // Then
+    assertEquals(2, problems.size());
+    assertTrue(problems.get(0), problems.get(0).contains("\"main\" does not match ^release/"));
+    assertTrue(problems.get(1), problems.get(1).contains("no parameter GERRIT_CHANGE_URL"));
+  }
+
+  @Test
+  public void testCreatesWhenParametersMatch() throws Exception {
+    // Given
+    templates.start();
+
+    // When
+    WorkspaceService.Opened opened = service.openOrCreate(target());
+
+    // Then
+    assertTrue(opened.created);
+    assertEquals(1, coder.created.size());
+  }
+
+  @Test
+  public void testUnknownTemplateIsLeftToCoderAndNotRetriedAtOnce() throws Exception {
+    // Given
+    coder.templates.clear();
+
+    // When
+    service.openOrCreate(target());
+    service.delete(target());
+    service.openOrCreate(target());
+
+    // Then
+    assertEquals(2, coder.created.size());
+    assertEquals(1, coder.count("GET /api/v2/templates/tpl-1"));
+  }
+
+  @Test
+  public void testNewActiveVersionIsPickedUpAfterRefresh() {
+    // Given
+    templates.start();
+    coder.templates.put("tpl-1", "ver-2");
+    coder.parameters.put("ver-2", defaults());
+
+    // When
+    nanos.addAndGet(TimeUnit.MINUTES.toNanos(2));
+    templates.cached(target().request());
+
+    // Then
+    assertEquals("ver-2", templates.cached(target().request()).get().versionId);
+  }
+
+  private WorkspaceTarget target() {
+    return WorkspaceTarget.create(
+        snapshots.get(),
+        NameContext.of("my/repo", "main", "42", "3"),
+        "https://gerrit.example.com/c/my/repo/+/42/3",
+        snapshots.get().server().owner(null));
+  }
+
+  /** Parameters matching the default richParams. */
+  private static List<TemplateSchema.Parameter> defaults() {
+    List<TemplateSchema.Parameter> params = new ArrayList<>();
+    params.add(param("REPO", "string"));
+    params.add(param("BRANCH", "string"));
+    params.add(param("GERRIT_CHANGE", "number"));
+    params.add(param("GERRIT_PATCHSET", "number"));
+    params.add(param("GERRIT_CHANGE_URL", "string"));
+    return params;
+  }
+
+  private static TemplateSchema.Parameter param(String name, String type) {
+    TemplateSchema.Parameter p = new TemplateSchema.Parameter();
+    p.name = name;
+    p.type = type;
+    return p;
+  }
+}
@@ -0,0 +1,123 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.mockito.Mockito.mock;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.UrlFormatter;
+import com.google.gerrit.server.git.WorkQueue;
+import java.time.Duration;
+import java.util.Optional;
+
+/** Wires the Coder client classes by hand, as the plugin's Guice modules would. */
+final class TestCoder {
+  static CoderMetrics metrics() {
+    return new CoderMetrics(new DisabledMetricMaker());
+  }
+
+  static CoderHttp http(ConfigSnapshotCache snapshots) {
+    CoderMetrics metrics = metrics();
+    return new CoderHttp(
+        snapshots,
+        metrics,
+        new CoderLimiter(snapshots, metrics),
+        new CircuitBreakers(snapshots, metrics));
+  }
+
+  static CoderClient client(ConfigSnapshotCache snapshots) {
+    CoderHttp http = http(snapshots);
+    return new CoderClient(http, new CoderCapabilities(http, null));
+  }
+
+  /** Service building targets against {@code https://gerrit.example.com/}. */
+  static WorkspaceService service(ConfigSnapshotCache snapshots, CoderClient client) {
+    return service(snapshots, client, ids());
+  }
+
+  static WorkspaceService service(
+      ConfigSnapshotCache snapshots, CoderClient client, WorkspaceIds ids) {
+    return service(snapshots, client, ids, pool(snapshots, client, null));
+  }
+
+  static WorkspaceService service(
+      ConfigSnapshotCache snapshots, CoderClient client, WorkspaceIds ids, WorkspacePool pool) {
+    return service(snapshots, client, ids, pool, templates(snapshots, client, null));
+  }
+
+  static WorkspaceService service(
+      ConfigSnapshotCache snapshots,
+      CoderClient client,
+      WorkspaceIds ids,
+      WorkspacePool pool,
+      TemplateVersions templates) {
+    UrlFormatter urls = () -> Optional.of("https://gerrit.example.com/");
+    return new WorkspaceService(
+        snapshots,
+        client,
+        lookup(client),
+        ids,
+        DynamicItem.itemOf(UrlFormatter.class, urls),
+        metrics(),
+        new CoderLimiter(snapshots, metrics()),
+        pool,
+        templates);
+  }
+
+  /**
+   * Template caches loading in the background on {@code upstream}; with null nothing is loaded
+   * unless a test loads it, so creates are never validated.
+   */
+  static TemplateVersions templates(
+      ConfigSnapshotCache snapshots, CoderClient client, UpstreamExecutor upstream) {
+    return new TemplateVersions(
+        snapshots,
+        CacheBuilder.newBuilder().build(new TemplateVersions.ActiveVersionLoader(client, upstream)),
+        CacheBuilder.newBuilder().build(new TemplateVersions.SchemaLoader(client)),
+        upstream);
+  }
+
+  /** Pool whose background checks go to {@code upstream}; null when no pool is configured. */
+  static WorkspacePool pool(
+      ConfigSnapshotCache snapshots, CoderClient client, UpstreamExecutor upstream) {
+    return new WorkspacePool(snapshots, client, upstream, mock(WorkQueue.class), metrics());
+  }
+
+  /** Ids over an in-memory cache; the workspace_ids cache is persisted by Gerrit. */
+  static WorkspaceIds ids() {
+    return new WorkspaceIds(CacheBuilder.newBuilder().build(), invalidation());
+  }
+
+  /** Never started, so cache changes stay on this node. */
+  static CacheInvalidation invalidation() {
+    return new CacheInvalidation(null, "coder-workspace", mock(WorkQueue.class), null);
+  }
+
+  /** Started executor. */
+  static UpstreamExecutor upstream(ConfigSnapshotCache snapshots) {
+    UpstreamExecutor upstream = new UpstreamExecutor(snapshots, new CoderLimiter(snapshots, metrics()));
+    upstream.start();
+    return upstream;
+  }
+
+  static WorkspaceLookup lookup(CoderClient client) {
+    return lookup(client, metrics());
+  }
+
+  /** Lookup over an in-memory cache configured like the workspace_lookup CacheModule. */
+  static WorkspaceLookup lookup(CoderClient client, CoderMetrics metrics) {
+    return lookup(client, metrics, invalidation());
+  }
+
+  static WorkspaceLookup lookup(
+      CoderClient client, CoderMetrics metrics, CacheInvalidation invalidation) {
+    return new WorkspaceLookup(
+        CacheBuilder.newBuilder()
+            .expireAfterWrite(Duration.ofSeconds(30))
+            .build(new WorkspaceLookup.Loader(client)),
+        metrics,
+        invalidation);
+  }
+
+  private TestCoder() {}
+}
@@ -0,0 +1,62 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import com.google.common.base.Suppliers;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.server.data.AccountAttribute;
+import com.google.gerrit.server.data.ChangeAttribute;
+import com.google.gerrit.server.data.PatchSetAttribute;
+import com.google.gerrit.server.events.ChangeAbandonedEvent;
+import com.google.gerrit.server.events.ChangeMergedEvent;
+import com.google.gerrit.server.events.PatchSetCreatedEvent;
+import com.google.gerrit.server.events.PatchSetEvent;
+import java.time.Instant;
+
+/** Stream events as Gerrit fires them for a change on refs/heads/main. */
+final class TestEvents {
+  static PatchSetCreatedEvent patchSetCreated(String project, int change, int patchset) {
+    PatchSetCreatedEvent event = new PatchSetCreatedEvent(change(project, change));
+    event.uploader = Suppliers.ofInstance(account("alice"));
+    return fill(event, project, change, patchset);
+  }
+
+  static ChangeMergedEvent changeMerged(String project, int change, int patchset) {
+    return fill(new ChangeMergedEvent(change(project, change)), project, change, patchset);
+  }
+
+  static ChangeAbandonedEvent changeAbandoned(String project, int change, int patchset) {
+    return fill(new ChangeAbandonedEvent(change(project, change)), project, change, patchset);
+  }
+
+  private static Change change(String project, int change) {
+    return new Change(
+        Change.key("I0123456789abcdef0123456789abcdef01234567"),
+        Change.id(change),
+        Account.id(1000),
+        BranchNameKey.create(project, "refs/heads/main"),
+        Instant.now());
+  }
+
+  private static <T extends PatchSetEvent> T fill(
+      T event, String project, int change, int patchset) {
+    ChangeAttribute c = new ChangeAttribute();
+    c.project = project;
+    c.branch = "main";
+    c.number = change;
+    c.owner = account("bob");
+    PatchSetAttribute ps = new PatchSetAttribute();
+    ps.number = patchset;
+    event.change = Suppliers.ofInstance(c);
+    event.patchSet = Suppliers.ofInstance(ps);
+    return event;
+  }
+
+  private static AccountAttribute account(String username) {
+    AccountAttribute a = new AccountAttribute();
+    a.username = username;
+    return a;
+  }
+
+  private TestEvents() {}
+}
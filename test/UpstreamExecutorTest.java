@@ -0,0 +1,188 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.server.cancellation.RequestCancelledException;
+import com.google.gerrit.server.cancellation.RequestStateContext;
+import com.google.gerrit.server.cancellation.RequestStateProvider;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for running proxy work off Gerrit's HTTP threads with deadlines and cancellation. */
+public class UpstreamExecutorTest {
+  private static final String PLUGIN = "coder-workspace";
+  /** Gerrit's default httpd.maxThreads. */
+  private static final int HTTP_THREADS = 25;
+
+  private FakeCoderServer coder;
+  private Config cfg;
+  private ConfigSnapshotCache snapshots;
+  private UpstreamExecutor upstream;
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    cfg.setBoolean("plugin", PLUGIN, "useServerProxy", true);
+    cfg.setString("plugin", PLUGIN, "templateId", "tpl-1");
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+    upstream = TestCoder.upstream(snapshots);
+  }
+
+  @After
+  public void tearDown() {
+    upstream.stop();
+    coder.close();
+  }
+
+  @Test
+  public void testDeadlineInterruptsUpstreamWork() throws Exception {
+    // Given
+    cfg.setLong("plugin", PLUGIN, "proxyDeadlineMs", 100);
+    snapshots.invalidate();
+    CountDownLatch interrupted = new CountDownLatch(1);
+
+    // When
+    CoderException e =
+        assertThrows(CoderException.class, () -> upstream.call(() -> sleep(interrupted), 0));
+
+    // Then
+    assertEquals(504, e.statusCode());
+    assertTrue(e.isTimeout());
+    assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  @SuppressWarnings("try")
+  public void testCancelledRequestStopsWaiting() throws Exception {
+    // Given
+    CountDownLatch interrupted = new CountDownLatch(1);
+    long cancelAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+    RequestStateProvider clientGone =
+        onCancelled -> {
+          if (System.nanoTime() - cancelAt > 0) {
+            onCancelled.onCancel(RequestStateProvider.Reason.CLIENT_CLOSED_REQUEST, null);
+          }
+        };
+
+    // When
+    long start = System.nanoTime();
+    try (RequestStateContext ctx = RequestStateContext.open().addRequestStateProvider(clientGone)) {
+      assertThrows(
+          RequestCancelledException.class, () -> upstream.call(() -> sleep(interrupted), 0));
+    }
+
+    // Then
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+    assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testSlotsAreReleasedAfterEachCall() throws Exception {
+    // Given
+    cfg.setInt("plugin", PLUGIN, "maxProxyRequests", 1);
+    snapshots.invalidate();
+
+    // When
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i, (int) upstream.call(() -> 0, 0) + i);
+    }
+
+    // Then
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            upstream.call(
+                () -> {
+                  throw new IllegalArgumentException();
+                },
+                0));
+    assertEquals(Integer.valueOf(1), upstream.call(() -> 1, 0));
+  }
+
+  /**
+   * Load test: 1,000 concurrent creates against a Coder that takes a second per request, on a pool
+   * sized like Gerrit's HTTP threads, followed by cheap REST calls that must still be served
+   * promptly.
+   */
+  @Test
+  public void testThousandSlowCreatesDoNotStarveOtherRequests() throws Exception {
+    // Given
+    coder.delayMs = 1000;
+    WorkspaceService service = TestCoder.service(snapshots, TestCoder.client(snapshots));
+    GetConfig getConfig = new GetConfig(snapshots, TestCoder.metrics());
+    ExecutorService httpd = Executors.newFixedThreadPool(HTTP_THREADS);
+    AtomicInteger opened = new AtomicInteger();
+    AtomicInteger rejected = new AtomicInteger();
+
+    // When
+    for (int i = 0; i < 1000; i++) {
+      WorkspaceTarget target = target(i);
+      httpd.execute(
+          () -> {
+            try {
+              upstream.call(() -> service.openOrCreate(target), 0);
+              opened.incrementAndGet();
+            } catch (CoderException e) {
+              if (e.statusCode() == 429) {
+                rejected.incrementAndGet();
+              }
+            }
+          });
+    }
+    List<Future<Long>> others = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      long submitted = System.nanoTime();
+      others.add(
+          httpd.submit(
+              () -> {
+                getConfig.apply(null);
+                return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitted);
+              }));
+    }
+
+    // Then
+    for (Future<Long> other : others) {
+      assertTrue("config took " + other.get() + " ms", other.get() < 1000);
+    }
+    httpd.shutdown();
+    assertTrue(httpd.awaitTermination(60, TimeUnit.SECONDS));
+    assertEquals(1000, opened.get() + rejected.get());
+    assertTrue(opened.get() >= 16);
+    assertTrue(rejected.get() > 900);
+  }
+
+  private static Object sleep(CountDownLatch interrupted) {
+    try {
+      Thread.sleep(10_000);
+    } catch (InterruptedException e) {
+      interrupted.countDown();
+    }
+    return null;
+  }
+
+  private WorkspaceTarget target(int change) {
+    return WorkspaceTarget.create(
+        snapshots.get(),
+        NameContext.of("repo", "main", String.valueOf(change), "1"),
+        "",
+        snapshots.get().server().owner(null));
+  }
+}
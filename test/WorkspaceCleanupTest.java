@@ -0,0 +1,173 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static com.gerritforge.gerrit.plugins.coderworkspace.TestEvents.changeAbandoned;
+import static com.gerritforge.gerrit.plugins.coderworkspace.TestEvents.changeMerged;
+import static com.gerritforge.gerrit.plugins.coderworkspace.TestEvents.patchSetCreated;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.List;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the batched deletion of stale workspaces. */
+public class WorkspaceCleanupTest {
+  private static final String PLUGIN = "coder-workspace";
+
+  private FakeCoderServer coder;
+  private Config cfg;
+  private ConfigSnapshotCache snapshots;
+  private WorkspaceCleanup cleanup;
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    cfg.setBoolean("plugin", PLUGIN, "cleanupClosedChanges", true);
+    cfg.setBoolean("plugin", PLUGIN, "cleanupSupersededPatchsets", true);
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+    CoderClient client = TestCoder.client(snapshots);
+    WorkspaceService service = TestCoder.service(snapshots, client);
+    cleanup =
+        new WorkspaceCleanup(
+            snapshots, service, mock(WorkQueue.class), TestCoder.upstream(snapshots));
+  }
+
+  @After
+  public void tearDown() {
+    coder.close();
+  }
+
+  @Test
+  public void testMergedChangeQueuesEveryPatchsetAndDeletesThem() throws Exception {
+    // Given
+    coder.add("me", "repo-42-1");
+    coder.add("me", "repo-42-2");
+    coder.add("me", "repo-43-1");
+
+    // When
+    cleanup.onEvent(changeMerged("repo", 42, 2));
+
+    // Then
+    assertEquals(List.of("repo-42-1", "repo-42-2"), names(cleanup.pending()));
+    assertEquals("merged", cleanup.pending().get(0).reason);
+
+    // When
+    cleanup.runBatch();
+
+    // Then
+    assertTrue(cleanup.pending().isEmpty());
+    assertEquals(List.of("repo-43-1"), List.copyOf(coder.workspaces.keySet()));
+  }
+
+  @Test
+  public void testNewPatchsetQueuesOnlyThePreviousOne() {
+    // When
+    cleanup.onEvent(patchSetCreated("repo", 42, 3));
+
+    // Then
+    assertEquals(List.of("repo-42-2"), names(cleanup.pending()));
+    assertEquals("superseded", cleanup.pending().get(0).reason);
+  }
+
+  @Test
+  public void testNameWithoutPatchsetIsNeverSuperseded() {
+    // Given
+    cfg.setString("plugin", PLUGIN, "workspaceNameTemplate", "{repo}-{change}");
+    snapshots.invalidate();
+
+    // When
+    cleanup.onEvent(patchSetCreated("repo", 42, 3));
+    cleanup.onEvent(changeAbandoned("repo", 42, 3));
+
+    // Then
+    assertEquals(List.of("repo-42"), names(cleanup.pending()));
+    assertEquals("abandoned", cleanup.pending().get(0).reason);
+  }
+
+  @Test
+  public void testDryRunKeepsWorkspaces() throws Exception {
+    // Given
+    cfg.setBoolean("plugin", PLUGIN, "cleanupDryRun", true);
+    snapshots.invalidate();
+    coder.add("me", "repo-42-1");
+    cleanup.onEvent(changeMerged("repo", 42, 1));
+
+    // When
+    cleanup.runBatch();
+
+    // Then
+    assertTrue(cleanup.pending().isEmpty());
+    assertTrue(coder.workspaces.containsKey("repo-42-1"));
+    assertEquals(0, coder.count("POST /api/v2/workspaces/"));
+  }
+
+  @Test
+  public void testBatchSizeLimitsDeletionsPerRun() throws Exception {
+    // Given
+    cfg.setInt("plugin", PLUGIN, "cleanupBatchSize", 2);
+    snapshots.invalidate();
+    cleanup.onEvent(changeMerged("repo", 42, 5));
+
+    // When
+    cleanup.runBatch();
+
+    // Then
+    assertEquals(List.of("repo-42-3", "repo-42-4", "repo-42-5"), names(cleanup.pending()));
+  }
+
+  @Test
+  public void testFailedDeletionsAreRetriedLaterThenDropped() throws Exception {
+    // Given
+    cfg.setInt("plugin", PLUGIN, "cleanupMaxAttempts", 2);
+    snapshots.invalidate();
+    cleanup.onEvent(changeMerged("repo", 42, 1));
+    coder.close();
+
+    // When
+    cleanup.runBatch();
+
+    // Then
+    WorkspaceCleanup.Entry entry = cleanup.pending().get(0);
+    assertEquals(1, entry.attempts);
+    assertNotNull(entry.lastError);
+    assertTrue(entry.nextAttemptAt > System.currentTimeMillis());
+
+    // When
+    cleanup.runBatch();
+    entry.nextAttemptAt = 0;
+    cleanup.runBatch();
+
+    // Then
+    assertTrue(cleanup.pending().isEmpty());
+  }
+
+  @Test
+  public void testDisabledByDefault() {
+    // Given
+    cfg.unset("plugin", PLUGIN, "cleanupClosedChanges");
+    cfg.unset("plugin", PLUGIN, "cleanupSupersededPatchsets");
+    snapshots.invalidate();
+
+    // When
+    cleanup.onEvent(changeMerged("repo", 42, 2));
+    cleanup.onEvent(patchSetCreated("repo", 42, 3));
+
+    // Then
+    assertTrue(cleanup.pending().isEmpty());
+  }
+
+  private static List<String> names(List<WorkspaceCleanup.Entry> entries) {
+    return entries.stream().map(e -> e.name).collect(toList());
+  }
+}
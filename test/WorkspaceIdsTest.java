@@ -0,0 +1,129 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.util.List;
+import java.util.Optional;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for following recorded workspace ids instead of probing names. */
+public class WorkspaceIdsTest {
+  private static final String PLUGIN = "coder-workspace";
+
+  private FakeCoderServer coder;
+  private ConfigSnapshotCache snapshots;
+  private WorkspaceIds ids;
+  private WorkspaceService service;
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    Config cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    cfg.setBoolean("plugin", PLUGIN, "useServerProxy", true);
+    cfg.setString("plugin", PLUGIN, "templateId", "tpl-1");
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+    ids = TestCoder.ids();
+    service = restart();
+  }
+
+  @After
+  public void tearDown() {
+    coder.close();
+  }
+
+  @Test
+  public void testCreatedWorkspaceIsFoundByIdAfterRestart() throws Exception {
+    // Given
+    coder.hiddenNames.add("repo-42-3");
+    WorkspaceInfo created = service.openOrCreate(target()).workspace;
+    assertNotEquals("repo-42-3", created.name);
+
+    // When
+    service = restart();
+    coder.requests.clear();
+    Optional<WorkspaceInfo> found = service.find(target());
+
+    // Then
+    assertEquals(created.id, found.get().id);
+    assertEquals(List.of("GET /api/v2/workspaces/" + created.id), coder.requests);
+  }
+
+  @Test
+  public void testDeleteForgetsId() throws Exception {
+    // Given
+    WorkspaceInfo created = service.openOrCreate(target()).workspace;
+
+    // When
+    service.delete(target());
+
+    // Then
+    assertNull(ids.get(target().idKey()));
+    assertFalse(coder.workspaces.containsKey(created.name));
+  }
+
+  @Test
+  public void testIdDeletedInCoderFallsBackToNames() throws Exception {
+    // Given
+    WorkspaceInfo created = service.openOrCreate(target()).workspace;
+    coder.workspaces.remove(created.name);
+    WorkspaceInfo other = coder.add("me", "repo-42-3");
+
+    // When
+    service = restart();
+    Optional<WorkspaceInfo> found = service.find(target());
+
+    // Then
+    assertEquals(other.id, found.get().id);
+    assertNull(ids.get(target().idKey()));
+  }
+
+  @Test
+  public void testCleanupDeletesRecordedWorkspaceWithUniqueName() throws Exception {
+    // Given
+    coder.hiddenNames.add("repo-42-3");
+    WorkspaceInfo created = service.openOrCreate(target()).workspace;
+
+    // When
+    Optional<WorkspaceInfo> deleted = service.deleteExact(target().idKey(), "repo-42-3", false);
+
+    // Then
+    assertEquals(created.id, deleted.get().id);
+    assertFalse(coder.workspaces.containsKey(created.name));
+    assertNull(ids.get(target().idKey()));
+  }
+
+  @Test
+  public void testKeySerializerRoundTrip() {
+    // Given
+    WorkspaceIds.Key key = new WorkspaceIds.Key("plugins/coder-workspace", "42", "3", "alice");
+
+    // When
+    byte[] bytes = WorkspaceIds.Key.Serializer.INSTANCE.serialize(key);
+
+    // Then
+    assertEquals(key, WorkspaceIds.Key.Serializer.INSTANCE.deserialize(bytes));
+  }
+
+  /** New service over the same ids, as after a Gerrit restart with a persistent cache. */
+  private WorkspaceService restart() {
+    return TestCoder.service(snapshots, TestCoder.client(snapshots), ids);
+  }
+
+  private WorkspaceTarget target() {
+    return WorkspaceTarget.create(
+        snapshots.get(),
+        NameContext.of("repo", "main", "42", "3"),
+        "",
+        snapshots.get().server().owner(null));
+  }
+}
@@ -0,0 +1,191 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the cached, single-flight workspace lookup. */
+public class WorkspaceLookupTest {
+  private static final String PLUGIN = "coder-workspace";
+
+  private FakeCoderServer coder;
+  private CoderClient client;
+  private Counter0 hits;
+  private Counter0 misses;
+  private WorkspaceLookup lookup;
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    Config cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenReturn(PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    client = TestCoder.client(new ConfigSnapshotCache(factory, PLUGIN));
+    hits = mock(Counter0.class);
+    misses = mock(Counter0.class);
+    MetricMaker metrics = mock(MetricMaker.class);
+    when(metrics.newCounter(eq("workspace_lookup/hit_count"), any())).thenReturn(hits);
+    when(metrics.newCounter(eq("workspace_lookup/miss_count"), any())).thenReturn(misses);
+    lookup = TestCoder.lookup(client, new CoderMetrics(metrics));
+  }
+
+  @After
+  public void tearDown() {
+    coder.close();
+  }
+
+  @Test
+  public void testConcurrentLookupsShareOneUpstreamRequest() throws Exception {
+    // Given
+    coder.add("me", "busy-change");
+    coder.delayMs = 200;
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Optional<WorkspaceInfo>>> results = new ArrayList<>();
+
+    // When
+    for (int i = 0; i < 8; i++) {
+      results.add(
+          pool.submit(
+              () -> {
+                start.await();
+                return lookup.byName("me", "busy-change");
+              }));
+    }
+    start.countDown();
+
+    // Then
+    for (Future<Optional<WorkspaceInfo>> r : results) {
+      assertEquals("busy-change", r.get().get().name);
+    }
+    pool.shutdown();
+    assertEquals(1, coder.count("GET /api/v2/users/me/workspace/busy-change"));
+  }
+
+  @Test
+  public void testMissesAreCachedAndCounted() throws Exception {
+    // When
+    assertFalse(lookup.byName("me", "missing").isPresent());
+    assertFalse(lookup.byName("me", "missing").isPresent());
+
+    // Then
+    assertEquals(1, coder.count("GET /api/v2/users/me/workspace/missing"));
+    verify(misses, times(1)).incrementBy(1);
+    verify(hits, times(1)).incrementBy(1);
+  }
+
+  @Test
+  public void testPutAndInvalidateKeepEntriesCurrent() throws Exception {
+    // Given
+    assertFalse(lookup.byName("me", "ws").isPresent());
+    WorkspaceInfo created = coder.add("me", "ws");
+
+    // When
+    lookup.put("me", created);
+
+    // Then
+    assertSame(created, lookup.byName("me", "ws").get());
+    assertEquals(1, coder.count("GET /api/v2/users/me/workspace/ws"));
+
+    // When
+    coder.workspaces.clear();
+    lookup.invalidate("me", "ws");
+
+    // Then
+    assertFalse(lookup.byName("me", "ws").isPresent());
+    assertEquals(2, coder.count("GET /api/v2/users/me/workspace/ws"));
+  }
+
+  @Test
+  public void testFirstOfResolvesAllCandidatesWithOneListQuery() throws Exception {
+    // Given
+    coder.add("me", "repo-alt");
+    coder.add("me", "repo-other");
+    List<String> candidates = List.of("repo-main-1", "repo-alt", "repo-other");
+
+    // When
+    Optional<WorkspaceInfo> ws = lookup.firstOf("me", candidates);
+
+    // Then
+    assertEquals("repo-alt", ws.get().name);
+    assertEquals(1, coder.count("GET /api/v2/workspaces?"));
+    assertEquals(0, coder.count("GET /api/v2/users/me/workspace/repo-"));
+
+    // When
+    lookup.firstOf("me", candidates);
+
+    // Then
+    assertEquals(1, coder.count("GET /api/v2/workspaces?"));
+    verify(misses, times(1)).incrementBy(3);
+    verify(hits, times(1)).incrementBy(3);
+  }
+
+  @Test
+  public void testFirstOfFansOutWithoutCommonPrefix() throws Exception {
+    // Given
+    coder.add("me", "gamma");
+    lookup.byName("me", "warm-up"); // probes capabilities before latency is added
+    coder.delayMs = 200;
+
+    // When
+    long start = System.nanoTime();
+    Optional<WorkspaceInfo> ws = lookup.firstOf("me", List.of("alpha", "beta", "gamma"));
+    long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+    // Then
+    assertEquals("gamma", ws.get().name);
+    assertEquals(0, coder.count("GET /api/v2/workspaces?"));
+    for (String name : List.of("alpha", "beta", "gamma")) {
+      assertEquals(1, coder.count("GET /api/v2/users/me/workspace/" + name));
+    }
+    assertTrue("lookups ran one after another: " + elapsedMs + "ms", elapsedMs < 3 * 200);
+  }
+
+  @Test
+  public void testFirstOfUsesCachedPrimaryWithoutUpstreamRequest() throws Exception {
+    // Given
+    lookup.put("me", coder.add("me", "repo-main-1"));
+    coder.requests.clear();
+
+    // When
+    Optional<WorkspaceInfo> ws = lookup.firstOf("me", List.of("repo-main-1", "repo-alt"));
+
+    // Then
+    assertEquals("repo-main-1", ws.get().name);
+    assertTrue(coder.requests.isEmpty());
+  }
+
+  @Test
+  public void testTransportErrorsSurfaceAsCoderException() throws Exception {
+    // Given
+    coder.close();
+
+    // When
+    try {
+      lookup.byName("me", "ws");
+      fail("expected failure");
+    } catch (CoderException e) {
+      // Then
+      assertEquals(0, e.statusCode());
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.gerritforge.gerrit.plugins.coderworkspace;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gson.JsonObject;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for handing out pre-built workspaces from a per-template pool. */
+public class WorkspacePoolTest {
+  private static final String PLUGIN = "coder-workspace";
+
+  private FakeCoderServer coder;
+  private Config cfg;
+  private ConfigSnapshotCache snapshots;
+  private UpstreamExecutor upstream;
+  private WorkspacePool pool;
+  private WorkspaceService service;
+
+  @Before
+  public void setUp() throws Exception {
+    coder = new FakeCoderServer();
+    cfg = new Config();
+    cfg.setString("plugin", PLUGIN, "serverUrl", coder.url());
+    cfg.setBoolean("plugin", PLUGIN, "useServerProxy", true);
+    cfg.setString("plugin", PLUGIN, "templateId", "tpl-default");
+    cfg.setString(
+        "plugin",
+        PLUGIN,
+        "templateMappingsJson",
+        "[{\"repo\":\"heavy/*\",\"branch\":\"*\",\"templateVersionId\":\"ver-1\","
+            + "\"poolSize\":2}]");
+    PluginConfigFactory factory = mock(PluginConfigFactory.class);
+    when(factory.getFromGerritConfig(PLUGIN))
+        .thenAnswer(i -> PluginConfig.createFromGerritConfig(PLUGIN, cfg));
+    snapshots = new ConfigSnapshotCache(factory, PLUGIN);
+    CoderClient client = TestCoder.client(snapshots);
+    // Background refills are not run; tests check the pool with checkNow()
+    upstream = mock(UpstreamExecutor.class);
+    pool = TestCoder.pool(snapshots, client, upstream);
+    service = TestCoder.service(snapshots, client, TestCoder.ids(), pool);
+  }
+
+  @After
+  public void tearDown() {
+    coder.close();
+  }
+
+  @Test
+  public void testRefillCreatesAndStopsWorkspaces() throws Exception {
+    // When
+    pool.checkNow();
+    pool.checkNow();
+    pool.checkNow();
+
+    // Then
+    assertEquals(2, coder.created.size());
+    for (CreateWorkspaceRequest req : coder.created) {
+      assertTrue(req.name.startsWith(WorkspacePool.prefix("ver-1")));
+      assertTrue(req.name.length() <= 32);
+      assertEquals("ver-1", req.templateVersionId);
+    }
+    assertEquals(2, coder.builds.size());
+    for (JsonObject build : coder.builds) {
+      assertEquals("stop", build.get("transition").getAsString());
+    }
+  }
+
+  @Test
+  public void testOpenHandsOutPooledWorkspace() throws Exception {
+    // Given
+    fill();
+
+    // When
+    WorkspaceService.Opened opened = service.openOrCreate(target(null));
+
+    // Then
+    assertTrue(opened.created);
+    assertEquals("heavy-repo-42-3", opened.workspace.name);
+    assertEquals(2, coder.created.size());
+    JsonObject start = coder.builds.get(coder.builds.size() - 1);
+    assertEquals("start", start.get("transition").getAsString());
+    assertTrue(
+        start.get("rich_parameter_values").toString(),
+        start
+            .get("rich_parameter_values")
+            .toString()
+            .contains("{\"name\":\"GERRIT_CHANGE\",\"value\":\"42\"}"));
+    assertEquals(opened.workspace.id, service.find(target(null)).get().id);
+    verify(upstream).execute(any());
+  }
+
+  @Test
+  public void testEmptyPoolFallsBackToCreate() throws Exception {
+    // When
+    WorkspaceService.Opened opened = service.openOrCreate(target(null));
+
+    // Then
+    assertTrue(opened.created);
+    assertEquals(1, coder.created.size());
+    assertEquals("heavy-repo-42-3", coder.created.get(0).name);
+    assertEquals("ver-1", coder.created.get(0).templateVersionId);
+    verify(upstream).execute(any());
+  }
+
+  @Test
+  public void testTakenNameLeavesPoolIntact() throws Exception {
+    // Given
+    fill();
+    coder.hiddenNames.add("heavy-repo-42-3");
+
+    // When
+    WorkspaceInfo unique = service.openOrCreate(target(null)).workspace;
+    WorkspaceService.Opened next =
+        service.openOrCreate(
+            service.target(
+                BranchNameKey.create("heavy/repo", "refs/heads/main"), Change.id(42), 4, null));
+
+    // Then
+    assertTrue(unique.name.startsWith("heavy-repo-42-3-"));
+    assertEquals("heavy-repo-42-4", next.workspace.name);
+    // Two pooled workspaces and the unique name; the create of the taken name was rejected
+    assertEquals(
+        3, coder.created.stream().filter(r -> !coder.hiddenNames.contains(r.name)).count());
+  }
+
+  @Test
+  public void testStrictNameOpensExistingNameWithoutTakingFromPool() throws Exception {
+    // Given
+    cfg.setBoolean("plugin", PLUGIN, "strictName", true);
+    snapshots.invalidate();
+    fill();
+    WorkspaceInfo ws = coder.add("me", "heavy-repo-42-3");
+    coder.requests.clear();
+
+    // When
+    WorkspaceService.Opened opened = service.openOrCreate(target(null));
+
+    // Then
+    assertFalse(opened.created);
+    assertEquals(ws.id, opened.workspace.id);
+    assertEquals(0, coder.count("PATCH /api/v2/workspaces/"));
+    assertTrue(coder.builds.isEmpty());
+    verify(upstream, never()).execute(any());
+  }
+
+  @Test
+  public void testWorkspacesOfOtherOwnersAreCreated() throws Exception {
+    // Given
+    cfg.setBoolean("plugin", PLUGIN, "ownerFromGerritUsername", true);
+    snapshots.invalidate();
+    fill();
+
+    // When
+    service.openOrCreate(target("alice"));
+
+    // Then
+    assertEquals(3, coder.created.size());
+    assertEquals("heavy-repo-42-3", coder.created.get(2).name);
+  }
+
+  private void fill() {
+    pool.checkNow();
+    pool.checkNow();
+    pool.checkNow();
+    coder.builds.clear();
+  }
+
+  private WorkspaceTarget target(String username) {
+    return service.target(
+        BranchNameKey.create("heavy/repo", "refs/heads/main"), Change.id(42), 3, username);
+  }
+}